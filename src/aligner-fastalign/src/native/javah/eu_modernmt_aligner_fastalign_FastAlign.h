@@ -0,0 +1,45 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class eu_modernmt_aligner_fastalign_FastAlign */
+
+#ifndef _Included_eu_modernmt_aligner_fastalign_FastAlign
+#define _Included_eu_modernmt_aligner_fastalign_FastAlign
+#ifdef __cplusplus
+extern "C" {
+#endif
+/*
+ * Class:     eu_modernmt_aligner_fastalign_FastAlign
+ * Method:    instantiate
+ * Signature: (Ljava/lang/String;I)J
+ */
+JNIEXPORT jlong JNICALL Java_eu_modernmt_aligner_fastalign_FastAlign_instantiate
+  (JNIEnv *, jobject, jstring, jint);
+
+/*
+ * Class:     eu_modernmt_aligner_fastalign_FastAlign
+ * Method:    align
+ * Signature: (JZ[Ljava/lang/String;[Ljava/lang/String;I[[I)F
+ */
+JNIEXPORT jfloat JNICALL Java_eu_modernmt_aligner_fastalign_FastAlign_align__JZ_3Ljava_lang_String_2_3Ljava_lang_String_2I_3_3I
+  (JNIEnv *, jobject, jlong, jboolean, jobjectArray, jobjectArray, jint, jobjectArray);
+
+/*
+ * Class:     eu_modernmt_aligner_fastalign_FastAlign
+ * Method:    align
+ * Signature: (JZ[[Ljava/lang/String;[[Ljava/lang/String;I[[I)[F
+ */
+JNIEXPORT jfloatArray JNICALL Java_eu_modernmt_aligner_fastalign_FastAlign_align__JZ_3_3Ljava_lang_String_2_3_3Ljava_lang_String_2I_3_3I
+  (JNIEnv *, jobject, jlong, jboolean, jobjectArray, jobjectArray, jint, jobjectArray);
+
+/*
+ * Class:     eu_modernmt_aligner_fastalign_FastAlign
+ * Method:    dispose
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_eu_modernmt_aligner_fastalign_FastAlign_dispose
+  (JNIEnv *, jobject, jlong);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
@@ -1,8 +1,10 @@
 package eu.modernmt.cli;
 
 import eu.modernmt.decoder.neural.memory.lucene.LuceneTranslationMemory;
+import eu.modernmt.decoder.neural.memory.lucene.ShardedTranslationMemory;
 import eu.modernmt.io.RuntimeIOException;
 import eu.modernmt.lang.LanguageDirection;
+import eu.modernmt.memory.TranslationMemory;
 import eu.modernmt.model.corpus.MultilingualCorpus;
 import eu.modernmt.model.corpus.impl.tmx.TMXCorpus;
 import org.apache.commons.cli.*;
@@ -10,7 +12,9 @@ import org.apache.commons.io.IOUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ExportMemoryMain {
 
@@ -22,16 +26,19 @@ public class ExportMemoryMain {
             Option model = Option.builder("m").longOpt("model").hasArg().required().build();
             Option id = Option.builder("i").longOpt("id").hasArg().required().build();
             Option output = Option.builder("o").longOpt("output-prefix").hasArg().required().build();
+            Option threads = Option.builder("t").longOpt("threads").hasArg().build();
 
             cliOptions = new Options();
             cliOptions.addOption(model);
             cliOptions.addOption(id);
             cliOptions.addOption(output);
+            cliOptions.addOption(threads);
         }
 
         public final File model;
         public final long id;
         public final File outputPrefix;
+        public final int threads;
 
         public Args(String[] args) throws ParseException {
             CommandLineParser parser = new DefaultParser();
@@ -40,29 +47,68 @@ public class ExportMemoryMain {
             this.model = new File(cli.getOptionValue("model"));
             this.id = Long.parseLong(cli.getOptionValue("id"));
             this.outputPrefix = new File(cli.getOptionValue("output-prefix"));
+            this.threads = cli.hasOption("threads") ? Integer.parseInt(cli.getOptionValue("threads")) : 1;
         }
     }
 
     public static void main(String[] _args) throws Throwable {
         Args args = new Args(_args);
 
-        LuceneTranslationMemory memory = new LuceneTranslationMemory(args.model, 1);
-        final MultiWriter writer = new MultiWriter(args.outputPrefix);
+        TranslationMemory memory = ShardedTranslationMemory.open(args.model, 1);
 
         try {
-            memory.dump(args.id, e -> {
-                try {
-                    writer.write(new MultilingualCorpus.StringPair(e.language, e.sentence, e.translation));
-                } catch (IOException ex) {
-                    throw new RuntimeIOException(ex);
-                }
-            });
+            if (args.threads > 1)
+                exportSegments(memory, args.id, args.outputPrefix, args.threads);
+            else
+                export(memory, args.id, args.outputPrefix);
         } finally {
-            IOUtils.closeQuietly(writer);
             IOUtils.closeQuietly(memory);
         }
     }
 
+    private static void export(TranslationMemory memory, long id, File outputPrefix) throws IOException {
+        MultiWriter writer = new MultiWriter(outputPrefix);
+
+        try {
+            memory.dump(id, e -> write(writer, e));
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    /*
+     * Every index segment is exported in parallel to its own files, named "<prefix>_part<N>_<source>_<target>.tmx"
+     */
+    private static void exportSegments(TranslationMemory memory, long id, File outputPrefix, int threads) throws IOException {
+        LuceneTranslationMemory index = memory instanceof ShardedTranslationMemory ?
+                ((ShardedTranslationMemory) memory).getShard(id) : (LuceneTranslationMemory) memory;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<MultiWriter> writers = Collections.synchronizedList(new ArrayList<>());
+
+        try {
+            index.dump(id, executor, segment -> {
+                MultiWriter writer = new MultiWriter(new File(outputPrefix.getPath() + "_part" + segment));
+                writers.add(writer);
+
+                return e -> write(writer, e);
+            });
+        } finally {
+            executor.shutdownNow();
+
+            for (MultiWriter writer : writers)
+                IOUtils.closeQuietly(writer);
+        }
+    }
+
+    private static void write(MultiWriter writer, TranslationMemory.Entry e) {
+        try {
+            writer.write(new MultilingualCorpus.StringPair(e.language, e.sentence, e.translation));
+        } catch (IOException ex) {
+            throw new RuntimeIOException(ex);
+        }
+    }
+
     private static class MultiWriter implements MultilingualCorpus.MultilingualLineWriter {
 
         private final File folder;
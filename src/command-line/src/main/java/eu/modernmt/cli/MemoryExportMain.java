@@ -1,16 +1,21 @@
 package eu.modernmt.cli;
 
 import eu.modernmt.decoder.neural.memory.lucene.LuceneTranslationMemory;
+import eu.modernmt.decoder.neural.memory.lucene.ShardedTranslationMemory;
 import eu.modernmt.io.RuntimeIOException;
 import eu.modernmt.lang.LanguageDirection;
+import eu.modernmt.memory.TranslationMemory;
 import eu.modernmt.model.corpus.MultilingualCorpus;
 import eu.modernmt.model.corpus.impl.tmx.TMXCorpus;
 import org.apache.commons.cli.*;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MemoryExportMain {
 
@@ -22,16 +27,19 @@ public class MemoryExportMain {
             Option id = Option.builder().longOpt("id").hasArg().required().build();
             Option memory = Option.builder().longOpt("memory").hasArg().required().build();
             Option output = Option.builder().longOpt("output").hasArg().required().build();
+            Option threads = Option.builder().longOpt("threads").hasArg().build();
 
             cliOptions = new Options();
             cliOptions.addOption(id);
             cliOptions.addOption(memory);
             cliOptions.addOption(output);
+            cliOptions.addOption(threads);
         }
 
         public final long id;
         public final File memoryFolder;
         public final File outputFolder;
+        public final int threads;
 
         public Args(String[] args) throws ParseException {
             CommandLineParser parser = new DefaultParser();
@@ -40,6 +48,7 @@ public class MemoryExportMain {
             id = Long.parseLong(cli.getOptionValue("id"));
             memoryFolder = new File(cli.getOptionValue("memory"));
             outputFolder = new File(cli.getOptionValue("output"));
+            threads = cli.hasOption("threads") ? Integer.parseInt(cli.getOptionValue("threads")) : 1;
         }
 
     }
@@ -48,35 +57,76 @@ public class MemoryExportMain {
         Args args = new Args(_args);
 
         FileUtils.forceMkdir(args.outputFolder);
-        HashMap<String, MultilingualCorpus.MultilingualLineWriter> writers = new HashMap<>();
 
-        LuceneTranslationMemory memory = new LuceneTranslationMemory(args.memoryFolder, 1);
-        memory.dump(args.id, entry -> {
-            String key = toKey(entry.language);
-            MultilingualCorpus.MultilingualLineWriter writer = writers.computeIfAbsent(key, k -> {
-                TMXCorpus corpus = new TMXCorpus(getFilename(args.outputFolder, args.id, key));
+        TranslationMemory memory = ShardedTranslationMemory.open(args.memoryFolder, 1);
+
+        try {
+            if (args.threads > 1) {
+                exportSegments(memory, args.id, args.outputFolder, args.threads);
+            } else {
+                HashMap<String, MultilingualCorpus.MultilingualLineWriter> writers = new HashMap<>();
+
                 try {
-                    return corpus.getContentWriter(false);
-                } catch (IOException e) {
-                    throw new RuntimeIOException(e);
+                    memory.dump(args.id, entry -> write(writers, args.outputFolder, args.id + "", entry));
+                } finally {
+                    for (MultilingualCorpus.MultilingualLineWriter writer : writers.values())
+                        writer.close();
                 }
+            }
+        } finally {
+            IOUtils.closeQuietly(memory);
+        }
+    }
+
+    /*
+     * Every index segment is exported in parallel to its own files, named "<id>_part<N>_<key>.tmx"
+     */
+    private static void exportSegments(TranslationMemory memory, long id, File outputFolder, int threads) throws IOException {
+        LuceneTranslationMemory index = memory instanceof ShardedTranslationMemory ?
+                ((ShardedTranslationMemory) memory).getShard(id) : (LuceneTranslationMemory) memory;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<HashMap<String, MultilingualCorpus.MultilingualLineWriter>> segments = Collections.synchronizedList(new ArrayList<>());
+
+        try {
+            index.dump(id, executor, segment -> {
+                HashMap<String, MultilingualCorpus.MultilingualLineWriter> writers = new HashMap<>();
+                segments.add(writers);
+
+                return entry -> write(writers, outputFolder, id + "_part" + segment, entry);
             });
+        } finally {
+            executor.shutdownNow();
+
+            for (HashMap<String, MultilingualCorpus.MultilingualLineWriter> writers : segments) {
+                for (MultilingualCorpus.MultilingualLineWriter writer : writers.values())
+                    IOUtils.closeQuietly(writer);
+            }
+        }
+    }
 
-            MultilingualCorpus.StringPair pair = new MultilingualCorpus.StringPair(entry.language, entry.sentence, entry.translation);
+    private static void write(Map<String, MultilingualCorpus.MultilingualLineWriter> writers, File outputFolder,
+                              String prefix, TranslationMemory.Entry entry) {
+        String key = toKey(entry.language);
+        MultilingualCorpus.MultilingualLineWriter writer = writers.computeIfAbsent(key, k -> {
+            TMXCorpus corpus = new TMXCorpus(getFilename(outputFolder, prefix, key));
             try {
-                writer.write(pair);
+                return corpus.getContentWriter(false);
             } catch (IOException e) {
                 throw new RuntimeIOException(e);
             }
         });
 
-        for (MultilingualCorpus.MultilingualLineWriter writer : writers.values()) {
-            writer.close();
+        MultilingualCorpus.StringPair pair = new MultilingualCorpus.StringPair(entry.language, entry.sentence, entry.translation);
+        try {
+            writer.write(pair);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
         }
     }
 
-    private static File getFilename(File outputFolder, long id, String key) {
-        return new File(outputFolder, id + "_" + key + ".tmx");
+    private static File getFilename(File outputFolder, String prefix, String key) {
+        return new File(outputFolder, prefix + "_" + key + ".tmx");
     }
 
     private static String toKey(LanguageDirection direction) {
@@ -21,6 +21,14 @@ public class AnalyzerConfig {
     // context analyzer index
     protected int threads = 4;
 
+    // Size of the thread pool shared by the context vector requests in order
+    // to rescore the candidate memories of long queries
+    protected int rescoringThreads = Runtime.getRuntime().availableProcessors();
+
+    // Maximum number of context vectors kept in the analyzer cache,
+    // if zero or negative the cache is disabled
+    protected int cacheSize = 0;
+
     // This value controls the maximum delay between analysis batches in seconds
     protected int timeout = 30;
 
@@ -68,6 +76,26 @@ public class AnalyzerConfig {
         this.threads = threads;
     }
 
+    public int getRescoringThreads() {
+        return rescoringThreads;
+    }
+
+    public void setRescoringThreads(int rescoringThreads) {
+        this.rescoringThreads = rescoringThreads;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheSize > 0;
+    }
+
     public int getTimeout() {
         return timeout;
     }
@@ -91,6 +119,8 @@ public class AnalyzerConfig {
                 ", analyze=" + analyze +
                 ", batch=" + batchSize +
                 ", threads=" + threads +
+                ", rescoring-threads=" + rescoringThreads +
+                ", cache-size=" + cacheSize +
                 ", timeout=" + timeout +
                 ", misalignment=" + maxToleratedMisalignment;
     }
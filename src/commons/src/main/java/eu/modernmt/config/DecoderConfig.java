@@ -11,6 +11,8 @@ import java.io.IOException;
  */
 public class DecoderConfig {
 
+    public enum Scheduling {PRIORITY, DEADLINE, FAIR}
+
     private static final int[] DEFAULT_GPUS = new int[0];
     private static final int DEFAULT_THREADS = getDefaultThreads();
 
@@ -26,6 +28,19 @@ public class DecoderConfig {
     private String decoderClass = null;
     private boolean enabled = true;
     private boolean echoServer = false;
+    private int maxBatchTokens = 0;
+    private long maxBatchWait = 10L;
+    private long maxAffinityDelay = 0L;
+    private boolean binaryProtocol = false;
+    private int maxInFlight = 1;
+    private int cacheSize = 0;
+    private Scheduling scheduling = Scheduling.PRIORITY;
+    private int maxUserQueueSize = 0;
+    private int lookupThreads = 0;
+    private int maxThreads = 0;
+    private long scaleUpWait = 1000L;
+    private long scaleDownDelay = 300000L;
+    private int memoryShards = 1;
 
     public DecoderConfig(EngineConfig parent) {
         this.parent = parent;
@@ -75,6 +90,143 @@ public class DecoderConfig {
         this.echoServer = echoServer;
     }
 
+    // Maximum number of source words merged in a single decoder call,
+    // if zero or negative jobs are never merged together
+    public int getMaxBatchTokens() {
+        return maxBatchTokens;
+    }
+
+    public void setMaxBatchTokens(int maxBatchTokens) {
+        this.maxBatchTokens = maxBatchTokens;
+    }
+
+    public boolean isBatchingEnabled() {
+        return maxBatchTokens > 0;
+    }
+
+    // Maximum time in milliseconds a job can wait in queue for other jobs to be merged with
+    public long getMaxBatchWait() {
+        return maxBatchWait;
+    }
+
+    public void setMaxBatchWait(long maxBatchWait) {
+        this.maxBatchWait = maxBatchWait;
+    }
+
+    // Maximum time in milliseconds a job can be postponed in favour of jobs whose model
+    // is already loaded by an idle decoder, if zero or negative checkpoint affinity is disabled
+    public long getMaxAffinityDelay() {
+        return maxAffinityDelay;
+    }
+
+    public void setMaxAffinityDelay(long maxAffinityDelay) {
+        this.maxAffinityDelay = maxAffinityDelay;
+    }
+
+    // If true, decoder processes are asked to exchange length-prefixed binary frames instead of JSON lines
+    public boolean isBinaryProtocol() {
+        return binaryProtocol;
+    }
+
+    public void setBinaryProtocol(boolean binaryProtocol) {
+        this.binaryProtocol = binaryProtocol;
+    }
+
+    // Maximum number of requests sent to a single decoder process without waiting for the responses,
+    // if greater than one requests are pipelined
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    // Maximum number of translations kept in the decoder cache, if zero or negative the cache is disabled
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheSize > 0;
+    }
+
+    // Order of jobs with the same priority: PRIORITY dispatches them in order of arrival,
+    // DEADLINE in order of deadline (expired and hopeless jobs are dropped),
+    // FAIR shares the decoders equally among users (jobs are never merged, batch options are ignored)
+    public Scheduling getScheduling() {
+        return scheduling;
+    }
+
+    public void setScheduling(Scheduling scheduling) {
+        this.scheduling = scheduling;
+    }
+
+    // Maximum number of jobs a single user can have in queue with FAIR scheduling,
+    // if zero or negative there is no per-user limit
+    public int getMaxUserQueueSize() {
+        return maxUserQueueSize;
+    }
+
+    public void setMaxUserQueueSize(int maxUserQueueSize) {
+        this.maxUserQueueSize = maxUserQueueSize;
+    }
+
+    // Number of threads searching memory suggestions for the single sentences of multi-sentence inputs,
+    // if zero or negative suggestions are searched for the whole input by the request thread
+    public int getLookupThreads() {
+        return lookupThreads;
+    }
+
+    public void setLookupThreads(int lookupThreads) {
+        this.lookupThreads = lookupThreads;
+    }
+
+    // Maximum number of CPU decoder processes: if greater than 'threads' the pool is elastic,
+    // it starts with 'threads' processes and adds more of them when jobs wait too long in queue
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    public boolean isElasticPool() {
+        return maxThreads > threads && !isUsingGPUs();
+    }
+
+    // Time in milliseconds a job can wait in queue before a new process is added to an elastic pool
+    public long getScaleUpWait() {
+        return scaleUpWait;
+    }
+
+    public void setScaleUpWait(long scaleUpWait) {
+        this.scaleUpWait = scaleUpWait;
+    }
+
+    // Time in milliseconds a process of an elastic pool must be idle before it is stopped
+    public long getScaleDownDelay() {
+        return scaleDownDelay;
+    }
+
+    public void setScaleDownDelay(long scaleDownDelay) {
+        this.scaleDownDelay = scaleDownDelay;
+    }
+
+    // Number of sub-indexes of the translation memory, entries are partitioned by memory id
+    public int getMemoryShards() {
+        return memoryShards;
+    }
+
+    public void setMemoryShards(int memoryShards) {
+        this.memoryShards = memoryShards;
+    }
+
     public int[] getGPUs() {
         if (gpus == DEFAULT_GPUS) {
             try {
@@ -125,6 +277,19 @@ public class DecoderConfig {
                 ", gpus=" + StringUtils.join(gpus, ',') +
                 ", class='" + decoderClass + '\'' +
                 ", enabled=" + enabled +
-                ", echo=" + echoServer;
+                ", echo=" + echoServer +
+                ", batch-tokens=" + maxBatchTokens +
+                ", batch-wait=" + maxBatchWait +
+                ", affinity-delay=" + maxAffinityDelay +
+                ", protocol=" + (binaryProtocol ? "binary" : "json") +
+                ", in-flight=" + maxInFlight +
+                ", cache-size=" + cacheSize +
+                ", scheduling=" + scheduling.name().toLowerCase() +
+                ", user-quota=" + maxUserQueueSize +
+                ", lookup-threads=" + lookupThreads +
+                ", max-threads=" + maxThreads +
+                ", scale-up-wait=" + scaleUpWait +
+                ", scale-down-delay=" + scaleDownDelay +
+                ", memory-shards=" + memoryShards;
     }
 }
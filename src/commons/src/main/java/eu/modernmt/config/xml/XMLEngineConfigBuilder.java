@@ -151,9 +151,79 @@ class XMLEngineConfigBuilder extends XMLAbstractBuilder {
             if (config.isUsingGPUs() && hasAttribute("threads"))
                 throw new ConfigException("In order to specify 'threads', you have to add gpus='none'");
 
+            if (hasAttribute("max-threads")) {
+                if (config.isUsingGPUs())
+                    throw new ConfigException("In order to specify 'max-threads', you have to add gpus='none'");
+
+                int maxThreads = getIntAttribute("max-threads");
+                if (maxThreads < config.getThreads())
+                    throw new ConfigException("Invalid 'max-threads' option, it must not be lower than 'threads' (" + config.getThreads() + ")");
+                config.setMaxThreads(maxThreads);
+            }
+
+            if (hasAttribute("scale-up-wait"))
+                config.setScaleUpWait(getLongAttribute("scale-up-wait"));
+
+            if (hasAttribute("scale-down-delay"))
+                config.setScaleDownDelay(getLongAttribute("scale-down-delay"));
+
             if (hasAttribute("echo"))
                 config.setEchoServer(getBooleanAttribute("echo"));
 
+            if (hasAttribute("batch-tokens"))
+                config.setMaxBatchTokens(getIntAttribute("batch-tokens"));
+
+            if (hasAttribute("batch-wait"))
+                config.setMaxBatchWait(getLongAttribute("batch-wait"));
+
+            if (hasAttribute("affinity-delay"))
+                config.setMaxAffinityDelay(getLongAttribute("affinity-delay"));
+
+            if (hasAttribute("protocol")) {
+                String protocol = getStringAttribute("protocol");
+                if ("binary".equalsIgnoreCase(protocol))
+                    config.setBinaryProtocol(true);
+                else if ("json".equalsIgnoreCase(protocol))
+                    config.setBinaryProtocol(false);
+                else
+                    throw new ConfigException("Invalid 'protocol' option: " + protocol);
+            }
+
+            if (hasAttribute("in-flight")) {
+                int maxInFlight = getIntAttribute("in-flight");
+                if (maxInFlight < 1)
+                    throw new ConfigException("Invalid 'in-flight' option: " + maxInFlight);
+                config.setMaxInFlight(maxInFlight);
+            }
+
+            if (hasAttribute("cache-size"))
+                config.setCacheSize(getIntAttribute("cache-size"));
+
+            if (hasAttribute("scheduling")) {
+                String scheduling = getStringAttribute("scheduling");
+                if ("priority".equalsIgnoreCase(scheduling))
+                    config.setScheduling(DecoderConfig.Scheduling.PRIORITY);
+                else if ("deadline".equalsIgnoreCase(scheduling))
+                    config.setScheduling(DecoderConfig.Scheduling.DEADLINE);
+                else if ("fair".equalsIgnoreCase(scheduling))
+                    config.setScheduling(DecoderConfig.Scheduling.FAIR);
+                else
+                    throw new ConfigException("Invalid 'scheduling' option: " + scheduling);
+            }
+
+            if (hasAttribute("user-quota"))
+                config.setMaxUserQueueSize(getIntAttribute("user-quota"));
+
+            if (hasAttribute("lookup-threads"))
+                config.setLookupThreads(getIntAttribute("lookup-threads"));
+
+            if (hasAttribute("memory-shards")) {
+                int memoryShards = getIntAttribute("memory-shards");
+                if (memoryShards < 1)
+                    throw new ConfigException("Invalid 'memory-shards' option: " + memoryShards);
+                config.setMemoryShards(memoryShards);
+            }
+
             return config;
         }
     }
@@ -164,7 +234,7 @@ class XMLEngineConfigBuilder extends XMLAbstractBuilder {
             super(element);
         }
 
-        public AnalyzerConfig build(AnalyzerConfig config) {
+        public AnalyzerConfig build(AnalyzerConfig config) throws ConfigException {
             if (hasAttribute("enabled"))
                 config.setEnabled(getBooleanAttribute("enabled"));
 
@@ -177,6 +247,16 @@ class XMLEngineConfigBuilder extends XMLAbstractBuilder {
             if (hasAttribute("threads"))
                 config.setThreads(getIntAttribute("threads"));
 
+            if (hasAttribute("rescoring-threads")) {
+                int rescoringThreads = getIntAttribute("rescoring-threads");
+                if (rescoringThreads < 1)
+                    throw new ConfigException("Invalid 'rescoring-threads' option: " + rescoringThreads);
+                config.setRescoringThreads(rescoringThreads);
+            }
+
+            if (hasAttribute("cache-size"))
+                config.setCacheSize(getIntAttribute("cache-size"));
+
             if (hasAttribute("timeout"))
                 config.setTimeout(getIntAttribute("timeout"));
 
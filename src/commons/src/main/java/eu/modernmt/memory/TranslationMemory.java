@@ -7,6 +7,7 @@ import eu.modernmt.model.Sentence;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.function.Consumer;
@@ -57,8 +58,25 @@ public interface TranslationMemory extends Closeable, LogDataListener {
         }
     }
 
+    /**
+     * Looks up an entry whose sentence is exactly the given one, in the memories of the context vector,
+     * without fuzzy search and rescoring. If more entries match, the one from the memory with
+     * the highest context score is returned.
+     *
+     * @return the matching entry with score 1, or null if no entry matches
+     */
+    ScoreEntry searchExactMatch(UUID user, LanguageDirection direction, Sentence source, ContextVector contextVector) throws IOException;
+
     ScoreEntry[] search(UUID user, LanguageDirection direction, Sentence source, ContextVector contextVector, int limit) throws IOException;
 
+    /**
+     * Searches the suggestions for a batch of sentences with the same context vector, sharing the
+     * per-query setup among the sentences. Results are the same of a search for every single sentence.
+     *
+     * @return the suggestions of every sentence, in the same order of the sources
+     */
+    ScoreEntry[][] search(UUID user, LanguageDirection direction, List<Sentence> sources, ContextVector contextVector, int limit) throws IOException;
+
     void optimize() throws IOException;
 
     int size();
@@ -0,0 +1,231 @@
+package eu.modernmt.context.lucene;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import eu.modernmt.io.UTF8Charset;
+import eu.modernmt.lang.Language;
+import eu.modernmt.lang.LanguageDirection;
+import eu.modernmt.model.ContextVector;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded cache of the context vectors computed by the analyzer.
+ * <p>
+ * Entries are keyed by language direction, user, limit and a 128 bit hash of the analyzed query terms with their
+ * frequencies, so that contents that differ only in what the analyzer discards (punctuation, case, stop words)
+ * share the same entry. Entries are invalidated as soon as a memory with their language pair is indexed, re-indexed
+ * or deleted, since any of them can change the context vector, not only the memories it already contains; entries
+ * also expire after a while, as a bound to the staleness of the cached vectors.
+ * <p>
+ * Cached vectors are snapshots: a new copy is returned on every hit, so that callers are free to modify it.
+ */
+public class ContextVectorCache {
+
+    public static final class Key {
+
+        private final LanguageDirection direction;
+        private final UUID user;
+        private final int limit;
+        private final HashCode terms;
+        private final int hash;
+
+        private Key(LanguageDirection direction, UUID user, int limit, HashCode terms) {
+            this.direction = direction;
+            this.user = user;
+            this.limit = limit;
+            this.terms = terms;
+
+            int hash = direction.hashCode();
+            hash = 31 * hash + (user != null ? user.hashCode() : 0);
+            hash = 31 * hash + limit;
+            hash = 31 * hash + terms.hashCode();
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            if (hash != key.hash) return false;
+            if (limit != key.limit) return false;
+            if (!direction.equals(key.direction)) return false;
+            if (!Objects.equals(user, key.user)) return false;
+            return terms.equals(key.terms);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+    private static final class Entry {
+
+        private final long[] memories;
+        private final float[] scores;
+
+        private Entry(ContextVector vector) {
+            this.memories = new long[vector.size()];
+            this.scores = new float[vector.size()];
+
+            int i = 0;
+            for (ContextVector.Entry entry : vector) {
+                this.memories[i] = entry.memory.getId();
+                this.scores[i] = entry.score;
+                i++;
+            }
+        }
+
+        private ContextVector toContextVector() {
+            ContextVector.Builder builder = new ContextVector.Builder(memories.length);
+            for (int i = 0; i < memories.length; i++)
+                builder.add(memories[i], scores[i]);
+            return builder.build();
+        }
+
+    }
+
+    public static final long DEFAULT_EXPIRE_AFTER_WRITE = TimeUnit.MINUTES.toMillis(10);
+
+    private final Cache<Key, Entry> cache;
+    private long epoch = 0L;
+    private long invalidations = 0L;
+
+    public ContextVectorCache(int maxSize) {
+        this(maxSize, DEFAULT_EXPIRE_AFTER_WRITE);
+    }
+
+    public ContextVectorCache(int maxSize, long expireAfterWrite) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Invalid cache size: " + maxSize);
+        if (expireAfterWrite < 1)
+            throw new IllegalArgumentException("Invalid cache expiration: " + expireAfterWrite);
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterWrite, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    public Key key(LanguageDirection direction, UUID user, int limit, Map<String, Float> terms) {
+        String[] sortedTerms = terms.keySet().toArray(new String[0]);
+        Arrays.sort(sortedTerms);
+
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (String term : sortedTerms) {
+            hasher.putString(term, UTF8Charset.get());
+            hasher.putFloat(terms.get(term));
+        }
+
+        return new Key(direction, user, limit, hasher.hash());
+    }
+
+    /**
+     * Returns the current cache epoch: it must be read before computing a context vector
+     * and then passed to {@link #put(Key, ContextVector, long)}.
+     *
+     * @return the current cache epoch
+     */
+    public synchronized long epoch() {
+        return epoch;
+    }
+
+    public ContextVector get(Key key) {
+        Entry entry = cache.getIfPresent(key);
+        return entry == null ? null : entry.toContextVector();
+    }
+
+    /**
+     * Stores the given context vector, unless the cache has been invalidated after the given epoch:
+     * in that case the vector may have been computed with outdated memories.
+     *
+     * @param key    the cache key
+     * @param vector the context vector to store
+     * @param epoch  the cache epoch read before computing the vector
+     */
+    public synchronized void put(Key key, ContextVector vector, long epoch) {
+        if (this.epoch == epoch)
+            cache.put(key, new Entry(vector));
+    }
+
+    /**
+     * Invalidates the entries with the language pairs of the given directions (regions are ignored, as
+     * memories are indexed by language pair): the changed memories can be part of their context vectors
+     * even if they are not yet.
+     *
+     * @param directions the language directions of the changed memories
+     */
+    public synchronized void invalidate(Collection<LanguageDirection> directions) {
+        if (directions.isEmpty())
+            return;
+
+        epoch++;
+
+        HashSet<LanguageDirection> pairs = new HashSet<>(directions.size());
+        for (LanguageDirection direction : directions)
+            pairs.add(toLanguagePair(direction));
+
+        Iterator<Key> iterator = cache.asMap().keySet().iterator();
+        while (iterator.hasNext()) {
+            if (pairs.contains(toLanguagePair(iterator.next().direction))) {
+                iterator.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    private static LanguageDirection toLanguagePair(LanguageDirection direction) {
+        if (direction.source.isLanguageOnly() && direction.target.isLanguageOnly())
+            return direction;
+
+        return new LanguageDirection(new Language(direction.source.getLanguage()), new Language(direction.target.getLanguage()));
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = cache.stats();
+        return "ContextVectorCache{" +
+                "size=" + cache.size() +
+                ", hits=" + stats.hitCount() +
+                ", misses=" + stats.missCount() +
+                ", evictions=" + stats.evictionCount() +
+                ", invalidations=" + getInvalidationCount() +
+                '}';
+    }
+
+}
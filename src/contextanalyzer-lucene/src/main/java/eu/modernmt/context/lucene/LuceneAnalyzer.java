@@ -5,6 +5,7 @@ import eu.modernmt.context.ContextAnalyzer;
 import eu.modernmt.context.ContextAnalyzerException;
 import eu.modernmt.context.lucene.analysis.ContextAnalyzerIndex;
 import eu.modernmt.context.lucene.analysis.DocumentBuilder;
+import eu.modernmt.context.lucene.analysis.rescoring.CosineSimilarityRescorer;
 import eu.modernmt.context.lucene.storage.Bucket;
 import eu.modernmt.context.lucene.storage.CorporaStorage;
 import eu.modernmt.data.LogDataListener;
@@ -15,10 +16,12 @@ import eu.modernmt.model.ContextVector;
 import eu.modernmt.model.corpus.Corpus;
 import eu.modernmt.model.corpus.impl.StringCorpus;
 import eu.modernmt.model.corpus.impl.parallel.FileCorpus;
+import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.document.Document;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -36,19 +39,35 @@ public class LuceneAnalyzer implements ContextAnalyzer, DataListenerProvider {
     private final ContextAnalyzerIndex index;
     private final CorporaStorage storage;
     private final AnalysisThread analysis;
+    private final ContextVectorCache cache;
+    private final ExecutorService decompression;
+    private final int readAhead;
 
     public LuceneAnalyzer(File indexPath, AnalyzerConfig config) throws IOException {
-        this(new ContextAnalyzerIndex(new File(indexPath, "index")), new CorporaStorage(new File(indexPath, "storage")), config);
+        this(new ContextAnalyzerIndex(new File(indexPath, "index"), new CosineSimilarityRescorer(config.getRescoringThreads())),
+                new CorporaStorage(new File(indexPath, "storage")), config);
     }
 
     protected LuceneAnalyzer(ContextAnalyzerIndex index, CorporaStorage storage, AnalyzerConfig config) {
         this.index = index;
         this.storage = storage;
+        this.cache = config.isCacheEnabled() ? new ContextVectorCache(config.getCacheSize()) : null;
 
         if (config.analyze()) {
+            // Blocks of compressed buckets are decompressed in parallel with the analysis that consumes them:
+            // a dedicated pool, analysis tasks would otherwise wait for blocks queued behind themselves
+            this.readAhead = config.getThreads();
+            this.decompression = Executors.newFixedThreadPool(readAhead, runnable -> {
+                Thread thread = new Thread(runnable, "BucketDecompression");
+                thread.setDaemon(true);
+                return thread;
+            });
+
             this.analysis = new AnalysisThread(config);
             this.analysis.start();
         } else {
+            this.readAhead = 0;
+            this.decompression = null;
             this.analysis = null;
         }
     }
@@ -61,6 +80,10 @@ public class LuceneAnalyzer implements ContextAnalyzer, DataListenerProvider {
         return storage;
     }
 
+    public ContextVectorCache getContextVectorCache() {
+        return cache;
+    }
+
     @Override
     public ContextVector getContextVector(UUID user, LanguageDirection direction, String query, int limit) throws ContextAnalyzerException {
         return getContextVector(user, direction, new StringCorpus(null, direction.source, query), limit);
@@ -74,7 +97,23 @@ public class LuceneAnalyzer implements ContextAnalyzer, DataListenerProvider {
     @Override
     public ContextVector getContextVector(UUID user, LanguageDirection direction, Corpus query, int limit) throws ContextAnalyzerException {
         try {
-            return this.index.getContextVector(user, direction, query, limit);
+            Map<String, Float> terms = this.index.getTermFrequencies(direction, query);
+            if (cache == null)
+                return this.index.getContextVector(user, direction, terms, limit);
+
+            ContextVectorCache.Key key = cache.key(direction, user, limit, terms);
+            ContextVector result = cache.get(key);
+
+            if (result == null) {
+                long epoch = cache.epoch();
+                result = this.index.getContextVector(user, direction, terms, limit);
+
+                // no memory matches the query, it is not worth an entry
+                if (!result.isEmpty())
+                    cache.put(key, result, epoch);
+            }
+
+            return result;
         } catch (IOException e) {
             throw new ContextAnalyzerException("Failed to calculate context-vector due an internal error", e);
         }
@@ -94,16 +133,60 @@ public class LuceneAnalyzer implements ContextAnalyzer, DataListenerProvider {
     }
 
     public void analyze(Bucket bucket) throws IOException {
-        long size = bucket.getSize();
+        analyze(bucket, bucket.getMark(), bucket.getSize());
+    }
 
+    /**
+     * Indexes the first {@code size} bytes of the bucket content. If the bucket has already been indexed
+     * up to {@code mark}, only the content appended after it is analyzed and merged with the indexed
+     * term frequencies; the whole content is analyzed again if the bucket has been deleted in the meantime,
+     * if the indexed document does not match the mark or if the appended content cannot be read as a whole.
+     *
+     * @param bucket the bucket to index
+     * @param mark   the size of the bucket content already indexed
+     * @param size   the size of the bucket content to index
+     * @return true if the index has been changed
+     * @throws IOException if an I/O error occurs
+     */
+    public boolean analyze(Bucket bucket, long mark, long size) throws IOException {
         if (size == 0) {
             // Deleted
             index.delete(bucket.getId());
-        } else {
-            Reader reader = new InputStreamReader(bucket.getContentStream(), UTF8Charset.get());
+            return true;
+        }
+
+        if (mark == size)
+            return false;
+
+        if (mark > 0 && mark < size) {
+            Reader reader = new InputStreamReader(bucket.getContentStream(mark, size - mark, decompression, readAhead), UTF8Charset.get());
+
+            try {
+                Document document = DocumentBuilder.newInstance(bucket.getOwner(), bucket.getId(), bucket.getLanguage(), reader);
+                if (index.append(document, mark, size))
+                    return true;
+            } catch (EOFException e) {
+                // the appended content has not been read as a whole, the index has not been changed
+                if (logger.isDebugEnabled())
+                    logger.debug("Unable to read the content appended to bucket " + bucket, e);
+            } finally {
+                IOUtils.closeQuietly(reader);
+            }
+
+            if (logger.isDebugEnabled())
+                logger.debug("Unable to append content to bucket " + bucket + ", re-indexing it");
+        }
+
+        Reader reader = new InputStreamReader(bucket.getContentStream(0L, size, decompression, readAhead), UTF8Charset.get());
+
+        try {
             Document document = DocumentBuilder.newInstance(bucket.getOwner(), bucket.getId(), bucket.getLanguage(), reader);
-            index.update(document);
+            index.update(document, size);
+        } finally {
+            IOUtils.closeQuietly(reader);
         }
+
+        return true;
     }
 
     @Override
@@ -116,6 +199,8 @@ public class LuceneAnalyzer implements ContextAnalyzer, DataListenerProvider {
             } finally {
                 if (this.analysis != null)
                     this.analysis.shutdown();
+                if (this.decompression != null)
+                    this.decompression.shutdownNow();
             }
         }
     }
@@ -154,9 +239,25 @@ public class LuceneAnalyzer implements ContextAnalyzer, DataListenerProvider {
 
         index.flush();
 
+        // Cached context vectors with the language pairs of the changed memories are outdated,
+        // including the ones that do not contain them yet
+        if (cache != null && !tasks.isEmpty()) {
+            HashSet<LanguageDirection> directions = new HashSet<>();
+            for (AnalysisTask task : tasks) {
+                if (task.isChanged())
+                    directions.add(task.getBucket().getLanguage());
+            }
+
+            cache.invalidate(directions);
+        }
+
         for (AnalysisTask task : tasks) {
+            // failed buckets are analyzed again with the next updates
+            if (task.isFailed())
+                continue;
+
             try {
-                storage.markUpdate(task.getBucket(), task.getSize());
+                storage.markUpdate(task.getBucket(), task.getMark(), task.getSize());
             } catch (IOException e) {
                 logger.error("Failed to mark update for bucket " + task.getBucket());
             }
@@ -229,9 +330,17 @@ public class LuceneAnalyzer implements ContextAnalyzer, DataListenerProvider {
 
         private final Bucket bucket;
         private long size = -1;
+        private long mark;
+        private boolean changed = true;
+        private boolean failed = false;
 
         public AnalysisTask(Bucket bucket) {
             this.bucket = bucket;
+            this.mark = bucket.getMark();
+        }
+
+        public long getMark() {
+            return mark;
         }
 
         public long getSize() {
@@ -242,18 +351,28 @@ public class LuceneAnalyzer implements ContextAnalyzer, DataListenerProvider {
             return bucket;
         }
 
+        public boolean isChanged() {
+            return changed;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+
         @Override
         public void run() {
             try {
                 long start = System.currentTimeMillis();
+                this.mark = bucket.getMark();
                 this.size = bucket.getSize();
 
-                LuceneAnalyzer.this.analyze(bucket);
+                this.changed = LuceneAnalyzer.this.analyze(bucket, this.mark, this.size);
 
                 long elapsed = (long) ((System.currentTimeMillis() - start) / 100.);
                 if (logger.isDebugEnabled())
                     logger.debug("Index of bucket " + bucket + " completed in " + (elapsed / 10.) + "s");
             } catch (Exception e) {
+                this.failed = true;
                 logger.error("Failed to index bucket: " + bucket, e);
             }
         }
@@ -13,6 +13,7 @@ import org.apache.lucene.index.*;
 import org.apache.lucene.queries.mlt.MoreLikeThis;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.search.similarities.TFIDFSimilarity;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
@@ -20,8 +21,7 @@ import org.apache.lucene.util.Version;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.Reader;
-import java.util.UUID;
+import java.util.*;
 
 /**
  * Created by davide on 10/07/15.
@@ -29,6 +29,9 @@ import java.util.UUID;
 public class ContextAnalyzerIndex implements Closeable {
 
     private static final int MIN_RESULT_BATCH = 20;
+    private static final int MAX_QUERY_TERMS = MoreLikeThis.DEFAULT_MAX_QUERY_TERMS;
+    private static final int MIN_WORD_LENGTH = 2;
+    private static final TFIDFSimilarity MORE_LIKE_THIS_SIMILARITY = new DefaultSimilarity();
 
     private final Directory indexDirectory;
     private final Analyzer analyzer;
@@ -107,9 +110,81 @@ public class ContextAnalyzerIndex implements Closeable {
 
     public void update(Document document) throws IOException {
         String id = DocumentBuilder.getId(document);
+
+        // The content is analyzed once, in order to store the norm used by the rescorer
+        IndexableField content = DocumentBuilder.getContentField(document);
+        if (content != null) {
+            Map<String, Float> terms = LuceneUtils.getTermFrequencies(this.analyzer, document, content.name());
+            DocumentBuilder.setContentTermFrequencies(document, terms);
+        }
+
         this.indexWriter.updateDocument(DocumentBuilder.makeIdTerm(id), document);
     }
 
+    /**
+     * Indexes the document of a bucket, recording the size of the bucket content it has been built with.
+     *
+     * @param document    the document with the whole bucket content
+     * @param contentSize the size of the bucket content
+     * @throws IOException if an I/O error occurs
+     */
+    public void update(Document document, long contentSize) throws IOException {
+        DocumentBuilder.setContentSize(document, contentSize);
+        this.update(document);
+    }
+
+    /**
+     * Merges the content appended to a bucket with the term frequencies stored in its indexed document,
+     * so that only the new content is analyzed. This is possible only if the indexed document has been
+     * built with exactly the first {@code offset} bytes of the bucket content: otherwise nothing is done
+     * and the bucket must be re-indexed with {@link #update(Document, long)}.
+     *
+     * @param document    the document with the content appended to the bucket after the given offset
+     * @param offset      the size of the bucket content the indexed document should have been built with
+     * @param contentSize the size of the bucket content, including the appended content
+     * @return true if the document has been updated, false if the bucket must be re-indexed
+     * @throws IOException if an I/O error occurs
+     */
+    public boolean append(Document document, long offset, long contentSize) throws IOException {
+        Term id = DocumentBuilder.makeIdTerm(DocumentBuilder.getId(document));
+
+        IndexableField content = DocumentBuilder.getContentField(document);
+        if (content == null)
+            throw new IllegalArgumentException("Invalid document: missing content field");
+
+        IndexSearcher searcher = this.getIndexSearcher();
+        TopDocs docs = searcher.search(new TermQuery(id), 1);
+        if (docs.scoreDocs.length == 0)
+            return false;
+
+        Document indexed = searcher.doc(docs.scoreDocs[0].doc);
+        if (DocumentBuilder.getContentSize(indexed) != offset)
+            return false;
+
+        // Documents indexed before the introduction of the stored term frequencies have none
+        Map<String, Float> terms = DocumentBuilder.getContentTermFrequencies(indexed);
+        if (terms == null)
+            return false;
+
+        Map<String, Float> appended = LuceneUtils.getTermFrequencies(this.analyzer, document, content.name());
+        for (Map.Entry<String, Float> entry : appended.entrySet())
+            terms.merge(entry.getKey(), entry.getValue(), Float::sum);
+
+        // The analyzer truncates documents that are too long, only a full analysis can do the same
+        long count = 0;
+        for (Float frequency : terms.values())
+            count += frequency.longValue();
+
+        if (count > CorpusAnalyzer.MAX_INDEXED_WORDS_PER_DOCUMENT)
+            return false;
+
+        DocumentBuilder.setContentTermFrequencies(document, terms);
+        DocumentBuilder.setContentSize(document, contentSize);
+
+        this.indexWriter.updateDocument(id, document);
+        return true;
+    }
+
     public void delete(long memory) throws IOException {
         Term memoryTerm = DocumentBuilder.makeMemoryTerm(memory);
         this.indexWriter.deleteDocuments(memoryTerm);
@@ -129,11 +204,43 @@ public class ContextAnalyzerIndex implements Closeable {
         this.indexWriter.commit();
     }
 
+    /**
+     * Analyzes the given query document as the context vector queries do, counting the occurrences of every term.
+     *
+     * @param direction     the language direction of the query
+     * @param queryDocument the query document
+     * @return the frequency of every term of the query document
+     * @throws IOException if an I/O error occurs while reading the query document
+     */
+    public Map<String, Float> getTermFrequencies(LanguageDirection direction, Corpus queryDocument) throws IOException {
+        Document document = DocumentBuilder.newInstance(direction, queryDocument);
+        return LuceneUtils.getTermFrequencies(this.analyzer, document, DocumentBuilder.makeContentFieldName(direction));
+    }
+
     public ContextVector getContextVector(UUID user, LanguageDirection direction, Corpus queryDocument, int limit) throws IOException {
         return this.getContextVector(user, direction, queryDocument, limit, this.rescorer);
     }
 
     public ContextVector getContextVector(UUID user, LanguageDirection direction, Corpus queryDocument, int limit, Rescorer rescorer) throws IOException {
+        return this.getContextVector(user, direction, getTermFrequencies(direction, queryDocument), limit, rescorer);
+    }
+
+    /**
+     * Computes the context vector of a query document from its term frequencies, as returned by
+     * {@link #getTermFrequencies(LanguageDirection, Corpus)}, so that the query document is not analyzed again.
+     *
+     * @param user      the user of the query, or null for public memories only
+     * @param direction the language direction of the query
+     * @param terms     the frequency of every term of the query document
+     * @param limit     the maximum number of memories of the context vector
+     * @return the context vector of the query document
+     * @throws IOException if an I/O error occurs
+     */
+    public ContextVector getContextVector(UUID user, LanguageDirection direction, Map<String, Float> terms, int limit) throws IOException {
+        return this.getContextVector(user, direction, terms, limit, this.rescorer);
+    }
+
+    public ContextVector getContextVector(UUID user, LanguageDirection direction, Map<String, Float> terms, int limit, Rescorer rescorer) throws IOException {
         String contentFieldName = DocumentBuilder.makeContentFieldName(direction);
 
         IndexSearcher searcher = this.getIndexSearcher();
@@ -143,44 +250,28 @@ public class ContextAnalyzerIndex implements Closeable {
 
         int rawLimit = limit < MIN_RESULT_BATCH ? MIN_RESULT_BATCH : limit;
 
-        MoreLikeThis mlt = new MoreLikeThis(reader);
-        mlt.setFieldNames(new String[]{contentFieldName});
-        mlt.setMinDocFreq(0);
-        mlt.setMinTermFreq(1);
-        mlt.setMinWordLen(2);
-        mlt.setBoost(true);
-        mlt.setAnalyzer(analyzer);
-
         TopScoreDocCollector collector = TopScoreDocCollector.create(rawLimit, true);
 
-        Reader queryDocumentReader = queryDocument.getRawContentReader();
-
-        try {
-            Query mltQuery = mlt.like(contentFieldName, queryDocumentReader);
-            BooleanQuery ownerQuery = new BooleanQuery();
-
-            if (user == null) {
-                ownerQuery.add(DocumentBuilder.makePublicOwnerMatchingQuery(), BooleanClause.Occur.MUST);
-            } else {
-                ownerQuery.add(DocumentBuilder.makePublicOwnerMatchingQuery(), BooleanClause.Occur.SHOULD);
-                ownerQuery.add(DocumentBuilder.makeOwnerMatchingQuery(user), BooleanClause.Occur.SHOULD);
-                ownerQuery.setMinimumNumberShouldMatch(1);
-            }
+        Query termsQuery = makeMoreLikeThisQuery(reader, contentFieldName, terms);
+        BooleanQuery ownerQuery = new BooleanQuery();
 
-            FilteredQuery query = new FilteredQuery(mltQuery, new QueryWrapperFilter(ownerQuery));
-            searcher.search(query, collector);
-        } finally {
-            IOUtils.closeQuietly(queryDocumentReader);
+        if (user == null) {
+            ownerQuery.add(DocumentBuilder.makePublicOwnerMatchingQuery(), BooleanClause.Occur.MUST);
+        } else {
+            ownerQuery.add(DocumentBuilder.makePublicOwnerMatchingQuery(), BooleanClause.Occur.SHOULD);
+            ownerQuery.add(DocumentBuilder.makeOwnerMatchingQuery(user), BooleanClause.Occur.SHOULD);
+            ownerQuery.setMinimumNumberShouldMatch(1);
         }
 
+        FilteredQuery query = new FilteredQuery(termsQuery, new QueryWrapperFilter(ownerQuery));
+        searcher.search(query, collector);
+
         ScoreDoc[] topDocs = collector.topDocs().scoreDocs;
 
         // Rescore result
 
-        if (rescorer != null) {
-            Document referenceDocument = DocumentBuilder.newInstance(direction, queryDocument);
-            rescorer.rescore(reader, this.analyzer, topDocs, referenceDocument, contentFieldName);
-        }
+        if (rescorer != null)
+            rescorer.rescore(reader, topDocs, terms, contentFieldName);
 
         // Build result
 
@@ -197,9 +288,65 @@ public class ContextAnalyzerIndex implements Closeable {
         return resultBuilder.build();
     }
 
+    /*
+     * Same query of MoreLikeThis (with minimum word length 2 and boost enabled) built from the already
+     * analyzed query terms: the MAX_QUERY_TERMS terms with the highest tf-idf among the indexed ones,
+     * each one boosted by its tf-idf relative to the best term
+     */
+    private static Query makeMoreLikeThisQuery(IndexReader reader, String fieldName, Map<String, Float> terms) throws IOException {
+        int numDocs = reader.numDocs();
+
+        PriorityQueue<ScoreTerm> queue = new PriorityQueue<>(MAX_QUERY_TERMS + 1);
+        for (Map.Entry<String, Float> entry : terms.entrySet()) {
+            String text = entry.getKey();
+            if (text.length() < MIN_WORD_LENGTH)
+                continue;
+
+            Term term = new Term(fieldName, text);
+            int docFreq = reader.docFreq(term);
+            if (docFreq == 0)
+                continue;
+
+            float score = entry.getValue() * MORE_LIKE_THIS_SIMILARITY.idf(docFreq, numDocs);
+            queue.add(new ScoreTerm(term, score));
+            if (queue.size() > MAX_QUERY_TERMS)
+                queue.poll();
+        }
+
+        ScoreTerm[] scoreTerms = queue.toArray(new ScoreTerm[0]);
+        Arrays.sort(scoreTerms, Collections.reverseOrder());
+
+        BooleanQuery query = new BooleanQuery();
+        for (ScoreTerm scoreTerm : scoreTerms) {
+            TermQuery termQuery = new TermQuery(scoreTerm.term);
+            termQuery.setBoost(scoreTerm.score / scoreTerms[0].score);
+            query.add(termQuery, BooleanClause.Occur.SHOULD);
+        }
+
+        return query;
+    }
+
+    private static final class ScoreTerm implements Comparable<ScoreTerm> {
+
+        private final Term term;
+        private final float score;
+
+        ScoreTerm(Term term, float score) {
+            this.term = term;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(ScoreTerm o) {
+            return Float.compare(score, o.score);
+        }
+
+    }
+
     @Override
     public void close() {
         IOUtils.closeQuietly(this._indexReader);
+        IOUtils.closeQuietly(this.rescorer);
         IOUtils.closeQuietly(this.indexWriter);
         IOUtils.closeQuietly(this.indexDirectory);
     }
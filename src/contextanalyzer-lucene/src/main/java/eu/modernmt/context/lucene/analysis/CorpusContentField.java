@@ -15,7 +15,8 @@ public class CorpusContentField extends Field {
         TYPE_NOT_STORED.setIndexOptions(FieldInfo.IndexOptions.DOCS_AND_FREQS);
         TYPE_NOT_STORED.setIndexed(true);
         TYPE_NOT_STORED.setTokenized(true);
-        TYPE_NOT_STORED.setStoreTermVectors(true);
+        // rescoring reads the term frequencies from the postings, with the norms stored at index time
+        TYPE_NOT_STORED.setStoreTermVectors(false);
         TYPE_NOT_STORED.freeze();
     }
 
@@ -2,20 +2,23 @@ package eu.modernmt.context.lucene.analysis;
 
 import eu.modernmt.lang.LanguageDirection;
 import eu.modernmt.model.corpus.Corpus;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.LongField;
-import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.BytesRefBuilder;
 import org.apache.lucene.util.NumericUtils;
 
-import java.io.IOException;
-import java.io.Reader;
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -56,6 +59,9 @@ public class DocumentBuilder {
     private static final String OWNER_MSB_FIELD = "owner_msb";
     private static final String OWNER_LSB_FIELD = "owner_lsb";
     private static final String CONTENT_PREFIX_FIELD = "content_";
+    private static final String CONTENT_NORM_FIELD = "norm";
+    private static final String CONTENT_TERMS_FIELD = "terms";
+    private static final String CONTENT_SIZE_FIELD = "size";
 
     // Getters
 
@@ -75,6 +81,59 @@ public class DocumentBuilder {
         return Long.parseLong(parts[0]);
     }
 
+    public static IndexableField getContentField(Document self) {
+        for (IndexableField field : self.getFields()) {
+            if (field.name().startsWith(CONTENT_PREFIX_FIELD))
+                return field;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the L2 norms of the content term frequencies of the segment documents, stored at index time
+     * by {@link #setContentTermFrequencies(Document, Map)}.
+     *
+     * @param reader the segment reader
+     * @return the norms of the segment documents, or null if no document of the segment has one
+     * @throws IOException if an I/O error occurs
+     */
+    public static NumericDocValues getContentNorms(AtomicReader reader) throws IOException {
+        return reader.getNumericDocValues(CONTENT_NORM_FIELD);
+    }
+
+    // Documents indexed before the introduction of the norms have none
+    public static Bits getDocsWithContentNorm(AtomicReader reader) throws IOException {
+        return reader.getDocsWithField(CONTENT_NORM_FIELD);
+    }
+
+    public static float getContentNorm(NumericDocValues norms, int doc) {
+        return Float.intBitsToFloat((int) norms.get(doc));
+    }
+
+    /**
+     * Returns the term frequencies of the content of an indexed document, as stored
+     * by {@link #setContentTermFrequencies(Document, Map)}.
+     *
+     * @param self the stored document
+     * @return the frequencies of the content terms, or null if the document has none stored
+     */
+    public static Map<String, Float> getContentTermFrequencies(Document self) {
+        BytesRef bytes = self.getBinaryValue(CONTENT_TERMS_FIELD);
+        return bytes == null ? null : decodeTermFrequencies(bytes);
+    }
+
+    /**
+     * Returns the size of the bucket content of an indexed document, as stored by {@link #setContentSize(Document, long)}.
+     *
+     * @param self the stored document
+     * @return the size of the indexed content, or -1 if the document has none stored
+     */
+    public static long getContentSize(Document self) {
+        IndexableField field = self.getField(CONTENT_SIZE_FIELD);
+        return field == null ? -1L : field.numericValue().longValue();
+    }
+
     public static String getLanguageForContentField(String field) {
         if (!field.startsWith(CONTENT_PREFIX_FIELD))
             return null;
@@ -82,6 +141,31 @@ public class DocumentBuilder {
         return field.substring(CONTENT_PREFIX_FIELD.length(), field.lastIndexOf('_'));
     }
 
+    // Setters
+
+    /**
+     * Replaces the content of the document with the given term frequencies, already computed with the
+     * analyzer of the content field, and stores their L2 norm.
+     *
+     * @param self  the document
+     * @param terms the frequencies of the content terms
+     */
+    public static void setContentTermFrequencies(Document self, Map<String, Float> terms) {
+        IndexableField field = getContentField(self);
+        if (field == null)
+            throw new IllegalArgumentException("Invalid document: missing content field");
+
+        self.removeField(field.name());
+        self.add(new CorpusContentField(field.name(), new TermFrequenciesTokenStream(terms)));
+        self.add(new FloatDocValuesField(CONTENT_NORM_FIELD, (float) LuceneUtils.getL2Norm(terms)));
+        self.add(new StoredField(CONTENT_TERMS_FIELD, encodeTermFrequencies(terms)));
+    }
+
+    public static void setContentSize(Document self, long size) {
+        self.removeField(CONTENT_SIZE_FIELD);
+        self.add(new StoredField(CONTENT_SIZE_FIELD, size));
+    }
+
     // Term constructors
 
     public static Term makeIdTerm(String id) {
@@ -123,6 +207,39 @@ public class DocumentBuilder {
 
     // Utils
 
+    private static byte[] encodeTermFrequencies(Map<String, Float> terms) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(terms.size());
+
+            for (Map.Entry<String, Float> entry : terms.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeInt(entry.getValue().intValue());
+            }
+        } catch (IOException e) {
+            throw new Error("Unexpected exception", e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static Map<String, Float> decodeTermFrequencies(BytesRef bytes) {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.bytes, bytes.offset, bytes.length))) {
+            int size = input.readInt();
+            HashMap<String, Float> terms = new HashMap<>(size * 4 / 3 + 1);
+
+            for (int i = 0; i < size; i++) {
+                String term = input.readUTF();
+                terms.put(term, (float) input.readInt());
+            }
+
+            return terms;
+        } catch (IOException e) {
+            throw new Error("Unexpected exception", e);
+        }
+    }
+
     private static Term makeLongTerm(long value, String field) {
         BytesRefBuilder builder = new BytesRefBuilder();
         NumericUtils.longToPrefixCoded(value, 0, builder);
@@ -7,16 +7,10 @@ import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.DocIdSetIterator;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.BytesRef;
-import org.apache.lucene.util.Version;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Created by davide on 06/08/17.
@@ -47,12 +41,11 @@ public class LuceneUtils {
     }
 
     public static Map<String, Float> getTermFrequencies(IndexReader reader, int docId, String fieldName) throws IOException {
-        HashMap<String, Float> frequencies = new HashMap<>();
-
         Terms vector = reader.getTermVector(docId, fieldName);
         if (vector == null)
-            return frequencies;
+            return getIndexedTermFrequencies(reader, docId, fieldName);
 
+        HashMap<String, Float> frequencies = new HashMap<>();
         TermsEnum termsEnum = vector.iterator(null);
 
         BytesRef text;
@@ -71,27 +64,78 @@ public class LuceneUtils {
         return frequencies;
     }
 
+    /*
+     * Documents indexed without term vectors: all the terms of the field in the document segment
+     * are visited, this is meant for inspection and not for the query path
+     */
+    private static Map<String, Float> getIndexedTermFrequencies(IndexReader reader, int docId, String fieldName) throws IOException {
+        HashMap<String, Float> frequencies = new HashMap<>();
+
+        List<AtomicReaderContext> leaves = reader.leaves();
+        AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+        int doc = docId - leaf.docBase;
+
+        Terms terms = leaf.reader().terms(fieldName);
+        if (terms == null)
+            return frequencies;
+
+        TermsEnum termsEnum = terms.iterator(null);
+        DocsEnum docsEnum = null;
+
+        BytesRef text;
+        while ((text = termsEnum.next()) != null) {
+            docsEnum = termsEnum.docs(null, docsEnum, DocsEnum.FLAG_FREQS);
+
+            if (docsEnum.advance(doc) == doc)
+                frequencies.put(text.utf8ToString(), (float) docsEnum.freq());
+        }
+
+        return frequencies;
+    }
+
+    /**
+     * Analyzes the given field of a document that has not been indexed, counting the occurrences of every term.
+     * Fields with a {@link java.io.Reader} value can be analyzed only once.
+     *
+     * @param analyzer  the analyzer of the field
+     * @param document  the document
+     * @param fieldName the name of the field to analyze
+     * @return the frequency of every term of the field
+     * @throws IOException if an I/O error occurs while reading the field content
+     */
     public static Map<String, Float> getTermFrequencies(Analyzer analyzer, Document document, String fieldName) throws IOException {
-        Directory directory = new RAMDirectory();
-        IndexWriter writer = null;
-        IndexReader reader = null;
+        HashMap<String, Float> frequencies = new HashMap<>();
+
+        IndexableField field = document.getField(fieldName);
+        if (field == null)
+            return frequencies;
+
+        TokenStream stream = null;
 
         try {
-            // Writing document in RAM
-            IndexWriterConfig indexConfig = new IndexWriterConfig(Version.LUCENE_4_10_4, analyzer);
-            indexConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-            writer = new IndexWriter(directory, indexConfig);
-            writer.addDocument(document);
-            IOUtils.closeQuietly(writer);
+            stream = field.tokenStream(analyzer, null);
+            stream.reset();
+
+            CharTermAttribute termAttribute = stream.getAttribute(CharTermAttribute.class);
 
+            while (stream.incrementToken())
+                frequencies.merge(termAttribute.toString(), 1.f, Float::sum);
 
-            reader = DirectoryReader.open(directory);
-            return getTermFrequencies(reader, 0, fieldName);
+            stream.end();
         } finally {
-            IOUtils.closeQuietly(writer);
-            IOUtils.closeQuietly(reader);
-            IOUtils.closeQuietly(directory);
+            IOUtils.closeQuietly(stream);
         }
+
+        return frequencies;
+    }
+
+    public static double getL2Norm(Map<String, Float> terms) {
+        double norm = 0;
+
+        for (Float value : terms.values())
+            norm += value * value;
+
+        return Math.sqrt(norm);
     }
 
 }
@@ -0,0 +1,52 @@
+package eu.modernmt.context.lucene.analysis;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Replays already analyzed terms: every term is emitted as many times as its frequency, that is all
+ * the information indexed for content fields (they have no positions), so that the content
+ * of a document is analyzed only once to compute its norm and to index it.
+ */
+public final class TermFrequenciesTokenStream extends TokenStream {
+
+    private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+    private final Map<String, Float> terms;
+
+    private Iterator<Map.Entry<String, Float>> iterator = null;
+    private String term = null;
+    private int remaining = 0;
+
+    public TermFrequenciesTokenStream(Map<String, Float> terms) {
+        this.terms = terms;
+    }
+
+    @Override
+    public boolean incrementToken() {
+        while (remaining == 0) {
+            if (!iterator.hasNext())
+                return false;
+
+            Map.Entry<String, Float> entry = iterator.next();
+            term = entry.getKey();
+            remaining = entry.getValue().intValue();
+        }
+
+        clearAttributes();
+        termAttribute.setEmpty().append(term);
+        remaining--;
+
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        iterator = terms.entrySet().iterator();
+        term = null;
+        remaining = 0;
+    }
+
+}
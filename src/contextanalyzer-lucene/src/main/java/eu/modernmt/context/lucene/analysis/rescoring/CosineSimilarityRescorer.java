@@ -1,106 +1,210 @@
 package eu.modernmt.context.lucene.analysis.rescoring;
 
+import eu.modernmt.context.lucene.analysis.DocumentBuilder;
 import eu.modernmt.context.lucene.analysis.LuceneUtils;
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.IOException;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.*;
 
 /**
  * Created by davide on 06/08/17.
+ * <p>
+ * The term frequencies of the candidate documents are read from the postings of the reference terms,
+ * while their L2 norms are stored at index time: no term vector is decoded at query time. Long references
+ * are split among the threads of a pool shared by all requests, short ones are rescored by the caller.
  */
 public class CosineSimilarityRescorer implements Rescorer {
 
+    // reference terms below which splitting the work costs more than it saves
+    private static final int MIN_TERMS_PER_TASK = 256;
+
+    private final ExecutorService executor;
+    private final int threads;
+
+    public CosineSimilarityRescorer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public CosineSimilarityRescorer(int threads) {
+        this.threads = threads;
+        this.executor = threads > 1 ? Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "CosineSimilarityRescorer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
     @Override
-    public void rescore(IndexReader reader, Analyzer analyzer, ScoreDoc[] topDocs, Document reference, String fieldName) throws IOException {
+    public void rescore(IndexReader reader, ScoreDoc[] topDocs, Map<String, Float> referenceTerms, String fieldName) throws IOException {
+        if (topDocs.length == 0)
+            return;
+
         // Compute reference document stats
-        Map<String, Float> referenceTerms = LuceneUtils.getTermFrequencies(analyzer, reference, fieldName);
-        double referenceL2Norm = getL2Norm(referenceTerms);
+        double referenceL2Norm = LuceneUtils.getL2Norm(referenceTerms);
+
+        BytesRef[] terms = new BytesRef[referenceTerms.size()];
+        float[] weights = new float[terms.length];
+
+        int t = 0;
+        for (Map.Entry<String, Float> entry : referenceTerms.entrySet()) {
+            terms[t] = new BytesRef(entry.getKey());
+            weights[t] = entry.getValue();
+            t++;
+        }
+
+        // Candidates sorted by doc id, so that postings are only moved forward
+        Candidates candidates = new Candidates(reader, topDocs);
+
+        // Calculate dot products with reference
+        int tasks = Math.max(1, Math.min(threads, terms.length / MIN_TERMS_PER_TASK));
+        double[] dotProducts = tasks == 1 ?
+                candidates.dotProducts(fieldName, terms, weights, 0, terms.length) :
+                dotProducts(candidates, fieldName, terms, weights, tasks);
 
         // Calculate similarity with reference
-        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-        try {
-            Future<?>[] tasks = new Future<?>[topDocs.length];
-            for (int i = 0; i < tasks.length; i++)
-                tasks[i] = executor.submit(new RescoringTask(reader, fieldName, topDocs[i], referenceTerms, referenceL2Norm));
-
-            for (Future<?> task : tasks) {
-                try {
-                    task.get();
-                } catch (InterruptedException e) {
-                    throw new IOException("Execution interrupted", e);
-                } catch (ExecutionException e) {
-                    Throwable cause = e.getCause();
-                    if (cause instanceof IOException) {
-                        throw (IOException) cause;
-                    } else if (cause instanceof RuntimeException) {
-                        throw (RuntimeException) cause;
-                    } else {
-                        throw new Error("Expected exception", e);
-                    }
-                }
-            }
-        } finally {
-            executor.shutdownNow();
+        for (int i = 0; i < candidates.size(); i++) {
+            ScoreDoc target = candidates.get(i);
+
+            double l2Norm = candidates.getL2Norm(i, fieldName);
+            float similarity = (float) (dotProducts[i] / (referenceL2Norm * l2Norm));
+
+            if (Float.isInfinite(similarity) || Float.isNaN(similarity))
+                target.score = 0.f;
+            else
+                target.score = similarity;
         }
     }
 
-    public static double getL2Norm(Map<String, Float> terms) throws IOException {
-        double norm = 0;
+    private double[] dotProducts(Candidates candidates, String fieldName, BytesRef[] terms, float[] weights, int tasks) throws IOException {
+        int chunk = (terms.length + tasks - 1) / tasks;
 
-        for (Float value : terms.values())
-            norm += value * value;
+        ArrayList<Future<double[]>> futures = new ArrayList<>(tasks - 1);
+        for (int from = chunk; from < terms.length; from += chunk) {
+            final int begin = from;
+            final int end = Math.min(terms.length, from + chunk);
+            futures.add(executor.submit(() -> candidates.dotProducts(fieldName, terms, weights, begin, end)));
+        }
+
+        double[] result = candidates.dotProducts(fieldName, terms, weights, 0, Math.min(terms.length, chunk));
+
+        for (Future<double[]> future : futures) {
+            double[] partial;
+
+            try {
+                partial = future.get();
+            } catch (InterruptedException e) {
+                throw new IOException("Execution interrupted", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else {
+                    throw new Error("Expected exception", e);
+                }
+            }
+
+            for (int i = 0; i < result.length; i++)
+                result[i] += partial[i];
+        }
+
+        return result;
+    }
 
-        return Math.sqrt(norm);
+    @Override
+    public void close() {
+        if (executor != null)
+            executor.shutdownNow();
     }
 
-    private static class RescoringTask implements Callable<Void> {
+    private static class Candidates {
 
         private final IndexReader reader;
-        private final String fieldName;
-        private final ScoreDoc target;
-        private final Map<String, Float> referenceTerms;
-        private final double referenceL2Norm;
+        private final List<AtomicReaderContext> leaves;
+        private final ScoreDoc[] docs;
 
-        public RescoringTask(IndexReader reader, String fieldName,
-                             ScoreDoc target, Map<String, Float> referenceTerms, double referenceL2Norm) {
+        public Candidates(IndexReader reader, ScoreDoc[] topDocs) {
             this.reader = reader;
-            this.fieldName = fieldName;
-            this.target = target;
-            this.referenceTerms = referenceTerms;
-            this.referenceL2Norm = referenceL2Norm;
+            this.leaves = reader.leaves();
+            this.docs = topDocs.clone();
+
+            Arrays.sort(this.docs, (a, b) -> Integer.compare(a.doc, b.doc));
         }
 
-        @Override
-        public Void call() throws IOException {
-            Map<String, Float> terms = LuceneUtils.getTermFrequencies(this.reader, this.target.doc, this.fieldName);
+        public int size() {
+            return docs.length;
+        }
 
-            double dotProduct = 0;
-            double l2Norm = 0;
+        public ScoreDoc get(int i) {
+            return docs[i];
+        }
 
-            for (Float value : terms.values())
-                l2Norm += value * value;
-            l2Norm = Math.sqrt(l2Norm);
+        /*
+         * Dot products of the candidates with the reference terms in the given range,
+         * it can be called by multiple threads at the same time
+         */
+        public double[] dotProducts(String fieldName, BytesRef[] terms, float[] weights, int from, int to) throws IOException {
+            double[] result = new double[docs.length];
+
+            int begin = 0;
+            while (begin < docs.length) {
+                AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(docs[begin].doc, leaves));
+
+                int end = begin + 1;
+                while (end < docs.length && docs[end].doc < leaf.docBase + leaf.reader().maxDoc())
+                    end++;
+
+                Terms fieldTerms = leaf.reader().terms(fieldName);
+                if (fieldTerms != null) {
+                    TermsEnum termsEnum = fieldTerms.iterator(null);
+                    DocsEnum docsEnum = null;
+
+                    for (int t = from; t < to; t++) {
+                        if (!termsEnum.seekExact(terms[t]))
+                            continue;
+
+                        docsEnum = termsEnum.docs(null, docsEnum, DocsEnum.FLAG_FREQS);
+
+                        int current = -1;
+                        for (int i = begin; i < end; i++) {
+                            int target = docs[i].doc - leaf.docBase;
+
+                            if (current < target)
+                                current = docsEnum.advance(target);
+                            if (current == DocIdSetIterator.NO_MORE_DOCS)
+                                break;
+                            if (current == target)
+                                result[i] += weights[t] * docsEnum.freq();
+                        }
+                    }
+                }
 
-            for (Map.Entry<String, Float> entry : referenceTerms.entrySet()) {
-                Float otherFreq = terms.get(entry.getKey());
-                if (otherFreq != null)
-                    dotProduct += entry.getValue() * otherFreq;
+                begin = end;
             }
 
-            float similarity = (float) (dotProduct / (referenceL2Norm * l2Norm));
+            return result;
+        }
 
-            if (Float.isInfinite(similarity) || Float.isNaN(similarity))
-                this.target.score = 0.f;
-            else
-                this.target.score = similarity;
+        public double getL2Norm(int i, String fieldName) throws IOException {
+            int doc = docs[i].doc;
+            AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+            AtomicReader leafReader = leaf.reader();
 
-            return null;
+            Bits docsWithNorm = DocumentBuilder.getDocsWithContentNorm(leafReader);
+            if (docsWithNorm != null && docsWithNorm.get(doc - leaf.docBase))
+                return DocumentBuilder.getContentNorm(DocumentBuilder.getContentNorms(leafReader), doc - leaf.docBase);
+
+            // documents indexed before the introduction of the norms
+            return LuceneUtils.getL2Norm(LuceneUtils.getTermFrequencies(reader, doc, fieldName));
         }
+
     }
 
 }
@@ -1,18 +1,17 @@
 package eu.modernmt.context.lucene.analysis.rescoring;
 
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.ScoreDoc;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * Created by davide on 06/08/17.
  */
-public interface Rescorer {
+public interface Rescorer extends Closeable {
 
-    void rescore(IndexReader reader, Analyzer analyzer,
-                 ScoreDoc[] topDocs, Document reference, String fieldName) throws IOException;
+    void rescore(IndexReader reader, ScoreDoc[] topDocs, Map<String, Float> referenceTerms, String fieldName) throws IOException;
 
 }
@@ -0,0 +1,218 @@
+package eu.modernmt.context.lucene.storage;
+
+import eu.modernmt.io.FileSystemUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The index of the blocks of a compressed bucket file. Every block is one or more complete gzip members,
+ * so that it can be decompressed independently from the others: the file itself is still a valid
+ * multi-member gzip file.
+ * <p>
+ * For every block the index stores the end offset of its compressed bytes, the end offset of its content
+ * and the number of lines it contains, as three big-endian longs. Blocks written before the introduction
+ * of the index are covered by a single legacy block, whose lines are unknown.
+ * <p>
+ * Entries are written after the compressed blocks they refer to, and the entries that refer to
+ * compressed bytes not yet committed to the bucket registry are ignored.
+ */
+final class BlockIndex {
+
+    static final long UNKNOWN_LINES = -1L;
+
+    private static final int ENTRY_SIZE = 3 * Long.BYTES;
+    private static final BlockIndex EMPTY = new BlockIndex(new long[0], new long[0], new long[0], 0);
+
+    /**
+     * Reads the index of the blocks that end within the given compressed size.
+     *
+     * @param path           the index file
+     * @param compressedSize the size of the compressed file committed to the registry
+     * @return the block index, empty if the index file does not exist
+     * @throws IOException if an I/O error occurs
+     */
+    static BlockIndex read(File path, long compressedSize) throws IOException {
+        if (compressedSize <= 0 || !path.isFile())
+            return EMPTY;
+
+        try (FileInputStream stream = new FileInputStream(path)) {
+            FileChannel channel = stream.getChannel();
+            int entries = (int) (channel.size() / ENTRY_SIZE);
+            if (entries == 0)
+                return EMPTY;
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) entries * ENTRY_SIZE);
+
+            long[] compressedEnds = new long[entries];
+            long[] contentEnds = new long[entries];
+            long[] lines = new long[entries];
+
+            int size = 0;
+            while (size < entries) {
+                long compressedEnd = buffer.getLong();
+                if (compressedEnd > compressedSize)
+                    break;
+
+                compressedEnds[size] = compressedEnd;
+                contentEnds[size] = buffer.getLong();
+                lines[size] = buffer.getLong();
+                size++;
+            }
+
+            return new BlockIndex(compressedEnds, contentEnds, lines, size);
+        }
+    }
+
+    private final long[] compressedEnds;
+    private final long[] contentEnds;
+    private final long[] lines;
+    private final int size;
+
+    private BlockIndex(long[] compressedEnds, long[] contentEnds, long[] lines, int size) {
+        this.compressedEnds = compressedEnds;
+        this.contentEnds = contentEnds;
+        this.lines = lines;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getCompressedStart(int block) {
+        return block == 0 ? 0L : compressedEnds[block - 1];
+    }
+
+    long getCompressedEnd(int block) {
+        return compressedEnds[block];
+    }
+
+    long getContentStart(int block) {
+        return block == 0 ? 0L : contentEnds[block - 1];
+    }
+
+    long getContentEnd(int block) {
+        return contentEnds[block];
+    }
+
+    long getLines(int block) {
+        return lines[block];
+    }
+
+    long getCompressedSize() {
+        return size == 0 ? 0L : compressedEnds[size - 1];
+    }
+
+    long getContentSize() {
+        return size == 0 ? 0L : contentEnds[size - 1];
+    }
+
+    /**
+     * Returns the block that contains the given content offset.
+     *
+     * @param offset the content offset
+     * @return the index of the block that contains the offset, or {@link #size()} if it is beyond the last block
+     */
+    int find(long offset) {
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (contentEnds[mid] <= offset)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    }
+
+    /**
+     * Accumulates the entries of new blocks, that are appended to the index of a bucket with {@link #write(File)}.
+     */
+    static final class Appender {
+
+        private final int validEntries;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream output = new DataOutputStream(bytes);
+
+        private long compressedEnd;
+        private long contentEnd;
+
+        Appender(BlockIndex index) {
+            this.validEntries = index.size;
+            this.compressedEnd = index.getCompressedSize();
+            this.contentEnd = index.getContentSize();
+        }
+
+        long getCompressedEnd() {
+            return compressedEnd;
+        }
+
+        long getContentEnd() {
+            return contentEnd;
+        }
+
+        void add(long compressedEnd, long contentEnd, long lines) throws IOException {
+            output.writeLong(compressedEnd);
+            output.writeLong(contentEnd);
+            output.writeLong(lines);
+
+            this.compressedEnd = compressedEnd;
+            this.contentEnd = contentEnd;
+        }
+
+        void write(File path) throws IOException {
+            output.flush();
+
+            try (FileOutputStream stream = new FileOutputStream(path, true)) {
+                stream.getChannel().truncate((long) validEntries * ENTRY_SIZE);
+                stream.write(bytes.toByteArray());
+                FileSystemUtils.fsync(stream);
+            }
+        }
+
+    }
+
+    // Utils
+
+    static InputStream newInputStream(ByteBuffer buffer) {
+        return new InputStream() {
+
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0)
+                    return 0;
+                if (!buffer.hasRemaining())
+                    return -1;
+
+                len = Math.min(len, buffer.remaining());
+                buffer.get(b, off, len);
+                return len;
+            }
+
+            @Override
+            public long skip(long n) {
+                int skip = (int) Math.max(0, Math.min(n, buffer.remaining()));
+                buffer.position(buffer.position() + skip);
+                return skip;
+            }
+
+            @Override
+            public int available() {
+                return buffer.remaining();
+            }
+
+        };
+    }
+
+}
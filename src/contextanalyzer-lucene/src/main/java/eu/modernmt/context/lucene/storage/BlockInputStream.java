@@ -0,0 +1,196 @@
+package eu.modernmt.context.lucene.storage;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the content of the blocks of a compressed bucket file, mapped in memory. Blocks are decompressed
+ * independently: if an executor is given, the blocks following the one being read are decompressed
+ * in parallel, so that reading a large bucket is not bound to a single inflater.
+ */
+class BlockInputStream extends InputStream {
+
+    // legacy blocks can be as large as the whole bucket, they are never decompressed in memory
+    private static final long MAX_BUFFERED_BLOCK_SIZE = 16L * 1024L * 1024L; // 16 Mb
+
+    private final ByteBuffer data;
+    private final BlockIndex index;
+    private final Executor executor;
+    private final int readAhead;
+
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private int nextBlock;
+    private int nextScheduledBlock;
+
+    private byte[] buffer = null;
+    private int position = 0;
+    private InputStream stream = null;
+
+    /**
+     * Creates a stream of the content of the blocks, starting from the given block.
+     *
+     * @param data      the compressed file, mapped in memory
+     * @param index     the block index
+     * @param block     the first block to read
+     * @param executor  the executor used to decompress the following blocks, or null to decompress them on read
+     * @param readAhead the maximum number of blocks decompressed in advance
+     */
+    BlockInputStream(ByteBuffer data, BlockIndex index, int block, Executor executor, int readAhead) {
+        this.data = data;
+        this.index = index;
+        this.executor = executor;
+        this.readAhead = executor == null ? 0 : Math.max(1, readAhead);
+        this.nextBlock = block;
+        this.nextScheduledBlock = block;
+    }
+
+    private boolean isBuffered(int block) {
+        return index.getContentEnd(block) - index.getContentStart(block) <= MAX_BUFFERED_BLOCK_SIZE;
+    }
+
+    private InputStream open(int block) throws IOException {
+        ByteBuffer slice = data.duplicate();
+        slice.limit((int) index.getCompressedEnd(block));
+        slice.position((int) index.getCompressedStart(block));
+
+        return new GZIPInputStream(BlockIndex.newInputStream(slice.slice()), 8192);
+    }
+
+    private byte[] decompress(int block) throws IOException {
+        byte[] content = new byte[(int) (index.getContentEnd(block) - index.getContentStart(block))];
+
+        try (InputStream stream = open(block)) {
+            IOUtils.readFully(stream, content);
+        }
+
+        return content;
+    }
+
+    private void schedule() {
+        while (pending.size() < readAhead && nextScheduledBlock < index.size() && isBuffered(nextScheduledBlock)) {
+            final int block = nextScheduledBlock++;
+
+            FutureTask<byte[]> task = new FutureTask<>(() -> decompress(block));
+            executor.execute(task);
+            pending.add(task);
+        }
+    }
+
+    /*
+     * Moves to the next block, returns false if there are no more blocks
+     */
+    private boolean nextBlock() throws IOException {
+        IOUtils.closeQuietly(stream);
+        stream = null;
+        buffer = null;
+        position = 0;
+
+        if (nextBlock >= index.size())
+            return false;
+
+        int block = nextBlock++;
+
+        if (!isBuffered(block)) {
+            stream = open(block);
+            nextScheduledBlock = Math.max(nextScheduledBlock, nextBlock);
+        } else if (executor == null) {
+            buffer = decompress(block);
+        } else {
+            if (pending.isEmpty())
+                schedule();
+
+            Future<byte[]> future = pending.poll();
+
+            try {
+                buffer = future.get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Block decompression interrupted");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                else if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                else
+                    throw new Error("Unexpected exception", cause);
+            }
+
+            schedule();
+        }
+
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int read = read(b, 0, 1);
+        return read < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+
+        while (true) {
+            if (stream != null) {
+                int read = stream.read(b, off, len);
+                if (read > 0)
+                    return read;
+            } else if (buffer != null && position < buffer.length) {
+                int read = Math.min(len, buffer.length - position);
+                System.arraycopy(buffer, position, b, off, read);
+                position += read;
+                return read;
+            }
+
+            if (!nextBlock())
+                return -1;
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+
+        while (skipped < n) {
+            if (stream != null) {
+                long skip = stream.skip(n - skipped);
+                if (skip > 0) {
+                    skipped += skip;
+                    continue;
+                }
+            } else if (buffer != null && position < buffer.length) {
+                int skip = (int) Math.min(n - skipped, buffer.length - position);
+                position += skip;
+                skipped += skip;
+                continue;
+            }
+
+            if (!nextBlock())
+                break;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public void close() {
+        IOUtils.closeQuietly(stream);
+        stream = null;
+        buffer = null;
+
+        for (Future<byte[]> future : pending)
+            future.cancel(true);
+        pending.clear();
+    }
+
+}
@@ -5,7 +5,11 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.BoundedInputStream;
 
 import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.GZIPInputStream;
@@ -19,10 +23,14 @@ public class Bucket {
     private final Lock fileLock;
     final File path;
     final File gzPath;
+    final File indexPath;
 
     long plainTextFileSize;
     long compressedFileSize;
-    long virtualSize; // size of file including uncompressed bytes size of compressed content
+    volatile long virtualSize; // size of file including uncompressed bytes size of compressed content
+    volatile long mark; // size of the content already indexed, negative if the content has been reset since
+    boolean reset = false; // the content has been deleted by the writer
+    long plainTextGeneration = 0; // incremented every time the plain text file is truncated or deleted
 
     private BucketWriter writer = null;
 
@@ -36,18 +44,21 @@ public class Bucket {
         this.fileLock = new ReentrantLock();
         this.path = new File(folder, key + ".txt");
         this.gzPath = new File(folder, key + ".gz");
+        this.indexPath = new File(folder, key + ".idx");
 
         this.plainTextFileSize = 0;
         this.compressedFileSize = 0;
         this.virtualSize = 0;
+        this.mark = 0;
     }
 
-    Bucket(File folder, long id, LanguageDirection language, UUID owner, long plainTextFileSize, long compressedFileSize, long virtualSize) {
+    Bucket(File folder, long id, LanguageDirection language, UUID owner, long plainTextFileSize, long compressedFileSize, long virtualSize, long mark) {
         this(folder, id, language, owner);
 
         this.plainTextFileSize = plainTextFileSize;
         this.compressedFileSize = compressedFileSize;
         this.virtualSize = virtualSize;
+        this.mark = mark;
     }
 
     public long getId() {
@@ -66,6 +77,17 @@ public class Bucket {
         return virtualSize;
     }
 
+    /**
+     * Returns the size of the content that has already been indexed, as last marked with
+     * {@link CorporaStorage#markUpdate(Bucket, long, long)}. If the content of the bucket has been deleted
+     * after that, the mark is negative and the bucket must be indexed from scratch.
+     *
+     * @return the size of the content already indexed, or a negative value if it is no longer valid
+     */
+    public long getMark() {
+        return mark;
+    }
+
     void lockFiles() {
         this.fileLock.lock();
     }
@@ -86,43 +108,210 @@ public class Bucket {
     }
 
     public InputStream getContentStream() throws IOException {
+        return getContentStream(0L, null, 0);
+    }
+
+    public InputStream getContentStream(long offset) throws IOException {
+        return getContentStream(offset, null, 0);
+    }
+
+    /**
+     * Returns the content of the bucket starting from the given offset. Compressed content is read
+     * through its block index, so that only the blocks from the one containing the offset are decompressed,
+     * and an offset in the plain text file is reached directly.
+     *
+     * @param offset    the offset of the first byte of the content to read
+     * @param executor  the executor used to decompress the compressed blocks in parallel, or null
+     * @param readAhead the maximum number of blocks decompressed in advance by the executor
+     * @return the content of the bucket from the given offset
+     * @throws IOException if an I/O error occurs
+     */
+    public InputStream getContentStream(long offset, Executor executor, int readAhead) throws IOException {
+        InputStream[] streams = openContentStreams(offset, executor, readAhead);
+        return concat(streams[0], streams[1]);
+    }
+
+    /**
+     * Returns exactly {@code length} bytes of the content of the bucket starting from the given offset,
+     * as {@link #getContentStream(long, Executor, int)} does. The plain text file is read after the bucket
+     * lock has been released, and it can be truncated by a concurrent compression: when the stream
+     * is exhausted it fails with an {@link EOFException} if fewer bytes have been read, or if the plain text
+     * file has been truncated in the meantime, since the bytes read may not be the content of the bucket.
+     *
+     * @param offset    the offset of the first byte of the content to read
+     * @param length    the number of bytes to read
+     * @param executor  the executor used to decompress the compressed blocks in parallel, or null
+     * @param readAhead the maximum number of blocks decompressed in advance by the executor
+     * @return the content of the bucket from the given offset
+     * @throws IOException if an I/O error occurs
+     */
+    public InputStream getContentStream(long offset, long length, Executor executor, int readAhead) throws IOException {
+        InputStream[] streams = openContentStreams(offset, executor, readAhead);
+        return new ExactLengthInputStream(concat(streams[0], streams[1]), length, (PlainTextInputStream) streams[1]);
+    }
+
+    // returns the streams of the compressed content and of the plain text file from the given offset, both can be null
+    private InputStream[] openContentStreams(long offset, Executor executor, int readAhead) throws IOException {
         boolean success = false;
 
         InputStream gzStream = null;
-        InputStream stream = null;
+        PlainTextInputStream stream = null;
+        long gzSkip = 0;
 
         try {
             this.lockFiles();
 
             try {
-                if (gzPath.exists() && compressedFileSize > 0)
-                    gzStream = new GZIPInputStream(new BoundedInputStream(new FileInputStream(gzPath), compressedFileSize));
+                long compressedContentSize = virtualSize - plainTextFileSize;
+
+                if (offset < compressedContentSize && gzPath.exists() && compressedFileSize > 0) {
+                    BlockIndex index = BlockIndex.read(indexPath, compressedFileSize);
+
+                    if (index.getCompressedSize() == compressedFileSize && compressedFileSize <= Integer.MAX_VALUE) {
+                        MappedByteBuffer data;
+                        try (FileChannel channel = FileChannel.open(gzPath.toPath(), StandardOpenOption.READ)) {
+                            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, compressedFileSize);
+                        }
+
+                        int block = index.find(Math.max(0L, offset));
+                        gzStream = new BlockInputStream(data, index, block, executor, readAhead);
+                        gzSkip = Math.max(0L, offset - index.getContentStart(block));
+                    } else {
+                        // content compressed before the introduction of the block index
+                        gzStream = new GZIPInputStream(new BoundedInputStream(new FileInputStream(gzPath), compressedFileSize));
+                        gzSkip = Math.max(0L, offset);
+                    }
+                }
+
+                if (path.exists() && plainTextFileSize > 0) {
+                    long skip = Math.max(0L, offset - compressedContentSize);
 
-                if (path.exists() && plainTextFileSize > 0)
-                    stream = new BoundedInputStream(new FileInputStream(path), plainTextFileSize);
+                    if (skip < plainTextFileSize) {
+                        FileInputStream plainStream = new FileInputStream(path);
+                        stream = new PlainTextInputStream(plainStream, plainTextFileSize - skip, plainTextGeneration);
+                        plainStream.getChannel().position(skip);
+                    }
+                }
             } finally {
                 this.unlockFiles();
             }
 
+            if (gzStream != null)
+                IOUtils.skipFully(gzStream, gzSkip);
+
             success = true;
 
-            if (gzStream != null && stream != null)
-                return new SequenceInputStream(gzStream, stream);
-            else if (gzStream != null)
-                return gzStream;
-            else if (stream != null)
-                return stream;
-            else
-                return new InputStream() {
-                    @Override
-                    public int read() {
-                        return -1;
-                    }
-                };
+            return new InputStream[]{gzStream, stream};
         } finally {
-            if (!success)
+            if (!success) {
                 IOUtils.closeQuietly(gzStream);
+                IOUtils.closeQuietly(stream);
+            }
+        }
+    }
+
+    private static InputStream concat(InputStream gzStream, InputStream stream) {
+        if (gzStream != null && stream != null)
+            return new SequenceInputStream(gzStream, stream);
+        else if (gzStream != null)
+            return gzStream;
+        else if (stream != null)
+            return stream;
+        else
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return -1;
+                }
+            };
+    }
+
+    private class PlainTextInputStream extends BoundedInputStream {
+
+        private final long generation;
+
+        PlainTextInputStream(InputStream in, long size, long generation) {
+            super(in, size);
+            this.generation = generation;
+        }
+
+        boolean isTruncated() {
+            lockFiles();
+            try {
+                return plainTextGeneration != generation;
+            } finally {
+                unlockFiles();
+            }
+        }
+
+    }
+
+    private class ExactLengthInputStream extends FilterInputStream {
+
+        private final long length;
+        private final PlainTextInputStream plainText;
+        private long count = 0;
+
+        ExactLengthInputStream(InputStream in, long length, PlainTextInputStream plainText) {
+            super(in);
+            this.length = length;
+            this.plainText = plainText;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (count >= length)
+                return end();
+
+            int b = in.read();
+            if (b < 0)
+                return end();
+
+            count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (count >= length)
+                return end();
+
+            int n = in.read(b, off, (int) Math.min(len, length - count));
+            if (n < 0)
+                return end();
+
+            count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, length - count));
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), length - count);
         }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private int end() throws IOException {
+            if (count < length)
+                throw new EOFException("Content of bucket " + Bucket.this + " ended after " + count + " of " + length + " bytes");
+            if (plainText != null && plainText.isTruncated())
+                throw new EOFException("Content of bucket " + Bucket.this + " has been compressed while reading it");
+
+            return -1;
+        }
+
     }
 
     @Override
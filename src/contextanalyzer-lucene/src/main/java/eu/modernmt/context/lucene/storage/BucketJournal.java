@@ -0,0 +1,312 @@
+package eu.modernmt.context.lucene.storage;
+
+import eu.modernmt.io.FileSystemUtils;
+import eu.modernmt.lang.Language;
+import eu.modernmt.lang.LanguageDirection;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Persistence of the {@link BucketRegistry}: every update is appended to a journal as a single record,
+ * protected by a checksum, and the whole registry is periodically written to a checkpoint, after which
+ * the journal starts over. At startup the checkpoint is loaded and the journal records written after it
+ * are replayed: a record that has not been completely written, because of a crash, is discarded together
+ * with everything after it.
+ */
+class BucketJournal implements Closeable {
+
+    private static final long CHECKPOINT_THRESHOLD = 32L * 1024L * 1024L; // 32 Mb
+
+    private static final int CHECKPOINT_MAGIC = 0x424b4350;
+    private static final int CHECKPOINT_VERSION = 1;
+    private static final int MAX_RECORD_LENGTH = 256 * 1024 * 1024;
+
+    private static final byte UPDATE_RECORD = 1;
+    private static final byte MARK_RECORD = 2;
+
+    interface Handler {
+
+        void onChannel(short channel, long position);
+
+        void onBucket(long id, LanguageDirection language, UUID owner, long size, long plainSize, long gzSize, long mark);
+
+        void onMark(long id, LanguageDirection language, long mark);
+
+    }
+
+    private final File checkpointPath;
+    private final File journalPath;
+
+    private FileOutputStream journal = null;
+    private long journalSize = 0;
+    private long sequence = 0;
+
+    BucketJournal(File root) {
+        this.checkpointPath = new File(root, "registry.ckp");
+        this.journalPath = new File(root, "registry.log");
+    }
+
+    boolean exists() {
+        return checkpointPath.exists() || journalPath.exists();
+    }
+
+    synchronized void open(Handler handler) throws IOException {
+        long checkpointSequence = checkpointPath.exists() ? readCheckpoint(handler) : 0L;
+        this.sequence = checkpointSequence;
+
+        // The journal is opened for writing only when needed, so that a registry can be read while in use
+        this.journalSize = journalPath.exists() ? replay(handler, checkpointSequence) : 0L;
+    }
+
+    private FileOutputStream getJournal() throws IOException {
+        if (journal == null) {
+            journal = new FileOutputStream(journalPath, true);
+            journal.getChannel().truncate(journalSize); // discard incomplete records
+        }
+
+        return journal;
+    }
+
+    // Writing
+
+    /**
+     * Appends the sizes of the given buckets and the given channel positions as a single record,
+     * that is synced to disk before returning.
+     */
+    synchronized void writeUpdate(Map<Short, Long> channels, Collection<Bucket> buckets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        output.writeByte(UPDATE_RECORD);
+        output.writeLong(++sequence);
+        writeState(output, channels, buckets);
+        output.flush();
+
+        writeRecord(bytes.toByteArray());
+        FileSystemUtils.fsync(getJournal());
+    }
+
+    /**
+     * Appends the mark of the given bucket, without syncing it to disk: a lost mark only causes
+     * the bucket to be analyzed again.
+     */
+    synchronized void writeMark(Bucket bucket) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        output.writeByte(MARK_RECORD);
+        output.writeLong(++sequence);
+        writeKey(output, bucket);
+        output.writeLong(bucket.mark);
+        output.flush();
+
+        writeRecord(bytes.toByteArray());
+    }
+
+    synchronized boolean needsCheckpoint() {
+        return journalSize >= CHECKPOINT_THRESHOLD;
+    }
+
+    synchronized void checkpoint(Map<Short, Long> channels, Collection<Bucket> buckets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        output.writeInt(CHECKPOINT_MAGIC);
+        output.writeInt(CHECKPOINT_VERSION);
+        output.writeLong(sequence);
+        writeState(output, channels, buckets);
+        output.flush();
+
+        byte[] content = bytes.toByteArray();
+        output.writeInt(checksum(content, 0, content.length));
+        output.flush();
+
+        FileSystemUtils.atomicWrite(checkpointPath, bytes.toByteArray());
+
+        // Records already in the checkpoint are skipped at replay, if the journal is not truncated
+        journalSize = 0;
+        getJournal().getChannel().truncate(0L);
+    }
+
+    private void writeRecord(byte[] payload) throws IOException {
+        byte[] record = new byte[payload.length + 8];
+        writeInt(record, 0, payload.length);
+        writeInt(record, 4, checksum(payload, 0, payload.length));
+        System.arraycopy(payload, 0, record, 8, payload.length);
+
+        getJournal().write(record);
+        journalSize += record.length;
+    }
+
+    private static void writeState(DataOutputStream output, Map<Short, Long> channels, Collection<Bucket> buckets) throws IOException {
+        output.writeInt(channels.size());
+        for (Map.Entry<Short, Long> entry : channels.entrySet()) {
+            output.writeShort(entry.getKey());
+            output.writeLong(entry.getValue());
+        }
+
+        output.writeInt(buckets.size());
+        for (Bucket bucket : buckets) {
+            UUID owner = bucket.getOwner();
+
+            writeKey(output, bucket);
+            output.writeLong(owner == null ? 0L : owner.getMostSignificantBits());
+            output.writeLong(owner == null ? 0L : owner.getLeastSignificantBits());
+            output.writeLong(bucket.virtualSize);
+            output.writeLong(bucket.plainTextFileSize);
+            output.writeLong(bucket.compressedFileSize);
+            output.writeLong(bucket.mark);
+        }
+    }
+
+    private static void writeKey(DataOutputStream output, Bucket bucket) throws IOException {
+        output.writeLong(bucket.getId());
+        output.writeUTF(bucket.getLanguage().source.toString());
+        output.writeUTF(bucket.getLanguage().target.toString());
+    }
+
+    // Reading
+
+    private long readCheckpoint(Handler handler) throws IOException {
+        byte[] content;
+
+        FileInputStream input = null;
+        try {
+            input = new FileInputStream(checkpointPath);
+            content = IOUtils.toByteArray(input);
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+
+        if (content.length < 4 || checksum(content, 0, content.length - 4) != readInt(content, content.length - 4))
+            throw new IOException("Corrupted bucket registry checkpoint: " + checkpointPath);
+
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(content, 0, content.length - 4));
+
+        if (data.readInt() != CHECKPOINT_MAGIC)
+            throw new IOException("Invalid bucket registry checkpoint: " + checkpointPath);
+        int version = data.readInt();
+        if (version != CHECKPOINT_VERSION)
+            throw new IOException("Unsupported bucket registry checkpoint version: " + version);
+
+        long sequence = data.readLong();
+        readState(data, handler);
+
+        return sequence;
+    }
+
+    private long replay(Handler handler, long checkpointSequence) throws IOException {
+        long validSize = 0;
+
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalPath)));
+
+            while (true) {
+                byte[] payload;
+
+                try {
+                    int length = input.readInt();
+                    int checksum = input.readInt();
+
+                    if (length <= 0 || length > MAX_RECORD_LENGTH)
+                        break;
+
+                    payload = new byte[length];
+                    input.readFully(payload);
+
+                    if (checksum(payload, 0, length) != checksum)
+                        break;
+                } catch (EOFException e) {
+                    break;
+                }
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                byte type = record.readByte();
+                long sequence = record.readLong();
+
+                if (sequence > checkpointSequence) {
+                    if (type == UPDATE_RECORD) {
+                        readState(record, handler);
+                    } else if (type == MARK_RECORD) {
+                        long id = record.readLong();
+                        LanguageDirection language = readLanguage(record);
+                        handler.onMark(id, language, record.readLong());
+                    } else {
+                        throw new IOException("Invalid bucket registry journal record: " + type);
+                    }
+
+                    this.sequence = sequence;
+                }
+
+                validSize += payload.length + 8;
+            }
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+
+        return validSize;
+    }
+
+    private static void readState(DataInputStream input, Handler handler) throws IOException {
+        int channels = input.readInt();
+        for (int i = 0; i < channels; i++)
+            handler.onChannel(input.readShort(), input.readLong());
+
+        int buckets = input.readInt();
+        for (int i = 0; i < buckets; i++) {
+            long id = input.readLong();
+            LanguageDirection language = readLanguage(input);
+            long msb = input.readLong();
+            long lsb = input.readLong();
+            UUID owner = (msb != 0L || lsb != 0L) ? new UUID(msb, lsb) : null;
+
+            long size = input.readLong();
+            long plainSize = input.readLong();
+            long gzSize = input.readLong();
+            long mark = input.readLong();
+
+            handler.onBucket(id, language, owner, size, plainSize, gzSize, mark);
+        }
+    }
+
+    private static LanguageDirection readLanguage(DataInputStream input) throws IOException {
+        Language source = Language.fromString(input.readUTF());
+        Language target = Language.fromString(input.readUTF());
+        return new LanguageDirection(source, target);
+    }
+
+    // Utils
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) |
+                ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+}
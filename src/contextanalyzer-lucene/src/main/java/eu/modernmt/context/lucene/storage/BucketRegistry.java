@@ -1,15 +1,22 @@
 package eu.modernmt.context.lucene.storage;
 
-import eu.modernmt.io.RuntimeIOException;
 import eu.modernmt.lang.Language;
 import eu.modernmt.lang.LanguageDirection;
+import org.apache.commons.io.FileUtils;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.sql.*;
 import java.util.*;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * The registry of the buckets metadata: it is entirely kept in memory, so that reads do not
+ * block the ingestion of new data, and persisted by a {@link BucketJournal}. Registries
+ * stored in the previous SQLite database are migrated when opened for the first time.
+ */
 public class BucketRegistry implements Closeable {
 
     private static File getBucketFolder(File path, long id) {
@@ -19,369 +26,243 @@ public class BucketRegistry implements Closeable {
 
     private final File root;
     private final boolean maskLanguageRegion;
-    private final Connection connection;
-    private final HashMap<CacheKey, Bucket> cache = new HashMap<>();
+    private final BucketJournal journal;
+    private final ConcurrentHashMap<CacheKey, Bucket> index = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<CacheKey, Bucket> pending = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Short, Long> channels = new ConcurrentHashMap<>();
 
     public BucketRegistry(File root, boolean maskLanguageRegion) throws IOException {
         this.root = root;
         this.maskLanguageRegion = maskLanguageRegion;
+        this.journal = new BucketJournal(root);
 
-        try {
-            File index = new File(root, "index");
-            Class.forName("org.sqlite.JDBC");
-            this.connection = DriverManager.getConnection("jdbc:sqlite:" + index.getAbsolutePath());
-
-            createDatabaseIfNotExists(connection);
-        } catch (SQLException e) {
-            throw new IOException(e);
-        } catch (ClassNotFoundException e) {
-            throw new Error(e);
-        }
-    }
+        File legacyIndex = new File(root, "index");
+        boolean migrate = !journal.exists() && legacyIndex.isFile();
 
-    private static void createDatabaseIfNotExists(Connection connection) throws SQLException {
-        Statement statement = connection.createStatement();
+        journal.open(new BucketJournal.Handler() {
 
-        try {
-            String sql = "CREATE TABLE IF NOT EXISTS buckets (" +
-                    "id INTEGER, source TEXT, target TEXT, " +
-                    "owner_lsb INTEGER, owner_msb INTEGER, " +
-                    "size INTEGER, plain_size INTEGER, gz_size INTEGER, mark INTEGER DEFAULT 0, " +
-                    "PRIMARY KEY (id, source, target))";
-            statement.executeUpdate(sql);
-        } finally {
-            statement.close();
-        }
+            @Override
+            public void onChannel(short channel, long position) {
+                channels.merge(channel, position, Math::max);
+            }
 
-        statement = connection.createStatement();
+            @Override
+            public void onBucket(long id, LanguageDirection language, UUID owner, long size, long plainSize, long gzSize, long mark) {
+                restore(id, language, owner, size, plainSize, gzSize, mark);
+            }
 
-        try {
-            String sql = "CREATE TABLE IF NOT EXISTS channels (id INTEGER PRIMARY KEY, position INTEGER)";
-            statement.executeUpdate(sql);
-        } finally {
-            statement.close();
-        }
-    }
+            @Override
+            public void onMark(long id, LanguageDirection language, long mark) {
+                Bucket bucket = index.get(new CacheKey(id, language, false));
+                if (bucket != null)
+                    bucket.mark = mark;
+            }
 
-    public synchronized int count() throws IOException {
-        Statement statement = null;
-        ResultSet result = null;
+        });
 
-        try {
-            statement = connection.createStatement();
-            result = statement.executeQuery("SELECT COUNT(*) FROM buckets WHERE size > 0");
+        if (migrate) {
+            migrate(legacyIndex);
 
-            return result.next() ? result.getInt(1) : 0;
-        } catch (SQLException e) {
-            throw new IOException(e);
-        } finally {
-            close(result);
-            close(statement);
+            journal.checkpoint(channels, index.values());
+            FileUtils.deleteQuietly(legacyIndex);
+            FileUtils.deleteQuietly(new File(root, "index-journal"));
         }
     }
 
-    public synchronized Bucket get(long id, LanguageDirection language, UUID owner) throws IOException {
-        CacheKey key = new CacheKey(id, language, this.maskLanguageRegion);
-
-        try {
-            return cache.computeIfAbsent(key, arg -> {
-                try {
-                    Bucket bucket = retrieve(arg.id, arg.language);
-                    return bucket == null ? new Bucket(getBucketFolder(this.root, id), arg.id, arg.language, owner) : bucket;
-                } catch (IOException e) {
-                    throw new RuntimeIOException(e);
-                }
-            });
-        } catch (RuntimeIOException e) {
-            throw e.getCause();
+    private void restore(long id, LanguageDirection language, UUID owner, long size, long plainSize, long gzSize, long mark) {
+        CacheKey key = new CacheKey(id, language, false);
+        Bucket bucket = index.get(key);
+
+        if (bucket == null) {
+            index.put(key, new Bucket(getBucketFolder(root, id), id, language, owner, plainSize, gzSize, size, mark));
+        } else {
+            bucket.virtualSize = size;
+            bucket.plainTextFileSize = plainSize;
+            bucket.compressedFileSize = gzSize;
+            bucket.mark = mark;
         }
     }
 
-    private synchronized Bucket retrieve(long id, LanguageDirection language) throws IOException {
-        PreparedStatement statement = null;
-        ResultSet result = null;
-
+    private void migrate(File legacyIndex) throws IOException {
         try {
-            statement = connection.prepareStatement("SELECT owner_lsb, owner_msb, size, plain_size, gz_size " +
-                    "FROM buckets WHERE id = ? AND source = ? AND target = ?");
-            statement.setLong(1, id);
-            statement.setString(2, language.source.toString());
-            statement.setString(3, language.target.toString());
-
-            result = statement.executeQuery();
-
-            if (result.next()) {
-                UUID owner = getUUID(result, 1, 2);
-                long size = result.getLong(3);
-                long plainSize = result.getLong(4);
-                long gzSize = result.getLong(5);
-
-                return new Bucket(getBucketFolder(this.root, id), id, language, owner, plainSize, gzSize, size);
-            } else {
-                return null;
-            }
-        } catch (SQLException e) {
-            throw new IOException(e);
-        } finally {
-            close(result);
-            close(statement);
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            throw new Error(e);
         }
-    }
-
-    public synchronized Set<Bucket> getAll(long id) throws IOException {
-        Set<Bucket> set = new HashSet<>();
 
-        Statement statement = null;
-        ResultSet result = null;
-
-        try {
-            statement = connection.createStatement();
-            result = statement.executeQuery("SELECT id, source, target, owner_lsb, owner_msb, size, plain_size, gz_size FROM buckets WHERE id = " + id);
-
-            while (result.next())
-                set.add(parseBucket(result));
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + legacyIndex.getAbsolutePath());
+             Statement statement = connection.createStatement()) {
+            try (ResultSet result = statement.executeQuery("SELECT id, source, target, owner_lsb, owner_msb, size, plain_size, gz_size, mark FROM buckets")) {
+                while (result.next()) {
+                    long id = result.getLong(1);
+                    Language source = Language.fromString(result.getString(2));
+                    Language target = Language.fromString(result.getString(3));
+                    long lsb = result.getLong(4);
+                    long msb = result.getLong(5);
+                    UUID owner = (lsb > 0 || msb > 0) ? new UUID(msb, lsb) : null;
+
+                    restore(id, new LanguageDirection(source, target), owner,
+                            result.getLong(6), result.getLong(7), result.getLong(8), result.getLong(9));
+                }
+            }
 
-            return set;
+            try (ResultSet result = statement.executeQuery("SELECT id, position FROM channels")) {
+                while (result.next())
+                    channels.put(result.getShort(1), result.getLong(2));
+            }
         } catch (SQLException e) {
-            throw new IOException(e);
-        } finally {
-            close(result);
-            close(statement);
+            throw new IOException("Unable to migrate bucket registry " + legacyIndex, e);
         }
     }
 
-    public synchronized Set<Bucket> getAll() throws IOException {
-        Set<Bucket> set = new HashSet<>();
+    public int count() {
+        int count = 0;
+        for (Bucket bucket : index.values()) {
+            if (bucket.virtualSize > 0)
+                count++;
+        }
 
-        Statement statement = null;
-        ResultSet result = null;
+        return count;
+    }
 
-        try {
-            statement = connection.createStatement();
-            result = statement.executeQuery("SELECT id, source, target, owner_lsb, owner_msb, size, plain_size, gz_size FROM buckets");
+    /**
+     * Returns the bucket with the given id and language: if it does not exist yet, a new
+     * bucket is returned, that is registered with its first {@link #update(Map, Set)}.
+     *
+     * @param id       the bucket id
+     * @param language the language direction of the bucket
+     * @param owner    the owner of the bucket, used only if it does not exist yet
+     * @return the bucket with the given id and language
+     */
+    public Bucket get(long id, LanguageDirection language, UUID owner) {
+        CacheKey key = new CacheKey(id, language, this.maskLanguageRegion);
 
-            while (result.next())
-                set.add(parseBucket(result));
+        Bucket bucket = index.get(key);
+        if (bucket == null)
+            bucket = pending.computeIfAbsent(key, arg -> new Bucket(getBucketFolder(this.root, arg.id), arg.id, arg.language, owner));
 
-            return set;
-        } catch (SQLException e) {
-            throw new IOException(e);
-        } finally {
-            close(result);
-            close(statement);
-        }
+        return bucket;
     }
 
-    public synchronized Set<Bucket> getUpdated(long minMisalignment, int limit) throws IOException {
+    public Set<Bucket> getAll(long id) {
         HashSet<Bucket> set = new HashSet<>();
-
-        Statement statement = null;
-        ResultSet result = null;
-
-        try {
-            statement = connection.createStatement();
-            result = statement.executeQuery(
-                    "SELECT id, source, target, owner_lsb, owner_msb, size, plain_size, gz_size " +
-                            "FROM buckets " +
-                            "WHERE mark > size OR (size - mark) >= " + minMisalignment + " " +
-                            "ORDER BY ABS(mark - size) DESC " +
-                            "LIMIT " + limit);
-
-            while (result.next())
-                set.add(parseBucket(result));
-
-            return set;
-        } catch (SQLException e) {
-            throw new IOException(e);
-        } catch (RuntimeIOException e) {
-            throw e.getCause();
-        } finally {
-            close(result);
-            close(statement);
+        for (Bucket bucket : index.values()) {
+            if (bucket.getId() == id)
+                set.add(bucket);
         }
-    }
-
-    private Bucket parseBucket(ResultSet result) throws SQLException {
-        long id = result.getLong(1);
-        final Language source = Language.fromString(result.getString(2));
-        final Language target = Language.fromString(result.getString(3));
-        final UUID owner = getUUID(result, 4, 5);
-        final long size = result.getLong(6);
-        final long plainSize = result.getLong(7);
-        final long gzSize = result.getLong(8);
 
-        CacheKey key = new CacheKey(id, new LanguageDirection(source, target), this.maskLanguageRegion);
-        Bucket bucket = cache.computeIfAbsent(key,
-                arg -> new Bucket(getBucketFolder(root, arg.id), arg.id, arg.language, owner, plainSize, gzSize, size));
-
-        return bucket;
+        return set;
     }
 
-    public synchronized void mark(Bucket bucket, long mark) throws IOException {
-        PreparedStatement statement = null;
+    public Set<Bucket> getAll() {
+        return new HashSet<>(index.values());
+    }
 
-        try {
-            statement = connection.prepareStatement("UPDATE buckets SET mark = ? WHERE id = ? AND source = ? AND target = ?");
-            statement.setLong(1, mark);
-            statement.setLong(2, bucket.getId());
-            statement.setString(3, bucket.getLanguage().source.toString());
-            statement.setString(4, bucket.getLanguage().target.toString());
+    public Set<Bucket> getUpdated(long minMisalignment, int limit) {
+        // marks and sizes change concurrently: they are read once, so that the sort compares stable values
+        return index.values().stream()
+                .map(Misalignment::new)
+                .filter(misalignment -> misalignment.isUpdated(minMisalignment))
+                .sorted(Comparator.comparingLong((Misalignment misalignment) -> misalignment.value).reversed())
+                .limit(limit)
+                .map(misalignment -> misalignment.bucket)
+                .collect(Collectors.toCollection(HashSet::new));
+    }
 
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new IOException(e);
-        } finally {
-            close(statement);
+    /**
+     * Marks the given size of the bucket content as indexed. The mark is not updated if it has
+     * changed since the bucket analysis started, i.e. if the content has been deleted in the meantime.
+     *
+     * @param bucket   the bucket
+     * @param previous the mark of the bucket when its analysis started
+     * @param mark     the size of the bucket content that has been indexed
+     * @return true if the mark has been updated
+     * @throws IOException if an error occurs while writing the registry journal
+     */
+    public boolean mark(Bucket bucket, long previous, long mark) throws IOException {
+        synchronized (journal) {
+            if (bucket.mark != previous)
+                return false;
+
+            bucket.mark = mark;
+            journal.writeMark(bucket);
+            return true;
         }
     }
 
-    public synchronized Map<Short, Long> getChannels() throws IOException {
-        HashMap<Short, Long> map = new HashMap<>();
-
-        Statement statement = null;
-        ResultSet result = null;
-
-        try {
-            statement = connection.createStatement();
-            result = statement.executeQuery("SELECT id, position FROM channels");
-
-            while (result.next()) {
-                Short id = result.getShort(1);
-                Long position = result.getLong(2);
-
-                map.put(id, position);
-            }
-
-            return map;
-        } catch (SQLException e) {
-            throw new IOException(e);
-        } finally {
-            close(result);
-            close(statement);
-        }
+    public Map<Short, Long> getChannels() {
+        return new HashMap<>(channels);
     }
 
+    /**
+     * Persists the new sizes of the given buckets together with the given channel positions, with a single
+     * journal record. Updates must not be concurrent: they are expected to come from the ingestion of the
+     * data batches, that are processed in order.
+     *
+     * @param channels the new channel positions
+     * @param buckets  the buckets that have been written
+     * @throws IOException if an error occurs while writing the registry journal
+     */
     public synchronized void update(Map<Short, Long> channels, Set<Bucket> buckets) throws IOException {
-        boolean success = false;
-
-        PreparedStatement channelStatement = null;
-        PreparedStatement iBucketStatement = null;
-        PreparedStatement uBucketStatement = null;
-
-        try {
-            connection.setAutoCommit(false);
-
-            channelStatement = connection.prepareStatement("INSERT OR REPLACE INTO channels(id, position) VALUES (?, ?)");
-            iBucketStatement = connection.prepareStatement("INSERT INTO buckets(id, source, target, owner_lsb, owner_msb, size, plain_size, gz_size) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
-            uBucketStatement = connection.prepareStatement("UPDATE buckets SET size = ?, plain_size = ?, gz_size = ? WHERE id = ? AND source = ? AND target = ?");
-
-            for (Map.Entry<Short, Long> entry : channels.entrySet()) {
-                channelStatement.setShort(1, entry.getKey());
-                channelStatement.setLong(2, entry.getValue());
-                channelStatement.executeUpdate();
+        synchronized (journal) {
+            for (Bucket bucket : buckets) {
+                // Deleted content: the indexed document cannot be updated incrementally anymore
+                if (bucket.reset) {
+                    bucket.mark = -1;
+                    bucket.reset = false;
+                }
             }
 
+            journal.writeUpdate(channels, buckets);
+
             for (Bucket bucket : buckets) {
-                // Create or update
-                uBucketStatement.setLong(1, bucket.virtualSize);
-                uBucketStatement.setLong(2, bucket.plainTextFileSize);
-                uBucketStatement.setLong(3, bucket.compressedFileSize);
-                uBucketStatement.setLong(4, bucket.getId());
-                uBucketStatement.setString(5, bucket.getLanguage().source.toString());
-                uBucketStatement.setString(6, bucket.getLanguage().target.toString());
-
-                if (uBucketStatement.executeUpdate() == 0) {
-                    UUID owner = bucket.getOwner();
-
-                    iBucketStatement.setLong(1, bucket.getId());
-                    iBucketStatement.setString(2, bucket.getLanguage().source.toString());
-                    iBucketStatement.setString(3, bucket.getLanguage().target.toString());
-                    iBucketStatement.setLong(4, owner == null ? 0L : owner.getLeastSignificantBits());
-                    iBucketStatement.setLong(5, owner == null ? 0L : owner.getMostSignificantBits());
-                    iBucketStatement.setLong(6, bucket.virtualSize);
-                    iBucketStatement.setLong(7, bucket.plainTextFileSize);
-                    iBucketStatement.setLong(8, bucket.compressedFileSize);
-
-                    iBucketStatement.executeUpdate();
-                }
+                CacheKey key = new CacheKey(bucket.getId(), bucket.getLanguage(), false);
+                index.putIfAbsent(key, bucket);
+                pending.remove(key);
             }
 
-            connection.commit();
-            success = true;
-        } catch (SQLException e) {
-            throw new IOException(e);
-        } finally {
-            finalizeTransaction(connection, success);
+            for (Map.Entry<Short, Long> entry : channels.entrySet())
+                this.channels.merge(entry.getKey(), entry.getValue(), Math::max);
 
-            close(channelStatement);
-            close(iBucketStatement);
-            close(uBucketStatement);
+            if (journal.needsCheckpoint())
+                journal.checkpoint(this.channels, index.values());
         }
     }
 
-    private static void finalizeTransaction(Connection connection, boolean success) throws IOException {
+    @Override
+    public synchronized void close() throws IOException {
         try {
-            if (!success)
-                connection.rollback();
-        } catch (SQLException e) {
-            throw new IOException(e);
-        } finally {
-            try {
-                connection.setAutoCommit(true);
-            } catch (SQLException e) {
-                throw new IOException(e);
-            }
-        }
-    }
-
-    private static void close(Statement statement) throws IOException {
-        if (statement != null) {
-            try {
-                statement.close();
-            } catch (SQLException e) {
-                throw new IOException(e);
-            }
-        }
-    }
+            for (Bucket bucket : index.values())
+                bucket.getWriter().close();
+            for (Bucket bucket : pending.values())
+                bucket.getWriter().close();
 
-    private static void close(ResultSet result) throws IOException {
-        if (result != null) {
-            try {
-                result.close();
-            } catch (SQLException e) {
-                throw new IOException(e);
+            synchronized (journal) {
+                journal.checkpoint(channels, index.values());
             }
+        } finally {
+            journal.close();
         }
     }
 
-    private static UUID getUUID(ResultSet result, int lsbIndex, int msbIndex) throws SQLException {
-        long lsb = result.getLong(lsbIndex);
-        long msb = result.getLong(msbIndex);
+    private static class Misalignment {
 
-        UUID uuid = null;
-        if (lsb > 0 || msb > 0)
-            uuid = new UUID(msb, lsb);
-        return uuid;
-    }
+        private final Bucket bucket;
+        private final long mark;
+        private final long size;
+        private final long value;
 
-    public synchronized void clearCache() {
-        this.cache.clear();
-    }
-
-    @Override
-    public synchronized void close() throws IOException {
-        try {
-            for (Bucket bucket : cache.values())
-                bucket.getWriter().close();
+        Misalignment(Bucket bucket) {
+            this.bucket = bucket;
+            this.mark = bucket.mark;
+            this.size = bucket.virtualSize;
+            this.value = Math.abs(mark - size);
+        }
 
-            cache.clear();
-        } finally {
-            try {
-                this.connection.close();
-            } catch (SQLException e) {
-                // Ignore it
-            }
+        boolean isUpdated(long minMisalignment) {
+            return mark < 0 || mark > size || (size - mark) >= minMisalignment;
         }
+
     }
 
     private static class CacheKey {
@@ -12,6 +12,7 @@ import java.util.zip.GZIPOutputStream;
 public class BucketWriter implements Closeable {
 
     private static final long COMPRESS_THRESHOLD = 50L * 1024L; // 50 Kb
+    private static final int COMPRESSION_BLOCK_SIZE = 64 * 1024; // 64 Kb
 
     private static FileOutputStream openStream(File path, long size) throws IOException {
         File parent = path.getParentFile();
@@ -53,12 +54,18 @@ public class BucketWriter implements Closeable {
                 this.bucket.plainTextFileSize = 0;
                 this.bucket.compressedFileSize = 0;
                 this.bucket.virtualSize = 0;
+                this.bucket.reset = true;
+                this.bucket.plainTextGeneration++;
 
                 IOUtils.closeQuietly(this.stream);
                 this.stream = null;
 
                 FileUtils.deleteQuietly(this.bucket.gzPath);
+                FileUtils.deleteQuietly(this.bucket.indexPath);
                 FileUtils.deleteQuietly(this.bucket.path);
+
+                // The bucket can be written again from scratch
+                this.deleted = false;
             } finally {
                 this.bucket.unlockFiles();
             }
@@ -66,47 +73,81 @@ public class BucketWriter implements Closeable {
             FileSystemUtils.fsync(stream);
 
             long size = stream.getChannel().position();
-            bucket.virtualSize += size - bucket.plainTextFileSize;
 
-            // Compress if needed
-            if (size >= COMPRESS_THRESHOLD) {
-                this.bucket.lockFiles();
+            // Sizes are updated together, readers use them to locate content offsets
+            this.bucket.lockFiles();
+
+            try {
+                bucket.virtualSize += size - bucket.plainTextFileSize;
 
-                try {
+                // Compress if needed
+                if (size >= COMPRESS_THRESHOLD) {
                     IOUtils.closeQuietly(this.stream);
                     this.stream = null;
 
-                    bucket.compressedFileSize = compress();
+                    bucket.compressedFileSize = compress(size);
                     bucket.plainTextFileSize = 0;
-                } finally {
-                    this.bucket.unlockFiles();
+                    bucket.plainTextGeneration++;
+                } else {
+                    bucket.plainTextFileSize = size;
                 }
-            } else {
-                bucket.plainTextFileSize = size;
+            } finally {
+                this.bucket.unlockFiles();
             }
         }
     }
 
-    private long compress() throws IOException {
-        GZIPOutputStream gzOutput = null;
+    /*
+     * Appends the plain text content to the compressed file as a sequence of blocks, each one a complete
+     * gzip member that can be decompressed independently, and appends the blocks to the block index.
+     * The block index is written after the compressed file, it is valid only up to the compressed
+     * size committed to the registry.
+     */
+    private long compress(long size) throws IOException {
+        BlockIndex.Appender index = new BlockIndex.Appender(BlockIndex.read(bucket.indexPath, bucket.compressedFileSize));
+
+        // Content compressed before the introduction of the block index is covered by a single block
+        if (index.getCompressedEnd() < bucket.compressedFileSize)
+            index.add(bucket.compressedFileSize, bucket.virtualSize - size, BlockIndex.UNKNOWN_LINES);
+
+        FileOutputStream output = null;
         FileInputStream input = null;
 
         try {
-            FileOutputStream output = openStream(bucket.gzPath, bucket.compressedFileSize);
-            gzOutput = new GZIPOutputStream(output);
-
+            output = openStream(bucket.gzPath, bucket.compressedFileSize);
             input = new FileInputStream(bucket.path);
 
-            IOUtils.copy(input, gzOutput);
-            gzOutput.finish();
-            gzOutput.flush();
+            byte[] block = new byte[COMPRESSION_BLOCK_SIZE];
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(COMPRESSION_BLOCK_SIZE);
+
+            long remaining = size;
+            while (remaining > 0) {
+                int length = (int) Math.min(remaining, block.length);
+                IOUtils.readFully(input, block, 0, length);
+                remaining -= length;
+
+                long lines = 0;
+                for (int i = 0; i < length; i++) {
+                    if (block[i] == '\n')
+                        lines++;
+                }
+
+                compressed.reset();
+                GZIPOutputStream gzOutput = new GZIPOutputStream(compressed);
+                gzOutput.write(block, 0, length);
+                gzOutput.close();
+
+                compressed.writeTo(output);
+                index.add(index.getCompressedEnd() + compressed.size(), index.getContentEnd() + length, lines);
+            }
 
             FileSystemUtils.fsync(output);
+            index.write(bucket.indexPath);
 
             return output.getChannel().position();
         } finally {
             IOUtils.closeQuietly(input);
-            IOUtils.closeQuietly(gzOutput);
+            IOUtils.closeQuietly(output);
         }
     }
 
@@ -116,8 +157,10 @@ public class BucketWriter implements Closeable {
 
     @Override
     public void close() throws IOException {
-        if (stream != null)
+        if (stream != null) {
             stream.close();
+            stream = null; // re-opened by the next append
+        }
     }
 
 }
@@ -42,8 +42,8 @@ public class CorporaStorage implements LogDataListener, Closeable {
         return buckets.getUpdated(minMisalignment, limit);
     }
 
-    public void markUpdate(Bucket bucket, long size) throws IOException {
-        buckets.mark(bucket, size);
+    public boolean markUpdate(Bucket bucket, long previousMark, long size) throws IOException {
+        return buckets.mark(bucket, previousMark, size);
     }
 
     private boolean skipData(short channel, long position) {
@@ -111,8 +111,6 @@ public class CorporaStorage implements LogDataListener, Closeable {
         Map<Short, Long> updatedChannels = advanceChannels(channels, batch.getChannelPositions());
         buckets.update(updatedChannels, pendingUpdatesBuckets);
         channels.putAll(updatedChannels);
-
-        buckets.clearCache();
     }
 
     @Override
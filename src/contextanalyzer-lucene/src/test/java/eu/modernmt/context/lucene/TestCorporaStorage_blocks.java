@@ -0,0 +1,230 @@
+package eu.modernmt.context.lucene;
+
+import eu.modernmt.context.lucene.storage.Bucket;
+import eu.modernmt.context.lucene.storage.CorporaStorage;
+import eu.modernmt.data.DataBatch;
+import eu.modernmt.data.Deletion;
+import eu.modernmt.data.TranslationUnit;
+import eu.modernmt.io.UTF8Charset;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static eu.modernmt.context.lucene.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestCorporaStorage_blocks {
+
+    private File path;
+    private CorporaStorage storage;
+    private long position = 0;
+
+    @Before
+    public void setup() throws Throwable {
+        path = Files.createTempDirectory("TestCorporaStorage_blocks").toFile();
+        storage = new CorporaStorage(path);
+    }
+
+    @After
+    public void teardown() throws Throwable {
+        if (storage != null)
+            storage.close();
+        storage = null;
+
+        FileUtils.deleteDirectory(path);
+    }
+
+    private List<TranslationUnit> units(int size) {
+        Random random = new Random(position);
+        ArrayList<TranslationUnit> units = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            StringBuilder source = new StringBuilder();
+            for (int w = 0; w < 10; w++)
+                source.append(" word").append(random.nextInt(10000));
+
+            long p = position++;
+            units.add(tu(0, p, 1L, EN__IT, source.toString().trim(), "target " + p, null));
+        }
+
+        return units;
+    }
+
+    private void write(final List<TranslationUnit> units) throws IOException {
+        final Map<Short, Long> positions = TestData.channels(0, position - 1);
+
+        storage.onDataReceived(new DataBatch() {
+
+            @Override
+            public Collection<TranslationUnit> getTranslationUnits() {
+                return units;
+            }
+
+            @Override
+            public Collection<Deletion> getDeletions() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public Map<Short, Long> getChannelPositions() {
+                return positions;
+            }
+
+        });
+    }
+
+    private static byte[] read(Bucket bucket, long offset, ExecutorService executor) throws IOException {
+        InputStream stream = null;
+        try {
+            stream = bucket.getContentStream(offset, executor, 4);
+            return IOUtils.toByteArray(stream);
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    private static void assertContent(byte[] expected, Bucket bucket, ExecutorService executor) throws IOException {
+        assertEquals(expected.length, bucket.getSize());
+        assertArrayEquals(expected, read(bucket, 0L, executor));
+
+        Random random = new Random(expected.length);
+        for (int i = 0; i < 20; i++) {
+            int offset = random.nextInt(expected.length);
+            assertArrayEquals(Arrays.copyOfRange(expected, offset, expected.length), read(bucket, offset, executor));
+        }
+
+        assertEquals(0, read(bucket, expected.length, executor).length);
+    }
+
+    private static byte[] content(List<TranslationUnit> units) {
+        return (tuGetContent(units, true) + '\n').getBytes(UTF8Charset.get());
+    }
+
+    @Test
+    public void compressedBlocks() throws Throwable {
+        List<TranslationUnit> units = new ArrayList<>();
+
+        // the first batch is compressed in multiple blocks, the second one is left in the plain text file
+        for (int size : new int[]{3000, 50}) {
+            List<TranslationUnit> batch = units(size);
+            units.addAll(batch);
+            write(batch);
+        }
+
+        Bucket bucket = storage.getRegistry().get(1L, EN__IT, null);
+        assertContent(content(units), bucket, null);
+    }
+
+    @Test
+    public void parallelDecompression() throws Throwable {
+        List<TranslationUnit> units = new ArrayList<>();
+
+        for (int size : new int[]{3000, 2000, 50}) {
+            List<TranslationUnit> batch = units(size);
+            units.addAll(batch);
+            write(batch);
+        }
+
+        Bucket bucket = storage.getRegistry().get(1L, EN__IT, null);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertContent(content(units), bucket, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void legacyCompressedContent() throws Throwable {
+        List<TranslationUnit> units = new ArrayList<>(units(3000));
+        write(units);
+
+        // content compressed before the introduction of the block index
+        Collection<File> indexes = FileUtils.listFiles(path, new String[]{"idx"}, true);
+        assertFalse(indexes.isEmpty());
+        for (File index : indexes)
+            FileUtils.forceDelete(index);
+
+        Bucket bucket = storage.getRegistry().get(1L, EN__IT, null);
+        assertContent(content(units), bucket, null);
+
+        // the legacy content is covered by a single block when new content is compressed
+        List<TranslationUnit> batch = units(3000);
+        units.addAll(batch);
+        write(batch);
+
+        assertFalse(FileUtils.listFiles(path, new String[]{"idx"}, true).isEmpty());
+        assertContent(content(units), bucket, null);
+    }
+
+    @Test
+    public void reopen() throws Throwable {
+        List<TranslationUnit> units = new ArrayList<>();
+
+        for (int size : new int[]{3000, 3000, 50}) {
+            List<TranslationUnit> batch = units(size);
+            units.addAll(batch);
+            write(batch);
+        }
+
+        storage.close();
+        storage = new CorporaStorage(path);
+
+        Bucket bucket = storage.getRegistry().get(1L, EN__IT, null);
+        assertContent(content(units), bucket, null);
+    }
+
+    @Test
+    public void exactLengthContent() throws Throwable {
+        List<TranslationUnit> units = units(50);
+        write(units);
+
+        Bucket bucket = storage.getRegistry().get(1L, EN__IT, null);
+        byte[] expected = content(units);
+
+        try (InputStream stream = bucket.getContentStream(0L, expected.length, null, 0)) {
+            assertArrayEquals(expected, IOUtils.toByteArray(stream));
+        }
+
+        try (InputStream stream = bucket.getContentStream(10L, expected.length - 20, null, 0)) {
+            assertArrayEquals(Arrays.copyOfRange(expected, 10, expected.length - 10), IOUtils.toByteArray(stream));
+        }
+
+        try (InputStream stream = bucket.getContentStream(0L, expected.length + 1, null, 0)) {
+            IOUtils.toByteArray(stream);
+            fail("Expected EOFException");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void plainTextCompressedWhileReading() throws Throwable {
+        List<TranslationUnit> units = units(50);
+        write(units);
+
+        Bucket bucket = storage.getRegistry().get(1L, EN__IT, null);
+        byte[] expected = content(units);
+
+        try (InputStream stream = bucket.getContentStream(0L, expected.length, null, 0)) {
+            // the plain text file is compressed and truncated, then written again
+            write(units(3000));
+            write(units(50));
+
+            IOUtils.toByteArray(stream);
+        }
+    }
+
+}
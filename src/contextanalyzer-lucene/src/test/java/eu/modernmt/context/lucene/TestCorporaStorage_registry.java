@@ -0,0 +1,260 @@
+package eu.modernmt.context.lucene;
+
+import eu.modernmt.context.lucene.storage.Bucket;
+import eu.modernmt.context.lucene.storage.CorporaStorage;
+import eu.modernmt.data.DataBatch;
+import eu.modernmt.data.Deletion;
+import eu.modernmt.data.TranslationUnit;
+import eu.modernmt.io.UTF8Charset;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.*;
+
+import static eu.modernmt.context.lucene.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestCorporaStorage_registry {
+
+    private File path;
+    private long position = 0;
+
+    @Before
+    public void setup() throws Throwable {
+        path = Files.createTempDirectory("TestCorporaStorage_registry").toFile();
+    }
+
+    @After
+    public void teardown() throws Throwable {
+        FileUtils.deleteDirectory(path);
+    }
+
+    private List<TranslationUnit> units(long memory, int size) {
+        ArrayList<TranslationUnit> units = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            long p = position++;
+            units.add(tu(0, p, memory, EN__IT, "hello world " + p, "ciao mondo " + p, null));
+        }
+
+        return units;
+    }
+
+    private static void write(CorporaStorage storage, final List<TranslationUnit> units, final Deletion deletion) throws IOException {
+        final Map<Short, Long> positions = new HashMap<>();
+        for (TranslationUnit unit : units)
+            positions.merge(unit.channel, unit.channelPosition, Math::max);
+        if (deletion != null)
+            positions.merge(deletion.channel, deletion.channelPosition, Math::max);
+
+        storage.onDataReceived(new DataBatch() {
+
+            @Override
+            public Collection<TranslationUnit> getTranslationUnits() {
+                return units;
+            }
+
+            @Override
+            public Collection<Deletion> getDeletions() {
+                return deletion == null ? Collections.emptyList() : Collections.singleton(deletion);
+            }
+
+            @Override
+            public Map<Short, Long> getChannelPositions() {
+                return positions;
+            }
+
+        });
+    }
+
+    private static Map<String, String> snapshot(CorporaStorage storage) throws IOException {
+        HashMap<String, String> result = new HashMap<>();
+
+        for (Bucket bucket : storage.getRegistry().getAll()) {
+            String content;
+
+            InputStream stream = null;
+            try {
+                stream = bucket.getContentStream();
+                content = IOUtils.toString(stream, UTF8Charset.get());
+            } finally {
+                IOUtils.closeQuietly(stream);
+            }
+
+            result.put(bucket.toString(), bucket.getSize() + ":" + bucket.getMark() + ":" + content);
+        }
+
+        return result;
+    }
+
+    private void populate(CorporaStorage storage) throws IOException {
+        write(storage, units(1L, 10), null);
+        write(storage, units(2L, 5), null);
+        write(storage, units(1L, 10), null);
+
+        Bucket bucket = storage.getRegistry().get(2L, EN__IT, null);
+        assertTrue(storage.markUpdate(bucket, 0L, bucket.getSize()));
+
+        write(storage, Collections.emptyList(), deletion(0L, 3L));
+    }
+
+    @Test
+    public void reopen() throws Throwable {
+        Map<String, String> expected;
+        Map<Short, Long> expectedChannels;
+
+        CorporaStorage storage = new CorporaStorage(path);
+        try {
+            populate(storage);
+            expected = snapshot(storage);
+            expectedChannels = new HashMap<>(storage.getLatestChannelPositions());
+        } finally {
+            storage.close();
+        }
+
+        assertFalse(new File(path, "index").exists());
+
+        storage = new CorporaStorage(path);
+        try {
+            assertEquals(expected, snapshot(storage));
+            assertEquals(expectedChannels, storage.getLatestChannelPositions());
+            assertEquals(4, storage.size());
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void recoverFromJournal() throws Throwable {
+        // the storage is not closed, as after a crash: the registry is replayed from the journal
+        CorporaStorage crashed = new CorporaStorage(path);
+        populate(crashed);
+
+        Map<String, String> expected = snapshot(crashed);
+        Map<Short, Long> expectedChannels = new HashMap<>(crashed.getLatestChannelPositions());
+
+        CorporaStorage storage = new CorporaStorage(path);
+        try {
+            assertEquals(expected, snapshot(storage));
+            assertEquals(expectedChannels, storage.getLatestChannelPositions());
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void discardIncompleteRecord() throws Throwable {
+        CorporaStorage crashed = new CorporaStorage(path);
+        populate(crashed);
+
+        Map<String, String> expected = snapshot(crashed);
+
+        // a record partially written before a crash
+        try (FileOutputStream journal = new FileOutputStream(new File(path, "registry.log"), true)) {
+            journal.write(new byte[]{0, 0, 0, 42, 1, 2, 3});
+        }
+
+        CorporaStorage storage = new CorporaStorage(path);
+        try {
+            assertEquals(expected, snapshot(storage));
+
+            write(storage, units(1L, 2), null);
+            expected = snapshot(storage);
+        } finally {
+            storage.close();
+        }
+
+        storage = new CorporaStorage(path);
+        try {
+            assertEquals(expected, snapshot(storage));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void resetMarkOnDeletion() throws Throwable {
+        CorporaStorage storage = new CorporaStorage(path);
+        try {
+            write(storage, units(1L, 10), null);
+
+            Bucket bucket = storage.getRegistry().get(1L, EN__IT, null);
+            long size = bucket.getSize();
+            assertTrue(storage.markUpdate(bucket, 0L, size));
+
+            write(storage, Collections.emptyList(), deletion(0L, 1L));
+            assertEquals(-1L, bucket.getMark());
+
+            // the analysis started before the deletion cannot overwrite the reset mark
+            assertFalse(storage.markUpdate(bucket, size, size));
+            assertEquals(-1L, bucket.getMark());
+
+            // the bucket can be written again
+            write(storage, units(1L, 2), null);
+            Set<Bucket> updated = storage.getUpdatedBuckets(Long.MAX_VALUE, 100);
+            assertEquals(2, updated.size());
+            assertTrue(updated.contains(bucket));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void migrateLegacyRegistry() throws Throwable {
+        Class.forName("org.sqlite.JDBC");
+
+        File index = new File(path, "index");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + index.getAbsolutePath());
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE buckets (" +
+                    "id INTEGER, source TEXT, target TEXT, " +
+                    "owner_lsb INTEGER, owner_msb INTEGER, " +
+                    "size INTEGER, plain_size INTEGER, gz_size INTEGER, mark INTEGER DEFAULT 0, " +
+                    "PRIMARY KEY (id, source, target))");
+            statement.executeUpdate("CREATE TABLE channels (id INTEGER PRIMARY KEY, position INTEGER)");
+
+            statement.executeUpdate("INSERT INTO buckets VALUES (1, 'en', 'it', 0, 0, 120, 120, 0, 100)");
+            statement.executeUpdate("INSERT INTO buckets VALUES (1, 'it', 'en', 0, 0, 110, 110, 0, 110)");
+            statement.executeUpdate("INSERT INTO buckets VALUES (2, 'en', 'it', 2, 1, 0, 0, 0, 30)");
+            statement.executeUpdate("INSERT INTO channels VALUES (0, 41)");
+            statement.executeUpdate("INSERT INTO channels VALUES (1, 7)");
+        }
+
+        Map<Short, Long> expectedChannels = new HashMap<>();
+        expectedChannels.put((short) 0, 41L);
+        expectedChannels.put((short) 1, 7L);
+
+        for (int i = 0; i < 2; i++) {
+            CorporaStorage storage = new CorporaStorage(path);
+            try {
+                assertFalse(index.exists());
+                assertEquals(expectedChannels, storage.getLatestChannelPositions());
+                assertEquals(2, storage.size());
+
+                Bucket bucket = storage.getRegistry().get(1L, EN__IT, null);
+                assertEquals(120L, bucket.getSize());
+                assertEquals(100L, bucket.getMark());
+
+                bucket = storage.getRegistry().get(2L, EN__IT, null);
+                assertEquals(0L, bucket.getSize());
+                assertEquals(30L, bucket.getMark());
+                assertEquals(new UUID(1L, 2L), bucket.getOwner());
+
+                assertEquals(2, storage.getUpdatedBuckets(1L, 100).size());
+            } finally {
+                storage.close();
+            }
+        }
+    }
+
+}
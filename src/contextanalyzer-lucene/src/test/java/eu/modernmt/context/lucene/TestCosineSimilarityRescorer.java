@@ -0,0 +1,153 @@
+package eu.modernmt.context.lucene;
+
+import eu.modernmt.context.lucene.analysis.ContextAnalyzerIndex;
+import eu.modernmt.context.lucene.analysis.CorpusAnalyzer;
+import eu.modernmt.context.lucene.analysis.CorpusContentField;
+import eu.modernmt.context.lucene.analysis.DocumentBuilder;
+import eu.modernmt.context.lucene.analysis.LuceneUtils;
+import eu.modernmt.context.lucene.analysis.rescoring.CosineSimilarityRescorer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+
+import static eu.modernmt.context.lucene.TestData.EN__IT;
+import static org.junit.Assert.assertEquals;
+
+public class TestCosineSimilarityRescorer {
+
+    private static final String FIELD = DocumentBuilder.makeContentFieldName(EN__IT);
+
+    private final CorpusAnalyzer analyzer = new CorpusAnalyzer();
+    private final Random random = new Random(42);
+    private final Map<Long, String> contents = new HashMap<>();
+
+    private Directory directory;
+    private ContextAnalyzerIndex index;
+    private CosineSimilarityRescorer rescorer;
+
+    @Before
+    public void setup() throws Throwable {
+        directory = new RAMDirectory();
+        rescorer = new CosineSimilarityRescorer(4);
+    }
+
+    @After
+    public void teardown() throws Throwable {
+        rescorer.close();
+        if (index != null)
+            index.close();
+    }
+
+    private String text(int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++)
+            text.append(" term").append(random.nextInt(1000));
+        return text.toString();
+    }
+
+    private Map<String, Float> termFrequencies(String text) throws IOException {
+        Document document = DocumentBuilder.newInstance(null, 0L, EN__IT, new StringReader(text));
+        return LuceneUtils.getTermFrequencies(analyzer, document, FIELD);
+    }
+
+    private void addDocuments(long firstMemory, int count) throws IOException {
+        for (long memory = firstMemory; memory < firstMemory + count; memory++) {
+            String content = text(50 + random.nextInt(2000));
+            contents.put(memory, content);
+            index.update(DocumentBuilder.newInstance(null, memory, EN__IT, new StringReader(content)));
+        }
+
+        index.flush();
+    }
+
+    // Documents written with term vectors and without norms, as before their introduction
+    private void addLegacyDocuments(long firstMemory, int count) throws IOException {
+        FieldType type = new FieldType(CorpusContentField.TYPE_NOT_STORED);
+        type.setStoreTermVectors(true);
+
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_4_10_4, analyzer))) {
+            for (long memory = firstMemory; memory < firstMemory + count; memory++) {
+                String content = text(50 + random.nextInt(2000));
+                contents.put(memory, content);
+
+                Document document = DocumentBuilder.newInstance(null, memory, EN__IT, new StringReader(content));
+                document.removeField(FIELD);
+                document.add(new Field(FIELD, content, type));
+                writer.addDocument(document);
+            }
+        }
+    }
+
+    private static double cosineSimilarity(Map<String, Float> a, Map<String, Float> b) {
+        double dotProduct = 0;
+        for (Map.Entry<String, Float> entry : a.entrySet()) {
+            Float other = b.get(entry.getKey());
+            if (other != null)
+                dotProduct += entry.getValue() * other;
+        }
+
+        return dotProduct / (LuceneUtils.getL2Norm(a) * LuceneUtils.getL2Norm(b));
+    }
+
+    private void assertSameScores(String reference) throws IOException {
+        IndexReader reader = index.getIndexReader();
+        Map<String, Float> referenceTerms = termFrequencies(reference);
+
+        ArrayList<ScoreDoc> docs = new ArrayList<>();
+        for (int i = 0; i < reader.maxDoc(); i++)
+            docs.add(new ScoreDoc(i, 0.f));
+        Collections.shuffle(docs, random);
+
+        ScoreDoc[] topDocs = docs.toArray(new ScoreDoc[0]);
+        rescorer.rescore(reader, topDocs, referenceTerms, FIELD);
+
+        for (ScoreDoc doc : topDocs) {
+            long memory = DocumentBuilder.getMemory(reader.document(doc.doc));
+            double expected = cosineSimilarity(referenceTerms, termFrequencies(contents.get(memory)));
+
+            assertEquals(expected, doc.score, 1e-5);
+        }
+    }
+
+    @Test
+    public void shortReference() throws Throwable {
+        index = new ContextAnalyzerIndex(directory, null);
+        addDocuments(1, 20);
+
+        assertSameScores(text(10));
+    }
+
+    @Test
+    public void longReference() throws Throwable {
+        index = new ContextAnalyzerIndex(directory, null);
+        addDocuments(1, 10);
+        addDocuments(11, 10);
+
+        assertSameScores(text(5000));
+    }
+
+    @Test
+    public void legacyDocuments() throws Throwable {
+        addLegacyDocuments(1, 10);
+        index = new ContextAnalyzerIndex(directory, null);
+        addDocuments(11, 10);
+
+        assertSameScores(text(10));
+        assertSameScores(text(5000));
+    }
+
+}
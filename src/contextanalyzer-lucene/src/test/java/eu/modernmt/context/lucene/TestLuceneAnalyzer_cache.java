@@ -0,0 +1,142 @@
+package eu.modernmt.context.lucene;
+
+import eu.modernmt.config.AnalyzerConfig;
+import eu.modernmt.data.TranslationUnit;
+import eu.modernmt.model.ContextVector;
+import eu.modernmt.model.Memory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import static eu.modernmt.context.lucene.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestLuceneAnalyzer_cache {
+
+    private TLuceneAnalyzer analyzer;
+    private ContextVectorCache cache;
+
+    @Before
+    public void setup() throws Throwable {
+        AnalyzerConfig config = new AnalyzerConfig(null);
+        config.setCacheSize(100);
+
+        this.analyzer = new TLuceneAnalyzer(config);
+        this.cache = analyzer.getContextVectorCache();
+
+        this.analyzer.onDataReceived(new Memory(1), TestData.corpus("none", EN__IT, "hello world 1\nhello world 2", "ciao mondo 1\nciao mondo 2"));
+        this.analyzer.onDataReceived(new Memory(2), TestData.corpus("none", EN__IT, "the test 1\nthe test 2", "il test 1\nil test 2"));
+    }
+
+    @After
+    public void teardown() throws Throwable {
+        if (this.analyzer != null)
+            this.analyzer.close();
+        this.analyzer = null;
+    }
+
+    private static void assertSameVector(ContextVector expected, ContextVector actual) {
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void repeatedRequests() throws Throwable {
+        ContextVector expected = analyzer.getContextVector(null, EN__IT, "hello world", 10);
+        ContextVector result = analyzer.getContextVector(null, EN__IT, "hello world", 10);
+
+        assertEquals(1, expected.size());
+        assertSameVector(expected, result);
+        assertNotSame(expected, result);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void sameAnalyzedTerms() throws Throwable {
+        ContextVector expected = analyzer.getContextVector(null, EN__IT, "hello world", 10);
+        ContextVector result = analyzer.getContextVector(null, EN__IT, "Hello, WORLD!", 10);
+
+        assertSameVector(expected, result);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void differentRequests() throws Throwable {
+        analyzer.getContextVector(null, EN__IT, "hello world", 10);
+        analyzer.getContextVector(null, EN__IT, "hello world", 5);
+        analyzer.getContextVector(UUID.randomUUID(), EN__IT, "hello world", 10);
+        analyzer.getContextVector(null, EN__IT, "hello world hello", 10);
+
+        assertEquals(0, cache.getHitCount());
+        assertEquals(4, cache.size());
+    }
+
+    @Test
+    public void emptyVectorsNotCached() throws Throwable {
+        assertTrue(analyzer.getContextVector(null, EN__IT, "unknown", 10).isEmpty());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void invalidationOnMemoryUpdate() throws Throwable {
+        ContextVector original = analyzer.getContextVector(null, EN__IT, "hello world", 10);
+
+        TranslationUnit unit = tu(0, 10L, 1L, EN__IT, "hello there", "ciao a tutti", null);
+        analyzer.onDataReceived(Collections.singletonList(unit));
+
+        assertTrue(cache.getInvalidationCount() > 0);
+
+        ContextVector result = analyzer.getContextVector(null, EN__IT, "hello world", 10);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertNotEquals(original.toString(), result.toString());
+    }
+
+    @Test
+    public void invalidationOnMemoryDeletion() throws Throwable {
+        analyzer.getContextVector(null, EN__IT, "hello world", 10);
+        analyzer.onDelete(TestData.deletion(1));
+
+        assertEquals(1, cache.getInvalidationCount());
+        assertTrue(analyzer.getContextVector(null, EN__IT, "hello world", 10).isEmpty());
+    }
+
+    @Test
+    public void invalidationOnNewMemory() throws Throwable {
+        ContextVector original = analyzer.getContextVector(null, EN__IT, "hello world", 10);
+        assertFalse(original.toString().contains("3:"));
+
+        analyzer.onDataReceived(new Memory(3), TestData.corpus("none", EN__IT,
+                "hello world\nhello world hello world\nworld hello", "ciao mondo\nciao mondo ciao mondo\nmondo ciao"));
+
+        ContextVector result = analyzer.getContextVector(null, EN__IT, "hello world", 10);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(3L, result.iterator().next().memory.getId());
+    }
+
+    @Test
+    public void noInvalidationForOtherLanguages() throws Throwable {
+        analyzer.getContextVector(null, EN__IT, "hello world", 10);
+        analyzer.onDataReceived(new Memory(3), TestData.corpus("none", EN__FR, "hello world", "bonjour le monde"));
+
+        analyzer.getContextVector(null, EN__IT, "hello world", 10);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void expiration() throws Throwable {
+        ContextVectorCache cache = new ContextVectorCache(10, 50L);
+        ContextVectorCache.Key key = cache.key(EN__IT, null, 10, Collections.singletonMap("hello", 1.f));
+
+        cache.put(key, ContextVector.fromString("1:0.5"), cache.epoch());
+        assertNotNull(cache.get(key));
+
+        Thread.sleep(100L);
+        assertNull(cache.get(key));
+    }
+
+}
@@ -0,0 +1,224 @@
+package eu.modernmt.context.lucene;
+
+import eu.modernmt.config.AnalyzerConfig;
+import eu.modernmt.context.lucene.analysis.ContextAnalyzerIndex;
+import eu.modernmt.context.lucene.analysis.CorpusAnalyzer;
+import eu.modernmt.context.lucene.analysis.DocumentBuilder;
+import eu.modernmt.context.lucene.analysis.LuceneUtils;
+import eu.modernmt.context.lucene.storage.Bucket;
+import eu.modernmt.data.DataBatch;
+import eu.modernmt.data.Deletion;
+import eu.modernmt.data.TranslationUnit;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+
+import static eu.modernmt.context.lucene.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestLuceneAnalyzer_incrementalAnalysis {
+
+    private TLuceneAnalyzer analyzer;
+    private long position = 0;
+
+    @Before
+    public void setup() throws Throwable {
+        AnalyzerConfig config = new AnalyzerConfig(null);
+        config.setAnalyze(false);
+
+        this.analyzer = new TLuceneAnalyzer(config);
+    }
+
+    @After
+    public void teardown() throws Throwable {
+        if (this.analyzer != null)
+            this.analyzer.close();
+        this.analyzer = null;
+    }
+
+    private List<TranslationUnit> units(int size, int words) {
+        Random random = new Random(position);
+        ArrayList<TranslationUnit> units = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            StringBuilder source = new StringBuilder();
+            StringBuilder target = new StringBuilder();
+
+            for (int w = 0; w < words; w++) {
+                int word = random.nextInt(500);
+                source.append(" source").append(word);
+                target.append(" target").append(word);
+            }
+
+            units.add(tu(0, position++, 1L, EN__IT, source.toString().trim(), target.toString().trim(), null));
+        }
+
+        return units;
+    }
+
+    private static Map<String, Float> analyze(String content) throws IOException {
+        Document document = DocumentBuilder.newInstance(null, 1L, EN__IT, new StringReader(content));
+        return LuceneUtils.getTermFrequencies(new CorpusAnalyzer(), document, DocumentBuilder.makeContentFieldName(EN__IT));
+    }
+
+    private Document getIndexedDocument() throws IOException {
+        IndexSearcher searcher = analyzer.getIndex().getIndexSearcher();
+        TopDocs docs = searcher.search(new TermQuery(DocumentBuilder.makeIdTerm(DocumentBuilder.makeId(1L, EN__IT))), 1);
+        return docs.scoreDocs.length == 0 ? null : searcher.doc(docs.scoreDocs[0].doc);
+    }
+
+    private void replaceIndexedDocument(String content, long size) throws IOException {
+        ContextAnalyzerIndex index = analyzer.getIndex();
+        Document document = DocumentBuilder.newInstance(null, 1L, EN__IT, new StringReader(content));
+
+        if (size < 0)
+            index.update(document);
+        else
+            index.update(document, size);
+
+        index.flush();
+    }
+
+    private void assertIndexedContent(String content) throws IOException {
+        Bucket bucket = analyzer.getStorage().getBucket(1L, EN__IT);
+        Document document = getIndexedDocument();
+
+        assertEquals(analyze(content), DocumentBuilder.getContentTermFrequencies(document));
+        assertEquals(bucket.getSize(), DocumentBuilder.getContentSize(document));
+        assertEquals(bucket.getSize(), bucket.getMark());
+    }
+
+    private void sendToStorage(final List<TranslationUnit> units, final Deletion deletion) throws IOException {
+        analyzer.getStorage().onDataReceived(new DataBatch() {
+
+            @Override
+            public Collection<TranslationUnit> getTranslationUnits() {
+                return units;
+            }
+
+            @Override
+            public Collection<Deletion> getDeletions() {
+                return deletion == null ? Collections.emptyList() : Collections.singleton(deletion);
+            }
+
+            @Override
+            public Map<Short, Long> getChannelPositions() {
+                Map<Short, Long> positions = new HashMap<>(TestData.channels(0, position - 1));
+                if (deletion != null)
+                    positions.put(deletion.channel, deletion.channelPosition);
+                return positions;
+            }
+
+        });
+    }
+
+    @Test
+    public void appendedContent() throws Throwable {
+        List<TranslationUnit> units = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            List<TranslationUnit> batch = units(10, 8);
+            units.addAll(batch);
+
+            analyzer.onDataReceived(batch);
+            assertIndexedContent(tuGetContent(units, true));
+        }
+    }
+
+    @Test
+    public void appendedCompressedContent() throws Throwable {
+        List<TranslationUnit> units = new ArrayList<>();
+
+        // the analyzed content is compressed by the second batch and the third one is appended to it
+        for (int words : new int[]{8, 50, 8}) {
+            List<TranslationUnit> batch = units(words == 8 ? 10 : 200, words);
+            units.addAll(batch);
+
+            analyzer.onDataReceived(batch);
+            assertIndexedContent(tuGetContent(units, true));
+        }
+    }
+
+    @Test
+    public void onlyAppendedContentIsAnalyzed() throws Throwable {
+        List<TranslationUnit> units = new ArrayList<>(units(10, 8));
+        analyzer.onDataReceived(units);
+
+        String content = tuGetContent(units, true);
+        long size = analyzer.getStorage().getBucket(1L, EN__IT).getSize();
+
+        // a term that is not in the bucket content, it is kept if the indexed content is not analyzed again
+        replaceIndexedDocument(content + "\nsentinel", size);
+
+        List<TranslationUnit> batch = units(10, 8);
+        units.addAll(batch);
+        analyzer.onDataReceived(batch);
+
+        assertIndexedContent(tuGetContent(units, true) + "\nsentinel");
+    }
+
+    @Test
+    public void mismatchingDocumentIsReindexed() throws Throwable {
+        List<TranslationUnit> units = new ArrayList<>(units(10, 8));
+        analyzer.onDataReceived(units);
+
+        replaceIndexedDocument(tuGetContent(units, true) + "\nsentinel", 1L);
+
+        List<TranslationUnit> batch = units(10, 8);
+        units.addAll(batch);
+        analyzer.onDataReceived(batch);
+
+        assertIndexedContent(tuGetContent(units, true));
+    }
+
+    @Test
+    public void legacyDocumentIsReindexed() throws Throwable {
+        List<TranslationUnit> units = new ArrayList<>(units(10, 8));
+        analyzer.onDataReceived(units);
+
+        replaceIndexedDocument(tuGetContent(units, true) + "\nsentinel", -1L);
+        assertEquals(-1L, DocumentBuilder.getContentSize(getIndexedDocument()));
+
+        List<TranslationUnit> batch = units(10, 8);
+        units.addAll(batch);
+        analyzer.onDataReceived(batch);
+
+        assertIndexedContent(tuGetContent(units, true));
+    }
+
+    @Test
+    public void contentResetByDeletion() throws Throwable {
+        analyzer.onDataReceived(units(10, 8));
+
+        // the content is deleted and written again before the analysis
+        sendToStorage(Collections.emptyList(), deletion(1L));
+        assertNull(analyzer.getStorage().getBucket(1L, EN__IT));
+
+        List<TranslationUnit> units = units(20, 8);
+        sendToStorage(units, null);
+
+        Bucket bucket = analyzer.getStorage().getBucket(1L, EN__IT);
+        assertTrue(bucket.getMark() < 0);
+
+        analyzer.forceAnalysis();
+        assertIndexedContent(tuGetContent(units, true));
+    }
+
+    @Test
+    public void deletedContent() throws Throwable {
+        analyzer.onDataReceived(units(10, 8));
+        analyzer.onDelete(deletion(1L));
+
+        assertNull(getIndexedDocument());
+        assertEquals(0, analyzer.getIndexSize());
+    }
+
+}
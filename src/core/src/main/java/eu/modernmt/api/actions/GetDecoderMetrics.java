@@ -0,0 +1,19 @@
+package eu.modernmt.api.actions;
+
+import eu.modernmt.api.framework.HttpMethod;
+import eu.modernmt.api.framework.Parameters;
+import eu.modernmt.api.framework.RESTRequest;
+import eu.modernmt.api.framework.actions.ObjectAction;
+import eu.modernmt.api.framework.routing.Route;
+import eu.modernmt.decoder.neural.metrics.DecoderMetrics;
+import eu.modernmt.facade.ModernMT;
+
+@Route(aliases = "_metrics", method = HttpMethod.GET, log = false)
+public class GetDecoderMetrics extends ObjectAction<DecoderMetrics.Snapshot> {
+
+    @Override
+    protected DecoderMetrics.Snapshot execute(RESTRequest req, Parameters params) {
+        return ModernMT.decoderMetrics();
+    }
+
+}
@@ -8,6 +8,8 @@ import eu.modernmt.cluster.error.FailedToJoinClusterException;
 import eu.modernmt.config.NodeConfig;
 import eu.modernmt.decoder.Decoder;
 import eu.modernmt.decoder.DecoderException;
+import eu.modernmt.decoder.neural.NeuralDecoder;
+import eu.modernmt.decoder.neural.metrics.DecoderMetrics;
 import eu.modernmt.engine.BootstrapException;
 import eu.modernmt.engine.Engine;
 import eu.modernmt.facade.exceptions.TestFailedException;
@@ -83,6 +85,19 @@ public class ModernMT {
         return new ServerInfo(new ServerInfo.ClusterInfo(nodes), new ServerInfo.BuildInfo(BUILD_VERSION, BUILD_NUMBER), memorySize);
     }
 
+    /**
+     * @return the metrics of the local decoder pipeline, or null if the local node has no neural decoder
+     */
+    public static DecoderMetrics.Snapshot decoderMetrics() {
+        try {
+            Decoder decoder = getNode().getEngine().getDecoder();
+            return decoder instanceof NeuralDecoder ? ((NeuralDecoder) decoder).getMetrics() : null;
+        } catch (IllegalStateException | UnsupportedOperationException e) {
+            // Engine not yet loaded or decoder not available
+            return null;
+        }
+    }
+
     public static void test(boolean strict) throws TestFailedException {
         ClusterNode node = getNode();
 
@@ -1,6 +1,8 @@
 package eu.modernmt.decoder.neural;
 
+import eu.modernmt.decoder.DecoderException;
 import eu.modernmt.decoder.TranslationTimeoutException;
+import eu.modernmt.decoder.neural.metrics.DecoderMetrics;
 import eu.modernmt.decoder.neural.queue.DecoderQueue;
 import eu.modernmt.decoder.neural.queue.PythonDecoder;
 import eu.modernmt.decoder.neural.scheduler.Scheduler;
@@ -16,11 +18,33 @@ public class DecoderExecutorThread extends Thread {
     private final Scheduler scheduler;
     private final DecoderQueue queue;
     private final DecoderExecutor executor;
+    private final DecoderMetrics metrics;
+    private final DecoderPoolScaler scaler;
+
+    private volatile boolean retired = false;
 
     public DecoderExecutorThread(Scheduler scheduler, DecoderQueue queue, DecoderExecutor executor) {
+        this(scheduler, queue, executor, null, null);
+    }
+
+    public DecoderExecutorThread(Scheduler scheduler, DecoderQueue queue, DecoderExecutor executor, DecoderMetrics metrics) {
+        this(scheduler, queue, executor, metrics, null);
+    }
+
+    public DecoderExecutorThread(Scheduler scheduler, DecoderQueue queue, DecoderExecutor executor, DecoderMetrics metrics, DecoderPoolScaler scaler) {
         this.scheduler = scheduler;
         this.queue = queue;
         this.executor = executor;
+        this.metrics = metrics;
+        this.scaler = scaler;
+    }
+
+    /**
+     * Makes this thread terminate as soon as the job it is executing is completed,
+     * if it is waiting for a job it terminates after executing the next one.
+     */
+    public void retire() {
+        this.retired = true;
     }
 
     private Scheduler.Job take() {
@@ -35,7 +59,12 @@ public class DecoderExecutorThread extends Thread {
     public void run() {
         Scheduler.Job job;
 
-        while ((job = take()) != null) {
+        while (!retired && (job = take()) != null) {
+            if (metrics != null)
+                metrics.onJobTaken(job.getTranslationSplits());
+            if (scaler != null)
+                scaler.onJobTaken(job.getTranslationSplits());
+
             List<TranslationSplit> splits = filter(job.getTranslationSplits());
 
             if (!splits.isEmpty()) {
@@ -53,7 +82,15 @@ public class DecoderExecutorThread extends Thread {
                         executor.align(decoder, language, splits);
                     else
                         executor.translate(decoder, language, splits, job.getSuggestions());
+
+                    long time = System.currentTimeMillis() - timestamp;
+                    scheduler.onTranslationCompleted(language, splits, time);
+                    if (metrics != null)
+                        metrics.onTranslationCompleted(language, splits, time);
                 } catch (Throwable e) {
+                    if (metrics != null)
+                        metrics.onTranslationFailed(job.getLanguageDirection());
+
                     for (TranslationSplit split : job.getTranslationSplits())
                         split.setException(e);
                 } finally {
@@ -68,6 +105,11 @@ public class DecoderExecutorThread extends Thread {
         ArrayList<TranslationSplit> result = new ArrayList<>(splits.size());
 
         for (TranslationSplit split : splits) {
+            if (split.isAbandoned()) {
+                split.setException(new DecoderException("Translation abandoned"));
+                continue;
+            }
+
             try {
                 split.ensureValid();
 
@@ -0,0 +1,92 @@
+package eu.modernmt.decoder.neural;
+
+import eu.modernmt.decoder.neural.queue.DecoderQueueImpl;
+import eu.modernmt.decoder.neural.scheduler.Scheduler;
+import eu.modernmt.decoder.neural.scheduler.TranslationSplit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically resizes an elastic pool of decoder processes: a process is added when jobs have waited
+ * in the scheduler longer than a given threshold since the last check, or when a job still in queue has
+ * already waited that long (so that a backlog is detected even if all the processes are busy or stalled),
+ * an idle process is stopped after a cool-down period when no job is waiting.
+ * Processes are added and stopped one at a time, the pool bounds are enforced by the {@link DecoderQueueImpl}.
+ */
+public class DecoderPoolScaler implements Closeable {
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final Scheduler scheduler;
+    private final DecoderQueueImpl decoderQueue;
+    private final long maxQueueTime;
+    private final long idleTime;
+    private final AtomicLong queueTime = new AtomicLong(0L);
+    private final ScheduledExecutorService timer;
+
+    /**
+     * @param scheduler    the scheduler feeding the pool
+     * @param decoderQueue the elastic pool of decoder processes
+     * @param maxQueueTime the queue waiting time in milliseconds above which a new process is started
+     * @param idleTime     the time in milliseconds a process must be idle before it is stopped
+     */
+    public DecoderPoolScaler(Scheduler scheduler, DecoderQueueImpl decoderQueue, long maxQueueTime, long idleTime) {
+        this.scheduler = scheduler;
+        this.decoderQueue = decoderQueue;
+        this.maxQueueTime = maxQueueTime;
+        this.idleTime = idleTime;
+
+        long period = Math.max(100L, Math.min(1000L, maxQueueTime));
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DecoderPoolScaler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.scheduleWithFixedDelay(this::resize, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records the time the splits of a job have waited in queue.
+     *
+     * @param splits the splits of a job taken from the scheduler
+     */
+    public void onJobTaken(List<TranslationSplit> splits) {
+        long now = System.currentTimeMillis();
+
+        long time = 0L;
+        for (TranslationSplit split : splits)
+            time = Math.max(time, now - split.getQueueWaitingBegin());
+
+        queueTime.accumulateAndGet(time, Math::max);
+    }
+
+    void resize() {
+        try {
+            // jobs still waiting in queue are not recorded by onJobTaken() until a process is available
+            long queueTime = Math.max(this.queueTime.getAndSet(0L), scheduler.getMaxQueueWaitingTime());
+
+            if (queueTime > maxQueueTime) {
+                if (decoderQueue.grow())
+                    logger.info("Jobs waited in queue up to " + queueTime + "ms, starting a new decoder process");
+            } else if (scheduler.getQueueSize() == 0) {
+                decoderQueue.shrink(idleTime);
+            }
+        } catch (Throwable e) {
+            // an exception would suppress subsequent executions
+            logger.error("Failed to resize the decoder pool", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+}
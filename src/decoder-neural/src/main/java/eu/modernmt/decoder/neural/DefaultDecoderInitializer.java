@@ -3,11 +3,14 @@ package eu.modernmt.decoder.neural;
 import eu.modernmt.config.DecoderConfig;
 import eu.modernmt.decoder.Decoder;
 import eu.modernmt.decoder.DecoderException;
-import eu.modernmt.decoder.neural.memory.lucene.LuceneTranslationMemory;
+import eu.modernmt.decoder.neural.memory.lucene.ShardedTranslationMemory;
 import eu.modernmt.decoder.neural.queue.DecoderQueue;
 import eu.modernmt.decoder.neural.queue.DecoderQueueImpl;
 import eu.modernmt.decoder.neural.queue.PythonDecoder;
 import eu.modernmt.decoder.neural.queue.PythonDecoderImpl;
+import eu.modernmt.decoder.neural.scheduler.BatchingScheduler;
+import eu.modernmt.decoder.neural.scheduler.DeadlinePolicy;
+import eu.modernmt.decoder.neural.scheduler.FairScheduler;
 import eu.modernmt.decoder.neural.scheduler.Scheduler;
 import eu.modernmt.decoder.neural.scheduler.SentenceBatchScheduler;
 import eu.modernmt.memory.TranslationMemory;
@@ -35,22 +38,37 @@ public class DefaultDecoderInitializer implements DecoderInitializer {
 
     @Override
     public TranslationMemory createTranslationMemory(DecoderConfig config, ModelConfig modelConfig, File model) throws IOException {
-        return new LuceneTranslationMemory(model, modelConfig.getQueryMinimumResults());
+        return ShardedTranslationMemory.open(model, config.getMemoryShards(), modelConfig.getQueryMinimumResults());
     }
 
     @Override
     public DecoderQueue createDecoderQueue(DecoderConfig config, ModelConfig modelConfig, File model) throws DecoderException {
-        PythonDecoder.Builder builder = new PythonDecoderImpl.Builder(getJarPath(), model);
+        PythonDecoder.Builder builder = new PythonDecoderImpl.Builder(getJarPath(), model)
+                .setBinaryProtocol(config.isBinaryProtocol())
+                .setPipelined(config.getMaxInFlight() > 1);
 
         if (config.isUsingGPUs())
-            return DecoderQueueImpl.newGPUInstance(modelConfig, builder, config.getGPUs());
+            return DecoderQueueImpl.newGPUInstance(modelConfig, builder, config.getGPUs(), config.getMaxInFlight());
+        else if (config.isElasticPool())
+            return DecoderQueueImpl.newElasticCPUInstance(modelConfig, builder, config.getThreads(), config.getMaxThreads(), config.getMaxInFlight());
         else
-            return DecoderQueueImpl.newCPUInstance(modelConfig, builder, config.getThreads());
+            return DecoderQueueImpl.newCPUInstance(modelConfig, builder, config.getThreads(), config.getMaxInFlight());
     }
 
     @Override
-    public Scheduler createScheduler(DecoderConfig config, ModelConfig modelConfig, int queueSize) {
-        return new SentenceBatchScheduler(queueSize);
+    public Scheduler createScheduler(DecoderConfig config, ModelConfig modelConfig, DecoderQueue decoderQueue, int queueSize) {
+        long affinityDelay = config.getMaxAffinityDelay();
+
+        if (config.getScheduling() == DecoderConfig.Scheduling.FAIR)
+            return new FairScheduler(queueSize, config.getMaxUserQueueSize(), decoderQueue::isWarm, affinityDelay);
+
+        DeadlinePolicy deadlinePolicy = config.getScheduling() == DecoderConfig.Scheduling.DEADLINE ?
+                new DeadlinePolicy(() -> decoderQueue.size() * decoderQueue.depth()) : null;
+
+        if (config.isBatchingEnabled())
+            return new BatchingScheduler(queueSize, config.getMaxBatchTokens(), config.getMaxBatchWait(), decoderQueue::isWarm, affinityDelay, deadlinePolicy);
+        else
+            return new SentenceBatchScheduler(queueSize, decoderQueue::isWarm, affinityDelay, deadlinePolicy);
     }
 
     @Override
@@ -1,11 +1,13 @@
 package eu.modernmt.decoder.neural;
 
 import eu.modernmt.config.DecoderConfig;
+import eu.modernmt.data.DataBatch;
 import eu.modernmt.data.LogDataListener;
 import eu.modernmt.data.DataListenerProvider;
 import eu.modernmt.decoder.Decoder;
 import eu.modernmt.decoder.DecoderException;
 import eu.modernmt.decoder.DecoderListener;
+import eu.modernmt.decoder.neural.metrics.DecoderMetrics;
 import eu.modernmt.decoder.neural.queue.*;
 import eu.modernmt.decoder.neural.scheduler.Scheduler;
 import eu.modernmt.decoder.neural.scheduler.TranslationSplit;
@@ -26,7 +28,7 @@ import org.apache.logging.log4j.Logger;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 
 /**
  * Created by davide on 22/05/17.
@@ -40,10 +42,17 @@ public class NeuralDecoder extends Decoder implements DataListenerProvider {
     private final TranslationMemory memory;
     private final Set<LanguageDirection> directions;
     private final Scheduler scheduler;
-    private final DecoderExecutorThread[] executors;
+    private final DecoderExecutor executor;
+    private final ArrayList<DecoderExecutorThread> executors = new ArrayList<>();
+    private final ArrayList<DecoderExecutorThread> retiredExecutors = new ArrayList<>();
+    private final DecoderPoolScaler scaler;
     private final DecoderQueue decoderQueue;
+    private final TranslationCache cache;
+    private final ExecutorService lookupExecutor;
+    private final DecoderMetrics metrics = new DecoderMetrics();
 
     private volatile long lastSuccessfulTranslation = 0L;
+    private volatile DecoderListener listener = null;
 
     public NeuralDecoder(File model, DecoderConfig config) throws DecoderException {
         this(model, config, new DefaultDecoderInitializer());
@@ -71,18 +80,47 @@ public class NeuralDecoder extends Decoder implements DataListenerProvider {
             throw new DecoderException("Failed to initialize memory", e);
         }
 
+        // Translation Cache
+        this.cache = config.isCacheEnabled() ? new TranslationCache(config.getCacheSize()) : null;
+
+        // Suggestions lookup
+        this.lookupExecutor = config.getLookupThreads() > 0 ? Executors.newFixedThreadPool(config.getLookupThreads()) : null;
+
         // Decoder Queue
-        this.decoderQueue = this.echoServer ? new EchoServerDecoderQueue() : init.createDecoderQueue(config, modelConfig, model);
+        this.decoderQueue = this.echoServer ? new EchoServerDecoderQueue(config.isBinaryProtocol()) : init.createDecoderQueue(config, modelConfig, model);
 
         // Scheduler
-        this.scheduler = init.createScheduler(config, modelConfig, config.getQueueSize());
+        this.scheduler = init.createScheduler(config, modelConfig, this.decoderQueue, config.getQueueSize());
+
+        // Elastic pool
+        this.scaler = config.isElasticPool() && this.decoderQueue instanceof DecoderQueueImpl ?
+                new DecoderPoolScaler(this.scheduler, (DecoderQueueImpl) this.decoderQueue, config.getScaleUpWait(), config.getScaleDownDelay()) : null;
+
+        // Executors, one per request that can be in flight on the decoder processes
+        this.executor = init.createDecoderExecutor(config, modelConfig);
+        resizeExecutors(this.decoderQueue.size());
+        this.decoderQueue.setListener(new DecoderQueueListener());
+    }
 
-        // Executors
-        DecoderExecutor executor = init.createDecoderExecutor(config, modelConfig);
-        this.executors = new DecoderExecutorThread[this.decoderQueue.size()];
-        for (int i = 0; i < this.executors.length; i++) {
-            this.executors[i] = new DecoderExecutorThread(this.scheduler, this.decoderQueue, executor);
-            this.executors[i].start();
+    private void resizeExecutors(int processes) {
+        int size = processes * this.decoderQueue.depth();
+
+        synchronized (executors) {
+            while (executors.size() < size) {
+                DecoderExecutorThread thread = new DecoderExecutorThread(this.scheduler, this.decoderQueue, this.executor, this.metrics, this.scaler);
+                executors.add(thread);
+                thread.start();
+            }
+
+            if (executors.size() > size) {
+                retiredExecutors.removeIf(thread -> !thread.isAlive());
+
+                while (executors.size() > size) {
+                    DecoderExecutorThread thread = executors.remove(executors.size() - 1);
+                    thread.retire();
+                    retiredExecutors.add(thread);
+                }
+            }
         }
     }
 
@@ -93,13 +131,50 @@ public class NeuralDecoder extends Decoder implements DataListenerProvider {
         return memory;
     }
 
+    /**
+     * @return the translation cache, or null if the cache is disabled
+     */
+    public TranslationCache getTranslationCache() {
+        return cache;
+    }
+
+    /**
+     * @return a snapshot of the decoder pipeline metrics
+     */
+    public DecoderMetrics.Snapshot getMetrics() {
+        return metrics.snapshot(scheduler, decoderQueue, cache);
+    }
+
     @Override
     public void setListener(DecoderListener listener) {
-        if (decoderQueue != null)
-            decoderQueue.setListener(listener);
+        this.listener = listener;
         listener.onTranslationDirectionsChanged(directions);
     }
 
+    /*
+     * Keeps the number of executors in line with the number of processes in service
+     * (it changes only with an elastic pool), then forwards the event to the decoder listener
+     */
+    private class DecoderQueueListener implements DecoderListener {
+
+        @Override
+        public void onTranslationDirectionsChanged(Set<LanguageDirection> directions) {
+            DecoderListener listener = NeuralDecoder.this.listener;
+            if (listener != null)
+                listener.onTranslationDirectionsChanged(directions);
+        }
+
+        @Override
+        public void onDecoderAvailabilityChanged(int currentAvailability, int maxAvailability) {
+            resizeExecutors(maxAvailability);
+
+            DecoderListener listener = NeuralDecoder.this.listener;
+            if (listener != null)
+                listener.onDecoderAvailabilityChanged(currentAvailability, maxAvailability);
+        }
+
+    }
+
     @Override
     public boolean isLanguageSupported(LanguageDirection language) {
         return this.directions.contains(language);
@@ -118,37 +193,65 @@ public class NeuralDecoder extends Decoder implements DataListenerProvider {
         if (!text.hasWords())
             return Translation.emptyTranslation(text);
 
-        // Search for suggestions
+        // Search in cache
+        TranslationCache.Key cacheKey = null;
+        long cacheEpoch = 0L;
+
+        if (cache != null) {
+            cacheKey = cache.key(direction, user, text, context);
+
+            Translation cached = cache.get(cacheKey, text);
+            if (cached != null)
+                return cached;
+
+            cacheEpoch = cache.epoch();
+        }
+
+        // Search for suggestions and schedule translation
         long lookupBegin = System.currentTimeMillis();
-        ScoreEntry[] suggestions = lookup(user, direction, text, context);
-        long lookupTime = System.currentTimeMillis() - lookupBegin;
+        List<Sentence> textSplits = lookupExecutor != null && context != null && !context.isEmpty() ? split(text) : null;
 
-        // Scheduling translation
-        Scheduler.TranslationLock lock;
-        TranslationSplit[] splits;
+        ScoreEntry[] suggestions;
+        TranslationSplit[] splits = null;
+        Scheduler.TranslationLock[] locks = null;
 
-        if (suggestions != null && suggestions[0].score == 1.f) {  // align
-            TranslationSplit split = new TranslationSplit(priority, text, suggestions[0].translationTokens, timeout);
-            splits = new TranslationSplit[]{split};
-            lock = scheduler.schedule(direction, split);
+        if (textSplits != null && textSplits.size() > 1) {
+            splits = new TranslationSplit[textSplits.size()];
+            locks = new Scheduler.TranslationLock[textSplits.size()];
+            suggestions = lookupAndSchedule(priority, user, direction, text, textSplits, context, timeout, splits, locks);
         } else {
-            List<Sentence> textSplits = split(text);
+            suggestions = lookup(user, direction, text, context);
+        }
+
+        long lookupTime = System.currentTimeMillis() - lookupBegin;
+
+        if (isExactMatch(suggestions)) {  // align
+            TranslationSplit split = new TranslationSplit(priority, user, text, suggestions[0].translationTokens, timeout);
+            splits = new TranslationSplit[]{split};
+            locks = new Scheduler.TranslationLock[]{scheduler.schedule(direction, split)};
+        } else if (splits == null) {
+            if (textSplits == null)
+                textSplits = split(text);
             splits = new TranslationSplit[textSplits.size()];
 
             int i = 0;
             for (Sentence textSplit : textSplits)
-                splits[i++] = new TranslationSplit(priority, textSplit, timeout);
+                splits[i++] = new TranslationSplit(priority, user, textSplit, timeout);
 
-            lock = scheduler.schedule(direction, splits, suggestions);
+            locks = new Scheduler.TranslationLock[]{scheduler.schedule(direction, splits, suggestions)};
         }
 
         // Wait for translation to be completed
         try {
-            lock.await();
+            for (Scheduler.TranslationLock lock : locks)
+                lock.await();
 
             Translation translation = TranslationJoiner.join(text, splits);
             translation.setMemoryLookupTime(lookupTime);
 
+            if (cache != null)
+                cache.put(cacheKey, translation, cacheEpoch);
+
             if (logger.isDebugEnabled()) {
                 String sourceText = TokensOutputStream.serialize(text, false, true);
                 String targetText = TokensOutputStream.serialize(translation, false, true);
@@ -179,11 +282,100 @@ public class NeuralDecoder extends Decoder implements DataListenerProvider {
         return SentenceSplitter.split(sentence);
     }
 
+    private static boolean isExactMatch(ScoreEntry[] suggestions) {
+        return suggestions != null && suggestions[0].score == 1.f;
+    }
+
+    /*
+     * Searches the suggestions for every split in parallel: every split is scheduled as a separate job
+     * as soon as its own suggestions are available (a split with an exact match is aligned).
+     * In the meantime, an exact match is searched for the whole text: if found, the splits are abandoned
+     * and the exact match is returned, so that the caller aligns the whole text; otherwise returns null.
+     */
+    private ScoreEntry[] lookupAndSchedule(Priority priority, UUID user, LanguageDirection direction, Sentence text,
+                                           List<Sentence> textSplits, ContextVector context, long timeout,
+                                           TranslationSplit[] splits, Scheduler.TranslationLock[] locks) throws DecoderException {
+        ScoreEntry[][] results = new ScoreEntry[textSplits.size()][];
+        ExecutorCompletionService<Integer> completion = new ExecutorCompletionService<>(lookupExecutor);
+        ArrayList<Future<?>> lookups = new ArrayList<>(textSplits.size() + 1);
+
+        Future<ScoreEntry> textLookup = lookupExecutor.submit(() -> lookupExactMatch(user, direction, text, context));
+        lookups.add(textLookup);
+
+        for (int i = 0; i < results.length; i++) {
+            final int index = i;
+            lookups.add(completion.submit(() -> {
+                results[index] = lookup(user, direction, textSplits.get(index), context);
+                return index;
+            }));
+        }
+
+        boolean success = false;
+
+        try {
+            for (int n = 0; n < results.length; n++) {
+                // no need to schedule other splits if the whole text is going to be aligned
+                if (textLookup.isDone() && textLookup.get() != null)
+                    break;
+
+                int i = completion.take().get();
+                ScoreEntry[] entries = results[i];
+
+                if (isExactMatch(entries)) {
+                    splits[i] = new TranslationSplit(priority, user, textSplits.get(i), entries[0].translationTokens, timeout);
+                    locks[i] = scheduler.schedule(direction, splits[i]);
+                } else {
+                    splits[i] = new TranslationSplit(priority, user, textSplits.get(i), timeout);
+                    locks[i] = scheduler.schedule(direction, new TranslationSplit[]{splits[i]}, entries);
+                }
+            }
+
+            ScoreEntry exactMatch = textLookup.get();
+            success = exactMatch == null;
+
+            return exactMatch == null ? null : new ScoreEntry[]{exactMatch};
+        } catch (InterruptedException e) {
+            throw new DecoderException("Decoder interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DecoderException)
+                throw (DecoderException) cause;
+            else
+                throw new DecoderException("Failed to retrieve suggestions from memory", cause);
+        } finally {
+            if (!success) {
+                // running searches are not interrupted because Lucene does not tolerate interrupts during I/O
+                for (Future<?> lookup : lookups)
+                    lookup.cancel(false);
+
+                for (TranslationSplit split : splits) {
+                    if (split != null)
+                        split.abandon();
+                }
+            }
+        }
+    }
+
+    protected ScoreEntry lookupExactMatch(UUID user, LanguageDirection direction, Sentence text, ContextVector contextVector) throws DecoderException {
+        if (!text.hasWords() || contextVector == null || contextVector.isEmpty())
+            return null;
+
+        try {
+            return memory.searchExactMatch(user, direction, text, contextVector);
+        } catch (IOException e) {
+            throw new DecoderException("Failed to retrieve suggestions from memory", e);
+        }
+    }
+
     protected ScoreEntry[] lookup(UUID user, LanguageDirection direction, Sentence text, ContextVector contextVector) throws DecoderException {
         ScoreEntry[] entries = null;
 
         if (text.hasWords() && contextVector != null && !contextVector.isEmpty()) {
             try {
+                ScoreEntry exactMatch = lookupExactMatch(user, direction, text, contextVector);
+                if (exactMatch != null)
+                    return new ScoreEntry[]{exactMatch};
+
                 entries = memory.search(user, direction, text, contextVector, suggestionsLimit);
             } catch (IOException e) {
                 throw new DecoderException("Failed to retrieve suggestions from memory", e);
@@ -230,16 +422,66 @@ public class NeuralDecoder extends Decoder implements DataListenerProvider {
 
     @Override
     public Collection<LogDataListener> getDataListeners() {
-        return Collections.singleton(memory);
+        return Collections.singleton(cache == null ? memory : new CacheInvalidatingListener(memory, cache));
+    }
+
+    /*
+     * Memory updates must be applied before invalidating the cache, so the cache
+     * is not registered as an independent listener: listeners are notified in parallel
+     */
+    private static class CacheInvalidatingListener implements LogDataListener {
+
+        private final LogDataListener delegate;
+        private final TranslationCache cache;
+
+        private CacheInvalidatingListener(LogDataListener delegate, TranslationCache cache) {
+            this.delegate = delegate;
+            this.cache = cache;
+        }
+
+        @Override
+        public void onDataReceived(DataBatch batch) throws Exception {
+            try {
+                delegate.onDataReceived(batch);
+            } finally {
+                cache.invalidate(batch);
+            }
+        }
+
+        @Override
+        public Map<Short, Long> getLatestChannelPositions() {
+            return delegate.getLatestChannelPositions();
+        }
+
+        @Override
+        public boolean needsProcessing() {
+            return delegate.needsProcessing();
+        }
+
+        @Override
+        public boolean needsAlignment() {
+            return delegate.needsAlignment();
+        }
+
     }
 
     // Closeable
 
     @Override
     public void close() {
+        if (this.lookupExecutor != null)
+            this.lookupExecutor.shutdown();
+
+        IOUtils.closeQuietly(this.scaler);
         IOUtils.closeQuietly(this.scheduler);
 
-        for (Thread executor : executors) {
+        ArrayList<Thread> threads;
+        synchronized (executors) {
+            threads = new ArrayList<>(executors);
+            threads.addAll(retiredExecutors);
+        }
+
+        for (Thread executor : threads) {
             try {
                 executor.join();
             } catch (InterruptedException e) {
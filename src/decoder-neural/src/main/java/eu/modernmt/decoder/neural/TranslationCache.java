@@ -0,0 +1,214 @@
+package eu.modernmt.decoder.neural;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import eu.modernmt.data.DataBatch;
+import eu.modernmt.data.Deletion;
+import eu.modernmt.data.TranslationUnit;
+import eu.modernmt.io.TokensOutputStream;
+import eu.modernmt.lang.LanguageDirection;
+import eu.modernmt.model.*;
+
+import java.util.*;
+
+/**
+ * A bounded cache of the translations returned by the neural decoder.
+ * <p>
+ * Entries are keyed by language direction, user, source tokens (as sent to the decoder process) and context vector,
+ * that together determine both the memory suggestions and the decoder output. Since suggestions can only come from
+ * the memories in the context vector, an entry is invalidated as soon as one of those memories is updated or deleted.
+ * <p>
+ * Cached translations are snapshots: a copy is stored and a new copy, bound to the requested sentence,
+ * is returned on every hit, so that callers are free to modify it.
+ */
+public class TranslationCache {
+
+    public static final class Key {
+
+        private final LanguageDirection direction;
+        private final UUID user;
+        private final String source;
+        private final String context;
+        private final long[] memories;
+        private final int hash;
+
+        private Key(LanguageDirection direction, UUID user, String source, ContextVector contextVector) {
+            this.direction = direction;
+            this.user = user;
+            this.source = source;
+
+            if (contextVector == null || contextVector.isEmpty()) {
+                this.context = null;
+                this.memories = null;
+            } else {
+                this.context = contextVector.toString();
+                this.memories = new long[contextVector.size()];
+
+                int i = 0;
+                for (ContextVector.Entry entry : contextVector)
+                    this.memories[i++] = entry.memory.getId();
+            }
+
+            int hash = direction.hashCode();
+            hash = 31 * hash + (user != null ? user.hashCode() : 0);
+            hash = 31 * hash + source.hashCode();
+            hash = 31 * hash + (context != null ? context.hashCode() : 0);
+            this.hash = hash;
+        }
+
+        private boolean involves(Set<Long> memories) {
+            if (this.memories == null)
+                return false;
+
+            for (long memory : this.memories) {
+                if (memories.contains(memory))
+                    return true;
+            }
+
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            if (hash != key.hash) return false;
+            if (!direction.equals(key.direction)) return false;
+            if (!Objects.equals(user, key.user)) return false;
+            if (!source.equals(key.source)) return false;
+            return Objects.equals(context, key.context);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+    private final Cache<Key, Translation> cache;
+    private long epoch = 0L;
+    private long invalidations = 0L;
+
+    public TranslationCache(int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Invalid cache size: " + maxSize);
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+    }
+
+    public Key key(LanguageDirection direction, UUID user, Sentence source, ContextVector contextVector) {
+        return new Key(direction, user, TokensOutputStream.serialize(source, false, true), contextVector);
+    }
+
+    /**
+     * Returns the current cache epoch: it must be read before searching the memory for suggestions
+     * and then passed to {@link #put(Key, Translation, long)}.
+     *
+     * @return the current cache epoch
+     */
+    public synchronized long epoch() {
+        return epoch;
+    }
+
+    public Translation get(Key key, Sentence source) {
+        Translation translation = cache.getIfPresent(key);
+        return translation == null ? null : copy(translation, source);
+    }
+
+    /**
+     * Stores the given translation, unless the cache has been invalidated after the given epoch:
+     * in that case the translation may have been computed with outdated memory suggestions.
+     *
+     * @param key         the cache key
+     * @param translation the translation to store
+     * @param epoch       the cache epoch read before the memory lookup
+     */
+    public synchronized void put(Key key, Translation translation, long epoch) {
+        if (this.epoch == epoch)
+            cache.put(key, copy(translation, null));
+    }
+
+    public synchronized void invalidate(DataBatch batch) {
+        HashSet<Long> memories = new HashSet<>();
+        for (TranslationUnit unit : batch.getTranslationUnits())
+            memories.add(unit.memory);
+        for (Deletion deletion : batch.getDeletions())
+            memories.add(deletion.memory);
+
+        if (memories.isEmpty())
+            return;
+
+        epoch++;
+
+        Iterator<Key> iterator = cache.asMap().keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().involves(memories)) {
+                iterator.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = cache.stats();
+        return "TranslationCache{" +
+                "size=" + cache.size() +
+                ", hits=" + stats.hitCount() +
+                ", misses=" + stats.missCount() +
+                ", evictions=" + stats.evictionCount() +
+                ", invalidations=" + getInvalidationCount() +
+                '}';
+    }
+
+    private static Translation copy(Translation translation, Sentence source) {
+        Word[] words = translation.getWords();
+        Word[] copy = new Word[words.length];
+        for (int i = 0; i < words.length; i++) {
+            Word word = words[i];
+            copy[i] = new Word(word.getText(), word.getPlaceholder(), word.getLeftSpace(), word.getRightSpace(),
+                    word.isLeftSpaceRequired(), word.isRightSpaceRequired());
+        }
+
+        Alignment alignment = translation.getWordAlignment();
+        if (alignment != null) {
+            alignment = new Alignment(alignment.getSourceIndexes().clone(), alignment.getTargetIndexes().clone(),
+                    alignment.getScore());
+        }
+
+        return new Translation(copy, source == null ? translation.getSource() : source, alignment);
+    }
+
+}
@@ -27,8 +27,11 @@ public class DefaultDocumentBuilder implements DocumentBuilder {
     private static final String CHANNELS_FIELD = "channels";
     private static final String MEMORY_FIELD = "memory";
     private static final String HASH_FIELD = "hash";
+    private static final String ENTRY_KEY_FIELD = "key";
     private static final String LANGUAGE_PREFIX_FIELD = "lang_";
     private static final String CONTENT_PREFIX_FIELD = "content_";
+    private static final String TOKENS_PREFIX_FIELD = "tokens_";
+    private static final String EXACT_MATCH_FIELD = "exact";
 
     private static final String SOURCE_LANGUAGE_FIELD = "src_lang";
     private static final String TARGET_LANGUAGE_FIELD = "tgt_lang";
@@ -57,11 +60,19 @@ public class DefaultDocumentBuilder implements DocumentBuilder {
         Document document = new Document();
         document.add(new LongField(MEMORY_FIELD, memory, Field.Store.YES));
         document.add(new HashField(HASH_FIELD, hash, Field.Store.NO));
+        document.add(new StringField(ENTRY_KEY_FIELD, makeEntryKey(memory, hash), Field.Store.NO));
 
         document.add(new StringField(makeLanguageFieldName(language.source), language.source.toLanguageTag(), Field.Store.YES));
         document.add(new StringField(makeLanguageFieldName(language.target), language.target.toLanguageTag(), Field.Store.YES));
-        document.add(new TextField(makeContentFieldName(language), sentence, Field.Store.YES));
-        document.add(new TextField(makeContentFieldName(language.reversed()), translation, Field.Store.YES));
+        String[] sentenceTokens = TokensOutputStream.deserialize(sentence);
+        String[] translationTokens = TokensOutputStream.deserialize(translation);
+
+        document.add(new TextField(makeContentFieldName(language), sentence, Field.Store.NO));
+        document.add(new TextField(makeContentFieldName(language.reversed()), translation, Field.Store.NO));
+        document.add(new StoredField(makeTokensFieldName(language.source), StoredTokens.encode(sentenceTokens)));
+        document.add(new StoredField(makeTokensFieldName(language.target), StoredTokens.encode(translationTokens)));
+        document.add(new StringField(EXACT_MATCH_FIELD, makeExactMatchHash(language, sentenceTokens), Field.Store.NO));
+        document.add(new StringField(EXACT_MATCH_FIELD, makeExactMatchHash(language.reversed(), translationTokens), Field.Store.NO));
 
         document.add(new StoredField(SOURCE_LANGUAGE_FIELD, rawLanguage.source.toLanguageTag()));
         document.add(new StoredField(TARGET_LANGUAGE_FIELD, rawLanguage.target.toLanguageTag()));
@@ -86,6 +97,31 @@ public class DefaultDocumentBuilder implements DocumentBuilder {
         return document;
     }
 
+    @Override
+    public Document rebuild(Document self) {
+        long memory = getMemory(self);
+        if (memory == 0L)
+            return create(asChannels(self));
+
+        LanguageDirection fields = getLanguageDirection(self);
+        Language source = Language.fromString(self.get(makeLanguageFieldName(fields.source)));
+        Language target = Language.fromString(self.get(makeLanguageFieldName(fields.target)));
+        LanguageDirection language = new LanguageDirection(source, target);
+
+        String[] sentence = getTokens(self, language);
+        String[] translation = getTokens(self, language.reversed());
+
+        Language rawSource = Language.fromString(self.get(SOURCE_LANGUAGE_FIELD));
+        Language rawTarget = Language.fromString(self.get(TARGET_LANGUAGE_FIELD));
+        LanguageDirection rawLanguage = new LanguageDirection(rawSource, rawTarget);
+        String rawSentence = self.getBinaryValue(SENTENCE_FIELD).utf8ToString();
+        String rawTranslation = self.getBinaryValue(TRANSLATION_FIELD).utf8ToString();
+
+        String hash = HashGenerator.hash(rawLanguage, rawSentence, rawTranslation);
+
+        return create(memory, language, serialize(sentence), serialize(translation), hash, rawLanguage, rawSentence, rawTranslation);
+    }
+
     // Getters
 
     @Override
@@ -116,6 +152,10 @@ public class DefaultDocumentBuilder implements DocumentBuilder {
 
     @Override
     public ScoreEntry asScoreEntry(Document self) {
+        return asScoreEntry(self, getLanguageDirection(self));
+    }
+
+    private LanguageDirection getLanguageDirection(Document self) {
         Language source = null;
         Language target = null;
 
@@ -137,20 +177,37 @@ public class DefaultDocumentBuilder implements DocumentBuilder {
         if (source == null || target == null)
             throw new IllegalArgumentException("Invalid document: missing language info.");
 
-        LanguageDirection language;
         if (source.toLanguageTag().compareTo(target.toLanguageTag()) < 0)
-            language = new LanguageDirection(source, target);
+            return new LanguageDirection(source, target);
+        else
+            return new LanguageDirection(target, source);
+    }
+
+    /*
+     * Documents written before the introduction of the binary tokens fields
+     * store the serialized tokens in the content fields
+     */
+    private String[] getTokens(Document self, LanguageDirection direction) {
+        BytesRef tokens = self.getBinaryValue(makeTokensFieldName(direction.source));
+        if (tokens != null)
+            return StoredTokens.decode(tokens);
         else
-            language = new LanguageDirection(target, source);
+            return TokensOutputStream.deserialize(self.get(makeContentFieldName(direction)));
+    }
+
+    private static String serialize(String[] tokens) {
+        String[] pieces = new String[tokens.length];
+        for (int i = 0; i < tokens.length; i++)
+            pieces[i] = tokens[i].replace(' ', '\u00A0');
 
-        return asScoreEntry(self, language);
+        return String.join(" ", pieces);
     }
 
     @Override
     public ScoreEntry asScoreEntry(Document self, LanguageDirection direction) {
         long memory = Long.parseLong(self.get(MEMORY_FIELD));
-        String[] sentenceTokens = TokensOutputStream.deserialize(self.get(makeContentFieldName(direction)));
-        String[] translationTokens = TokensOutputStream.deserialize(self.get(makeContentFieldName(direction.reversed())));
+        String[] sentenceTokens = getTokens(self, direction);
+        String[] translationTokens = getTokens(self, direction.reversed());
 
         String _source = self.get(makeLanguageFieldName(direction.source));
         String _target = self.get(makeLanguageFieldName(direction.target));
@@ -209,6 +266,11 @@ public class DefaultDocumentBuilder implements DocumentBuilder {
         return new Term(HASH_FIELD, h);
     }
 
+    @Override
+    public Term makeEntryKeyTerm(long memory, String hash) {
+        return new Term(ENTRY_KEY_FIELD, makeEntryKey(memory, hash));
+    }
+
     @Override
     public Term makeMemoryTerm(long memory) {
         return makeLongTerm(memory, MEMORY_FIELD);
@@ -224,6 +286,11 @@ public class DefaultDocumentBuilder implements DocumentBuilder {
         return new Term(makeLanguageFieldName(language), language.toLanguageTag());
     }
 
+    @Override
+    public Term makeExactMatchTerm(LanguageDirection direction, String[] tokens) {
+        return new Term(EXACT_MATCH_FIELD, makeExactMatchHash(direction, tokens));
+    }
+
     // Fields builders
 
     @Override
@@ -241,8 +308,37 @@ public class DefaultDocumentBuilder implements DocumentBuilder {
         return CONTENT_PREFIX_FIELD + direction.source.getLanguage() + '_' + direction.target.getLanguage();
     }
 
+    private static String makeTokensFieldName(Language language) {
+        return TOKENS_PREFIX_FIELD + language.getLanguage();
+    }
+
     // Utils
 
+    private static String makeEntryKey(long memory, String hash) {
+        return Long.toString(memory) + ' ' + hash;
+    }
+
+    /*
+     * FNV-1a 64 bit hash of the tokens, prefixed by the languages with the same
+     * granularity of the content fields: collisions are checked by the caller
+     */
+    private static String makeExactMatchHash(LanguageDirection direction, String[] tokens) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (String token : tokens) {
+            for (int i = 0; i < token.length(); i++) {
+                hash ^= token.charAt(i);
+                hash *= 1099511628211L;
+            }
+
+            // tokens separator
+            hash ^= 0xFFFF;
+            hash *= 1099511628211L;
+        }
+
+        return direction.source.getLanguage() + '_' + direction.target.getLanguage() + ' ' + Long.toHexString(hash);
+    }
+
     private static Term makeLongTerm(long value, String field) {
         BytesRefBuilder builder = new BytesRefBuilder();
         NumericUtils.longToPrefixCoded(value, 0, builder);
@@ -23,6 +23,9 @@ public interface DocumentBuilder {
 
     Document create(Map<Short, Long> channels);
 
+    // Creates a document in the current format from the stored fields of an existing document
+    Document rebuild(Document self);
+
     // Getters
 
     long getMemory(Document self);
@@ -45,12 +48,18 @@ public interface DocumentBuilder {
 
     Term makeHashTerm(String h);
 
+    // Term of the entries of the given memory with the given hash, the key of term-based overwrites
+    Term makeEntryKeyTerm(long memory, String hash);
+
     Term makeMemoryTerm(long memory);
 
     Term makeChannelsTerm();
 
     Term makeLanguageTerm(Language language);
 
+    // Term of the entries whose sentence in the given direction is exactly the given tokens sequence
+    Term makeExactMatchTerm(LanguageDirection direction, String[] tokens);
+
     // Fields builders
 
     boolean isHashField(String field);
@@ -4,10 +4,12 @@ import eu.modernmt.data.DataBatch;
 import eu.modernmt.data.Deletion;
 import eu.modernmt.data.HashGenerator;
 import eu.modernmt.data.TranslationUnit;
+import eu.modernmt.io.TokensOutputStream;
 import eu.modernmt.memory.ScoreEntry;
 import eu.modernmt.memory.TranslationMemory;
 import eu.modernmt.decoder.neural.memory.lucene.analysis.AnalyzerFactory;
 import eu.modernmt.decoder.neural.memory.lucene.analysis.DefaultAnalyzerFactory;
+import eu.modernmt.decoder.neural.memory.lucene.query.ContextFilterCache;
 import eu.modernmt.decoder.neural.memory.lucene.query.DefaultQueryBuilder;
 import eu.modernmt.decoder.neural.memory.lucene.query.QueryBuilder;
 import eu.modernmt.decoder.neural.memory.lucene.query.rescoring.F1BleuRescorer;
@@ -21,10 +23,13 @@ import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.DelegatingAnalyzerWrapper;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
@@ -32,11 +37,10 @@ import org.apache.lucene.util.Version;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
 import static org.apache.lucene.analysis.Analyzer.PER_FIELD_REUSE_STRATEGY;
 
@@ -55,13 +59,32 @@ public class LuceneTranslationMemory implements TranslationMemory {
     protected final DocumentBuilder documentBuilder;
     protected final Analyzer shortQueryAnalyzer;
     protected final Analyzer longQueryAnalyzer;
-    protected final IndexWriter indexWriter;
+    protected volatile IndexWriter indexWriter;
+    protected volatile SearcherManager searcherManager;
 
-    private DirectoryReader _indexReader;
-    private IndexSearcher _indexSearcher;
     private final Map<Short, Long> channels;
+    private volatile Map<Short, Long> committedChannels;
+    private final boolean legacyEntries;
+    private final ScheduledExecutorService backgroundExecutor;
+    private final ExecutorService searchExecutor;
+    private final ContextFilterCache contextFilters = new ContextFilterCache(CONTEXT_FILTERS_CACHE_SIZE, CONTEXT_FILTERS_CACHE_BYTES);
+
+    private long maxCommitDelay = DEFAULT_MAX_COMMIT_DELAY;
+    private int maxUncommittedChanges = DEFAULT_MAX_UNCOMMITTED_CHANGES;
+    private long lastCommit = System.currentTimeMillis();
+    private int uncommittedChanges = 0;
+    private long writtenBatches = 0L;
+    private long committedBatches = 0L;
 
     private boolean closed = false;
+    private boolean failed = false;
+
+    public static final long DEFAULT_MAX_COMMIT_DELAY = 10000L;
+    public static final int DEFAULT_MAX_UNCOMMITTED_CHANGES = 50000;
+    private static final long REFRESH_INTERVAL = 1000L;
+    private static final int MAX_EXACT_MATCHES = 32;
+    private static final int CONTEXT_FILTERS_CACHE_SIZE = 1024;
+    private static final long CONTEXT_FILTERS_CACHE_BYTES = 64L * 1024 * 1024;
 
     protected static File forceMkdir(File directory) throws IOException {
         if (!directory.isDirectory())
@@ -99,6 +122,50 @@ public class LuceneTranslationMemory implements TranslationMemory {
         this.longQueryAnalyzer = analyzerFactory.createLongQueryAnalyzer();
         this.minQuerySize = minQuerySize;
 
+        this.openIndex();
+
+        // Read channels status
+        IndexSearcher searcher = this.acquireIndexSearcher();
+
+        try {
+            Query query = this.queryBuilder.getChannels(this.documentBuilder);
+            TopDocs docs = searcher.search(query, 1);
+
+            if (docs.scoreDocs.length > 0) {
+                Document channelsDocument = searcher.doc(docs.scoreDocs[0].doc);
+                this.channels = this.documentBuilder.asChannels(channelsDocument);
+            } else {
+                this.channels = new HashMap<>();
+            }
+
+            this.committedChannels = Collections.unmodifiableMap(new HashMap<>(this.channels));
+
+            // Entries written before the introduction of the key field can not be overwritten by key
+            IndexReader reader = searcher.getIndexReader();
+            String hashField = this.documentBuilder.makeHashTerm("").field();
+            String keyField = this.documentBuilder.makeEntryKeyTerm(0L, "").field();
+            this.legacyEntries = reader.getDocCount(keyField) < reader.getDocCount(hashField);
+        } finally {
+            this.releaseIndexSearcher(searcher);
+        }
+
+        // Background refresh and time-based commits
+        this.backgroundExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LuceneTranslationMemory");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.backgroundExecutor.scheduleWithFixedDelay(this::onBackgroundTask, REFRESH_INTERVAL, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+
+        // Batched searches, threads are started on the first batch
+        this.searchExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "LuceneTranslationMemory-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void openIndex() throws IOException {
         // Index writer setup
         IndexWriterConfig indexConfig = new IndexWriterConfig(Version.LUCENE_4_10_4, new DelegatingAnalyzerWrapper(PER_FIELD_REUSE_STRATEGY) {
             @Override
@@ -116,47 +183,126 @@ public class LuceneTranslationMemory implements TranslationMemory {
         this.indexWriter = new IndexWriter(this.indexDirectory, indexConfig);
 
         // Ensure index exists
-        if (!DirectoryReader.indexExists(directory))
+        if (!DirectoryReader.indexExists(indexDirectory))
             this.indexWriter.commit();
 
-        // Read channels status
-        IndexSearcher searcher = this.getIndexSearcher();
+        // Near-real-time searchers, opened from the index writer
+        this.searcherManager = new SearcherManager(this.indexWriter, true, new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader) {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                searcher.setSimilarity(analyzerFactory.createSimilarity());
+                return searcher;
+            }
+        });
+    }
 
-        Query query = this.queryBuilder.getChannels(this.documentBuilder);
-        TopDocs docs = searcher.search(query, 1);
+    /*
+     * Invoked when a batch could not be applied or committed: the uncommitted changes, including the batches
+     * already applied, are discarded and the index is reopened from the last commit. The memory does not
+     * accept new batches anymore, and it keeps reporting the channel positions of the last commit, so that
+     * the discarded batches are replayed when the data stream is restarted.
+     */
+    private void onWriteFailure(Throwable cause) {
+        if (failed)
+            return;
 
-        if (docs.scoreDocs.length > 0) {
-            Document channelsDocument = searcher.doc(docs.scoreDocs[0].doc);
-            this.channels = this.documentBuilder.asChannels(channelsDocument);
-        } else {
-            this.channels = new HashMap<>();
+        this.failed = true;
+        logger.error("Failed to update memory index, rolling back to the last commit: updates are suspended " +
+                "until the memory is reopened, from channel positions " + committedChannels, cause);
+
+        try {
+            this.indexWriter.rollback();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to rollback memory index", e);
+        }
+
+        SearcherManager searcherManager = this.searcherManager;
+
+        try {
+            this.openIndex();
+            searcherManager.close();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to reopen memory index", e);
         }
+
+        this.channels.clear();
+        this.channels.putAll(committedChannels);
+        this.uncommittedChanges = 0;
+        this.committedBatches = this.writtenBatches;
     }
 
-    protected synchronized IndexReader getIndexReader() throws IOException {
-        if (this._indexReader == null) {
-            this._indexReader = DirectoryReader.open(this.indexDirectory);
-            this._indexReader.incRef();
-            this._indexSearcher = new IndexSearcher(this._indexReader);
-        } else {
-            DirectoryReader reader = DirectoryReader.openIfChanged(this._indexReader);
+    /**
+     * Sets the policy of durable commits: changes are visible to searches as soon as they are applied,
+     * while they are committed to disk (together with the channel positions) when the oldest uncommitted
+     * change is older than the given delay or the number of uncommitted changes exceeds the given limit.
+     *
+     * @param maxCommitDelay        the maximum time in milliseconds between commits of pending changes
+     * @param maxUncommittedChanges the maximum number of translation units and deletions not yet committed
+     */
+    public synchronized void setCommitPolicy(long maxCommitDelay, int maxUncommittedChanges) {
+        this.maxCommitDelay = maxCommitDelay;
+        this.maxUncommittedChanges = maxUncommittedChanges;
+    }
 
-            if (reader != null) {
-                this._indexReader.close();
-                this._indexReader = reader;
-                this._indexReader.incRef();
+    /**
+     * Acquires the most recent searcher on the index, it must be released with
+     * {@link #releaseIndexSearcher(IndexSearcher)} when no longer needed.
+     *
+     * @return the most recent searcher on the index
+     * @throws IOException if an I/O error occurs
+     */
+    public IndexSearcher acquireIndexSearcher() throws IOException {
+        return this.searcherManager.acquire();
+    }
 
-                this._indexSearcher = new IndexSearcher(this._indexReader);
-                this._indexSearcher.setSimilarity(analyzerFactory.createSimilarity());
-            }
+    public void releaseIndexSearcher(IndexSearcher searcher) throws IOException {
+        this.searcherManager.release(searcher);
+    }
+
+    /**
+     * Makes all the changes applied to the index writer visible to the searchers acquired afterwards.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void refresh() throws IOException {
+        this.searcherManager.maybeRefreshBlocking();
+    }
+
+    /**
+     * Commits to disk all the pending changes.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized void commit() throws IOException {
+        if (closed || failed)
+            return;
+
+        try {
+            this.indexWriter.commit();
+        } catch (IOException | RuntimeException e) {
+            onWriteFailure(e);
+            throw e;
         }
 
-        return this._indexReader;
+        this.lastCommit = System.currentTimeMillis();
+        this.uncommittedChanges = 0;
+        this.committedBatches = this.writtenBatches;
+        this.committedChannels = Collections.unmodifiableMap(new HashMap<>(this.channels));
     }
 
-    public IndexSearcher getIndexSearcher() throws IOException {
-        getIndexReader();
-        return this._indexSearcher;
+    private void onBackgroundTask() {
+        try {
+            this.searcherManager.maybeRefresh();
+
+            synchronized (this) {
+                if (!closed && uncommittedChanges > 0 && System.currentTimeMillis() - lastCommit >= maxCommitDelay)
+                    commit();
+            }
+        } catch (Throwable e) {
+            // an exception would suppress subsequent executions
+            logger.error("Failed to refresh or commit memory index", e);
+        }
     }
 
     public IndexWriter getIndexWriter() {
@@ -166,52 +312,89 @@ public class LuceneTranslationMemory implements TranslationMemory {
     @Override
     public int size() {
         try {
-            IndexReader reader = getIndexReader();
-            return Math.max(reader.numDocs(), reader.maxDoc() - 1);
+            IndexSearcher searcher = acquireIndexSearcher();
+
+            try {
+                IndexReader reader = searcher.getIndexReader();
+                return Math.max(reader.numDocs(), reader.maxDoc() - 1);
+            } finally {
+                releaseIndexSearcher(searcher);
+            }
         } catch (IOException e) {
-            logger.warn("Error while invoking getIndexReader()", e);
+            logger.warn("Error while acquiring index searcher", e);
             return 0;
         }
     }
 
     @Override
     public void dump(long memory, Consumer<Entry> consumer) throws IOException {
-        IndexSearcher searcher = getIndexSearcher();
-        IndexReader reader = getIndexReader();
+        dump(new TermQuery(documentBuilder.makeMemoryTerm(memory)), consumer);
+    }
 
-        int size = reader.numDocs();
-        if (size == 0)
-            return;
+    @Override
+    public void dumpAll(Consumer<Entry> consumer) throws IOException {
+        dump(new MatchAllDocsQuery(), consumer);
+    }
 
-        Query memoryQuery = new TermQuery(documentBuilder.makeMemoryTerm(memory));
-        TopDocs docs = searcher.search(memoryQuery, size);
+    /**
+     * Dumps the entries of the given memory segment by segment, dumping segments in parallel with the given executor.
+     * Every segment has its own consumer, created by the factory with the segment ordinal, so that consumers
+     * do not need to be thread-safe; entries of a segment are emitted in index order.
+     *
+     * @param memory    the memory id
+     * @param executor  the executor of the segments dump
+     * @param consumers the factory of the consumers, called once per segment with the segment ordinal
+     * @throws IOException if an I/O error occurs
+     */
+    public void dump(long memory, ExecutorService executor, IntFunction<Consumer<Entry>> consumers) throws IOException {
+        IndexSearcher searcher = acquireIndexSearcher();
 
-        for (ScoreDoc scoreDoc : docs.scoreDocs) {
-            Document document = reader.document(scoreDoc.doc);
-            if (documentBuilder.getMemory(document) > 0) {
-                TranslationMemory.Entry entry = documentBuilder.asEntry(document);
-                consumer.accept(entry);
+        try {
+            Weight weight = searcher.createNormalizedWeight(new TermQuery(documentBuilder.makeMemoryTerm(memory)));
+            List<AtomicReaderContext> leaves = searcher.getIndexReader().leaves();
+
+            ArrayList<Future<Void>> futures = new ArrayList<>(leaves.size());
+            for (AtomicReaderContext leaf : leaves) {
+                futures.add(executor.submit(() -> {
+                    dump(weight, leaf, consumers.apply(leaf.ord));
+                    return null;
+                }));
             }
+
+            await(futures, null);
+        } finally {
+            releaseIndexSearcher(searcher);
         }
     }
 
-    @Override
-    public void dumpAll(Consumer<Entry> consumer) throws IOException {
-        IndexSearcher searcher = getIndexSearcher();
-        IndexReader reader = getIndexReader();
+    /*
+     * Matching documents are iterated segment by segment with their scorers, without collecting
+     * the hits: memory usage does not depend on the size of the index
+     */
+    private void dump(Query query, Consumer<Entry> consumer) throws IOException {
+        IndexSearcher searcher = acquireIndexSearcher();
 
-        int size = reader.numDocs();
-        if (size == 0)
-            return;
+        try {
+            Weight weight = searcher.createNormalizedWeight(query);
+
+            for (AtomicReaderContext leaf : searcher.getIndexReader().leaves())
+                dump(weight, leaf, consumer);
+        } finally {
+            releaseIndexSearcher(searcher);
+        }
+    }
 
-        TopDocs docs = searcher.search(new MatchAllDocsQuery(), size);
+    private void dump(Weight weight, AtomicReaderContext leaf, Consumer<Entry> consumer) throws IOException {
+        AtomicReader reader = leaf.reader();
+        Scorer scorer = weight.scorer(leaf, reader.getLiveDocs());
+        if (scorer == null)
+            return;
 
-        for (ScoreDoc scoreDoc : docs.scoreDocs) {
-            Document document = reader.document(scoreDoc.doc);
-            if (documentBuilder.getMemory(document) > 0) {
-                TranslationMemory.Entry entry = documentBuilder.asEntry(document);
-                consumer.accept(entry);
-            }
+        int doc;
+        while ((doc = scorer.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+            Document document = reader.document(doc);
+            if (documentBuilder.getMemory(document) > 0)
+                consumer.accept(documentBuilder.asEntry(document));
         }
     }
 
@@ -222,13 +405,131 @@ public class LuceneTranslationMemory implements TranslationMemory {
         return search(user, direction, source, contextVector, this.rescorer, limit);
     }
 
+    @Override
+    public ScoreEntry searchExactMatch(UUID user, LanguageDirection direction, Sentence source, ContextVector contextVector) throws IOException {
+        String[] tokens = TokensOutputStream.tokens(source, false, true);
+        Query query = this.queryBuilder.exactMatch(documentBuilder, user, direction, tokens, getContextFilter(contextVector));
+
+        ScoreEntry result = null;
+        float resultContextScore = 0.f;
+
+        IndexSearcher searcher = acquireIndexSearcher();
+        try {
+            ScoreDoc[] docs = searcher.search(query, MAX_EXACT_MATCHES).scoreDocs;
+
+            for (ScoreDoc doc : docs) {
+                ScoreEntry entry = documentBuilder.asScoreEntry(searcher.doc(doc.doc), direction);
+                if (!Arrays.equals(tokens, entry.sentenceTokens))
+                    continue;  // hash collision
+
+                // prefer the most relevant memory: hits are not in insertion order, so
+                // there is no preference between entries of equally relevant memories
+                float contextScore = getContextScore(contextVector, entry.memory);
+                if (result == null || contextScore > resultContextScore) {
+                    result = entry;
+                    resultContextScore = contextScore;
+                }
+            }
+        } finally {
+            releaseIndexSearcher(searcher);
+        }
+
+        if (result != null)
+            result.score = 1.f;
+
+        return result;
+    }
+
+    static float getContextScore(ContextVector contextVector, long memory) {
+        for (ContextVector.Entry entry : contextVector) {
+            if (entry.memory.getId() == memory)
+                return entry.score;
+        }
+
+        return 0.f;
+    }
+
+    private Filter getContextFilter(ContextVector contextVector) {
+        return contextFilters.get(contextVector, context -> this.queryBuilder.getContextFilter(documentBuilder, context));
+    }
+
+    /*
+     * Waits for every task, even after a failure, so that no task is still using the searcher when
+     * it is released, then throws the first error (the given one, if not null)
+     */
+    private static void await(List<Future<Void>> futures, Throwable error) throws IOException {
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (error == null)
+                    error = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for memory tasks", e);
+            }
+        }
+
+        if (error instanceof IOException)
+            throw (IOException) error;
+        else if (error instanceof RuntimeException)
+            throw (RuntimeException) error;
+        else if (error != null)
+            throw new IOException(error);
+    }
+
     public ScoreEntry[] search(UUID user, LanguageDirection direction, Sentence source, ContextVector contextVector, Rescorer rescorer, int limit) throws IOException {
-        Analyzer analyzer = this.queryBuilder.isLongQuery(source.getWords().length) ? longQueryAnalyzer : shortQueryAnalyzer;
-        Query query = this.queryBuilder.bestMatchingSuggestion(documentBuilder, analyzer, user, direction, source, contextVector);
+        Filter contextFilter = getContextFilter(contextVector);
+
+        IndexSearcher searcher = acquireIndexSearcher();
+        try {
+            return search(searcher, user, direction, source, contextVector, contextFilter, rescorer, limit);
+        } finally {
+            releaseIndexSearcher(searcher);
+        }
+    }
+
+    @Override
+    public ScoreEntry[][] search(UUID user, LanguageDirection direction, List<Sentence> sources, ContextVector contextVector, int limit) throws IOException {
+        ScoreEntry[][] results = new ScoreEntry[sources.size()][];
+        if (results.length == 0)
+            return results;
+
+        Filter contextFilter = getContextFilter(contextVector);
+
+        IndexSearcher searcher = acquireIndexSearcher();
+        try {
+            ArrayList<Future<Void>> futures = new ArrayList<>(results.length - 1);
+            for (int i = 1; i < results.length; i++) {
+                final int index = i;
+                futures.add(searchExecutor.submit(() -> {
+                    results[index] = search(searcher, user, direction, sources.get(index), contextVector, contextFilter, rescorer, limit);
+                    return null;
+                }));
+            }
+
+            Throwable error = null;
+            try {
+                results[0] = search(searcher, user, direction, sources.get(0), contextVector, contextFilter, rescorer, limit);
+            } catch (IOException | RuntimeException e) {
+                error = e;
+            }
+
+            await(futures, error);
+        } finally {
+            releaseIndexSearcher(searcher);
+        }
+
+        return results;
+    }
 
-        IndexSearcher searcher = getIndexSearcher();
+    private ScoreEntry[] search(IndexSearcher searcher, UUID user, LanguageDirection direction, Sentence source,
+                                ContextVector contextVector, Filter contextFilter, Rescorer rescorer, int limit) throws IOException {
+        Analyzer analyzer = this.queryBuilder.isLongQuery(source.getWords().length) ? longQueryAnalyzer : shortQueryAnalyzer;
+        Query query = this.queryBuilder.bestMatchingSuggestion(documentBuilder, analyzer, user, direction, source, contextFilter);
 
         int queryLimit = Math.max(this.minQuerySize, limit * 2);
+
         ScoreDoc[] docs = searcher.search(query, queryLimit).scoreDocs;
 
         ScoreEntry[] entries = new ScoreEntry[docs.length];
@@ -238,7 +539,7 @@ public class LuceneTranslationMemory implements TranslationMemory {
         }
 
         if (rescorer != null)
-            entries = rescorer.rescore(direction, source, entries, contextVector);
+            entries = rescorer.rescore(direction, source, entries, contextVector, limit);
 
         if (entries.length > limit) {
             ScoreEntry[] temp = new ScoreEntry[limit];
@@ -251,36 +552,152 @@ public class LuceneTranslationMemory implements TranslationMemory {
 
     @Override
     public synchronized void optimize() throws IOException {
-        IndexReader reader = getIndexReader();
-        logger.info("Starting memory forced merge " +
-                "(deleted-docs = " + reader.numDeletedDocs() + ", size = " + reader.numDocs() + ", max-doc = " + reader.maxDoc());
+        logger.info("Starting memory forced merge " + getIndexStats());
 
         long begin = System.currentTimeMillis();
         this.indexWriter.forceMerge(1);
-        this.indexWriter.commit();
+        this.commit();
+        this.refresh();
         long elapsed = System.currentTimeMillis() - begin;
 
-        reader = getIndexReader();
-        logger.info("Memory forced merge completed in " + (elapsed / 1000.) + "s " +
-                "(deleted-docs = " + reader.numDeletedDocs() + ", size = " + reader.numDocs() + ", max-doc = " + reader.maxDoc());
+        logger.info("Memory forced merge completed in " + (elapsed / 1000.) + "s " + getIndexStats());
+    }
+
+    private String getIndexStats() throws IOException {
+        IndexSearcher searcher = acquireIndexSearcher();
+
+        try {
+            IndexReader reader = searcher.getIndexReader();
+            return "(deleted-docs = " + reader.numDeletedDocs() + ", size = " + reader.numDocs() + ", max-doc = " + reader.maxDoc() + ")";
+        } finally {
+            releaseIndexSearcher(searcher);
+        }
     }
 
     // DataListener
 
     @Override
-    public synchronized void onDataReceived(DataBatch batch) throws IOException {
-        if (closed)
-            return;
+    public void onDataReceived(DataBatch batch) throws IOException {
+        // documents are built before acquiring the lock, concurrently with the batches being written
+        List<PendingUnit> units = prepare(batch.getTranslationUnits());
+
+        long sequence;
+        synchronized (this) {
+            if (closed)
+                return;
+            if (failed)
+                throw new IOException("Memory updates are suspended after a failure, the memory must be reopened");
+
+            sequence = write(units, batch.getDeletions(), batch.getChannelPositions());
+        }
+
+        // Group commit: the batches written while waiting for the lock are committed together,
+        // a batch already included in the commit of another batch does not commit again
+        if (sequence > 0)
+            commit(sequence);
+
+        // changes must be visible to searches as soon as the batch has been processed
+        this.refresh();
+    }
+
+    @Override
+    public boolean needsProcessing() {
+        return true;
+    }
+
+    @Override
+    public boolean needsAlignment() {
+        return false;
+    }
+
+    private List<PendingUnit> prepare(Collection<TranslationUnit> units) {
+        ArrayList<PendingUnit> result = new ArrayList<>(units.size());
+
+        for (TranslationUnit unit : units) {
+            String hash = HashGenerator.hash(unit.rawLanguage, unit.rawSentence, unit.rawTranslation);
+            PendingUnit pending = new PendingUnit(unit, documentBuilder.create(unit, hash), documentBuilder.makeEntryKeyTerm(unit.memory, hash));
 
-        boolean success = false;
+            if (unit.rawPreviousSentence != null && unit.rawPreviousTranslation != null) {
+                String previousHash = HashGenerator.hash(unit.rawLanguage, unit.rawPreviousSentence, unit.rawPreviousTranslation);
+                pending.previousKey = documentBuilder.makeEntryKeyTerm(unit.memory, previousHash);
 
+                if (legacyEntries)
+                    pending.previousQuery = this.queryBuilder.getByHash(documentBuilder, unit.memory, previousHash);
+            }
+
+            result.add(pending);
+        }
+
+        return result;
+    }
+
+    /*
+     * Applies a batch to the index writer, coalescing the overwrites: an entry added and then
+     * overwritten within the batch is never indexed, while the entries overwritten in the index
+     * are deleted by key term before adding the new entries. Returns the sequence number of
+     * the batch if it requires a commit, 0 otherwise.
+     */
+    private long write(List<PendingUnit> units, Collection<Deletion> deletions, Map<Short, Long> positions) throws IOException {
         try {
-            this.onTranslationUnitsReceived(batch.getTranslationUnits());
-            this.onDeletionsReceived(batch.getDeletions());
+            // Translation units
+            ArrayList<PendingUnit> accepted = new ArrayList<>(units.size());
+            HashMap<Term, List<PendingUnit>> additions = new HashMap<>();
+            LinkedHashSet<Term> overwrittenKeys = new LinkedHashSet<>();
+            ArrayList<Query> overwrittenQueries = new ArrayList<>();
+
+            for (PendingUnit pending : units) {
+                Long currentPosition = this.channels.get(pending.unit.channel);
+                if (currentPosition != null && currentPosition >= pending.unit.channelPosition)
+                    continue;
+
+                if (pending.previousKey != null) {
+                    List<PendingUnit> overwritten = additions.remove(pending.previousKey);
+                    if (overwritten != null) {
+                        for (PendingUnit entry : overwritten)
+                            entry.overwritten = true;
+                    }
+
+                    if (overwrittenKeys.add(pending.previousKey) && pending.previousQuery != null)
+                        overwrittenQueries.add(pending.previousQuery);
+                }
+
+                additions.computeIfAbsent(pending.key, key -> new ArrayList<>(1)).add(pending);
+                accepted.add(pending);
+            }
+
+            ArrayList<Document> documents = new ArrayList<>(accepted.size());
+            for (PendingUnit pending : accepted) {
+                if (!pending.overwritten)
+                    documents.add(pending.document);
+            }
+
+            // Entries written before the introduction of the key field are matched by hash only
+            if (legacyEntries) {
+                if (!overwrittenQueries.isEmpty())
+                    this.indexWriter.deleteDocuments(overwrittenQueries.toArray(new Query[0]));
+            } else {
+                if (!overwrittenKeys.isEmpty())
+                    this.indexWriter.deleteDocuments(overwrittenKeys.toArray(new Term[0]));
+            }
+
+            if (!documents.isEmpty())
+                this.indexWriter.addDocuments(documents);
+
+            // Deletions
+            LinkedHashSet<Term> deletedMemories = new LinkedHashSet<>();
+            for (Deletion deletion : deletions) {
+                Long currentPosition = this.channels.get(deletion.channel);
+
+                if (currentPosition == null || currentPosition < deletion.channelPosition)
+                    deletedMemories.add(documentBuilder.makeMemoryTerm(deletion.memory));
+            }
+
+            if (!deletedMemories.isEmpty())
+                this.indexWriter.deleteDocuments(deletedMemories.toArray(new Term[0]));
 
             // Writing channels
             HashMap<Short, Long> newChannels = new HashMap<>(this.channels);
-            for (Map.Entry<Short, Long> entry : batch.getChannelPositions().entrySet()) {
+            for (Map.Entry<Short, Long> entry : positions.entrySet()) {
                 Long position = entry.getValue();
                 Long existingPosition = newChannels.get(entry.getKey());
 
@@ -288,59 +705,56 @@ public class LuceneTranslationMemory implements TranslationMemory {
                     newChannels.put(entry.getKey(), position);
             }
 
+            // Channel positions are written together with the changes, so that every commit
+            // contains the positions of the last batch it includes
             Document channelsDocument = documentBuilder.create(newChannels);
             this.indexWriter.updateDocument(documentBuilder.makeChannelsTerm(), channelsDocument);
-            this.indexWriter.commit();
 
             this.channels.putAll(newChannels);
+            this.uncommittedChanges += units.size() + deletions.size() + 1;
+            this.writtenBatches++;
 
-            success = true;
-        } finally {
-            if (!success)
-                this.indexWriter.rollback();
+            return this.uncommittedChanges >= this.maxUncommittedChanges ? this.writtenBatches : 0L;
+        } catch (IOException | RuntimeException e) {
+            onWriteFailure(e);
+            throw e;
         }
     }
 
-    @Override
-    public boolean needsProcessing() {
-        return true;
-    }
+    private synchronized void commit(long sequence) throws IOException {
+        if (closed || committedBatches >= sequence)
+            return;
 
-    @Override
-    public boolean needsAlignment() {
-        return false;
+        this.commit();
     }
 
-    private void onTranslationUnitsReceived(Collection<TranslationUnit> units) throws IOException {
-        for (TranslationUnit unit : units) {
-            Long currentPosition = this.channels.get(unit.channel);
+    private static final class PendingUnit {
 
-            if (currentPosition == null || currentPosition < unit.channelPosition) {
-                if (unit.rawPreviousSentence != null && unit.rawPreviousTranslation != null) {
-                    String hash = HashGenerator.hash(unit.rawLanguage, unit.rawPreviousSentence, unit.rawPreviousTranslation);
-                    Query hashQuery = this.queryBuilder.getByHash(documentBuilder, unit.memory, hash);
+        private final TranslationUnit unit;
+        private final Document document;
+        private final Term key;
 
-                    this.indexWriter.deleteDocuments(hashQuery);
-                }
+        private Term previousKey = null;
+        private Query previousQuery = null;
+        private boolean overwritten = false;
 
-                Document document = documentBuilder.create(unit);
-                this.indexWriter.addDocument(document);
-            }
+        private PendingUnit(TranslationUnit unit, Document document, Term key) {
+            this.unit = unit;
+            this.document = document;
+            this.key = key;
         }
-    }
-
-    private void onDeletionsReceived(Collection<Deletion> deletions) throws IOException {
-        for (Deletion deletion : deletions) {
-            Long currentPosition = this.channels.get(deletion.channel);
 
-            if (currentPosition == null || currentPosition < deletion.channelPosition)
-                this.indexWriter.deleteDocuments(documentBuilder.makeMemoryTerm(deletion.memory));
-        }
     }
 
+    /**
+     * Returns the channel positions of the last commit: batches applied but not yet committed
+     * are not included, as they would be lost in case of failure.
+     *
+     * @return the channel positions of the last commit
+     */
     @Override
     public Map<Short, Long> getLatestChannelPositions() {
-        return channels;
+        return committedChannels;
     }
 
     // Closeable
@@ -348,18 +762,22 @@ public class LuceneTranslationMemory implements TranslationMemory {
     @Override
     public synchronized void close() throws IOException {
         this.closed = true;
+        this.backgroundExecutor.shutdownNow();
+        this.searchExecutor.shutdownNow();
 
         IOException error = null;
 
         try {
-            if (this._indexReader != null)
-                this._indexReader.close();
+            this.searcherManager.close();
         } catch (IOException e) {
             error = e;
         }
 
         try {
-            if (this.indexWriter != null)
+            // pending changes are committed on close, unless the memory has failed
+            if (failed)
+                this.indexWriter.rollback();
+            else
                 this.indexWriter.close();
         } catch (IOException e) {
             if (error == null)
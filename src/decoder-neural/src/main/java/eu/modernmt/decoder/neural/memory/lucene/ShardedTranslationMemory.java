@@ -0,0 +1,424 @@
+package eu.modernmt.decoder.neural.memory.lucene;
+
+import eu.modernmt.data.DataBatch;
+import eu.modernmt.data.Deletion;
+import eu.modernmt.data.TranslationUnit;
+import eu.modernmt.lang.LanguageDirection;
+import eu.modernmt.memory.ScoreEntry;
+import eu.modernmt.memory.TranslationMemory;
+import eu.modernmt.model.ContextVector;
+import eu.modernmt.model.Sentence;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * A translation memory partitioned in a fixed number of {@link LuceneTranslationMemory} shards,
+ * each one stored in a "shard_N" sub-folder of the memory path.
+ * <p>
+ * Entries are assigned to shards by memory id, so that deletions and overwrites of a memory involve
+ * a single shard and searches only involve the shards of the memories in the context vector;
+ * searches on multiple shards run in parallel and their results are merged by score.
+ * <p>
+ * Every shard receives the channel positions of every batch, even if none of its entries has changed:
+ * the positions of the sharded memory are the minimum positions among shards, while every shard skips
+ * the changes it has already applied, so a batch that failed on some shards is safely replayed.
+ */
+public class ShardedTranslationMemory implements TranslationMemory {
+
+    private static final String SHARD_PREFIX = "shard_";
+
+    private final Logger logger = LogManager.getLogger(ShardedTranslationMemory.class);
+
+    private final LuceneTranslationMemory[] shards;
+    private final ExecutorService executor;
+
+    /**
+     * Opens the translation memory at the given path, sharded if it contains shard folders.
+     *
+     * @param path         the memory path
+     * @param minQuerySize the minimum number of results of fuzzy queries
+     * @return the translation memory at the given path
+     * @throws IOException if an I/O error occurs
+     */
+    public static TranslationMemory open(File path, int minQuerySize) throws IOException {
+        int shards = countShards(path);
+        return shards > 0 ? new ShardedTranslationMemory(path, shards, minQuerySize) : new LuceneTranslationMemory(path, minQuerySize);
+    }
+
+    /**
+     * Opens the translation memory at the given path with the given number of shards, failing if
+     * the memory on disk has a different layout.
+     *
+     * @param path         the memory path
+     * @param shards       the expected number of shards, 1 for an unsharded memory
+     * @param minQuerySize the minimum number of results of fuzzy queries
+     * @return the translation memory at the given path
+     * @throws IOException if an I/O error occurs or the memory layout does not match
+     */
+    public static TranslationMemory open(File path, int shards, int minQuerySize) throws IOException {
+        if (shards > 1)
+            return new ShardedTranslationMemory(path, shards, minQuerySize);
+
+        int existing = countShards(path);
+        if (existing > 0)
+            throw new IOException("Memory at " + path + " has " + existing + " shards, while an unsharded memory is expected");
+
+        return new LuceneTranslationMemory(path, minQuerySize);
+    }
+
+    private static int countShards(File path) {
+        File[] folders = path.listFiles((dir, name) -> name.startsWith(SHARD_PREFIX));
+        return folders == null ? 0 : folders.length;
+    }
+
+    public static File getShardPath(File path, int shard) {
+        return new File(path, SHARD_PREFIX + shard);
+    }
+
+    public static int getShard(long memory, int shards) {
+        return Math.floorMod(Long.hashCode(memory), shards);
+    }
+
+    private static LuceneTranslationMemory[] openShards(File path, int count, int minQuerySize) throws IOException {
+        int existing = countShards(path);
+        if (existing > 0 && existing != count)
+            throw new IOException("Memory at " + path + " has " + existing + " shards, while " + count + " are expected");
+
+        File[] files = path.listFiles((dir, name) -> name.startsWith("segments"));
+        if (files != null && files.length > 0)
+            throw new IOException("Memory at " + path + " is not sharded, it must be migrated to " + count + " shards");
+
+        LuceneTranslationMemory[] shards = new LuceneTranslationMemory[count];
+
+        try {
+            for (int i = 0; i < count; i++)
+                shards[i] = new LuceneTranslationMemory(getShardPath(path, i), minQuerySize);
+        } catch (IOException e) {
+            for (LuceneTranslationMemory shard : shards) {
+                if (shard != null)
+                    shard.close();
+            }
+
+            throw e;
+        }
+
+        return shards;
+    }
+
+    public ShardedTranslationMemory(File path, int shards, int minQuerySize) throws IOException {
+        this(openShards(path, shards, minQuerySize));
+    }
+
+    public ShardedTranslationMemory(LuceneTranslationMemory[] shards) {
+        this.shards = shards;
+        this.executor = Executors.newFixedThreadPool(shards.length, runnable -> {
+            Thread thread = new Thread(runnable, "ShardedTranslationMemory");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getShardsCount() {
+        return shards.length;
+    }
+
+    public LuceneTranslationMemory getShard(long memory) {
+        return shards[getShard(memory, shards.length)];
+    }
+
+    // indexes of the shards of the memories in the context vector
+    private int[] getShards(ContextVector contextVector) {
+        boolean[] selected = new boolean[shards.length];
+        int[] result = new int[Math.min(shards.length, contextVector.size())];
+        int size = 0;
+
+        for (ContextVector.Entry entry : contextVector) {
+            int shard = getShard(entry.memory.getId(), shards.length);
+
+            if (!selected[shard]) {
+                selected[shard] = true;
+                result[size++] = shard;
+            }
+        }
+
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    /*
+     * Runs the task on the given shards, all but the first one in the executor,
+     * and returns the results in the same order of the shards
+     */
+    private <V> List<V> execute(int[] indexes, ShardTask<V> task) throws IOException {
+        if (indexes.length == 1)
+            return Collections.singletonList(task.call(shards[indexes[0]], indexes[0]));
+
+        ArrayList<Future<V>> futures = new ArrayList<>(indexes.length - 1);
+        for (int i = 1; i < indexes.length; i++) {
+            int index = indexes[i];
+            futures.add(executor.submit(() -> task.call(shards[index], index)));
+        }
+
+        ArrayList<V> results = new ArrayList<>(indexes.length);
+        Throwable error = null;
+
+        try {
+            results.add(task.call(shards[indexes[0]], indexes[0]));
+        } catch (IOException | RuntimeException e) {
+            error = e;
+        }
+
+        // wait for every task, even after a failure, so no task is still running when this method returns
+        for (Future<V> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (error == null)
+                    error = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for memory shards", e);
+            }
+        }
+
+        if (error instanceof IOException)
+            throw (IOException) error;
+        else if (error instanceof RuntimeException)
+            throw (RuntimeException) error;
+        else if (error != null)
+            throw new IOException(error);
+
+        return results;
+    }
+
+    private interface ShardTask<V> {
+
+        V call(LuceneTranslationMemory shard, int index) throws IOException;
+
+    }
+
+    // TranslationMemory
+
+    @Override
+    public ScoreEntry searchExactMatch(UUID user, LanguageDirection direction, Sentence source, ContextVector contextVector) throws IOException {
+        int[] shards = getShards(contextVector);
+        if (shards.length == 0)
+            return null;
+
+        ScoreEntry result = null;
+        float resultContextScore = 0.f;
+
+        for (ScoreEntry entry : execute(shards, (shard, i) -> shard.searchExactMatch(user, direction, source, contextVector))) {
+            if (entry == null)
+                continue;
+
+            float contextScore = LuceneTranslationMemory.getContextScore(contextVector, entry.memory);
+            if (result == null || contextScore > resultContextScore) {
+                result = entry;
+                resultContextScore = contextScore;
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public ScoreEntry[] search(UUID user, LanguageDirection direction, Sentence source, ContextVector contextVector, int limit) throws IOException {
+        int[] shards = getShards(contextVector);
+        if (shards.length == 0)
+            return new ScoreEntry[0];
+
+        List<ScoreEntry[]> results = execute(shards, (shard, i) -> shard.search(user, direction, source, contextVector, limit));
+        return merge(results, limit);
+    }
+
+    @Override
+    public ScoreEntry[][] search(UUID user, LanguageDirection direction, List<Sentence> sources, ContextVector contextVector, int limit) throws IOException {
+        int[] shards = getShards(contextVector);
+
+        ScoreEntry[][] entries = new ScoreEntry[sources.size()][];
+        if (shards.length == 0) {
+            for (int i = 0; i < entries.length; i++)
+                entries[i] = new ScoreEntry[0];
+            return entries;
+        }
+
+        List<ScoreEntry[][]> results = execute(shards, (shard, i) -> shard.search(user, direction, sources, contextVector, limit));
+
+        ArrayList<ScoreEntry[]> sentenceResults = new ArrayList<>(results.size());
+        for (int i = 0; i < entries.length; i++) {
+            sentenceResults.clear();
+            for (ScoreEntry[][] result : results)
+                sentenceResults.add(result[i]);
+
+            entries[i] = merge(sentenceResults, limit);
+        }
+
+        return entries;
+    }
+
+    private static ScoreEntry[] merge(List<ScoreEntry[]> results, int limit) {
+        if (results.size() == 1)
+            return results.get(0);
+
+        int size = 0;
+        for (ScoreEntry[] entries : results)
+            size += entries.length;
+
+        ScoreEntry[] entries = new ScoreEntry[size];
+        int offset = 0;
+        for (ScoreEntry[] shardEntries : results) {
+            System.arraycopy(shardEntries, 0, entries, offset, shardEntries.length);
+            offset += shardEntries.length;
+        }
+
+        Arrays.sort(entries);
+        ArrayUtils.reverse(entries);
+
+        if (entries.length > limit) {
+            ScoreEntry[] temp = new ScoreEntry[limit];
+            System.arraycopy(entries, 0, temp, 0, limit);
+            entries = temp;
+        }
+
+        return entries;
+    }
+
+    @Override
+    public void optimize() throws IOException {
+        // one shard at a time, so that merges do not slow down all the searches at once
+        for (int i = 0; i < shards.length; i++) {
+            logger.info("Optimizing memory shard " + i);
+            shards[i].optimize();
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (LuceneTranslationMemory shard : shards)
+            size += shard.size();
+        return size;
+    }
+
+    @Override
+    public void dumpAll(Consumer<Entry> consumer) throws IOException {
+        for (LuceneTranslationMemory shard : shards)
+            shard.dumpAll(consumer);
+    }
+
+    @Override
+    public void dump(long memory, Consumer<Entry> consumer) throws IOException {
+        getShard(memory).dump(memory, consumer);
+    }
+
+    // DataListener
+
+    @Override
+    public void onDataReceived(DataBatch batch) throws IOException {
+        ShardBatch[] batches = new ShardBatch[shards.length];
+        for (int i = 0; i < batches.length; i++)
+            batches[i] = new ShardBatch(batch.getChannelPositions());
+
+        for (TranslationUnit unit : batch.getTranslationUnits())
+            batches[getShard(unit.memory, shards.length)].units.add(unit);
+        for (Deletion deletion : batch.getDeletions())
+            batches[getShard(deletion.memory, shards.length)].deletions.add(deletion);
+
+        int[] indexes = new int[shards.length];
+        for (int i = 0; i < indexes.length; i++)
+            indexes[i] = i;
+
+        execute(indexes, (shard, i) -> {
+            shard.onDataReceived(batches[i]);
+            return null;
+        });
+    }
+
+    @Override
+    public Map<Short, Long> getLatestChannelPositions() {
+        HashMap<Short, Long> result = new HashMap<>(shards[0].getLatestChannelPositions());
+
+        for (int i = 1; i < shards.length; i++) {
+            Map<Short, Long> positions = shards[i].getLatestChannelPositions();
+
+            Iterator<Map.Entry<Short, Long>> iterator = result.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Short, Long> entry = iterator.next();
+                Long position = positions.get(entry.getKey());
+
+                if (position == null)
+                    iterator.remove();
+                else if (position < entry.getValue())
+                    entry.setValue(position);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean needsProcessing() {
+        return true;
+    }
+
+    @Override
+    public boolean needsAlignment() {
+        return false;
+    }
+
+    private static class ShardBatch implements DataBatch {
+
+        private final ArrayList<TranslationUnit> units = new ArrayList<>();
+        private final ArrayList<Deletion> deletions = new ArrayList<>();
+        private final Map<Short, Long> channelPositions;
+
+        private ShardBatch(Map<Short, Long> channelPositions) {
+            this.channelPositions = channelPositions;
+        }
+
+        @Override
+        public Collection<TranslationUnit> getTranslationUnits() {
+            return units;
+        }
+
+        @Override
+        public Collection<Deletion> getDeletions() {
+            return deletions;
+        }
+
+        @Override
+        public Map<Short, Long> getChannelPositions() {
+            return channelPositions;
+        }
+
+    }
+
+    // Closeable
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+
+        IOException error = null;
+
+        for (LuceneTranslationMemory shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (error == null)
+                    error = e;
+            }
+        }
+
+        if (error != null)
+            throw error;
+    }
+
+}
@@ -0,0 +1,70 @@
+package eu.modernmt.decoder.neural.memory.lucene;
+
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteArrayDataOutput;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary stored representation of the tokens of one side of a translation unit, so that suggestions
+ * are read without splitting serialized text:
+ * <pre>
+ * version (byte) | tokens count (vint) | tokens (vint length + UTF-8 bytes each)
+ * </pre>
+ */
+public final class StoredTokens {
+
+    private static final byte VERSION = 1;
+
+    private StoredTokens() {
+    }
+
+    public static byte[] encode(String[] tokens) {
+        byte[][] utf8 = new byte[tokens.length][];
+
+        int size = 1 + 5;
+        for (int i = 0; i < tokens.length; i++) {
+            utf8[i] = tokens[i].getBytes(StandardCharsets.UTF_8);
+            size += 5 + utf8[i].length;
+        }
+
+        byte[] buffer = new byte[size];
+        ByteArrayDataOutput output = new ByteArrayDataOutput(buffer);
+
+        try {
+            output.writeByte(VERSION);
+            output.writeVInt(utf8.length);
+            for (byte[] token : utf8) {
+                output.writeVInt(token.length);
+                output.writeBytes(token, 0, token.length);
+            }
+        } catch (IOException e) {
+            throw new Error("Unexpected exception writing to a byte array", e);
+        }
+
+        byte[] result = new byte[output.getPosition()];
+        System.arraycopy(buffer, 0, result, 0, result.length);
+        return result;
+    }
+
+    public static String[] decode(BytesRef bytes) {
+        ByteArrayDataInput input = new ByteArrayDataInput(bytes.bytes, bytes.offset, bytes.length);
+
+        byte version = input.readByte();
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unsupported stored tokens version: " + version);
+
+        byte[] data = bytes.bytes;
+        String[] tokens = new String[input.readVInt()];
+        for (int i = 0; i < tokens.length; i++) {
+            int length = input.readVInt();
+            tokens[i] = new String(data, input.getPosition(), length, StandardCharsets.UTF_8);
+            input.skipBytes(length);
+        }
+
+        return tokens;
+    }
+
+}
@@ -0,0 +1,184 @@
+package eu.modernmt.decoder.neural.memory.lucene.query;
+
+import eu.modernmt.model.ContextVector;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.search.CachingWrapperFilter;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.WAH8DocIdSet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * LRU cache of the context filters, keyed by the set of memories of the context vector (scores do not
+ * change the filter). Every filter caches its bitset segment by segment: segments created after
+ * the first evaluation are computed when first searched, while the bitsets of merged segments are released
+ * together with their readers; deleted documents are excluded at search time, so cached bitsets never need
+ * to be rebuilt.
+ * <p>
+ * The bitsets of segments in which the filter matches only a few documents are stored without random access,
+ * so that searches iterate the filter first and score only its documents, instead of testing the filter
+ * on every document matching the query terms.
+ * <p>
+ * Since bitsets are added after a filter enters the cache, the memory bound is enforced every time
+ * a filter caches the bitset of a segment.
+ */
+public class ContextFilterCache {
+
+    // a segment filter is sparse if it matches at most 1/SPARSE_RATIO of the documents
+    private static final int SPARSE_RATIO = 128;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<Key, SegmentCachingFilter> cache;
+    private long bytes = 0;
+
+    public ContextFilterCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.cache = new LinkedHashMap<>(16, .75f, true);
+    }
+
+    /**
+     * Returns the cached filter of the memories of the given context vector, creating it with the
+     * given function if it is not in cache.
+     *
+     * @param context the context vector
+     * @param factory the function creating the (non cached) filter of a context vector
+     * @return the cached filter of the context vector
+     */
+    public Filter get(ContextVector context, Function<ContextVector, Filter> factory) {
+        Key key = new Key(context);
+
+        synchronized (this) {
+            SegmentCachingFilter filter = cache.get(key);
+            if (filter != null)
+                return filter;
+        }
+
+        SegmentCachingFilter filter = new SegmentCachingFilter(factory.apply(context), key);
+
+        synchronized (this) {
+            SegmentCachingFilter existing = cache.putIfAbsent(key, filter);
+            if (existing != null)
+                return existing;
+
+            evict();
+        }
+
+        return filter;
+    }
+
+    private synchronized void onSegmentCached(SegmentCachingFilter filter, long filterBytes) {
+        if (cache.get(filter.key) != filter)
+            return;  // evicted, its bitsets are not accounted anymore
+
+        bytes += filterBytes - filter.bytes;
+        filter.bytes = filterBytes;
+
+        evict();
+    }
+
+    // called with the lock held, the most recent entry is never evicted
+    private void evict() {
+        while (cache.size() > maxEntries || (bytes > maxBytes && cache.size() > 1))
+            removeEldest();
+    }
+
+    private void removeEldest() {
+        Iterator<Map.Entry<Key, SegmentCachingFilter>> iterator = cache.entrySet().iterator();
+        bytes -= iterator.next().getValue().bytes;
+        iterator.remove();
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the memory used by the bitsets of the cached filters, as of the last cached segment of each filter
+     */
+    public synchronized long ramBytesUsed() {
+        return bytes;
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+        bytes = 0;
+    }
+
+    private static final class Key {
+
+        private final long[] memories;
+        private final int hashCode;
+
+        Key(ContextVector context) {
+            long[] memories = new long[context.size()];
+            int i = 0;
+            for (ContextVector.Entry entry : context)
+                memories[i++] = entry.memory.getId();
+
+            Arrays.sort(memories);
+
+            this.memories = memories;
+            this.hashCode = Arrays.hashCode(memories);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return Arrays.equals(memories, ((Key) o).memories);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+    }
+
+    private class SegmentCachingFilter extends CachingWrapperFilter {
+
+        private final Key key;
+        private long bytes = 0;  // guarded by the cache lock
+
+        SegmentCachingFilter(Filter filter, Key key) {
+            super(filter);
+            this.key = key;
+        }
+
+        @Override
+        protected DocIdSet docIdSetToCache(DocIdSet docIdSet, AtomicReader reader) throws IOException {
+            DocIdSet result = compact(super.docIdSetToCache(docIdSet, reader), reader);
+
+            // the returned set is cached right after this call: the bitsets of closed segments
+            // have already been released, so the size of the filter is measured again every time
+            onSegmentCached(this, ramBytesUsed() + (result == null ? 0 : result.ramBytesUsed()));
+
+            return result;
+        }
+
+        private DocIdSet compact(DocIdSet result, AtomicReader reader) throws IOException {
+            if (result instanceof FixedBitSet) {
+                FixedBitSet bits = (FixedBitSet) result;
+                int cardinality = bits.cardinality();
+
+                if (cardinality == 0)
+                    return DocIdSet.EMPTY;
+                else if (cardinality <= reader.maxDoc() / SPARSE_RATIO)
+                    return new WAH8DocIdSet.Builder().add(bits.iterator()).build();
+            }
+
+            return result;
+        }
+
+    }
+
+}
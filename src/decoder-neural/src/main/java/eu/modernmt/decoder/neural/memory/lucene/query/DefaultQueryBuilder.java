@@ -48,8 +48,24 @@ public class DefaultQueryBuilder implements QueryBuilder {
         return new TermQuery(builder.makeChannelsTerm());
     }
 
+    @Override
+    public Query exactMatch(DocumentBuilder builder, UUID user, LanguageDirection direction, String[] tokens, ContextVector context) {
+        return exactMatch(builder, user, direction, tokens, makeContextFilter(builder, context));
+    }
+
+    @Override
+    public Query exactMatch(DocumentBuilder builder, UUID user, LanguageDirection direction, String[] tokens, Filter contextFilter) {
+        TermQuery query = new TermQuery(builder.makeExactMatchTerm(direction, tokens));
+        return new FilteredQuery(query, contextFilter);
+    }
+
     @Override
     public Query bestMatchingSuggestion(DocumentBuilder builder, Analyzer analyzer, UUID user, LanguageDirection direction, Sentence sentence, ContextVector context) {
+        return bestMatchingSuggestion(builder, analyzer, user, direction, sentence, makeContextFilter(builder, context));
+    }
+
+    @Override
+    public Query bestMatchingSuggestion(DocumentBuilder builder, Analyzer analyzer, UUID user, LanguageDirection direction, Sentence sentence, Filter contextFilter) {
         int length = sentence.getWords().length;
         int minMatches = length > SHORT_QUERY_SIZE ? Math.max(1, (int) (length * .5)) : length;
 
@@ -57,13 +73,15 @@ public class DefaultQueryBuilder implements QueryBuilder {
         BooleanQuery termsQuery = makeTermsQuery(builder, direction, sentence, analyzer);
         termsQuery.setMinimumNumberShouldMatch(minMatches);
 
-        // Context filter
-        TermsFilter contextFilter = makeContextFilter(builder, context);
-
         // Result
         return new FilteredQuery(termsQuery, contextFilter);
     }
 
+    @Override
+    public Filter getContextFilter(DocumentBuilder builder, ContextVector context) {
+        return makeContextFilter(builder, context);
+    }
+
     protected static TermsFilter makeContextFilter(DocumentBuilder builder, ContextVector context) {
         ArrayList<Term> terms = new ArrayList<>(context.size());
         for (ContextVector.Entry entry : context)
@@ -5,6 +5,7 @@ import eu.modernmt.lang.LanguageDirection;
 import eu.modernmt.model.ContextVector;
 import eu.modernmt.model.Sentence;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.Query;
 
 import java.util.UUID;
@@ -20,6 +21,14 @@ public interface QueryBuilder {
 
     Query getChannels(DocumentBuilder builder);
 
+    Query exactMatch(DocumentBuilder builder, UUID user, LanguageDirection direction, String[] tokens, ContextVector context);
+
+    Query exactMatch(DocumentBuilder builder, UUID user, LanguageDirection direction, String[] tokens, Filter contextFilter);
+
     Query bestMatchingSuggestion(DocumentBuilder builder, Analyzer analyzer, UUID user, LanguageDirection direction, Sentence sentence, ContextVector context);
 
+    Query bestMatchingSuggestion(DocumentBuilder builder, Analyzer analyzer, UUID user, LanguageDirection direction, Sentence sentence, Filter contextFilter);
+
+    Filter getContextFilter(DocumentBuilder builder, ContextVector context);
+
 }
@@ -1,146 +1,225 @@
 package eu.modernmt.decoder.neural.memory.lucene.query.rescoring;
 
-import java.util.HashMap;
-import java.util.Map;
-
+import java.util.Arrays;
+
+/**
+ * Computes the F1-BLEU score of hypotheses against a reference sentence without allocating memory
+ * for every hypothesis.
+ * <p>
+ * The tokens of the reference are mapped to int ids and its n-grams are packed into long keys
+ * (16 bits per token), then counted in an open-addressing table. Hypothesis tokens are looked up
+ * in the same dictionary: tokens not in the reference can not be part of a matching n-gram, so the
+ * scores are exactly the same of a comparison based on token equality.
+ * <p>
+ * Tables are reused by {@link #setReference(String[])}, an instance must not be shared between threads.
+ */
 public class F1BleuCalculator {
 
     private static final int N = 4;
     private static final double EPSILON = 0.1;
-    private final String[] reference;
-    private final HashMap<NGram, Counter> referenceNGrams;
-
-    public F1BleuCalculator(String[] reference) {
-        this.reference = reference;
-        this.referenceNGrams = split(this.reference, N);
-    }
+    private static final int MAX_TOKEN_ID = 0xFFFE;
 
-    public float calc(String[] hyp) {
-        HashMap<NGram, Counter> hypNGrams = split(hyp, N);
-        return getF1BleuScore(this.referenceNGrams, this.reference.length, hypNGrams, hyp.length);
-    }
+    private int referenceLength = 0;
 
-    private static HashMap<NGram, Counter> split(String[] sentence, int order) {
-        HashMap<NGram, Counter> counts = new HashMap<>(sentence.length * order);
+    // token dictionary
+    private String[] tokens = new String[0];
+    private int[] tokenIds = new int[0];
+    private int tokensMask = -1;
 
-        for (int offset = 0; offset < sentence.length; offset++) {
-            int maxOrder = sentence.length - offset;
+    // reference n-grams table
+    private long[] keys = new long[0];
+    private byte[] orders = new byte[0];
+    private int[] counts = new int[0];
+    private int[] used = new int[0];
+    private int[] stamps = new int[0];
+    private int keysMask = -1;
+    private int stamp = 0;
 
-            for (int o = 1; o <= Math.min(order, maxOrder); o++) {
-                NGram ngram = new NGram(sentence, offset, o);
-                counts.computeIfAbsent(ngram, key -> new Counter()).value++;
-            }
-        }
+    private final int[] numerators = new int[N];
 
-        return counts;
+    public F1BleuCalculator() {
     }
 
-    private static float getF1BleuScore(HashMap<NGram, Counter> sentence, int sentenceLength, HashMap<NGram, Counter> suggestion, int suggestionLength) {
-        int numerators[] = new int[N];
-
-        for (Map.Entry<NGram, Counter> entry : sentence.entrySet()) {
-            NGram ngram = entry.getKey();
+    public F1BleuCalculator(String[] reference) {
+        setReference(reference);
+    }
 
-            int order = ngram.getOrder();
-            int count = entry.getValue().value;
-            int suggestionCount = suggestion.getOrDefault(ngram, Counter.ZERO).value;
+    public void setReference(String[] reference) {
+        this.referenceLength = reference.length;
 
-            numerators[order - 1] += Math.min(count, suggestionCount);
+        // Token dictionary
+        int capacity = tableSize(reference.length);
+        if (tokens.length < capacity) {
+            tokens = new String[capacity];
+            tokenIds = new int[capacity];
+        } else {
+            Arrays.fill(tokens, null);
         }
+        tokensMask = capacity - 1;
 
-        double precision = 0;
-        double recall = 0;
+        int[] ids = new int[reference.length];
+        int nextId = 0;
 
-        for (int order = 1; order <= N; ++order) {
-            precision += Math.log(smooth(numerators[order - 1], Math.max(suggestionLength - order + 1, 0), 1));
-            recall += Math.log(smooth(numerators[order - 1], Math.max(sentenceLength - order + 1, 0), 1));
-        }
+        for (int i = 0; i < reference.length; i++) {
+            String token = reference[i];
 
-        precision = Math.exp(precision / N);
-        recall = Math.exp(recall / N);
+            if (token == null) {
+                ids[i] = -1;
+                continue;
+            }
 
-        // compute F1
-        return (float) (2 * (precision * recall) / (precision + recall));
-    }
+            int slot = spread(token.hashCode()) & tokensMask;
+            while (tokens[slot] != null && !tokens[slot].equals(token))
+                slot = (slot + 1) & tokensMask;
 
-    private static double smooth(int num, int den, int count) {
-        return (num + EPSILON) / (den + count * EPSILON);
-    }
+            if (tokens[slot] == null) {
+                if (nextId > MAX_TOKEN_ID) {
+                    ids[i] = -1;  // n-grams with this token are not counted, it never happens with real sentences
+                    continue;
+                }
 
-    private static final class Counter {
+                tokens[slot] = token;
+                tokenIds[slot] = nextId++;
+            }
 
-        public static final Counter ZERO = new Counter();
+            ids[i] = tokenIds[slot];
+        }
 
-        public int value = 0;
-    }
+        // N-grams table
+        capacity = tableSize(reference.length * N);
+        if (keys.length < capacity) {
+            keys = new long[capacity];
+            orders = new byte[capacity];
+            counts = new int[capacity];
+            used = new int[capacity];
+            stamps = new int[capacity];
+        } else {
+            Arrays.fill(keys, 0L);
+            Arrays.fill(stamps, 0);
+        }
+        keysMask = capacity - 1;
+        stamp = 0;
 
-    private static final class NGram {
+        for (int offset = 0; offset < ids.length; offset++) {
+            long key = 0;
+            int maxOrder = Math.min(N, ids.length - offset);
 
-        private final String[] sentence;
-        private final int offset;
-        private final int order;
+            for (int order = 1; order <= maxOrder; order++) {
+                int id = ids[offset + order - 1];
+                if (id < 0)
+                    break;
 
-        private int hash = 0;
+                key = (key << 16) | (id + 1);
 
-        public NGram(String[] sentence, int offset, int order) {
-            this.sentence = sentence;
-            this.offset = offset;
-            this.order = order;
+                int slot = findKey(key);
+                if (keys[slot] == 0L) {
+                    keys[slot] = key;
+                    orders[slot] = (byte) order;
+                    counts[slot] = 0;
+                }
+                counts[slot]++;
+            }
         }
+    }
 
-        public int getOrder() {
-            return order;
+    public float calc(String[] hyp) {
+        int[] numerators = this.numerators;
+        for (int i = 0; i < N; i++)
+            numerators[i] = 0;
+
+        // stamps mark the slots touched by this hypothesis, so that usage counters
+        // do not need to be cleared for every hypothesis
+        stamp++;
+        if (stamp == 0) {
+            Arrays.fill(stamps, 0);
+            stamp = 1;
         }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
+        for (int offset = 0; offset < hyp.length; offset++) {
+            long key = 0;
+            int maxOrder = Math.min(N, hyp.length - offset);
+
+            for (int order = 1; order <= maxOrder; order++) {
+                int id = getTokenId(hyp[offset + order - 1]);
+                if (id < 0)
+                    break;
 
-            NGram ngram = (NGram) o;
+                key = (key << 16) | (id + 1);
 
-            if (order != ngram.order) return false;
+                int slot = findKey(key);
+                if (keys[slot] == 0L)
+                    break;  // longer n-grams with the same prefix are not in the reference either
 
-            for (int i = 0; i < order; i++) {
-                String a = sentence[i + offset];
-                String b = ngram.sentence[i + ngram.offset];
+                if (stamps[slot] != stamp) {
+                    stamps[slot] = stamp;
+                    used[slot] = 0;
+                }
 
-                if (!(a != null && b != null && a.equals(b)))
-                    return false;
+                // clip to the reference count
+                if (used[slot] < counts[slot]) {
+                    used[slot]++;
+                    numerators[orders[slot] - 1]++;
+                }
             }
+        }
+
+        return getF1BleuScore(numerators, referenceLength, hyp.length);
+    }
+
+    private int getTokenId(String token) {
+        if (token == null)
+            return -1;
 
-            return true;
+        int slot = spread(token.hashCode()) & tokensMask;
+        while (tokens[slot] != null) {
+            if (tokens[slot].equals(token))
+                return tokenIds[slot];
+            slot = (slot + 1) & tokensMask;
         }
 
-        @Override
-        public int hashCode() {
-            if (hash == 0) {
-                int result = 1;
+        return -1;
+    }
 
-                for (int i = 0; i < order; i++) {
-                    String element = sentence[i + offset];
-                    result = 31 * result + (element == null ? 0 : element.hashCode());
-                }
+    private int findKey(long key) {
+        int slot = spread(Long.hashCode(key * 0x9E3779B97F4A7C15L)) & keysMask;
+        while (keys[slot] != 0L && keys[slot] != key)
+            slot = (slot + 1) & keysMask;
+        return slot;
+    }
 
-                hash = result;
-            }
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
 
-            return hash;
-        }
+    // power of two with a load factor of at most 0.5
+    private static int tableSize(int elements) {
+        int size = 2;
+        while (size < elements * 2)
+            size <<= 1;
+        return size;
+    }
 
-        @Override
-        public String toString() {
-            StringBuilder string = new StringBuilder("(");
-            for (int i = 0; i < order; i++) {
-                if (i > 0)
-                    string.append(' ');
-                string.append(sentence[i + offset]);
-            }
-            string.append(')');
+    private static float getF1BleuScore(int[] numerators, int sentenceLength, int suggestionLength) {
+        double precision = 0;
+        double recall = 0;
 
-            return string.toString();
+        for (int order = 1; order <= N; ++order) {
+            precision += Math.log(smooth(numerators[order - 1], Math.max(suggestionLength - order + 1, 0), 1));
+            recall += Math.log(smooth(numerators[order - 1], Math.max(sentenceLength - order + 1, 0), 1));
         }
 
+        precision = Math.exp(precision / N);
+        recall = Math.exp(recall / N);
+
+        // compute F1
+        return (float) (2 * (precision * recall) / (precision + recall));
+    }
+
+    private static double smooth(int num, int den, int count) {
+        return (num + EPSILON) / (den + count * EPSILON);
     }
 
 }
@@ -0,0 +1,256 @@
+package eu.modernmt.decoder.neural.memory.lucene.query.rescoring;
+
+import java.util.Arrays;
+
+/**
+ * Computes the token-level edit distance of hypotheses from a reference sentence without allocating memory
+ * for every hypothesis.
+ * <p>
+ * Tokens are mapped to int ids with a dictionary of the reference tokens (tokens not in the reference
+ * never match). References of up to 64 tokens use the bit-parallel algorithm of Myers, in the global
+ * distance formulation of Hyyrö, that processes a whole column of the dynamic programming matrix with
+ * a few word operations for every hypothesis token; longer references use the classic dynamic program,
+ * restricted to a diagonal band when a maximum distance is given.
+ * <p>
+ * Tables are reused by {@link #setReference(String[])}, an instance must not be shared between threads.
+ */
+public class LevenshteinCalculator {
+
+    private static final int MAX_BIT_PARALLEL_LENGTH = 64;
+
+    private int referenceLength = 0;
+    private int[] referenceIds = new int[0];
+
+    // token dictionary
+    private String[] tokens = new String[0];
+    private int[] tokenIds = new int[0];
+    private int tokensMask = -1;
+
+    // bit-parallel: positions of every token id in the reference
+    private long[] masks = new long[0];
+
+    // banded dynamic program rows
+    private int[] previousRow = new int[0];
+    private int[] currentRow = new int[0];
+    private int[] hypIds = new int[0];
+
+    public LevenshteinCalculator() {
+    }
+
+    public LevenshteinCalculator(String[] reference) {
+        setReference(reference);
+    }
+
+    public void setReference(String[] reference) {
+        this.referenceLength = reference.length;
+
+        if (referenceIds.length < reference.length)
+            referenceIds = new int[reference.length];
+
+        // Token dictionary
+        int capacity = tableSize(reference.length);
+        if (tokens.length < capacity) {
+            tokens = new String[capacity];
+            tokenIds = new int[capacity];
+        } else {
+            Arrays.fill(tokens, null);
+        }
+        tokensMask = capacity - 1;
+
+        int nextId = 0;
+        for (int i = 0; i < reference.length; i++) {
+            String token = reference[i];
+
+            int slot = spread(token.hashCode()) & tokensMask;
+            while (tokens[slot] != null && !tokens[slot].equals(token))
+                slot = (slot + 1) & tokensMask;
+
+            if (tokens[slot] == null) {
+                tokens[slot] = token;
+                tokenIds[slot] = nextId++;
+            }
+
+            referenceIds[i] = tokenIds[slot];
+        }
+
+        // Bit masks
+        if (reference.length <= MAX_BIT_PARALLEL_LENGTH) {
+            if (masks.length < nextId)
+                masks = new long[Math.max(nextId, MAX_BIT_PARALLEL_LENGTH)];
+            else
+                Arrays.fill(masks, 0, nextId, 0L);
+
+            for (int i = 0; i < reference.length; i++)
+                masks[referenceIds[i]] |= 1L << i;
+        }
+    }
+
+    public int distance(String[] hyp) {
+        return distance(hyp, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the edit distance of the hypothesis from the reference if it is at most maxDistance,
+     * otherwise any value greater than maxDistance: the computation stops as soon as the distance
+     * is known to exceed the maximum.
+     *
+     * @param hyp         the hypothesis tokens
+     * @param maxDistance the maximum distance of interest
+     * @return the edit distance, or a value greater than maxDistance
+     */
+    public int distance(String[] hyp, int maxDistance) {
+        int m = referenceLength;
+        int n = hyp.length;
+
+        // the distance is never greater than the longest sentence
+        maxDistance = Math.min(maxDistance, Math.max(m, n));
+
+        if (Math.abs(m - n) > maxDistance)
+            return maxDistance + 1;
+        if (m == 0)
+            return n;
+        if (n == 0)
+            return m;
+
+        if (m <= MAX_BIT_PARALLEL_LENGTH)
+            return bitParallelDistance(hyp, maxDistance);
+        else
+            return bandedDistance(hyp, maxDistance);
+    }
+
+    private int bitParallelDistance(String[] hyp, int maxDistance) {
+        int n = hyp.length;
+        long last = 1L << (referenceLength - 1);
+
+        long vp = -1L;  // vertical positive deltas, bits above the reference length are never read
+        long vn = 0L;   // vertical negative deltas
+        int score = referenceLength;
+
+        for (int j = 0; j < n; j++) {
+            int id = getTokenId(hyp[j]);
+            long eq = id < 0 ? 0L : masks[id];
+
+            long xv = eq | vn;
+            long xh = (((eq & vp) + vp) ^ vp) | eq;
+            long hp = vn | ~(xh | vp);
+            long hn = vp & xh;
+
+            if ((hp & last) != 0)
+                score++;
+            else if ((hn & last) != 0)
+                score--;
+
+            // every remaining token can lower the distance by one at most
+            if (score - (n - j - 1) > maxDistance)
+                return maxDistance + 1;
+
+            // the first row of the matrix grows by one at every column
+            hp = (hp << 1) | 1L;
+            hn = hn << 1;
+
+            vp = hn | ~(xv | hp);
+            vn = hp & xv;
+        }
+
+        return score;
+    }
+
+    private int bandedDistance(String[] hyp, int maxDistance) {
+        int m = referenceLength;
+        int n = hyp.length;
+        int k = maxDistance;
+        int infinity = k + 1;
+
+        if (previousRow.length < n + 1) {
+            previousRow = new int[n + 1];
+            currentRow = new int[n + 1];
+            hypIds = new int[n];
+        }
+
+        int[] previous = previousRow;
+        int[] current = currentRow;
+
+        int[] ids = hypIds;
+        for (int j = 0; j < n; j++)
+            ids[j] = getTokenId(hyp[j]);
+
+        for (int j = 0; j <= Math.min(n, k); j++)
+            previous[j] = j;
+        if (k < n)
+            previous[k + 1] = infinity;
+
+        for (int i = 1; i <= m; i++) {
+            int lo = Math.max(1, i - k);
+            int hi = Math.min(n, i + k);
+            int referenceId = referenceIds[i - 1];
+
+            current[lo - 1] = lo == 1 && i <= k ? i : infinity;
+            int rowMin = current[lo - 1];
+
+            for (int j = lo; j <= hi; j++) {
+                int cost = ids[j - 1] == referenceId ? 0 : 1;
+                int value = previous[j - 1] + cost;
+
+                int insertion = current[j - 1] + 1;
+                if (insertion < value)
+                    value = insertion;
+
+                // cells above the band of the previous row are out of the band
+                if (j <= i - 1 + k) {
+                    int deletion = previous[j] + 1;
+                    if (deletion < value)
+                        value = deletion;
+                }
+
+                if (value > infinity)
+                    value = infinity;
+
+                current[j] = value;
+                if (value < rowMin)
+                    rowMin = value;
+            }
+
+            if (hi < n)
+                current[hi + 1] = infinity;
+
+            if (rowMin > k)
+                return infinity;
+
+            int[] temp = previous;
+            previous = current;
+            current = temp;
+        }
+
+        return previous[n];
+    }
+
+    private int getTokenId(String token) {
+        if (token == null)
+            return -1;
+
+        int slot = spread(token.hashCode()) & tokensMask;
+        while (tokens[slot] != null) {
+            if (tokens[slot].equals(token))
+                return tokenIds[slot];
+            slot = (slot + 1) & tokensMask;
+        }
+
+        return -1;
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    // power of two with a load factor of at most 0.5
+    private static int tableSize(int elements) {
+        int size = 2;
+        while (size < elements * 2)
+            size <<= 1;
+        return size;
+    }
+
+}
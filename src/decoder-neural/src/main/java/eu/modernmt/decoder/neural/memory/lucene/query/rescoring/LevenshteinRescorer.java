@@ -8,29 +8,68 @@ import eu.modernmt.model.Sentence;
 import org.apache.commons.lang3.ArrayUtils;
 
 import java.util.Arrays;
-import java.util.HashMap;
 
 /**
  * Created by davide on 06/08/17.
  */
 public class LevenshteinRescorer implements Rescorer {
 
+    // discarded entries are sorted after the top entries, that are the only ones returned to the caller
+    private static final float DISCARDED = Float.NEGATIVE_INFINITY;
+
+    private final ThreadLocal<LevenshteinCalculator> calculators = ThreadLocal.withInitial(LevenshteinCalculator::new);
+
     @Override
-    public ScoreEntry[] rescore(LanguageDirection direction, Sentence input, ScoreEntry[] entries, ContextVector context) {
+    public ScoreEntry[] rescore(LanguageDirection direction, Sentence input, ScoreEntry[] entries, ContextVector context, int limit) {
         String[] words = TokensOutputStream.tokens(input, false, true);
+        LevenshteinCalculator calculator = calculators.get();
+        calculator.setReference(words);
+
+        // Context scores
+        int contextSize = context == null ? 0 : context.size();
+        long[] contextMemories = new long[contextSize];
+        float[] contextScores = new float[contextSize];
+
+        if (contextSize > 0) {
+            int i = 0;
+            for (ContextVector.Entry ce : context) {
+                contextMemories[i] = ce.memory.getId();
+                contextScores[i] = ce.score;
+                i++;
+            }
+        }
 
-        for (ScoreEntry entry : entries)
-            entry.score = 1.f - getLevenshteinDistance(words, entry.sentenceTokens);
-
-        if (context != null && context.size() > 0) {
-            HashMap<Long, Float> contextScores = new HashMap<>(context.size());
-            for (ContextVector.Entry ce : context)
-                contextScores.put(ce.memory.getId(), ce.score);
+        // Ascending scores of the best entries so far: entries that can not reach the lowest one
+        // are discarded as soon as their distance is known to be too high
+        boolean pruning = limit > 0 && limit < entries.length;
+        float[] top = pruning ? new float[limit] : null;
+        int topSize = 0;
+
+        for (ScoreEntry entry : entries) {
+            int referenceLength = words.length;
+            int length = entry.sentenceTokens.length;
+            float contextScore = getContextScore(contextMemories, contextScores, entry.memory);
+
+            int maxDistance = Math.max(referenceLength, length);
+            if (pruning && topSize == limit) {
+                maxDistance = getMaxDistance(top[0], referenceLength, length, contextSize > 0, contextScore);
+
+                if (maxDistance < 0) {
+                    entry.score = DISCARDED;
+                    continue;
+                }
+            }
 
-            for (ScoreEntry entry : entries) {
-                Float contextScore = contextScores.get(entry.memory);
-                entry.score = entry.score * .5f + (contextScore == null ? 0.f : contextScore) * .5f;
+            int distance = calculator.distance(entry.sentenceTokens, maxDistance);
+            if (distance > maxDistance) {
+                entry.score = DISCARDED;
+                continue;
             }
+
+            entry.score = getScore(distance, referenceLength, length, contextSize > 0, contextScore);
+
+            if (pruning)
+                topSize = insert(top, topSize, entry.score);
         }
 
         Arrays.sort(entries);
@@ -39,46 +78,63 @@ public class LevenshteinRescorer implements Rescorer {
         return entries;
     }
 
-    private static float getLevenshteinDistance(String[] s, String[] t) {
-        // degenerate cases
-        if (Arrays.equals(s, t)) return 0;
-        if (s.length == 0) return t.length;
-        if (t.length == 0) return s.length;
-
-        // create two work vectors of integer distances
-        int[] v0 = new int[t.length + 1];
-        int[] v1 = new int[t.length + 1];
-
-        // initialize v0 (the previous row of distances)
-        // this row is A[0][i]: edit distance for an empty s
-        // the distance is just the number of characters to delete from t
-        for (int i = 0; i < v0.length; i++)
-            v0[i] = i;
-
-        for (int i = 0; i < s.length; i++) {
-            // calculate v1 (current row distances) from the previous row v0
-
-            // first element of v1 is A[i+1][0]
-            //   edit distance is delete (i+1) chars from s to match empty t
-            v1[0] = i + 1;
-
-            // use formula to fill in the rest of the row
-            for (int j = 0; j < t.length; j++) {
-                int cost = (s[i].equals(t[j])) ? 0 : 1;
-                v1[j + 1] = min(v1[j] + 1, v0[j + 1] + 1, v0[j] + cost);
-            }
+    private static float getScore(int distance, int referenceLength, int length, boolean hasContext, float contextScore) {
+        float normalized = distance;
+        if (referenceLength > 0 && length > 0)
+            normalized /= Math.max(referenceLength, length);
+
+        float score = 1.f - normalized;
+        return hasContext ? score * .5f + contextScore * .5f : score;
+    }
+
+    // the highest distance that scores at least the given threshold, or -1 if there is none
+    private static int getMaxDistance(float threshold, int referenceLength, int length, boolean hasContext, float contextScore) {
+        int low = 0;
+        int high = Math.max(referenceLength, length);
+
+        if (getScore(low, referenceLength, length, hasContext, contextScore) < threshold)
+            return -1;
+
+        // scores do not increase with distance
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (getScore(middle, referenceLength, length, hasContext, contextScore) >= threshold)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+
+        return low;
+    }
 
-            // copy v1 (current row) to v0 (previous row) for next iteration
-            System.arraycopy(v1, 0, v0, 0, v0.length);
+    private static int insert(float[] top, int size, float score) {
+        if (size == top.length) {
+            if (score <= top[0])
+                return size;
+
+            // drop the lowest score
+            System.arraycopy(top, 1, top, 0, size - 1);
+            size--;
+        }
+
+        int i = size;
+        while (i > 0 && top[i - 1] > score) {
+            top[i] = top[i - 1];
+            i--;
         }
+        top[i] = score;
 
-        float distance = v1[t.length];
-        return distance / Math.max(s.length, t.length);
+        return size + 1;
     }
 
-    private static int min(int a, int b, int c) {
-        int z = (a <= b) ? a : b;
-        return (z <= c) ? z : c;
+    // context vectors hold a handful of entries: a linear scan is cheaper than boxing keys in a map
+    private static float getContextScore(long[] memories, float[] scores, long memory) {
+        for (int i = 0; i < memories.length; i++) {
+            if (memories[i] == memory)
+                return scores[i];
+        }
+
+        return 0.f;
     }
 
 }
@@ -10,6 +10,11 @@ import eu.modernmt.model.Sentence;
  */
 public interface Rescorer {
 
-    ScoreEntry[] rescore(LanguageDirection direction, Sentence input, ScoreEntry[] entries, ContextVector context);
+    /**
+     * Rescores the entries and returns them sorted by descending score. Only the first
+     * limit entries are guaranteed to be scored exactly: entries that can not rank among them
+     * may be discarded with an approximate score.
+     */
+    ScoreEntry[] rescore(LanguageDirection direction, Sentence input, ScoreEntry[] entries, ContextVector context, int limit);
 
 }
@@ -0,0 +1,126 @@
+package eu.modernmt.decoder.neural.memory.lucene.utils;
+
+import eu.modernmt.decoder.neural.memory.lucene.DefaultDocumentBuilder;
+import eu.modernmt.decoder.neural.memory.lucene.DocumentBuilder;
+import eu.modernmt.decoder.neural.memory.lucene.LuceneTranslationMemory;
+import eu.modernmt.decoder.neural.memory.lucene.ShardedTranslationMemory;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Rewrites a memory index in the current document format, optionally splitting it in shards
+ * (see {@link ShardedTranslationMemory}); the original index is kept as a backup.
+ */
+public class Migrate {
+
+    public static void main(String[] args) throws Throwable {
+        if (args.length != 1 && args.length != 2)
+            throw new IllegalArgumentException("Wrong number of arguments, usage: <model-path> [shards]");
+
+        File path = new File(args[0]);
+        int shards = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        if (shards < 1)
+            throw new IllegalArgumentException("Invalid number of shards: " + shards);
+
+        File migration = new File(path.getParentFile(), path.getName() + ".migration");
+        File backup = new File(path.getParentFile(), path.getName() + ".backup");
+
+        if (migration.exists())
+            FileUtils.deleteDirectory(migration);
+        if (backup.exists())
+            throw new IOException("Backup folder already exists: " + backup);
+
+        long begin = System.currentTimeMillis();
+        int count;
+        if (shards > 1) {
+            Directory[] destinations = new Directory[shards];
+            for (int i = 0; i < shards; i++)
+                destinations[i] = FSDirectory.open(ShardedTranslationMemory.getShardPath(migration, i));
+
+            count = migrate(FSDirectory.open(path), destinations);
+        } else {
+            count = migrate(FSDirectory.open(path), FSDirectory.open(migration));
+        }
+        long elapsed = System.currentTimeMillis() - begin;
+
+        FileUtils.moveDirectory(path, backup);
+        FileUtils.moveDirectory(migration, path);
+
+        System.out.println("Migrated " + count + " documents in " + (elapsed / 1000.) + "s, " +
+                "the original index has been moved to " + backup);
+    }
+
+    /**
+     * Copies all the documents of the source index into the destination index, rebuilding them in the current format.
+     * Both directories are closed when the migration completes.
+     *
+     * @param source      the directory of the index to migrate
+     * @param destination the directory of the new index, it must be empty
+     * @return the number of documents copied
+     * @throws IOException if an I/O error occurs
+     */
+    public static int migrate(Directory source, Directory destination) throws IOException {
+        return migrate(source, new Directory[]{destination});
+    }
+
+    /**
+     * Copies all the documents of the source index into the destination shards, rebuilding them in the current format:
+     * entries are assigned to shards by memory id, while the channels document is copied in every shard.
+     * All directories are closed when the migration completes.
+     *
+     * @param source       the directory of the index to migrate
+     * @param destinations the directories of the new shards, they must be empty
+     * @return the number of documents copied, counting the channels document once
+     * @throws IOException if an I/O error occurs
+     */
+    public static int migrate(Directory source, Directory[] destinations) throws IOException {
+        DocumentBuilder builder = new DefaultDocumentBuilder();
+        LuceneTranslationMemory[] shards = new LuceneTranslationMemory[destinations.length];
+        int count = 0;
+
+        try (DirectoryReader reader = DirectoryReader.open(source)) {
+            for (int i = 0; i < shards.length; i++)
+                shards[i] = new LuceneTranslationMemory(destinations[i], 1);
+
+            Bits liveDocs = MultiFields.getLiveDocs(reader);
+
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                if (liveDocs != null && !liveDocs.get(i))
+                    continue;
+
+                Document document = builder.rebuild(reader.document(i));
+                long memory = builder.getMemory(document);
+
+                if (memory == 0L) {
+                    for (LuceneTranslationMemory shard : shards)
+                        shard.getIndexWriter().addDocument(document);
+                } else {
+                    int shard = ShardedTranslationMemory.getShard(memory, shards.length);
+                    shards[shard].getIndexWriter().addDocument(document);
+                }
+
+                count++;
+            }
+
+            for (LuceneTranslationMemory shard : shards)
+                shard.commit();
+        } finally {
+            for (LuceneTranslationMemory shard : shards)
+                IOUtils.closeQuietly(shard);
+            source.close();
+        }
+
+        return count;
+    }
+
+}
@@ -0,0 +1,179 @@
+package eu.modernmt.decoder.neural.metrics;
+
+import eu.modernmt.decoder.neural.TranslationCache;
+import eu.modernmt.decoder.neural.queue.DecoderQueue;
+import eu.modernmt.decoder.neural.queue.DecoderQueueImpl;
+import eu.modernmt.decoder.neural.scheduler.FairScheduler;
+import eu.modernmt.decoder.neural.scheduler.Scheduler;
+import eu.modernmt.decoder.neural.scheduler.TranslationSplit;
+import eu.modernmt.lang.LanguageDirection;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the metrics of the neural decoder pipeline: queue depth over time, batch size distribution,
+ * queue wait time and decode time per language direction. Model switches and process activity are read
+ * from the decoder queue, per-user queue depth from the scheduler (fair scheduling only)
+ * when a snapshot is taken.
+ */
+public class DecoderMetrics {
+
+    public static class DirectionMetrics {
+
+        public final LanguageDirection direction;
+        public final long jobs;
+        public final long sentences;
+        public final long failures;
+        public final Histogram.Snapshot waitTime;
+        public final Histogram.Snapshot decodeTime;
+
+        private DirectionMetrics(LanguageDirection direction, Counters counters) {
+            this.direction = direction;
+            this.jobs = counters.jobs.get();
+            this.sentences = counters.sentences.get();
+            this.failures = counters.failures.get();
+            this.waitTime = counters.waitTime.snapshot();
+            this.decodeTime = counters.decodeTime.snapshot();
+        }
+
+    }
+
+    public static class CacheMetrics {
+
+        public final long size;
+        public final long hits;
+        public final long misses;
+        public final double hitRate;
+        public final long evictions;
+        public final long invalidations;
+
+        private CacheMetrics(TranslationCache cache) {
+            this.size = cache.size();
+            this.hits = cache.getHitCount();
+            this.misses = cache.getMissCount();
+            this.hitRate = cache.getHitRate();
+            this.evictions = cache.getEvictionCount();
+            this.invalidations = cache.getInvalidationCount();
+        }
+
+    }
+
+    public static class Snapshot {
+
+        public final long timestamp;
+        public final int queueSize;
+        public final List<TimeSeries.Point> queueDepth;
+        public final Histogram.Snapshot batchSize;
+        public final List<DirectionMetrics> directions;
+        public final long dispatches;
+        public final long modelSwitches;
+        public final List<ProcessMetrics> processes;
+        public final Map<String, Integer> userQueueDepths;
+        public final CacheMetrics cache;
+
+        private Snapshot(long timestamp, int queueSize, List<TimeSeries.Point> queueDepth, Histogram.Snapshot batchSize,
+                         List<DirectionMetrics> directions, long dispatches, long modelSwitches,
+                         List<ProcessMetrics> processes, Map<String, Integer> userQueueDepths, CacheMetrics cache) {
+            this.timestamp = timestamp;
+            this.queueSize = queueSize;
+            this.queueDepth = queueDepth;
+            this.batchSize = batchSize;
+            this.directions = directions;
+            this.dispatches = dispatches;
+            this.modelSwitches = modelSwitches;
+            this.processes = processes;
+            this.userQueueDepths = userQueueDepths;
+            this.cache = cache;
+        }
+
+    }
+
+    private static final class Counters {
+
+        private final AtomicLong jobs = new AtomicLong(0L);
+        private final AtomicLong sentences = new AtomicLong(0L);
+        private final AtomicLong failures = new AtomicLong(0L);
+        private final Histogram waitTime = new Histogram(Histogram.LATENCY_BOUNDS);
+        private final Histogram decodeTime = new Histogram(Histogram.LATENCY_BOUNDS);
+
+    }
+
+    private final TimeSeries queueDepth;
+    private final Histogram batchSize = new Histogram(Histogram.SIZE_BOUNDS);
+    private final ConcurrentHashMap<LanguageDirection, Counters> directions = new ConcurrentHashMap<>();
+
+    public DecoderMetrics() {
+        this(10000L, 360);  // last hour in 10 seconds intervals
+    }
+
+    /**
+     * @param interval the length in milliseconds of the queue depth intervals
+     * @param size     the number of queue depth intervals to keep
+     */
+    public DecoderMetrics(long interval, int size) {
+        this.queueDepth = new TimeSeries(interval, size);
+    }
+
+    private Counters counters(LanguageDirection direction) {
+        return directions.computeIfAbsent(direction, key -> new Counters());
+    }
+
+    /**
+     * Records the queue depth observed by the splits of a job when they were scheduled.
+     *
+     * @param splits the splits of a job taken from the scheduler
+     */
+    public void onJobTaken(List<TranslationSplit> splits) {
+        for (TranslationSplit split : splits)
+            queueDepth.record(split.getQueueWaitingBegin(), split.getQueueSize());
+    }
+
+    public void onTranslationCompleted(LanguageDirection direction, List<TranslationSplit> splits, long time) {
+        Counters counters = counters(direction);
+        counters.jobs.incrementAndGet();
+        counters.sentences.addAndGet(splits.size());
+        counters.decodeTime.record(time);
+
+        for (TranslationSplit split : splits)
+            counters.waitTime.record(split.getQueueTime());
+
+        batchSize.record(splits.size());
+    }
+
+    public void onTranslationFailed(LanguageDirection direction) {
+        counters(direction).failures.incrementAndGet();
+    }
+
+    public Snapshot snapshot(Scheduler scheduler, DecoderQueue decoderQueue, TranslationCache cache) {
+        long now = System.currentTimeMillis();
+
+        ArrayList<DirectionMetrics> directions = new ArrayList<>(this.directions.size());
+        for (Map.Entry<LanguageDirection, Counters> entry : this.directions.entrySet())
+            directions.add(new DirectionMetrics(entry.getKey(), entry.getValue()));
+
+        long dispatches = 0L;
+        long modelSwitches = 0L;
+        List<ProcessMetrics> processes = null;
+
+        if (decoderQueue instanceof DecoderQueueImpl) {
+            DecoderQueueImpl impl = (DecoderQueueImpl) decoderQueue;
+            dispatches = impl.getDispatchCount();
+            modelSwitches = impl.getModelSwitchCount();
+            processes = impl.getProcessMetrics();
+        }
+
+        Map<String, Integer> userQueueDepths = null;
+        if (scheduler instanceof FairScheduler) {
+            userQueueDepths = new HashMap<>();
+            for (Map.Entry<UUID, Integer> entry : ((FairScheduler) scheduler).getQueueDepths().entrySet())
+                userQueueDepths.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+
+        return new Snapshot(now, scheduler.getQueueSize(), queueDepth.snapshot(now), batchSize.snapshot(),
+                directions, dispatches, modelSwitches, processes, userQueueDepths,
+                cache == null ? null : new CacheMetrics(cache));
+    }
+
+}
@@ -0,0 +1,109 @@
+package eu.modernmt.decoder.neural.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram with fixed bucket boundaries. Percentiles are approximated
+ * with the upper bound of the bucket they fall into.
+ */
+public class Histogram {
+
+    public static final long[] LATENCY_BOUNDS = new long[]{
+            1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 50000
+    };
+
+    public static final long[] SIZE_BOUNDS = new long[]{
+            1, 2, 4, 8, 16, 32, 64, 128, 256, 512
+    };
+
+    public static class Snapshot {
+
+        public final long count;
+        public final long sum;
+        public final long max;
+        public final double mean;
+        public final long p50;
+        public final long p90;
+        public final long p99;
+        public final long[] bounds;
+        public final long[] counts;
+
+        private Snapshot(long[] bounds, long[] counts, long sum, long max) {
+            long count = 0;
+            for (long c : counts)
+                count += c;
+
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+            this.mean = count == 0 ? 0. : ((double) sum) / count;
+            this.bounds = bounds;
+            this.counts = counts;
+            this.p50 = percentile(.50);
+            this.p90 = percentile(.90);
+            this.p99 = percentile(.99);
+        }
+
+        /**
+         * @param p the requested percentile, between 0 and 1
+         * @return the upper bound of the bucket containing the given percentile, or the maximum value
+         * if it falls into the overflow bucket
+         */
+        public long percentile(double p) {
+            if (count == 0)
+                return 0;
+
+            long threshold = (long) Math.ceil(p * count);
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= threshold)
+                    return Math.min(bounds[i], max);
+            }
+
+            return max;
+        }
+
+    }
+
+    private final long[] bounds;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray stats = new AtomicLongArray(2);  // sum, max
+
+    /**
+     * @param bounds the inclusive upper bounds of the buckets in ascending order,
+     *               an additional bucket collects all the values above the last bound
+     */
+    public Histogram(long[] bounds) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1])
+                throw new IllegalArgumentException("Bounds must be in ascending order");
+        }
+
+        this.bounds = bounds.clone();
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    public void record(long value) {
+        int i = 0;
+        while (i < bounds.length && value > bounds[i])
+            i++;
+
+        counts.incrementAndGet(i);
+        stats.addAndGet(0, value);
+
+        long max;
+        while ((max = stats.get(1)) < value && !stats.compareAndSet(1, max, value)) {
+            // retry
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[this.counts.length()];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = this.counts.get(i);
+
+        return new Snapshot(bounds, counts, stats.get(0), stats.get(1));
+    }
+
+}
@@ -0,0 +1,31 @@
+package eu.modernmt.decoder.neural.metrics;
+
+/**
+ * A snapshot of the activity of a single decoder process slot.
+ * Busy time accounts for the time the process had at least one request in flight,
+ * busy ratio is busy time divided by the time elapsed since the slot was created.
+ */
+public class ProcessMetrics {
+
+    public final int gpu;
+    public final boolean alive;
+    public final int inFlight;
+    public final long busyTime;
+    public final double busyRatio;
+    public final int restarts;
+    public final long dispatches;
+    public final long modelSwitches;
+
+    public ProcessMetrics(int gpu, boolean alive, int inFlight, long busyTime, double busyRatio, int restarts,
+                          long dispatches, long modelSwitches) {
+        this.gpu = gpu;
+        this.alive = alive;
+        this.inFlight = inFlight;
+        this.busyTime = busyTime;
+        this.busyRatio = busyRatio;
+        this.restarts = restarts;
+        this.dispatches = dispatches;
+        this.modelSwitches = modelSwitches;
+    }
+
+}
@@ -0,0 +1,93 @@
+package eu.modernmt.decoder.neural.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Aggregates the values recorded over a sliding time window in fixed-length intervals,
+ * keeping the number of samples, the mean and the maximum value of every interval.
+ */
+public class TimeSeries {
+
+    public static class Point {
+
+        public final long timestamp;
+        public final long samples;
+        public final double mean;
+        public final long max;
+
+        private Point(long timestamp, long samples, double mean, long max) {
+            this.timestamp = timestamp;
+            this.samples = samples;
+            this.mean = mean;
+            this.max = max;
+        }
+
+    }
+
+    private final long interval;
+    private final long[] slots;
+    private final long[] samples;
+    private final long[] sums;
+    private final long[] maxs;
+
+    /**
+     * @param interval the length in milliseconds of an interval
+     * @param size     the number of intervals in the window
+     */
+    public TimeSeries(long interval, int size) {
+        if (interval < 1)
+            throw new IllegalArgumentException("Invalid interval: " + interval);
+        if (size < 1)
+            throw new IllegalArgumentException("Invalid size: " + size);
+
+        this.interval = interval;
+        this.slots = new long[size];
+        this.samples = new long[size];
+        this.sums = new long[size];
+        this.maxs = new long[size];
+
+        for (int i = 0; i < size; i++)
+            this.slots[i] = -1;
+    }
+
+    public synchronized void record(long timestamp, long value) {
+        long slot = timestamp / interval;
+        int i = (int) (slot % slots.length);
+
+        if (slots[i] > slot)
+            return;  // value is older than the window
+
+        if (slots[i] != slot) {
+            slots[i] = slot;
+            samples[i] = 0;
+            sums[i] = 0;
+            maxs[i] = Long.MIN_VALUE;
+        }
+
+        samples[i]++;
+        sums[i] += value;
+        maxs[i] = Math.max(maxs[i], value);
+    }
+
+    /**
+     * @param now the current time in milliseconds
+     * @return the intervals with at least one sample in the window ending at the given time, oldest first
+     */
+    public synchronized List<Point> snapshot(long now) {
+        long last = now / interval;
+        ArrayList<Point> points = new ArrayList<>();
+
+        for (long slot = last - slots.length + 1; slot <= last; slot++) {
+            if (slot < 0)
+                continue;
+
+            int i = (int) (slot % slots.length);
+            if (slots[i] == slot && samples[i] > 0)
+                points.add(new Point(slot * interval, samples[i], ((double) sums[i]) / samples[i], maxs[i]));
+        }
+
+        return points;
+    }
+
+}
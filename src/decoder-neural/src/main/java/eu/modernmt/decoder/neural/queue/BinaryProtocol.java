@@ -0,0 +1,285 @@
+package eu.modernmt.decoder.neural.queue;
+
+import eu.modernmt.decoder.DecoderException;
+import eu.modernmt.io.TokensOutputStream;
+import eu.modernmt.io.UTF8Charset;
+import eu.modernmt.lang.Language;
+import eu.modernmt.lang.LanguageDirection;
+import eu.modernmt.memory.ScoreEntry;
+import eu.modernmt.model.Alignment;
+import eu.modernmt.model.Sentence;
+import eu.modernmt.model.Translation;
+import eu.modernmt.model.Word;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary encoding of the messages exchanged with the neural decoder process.
+ * Frames are length-prefixed by {@link PythonProcess}, this class only deals with frame payloads;
+ * when requests are pipelined, every payload is also preceded by the int64 request id.
+ * All numbers are big-endian, strings are encoded as int32 length followed by UTF-8 bytes
+ * and string arrays as int32 count followed by the strings.
+ * <p>
+ * Request: byte opcode (0 = test, 1 = translate, 2 = align); for translate and align requests follow
+ * source and target language tags, int32 sentence count, the sentences tokens, the forced translations tokens
+ * (align requests only), int32 suggestion count and for every suggestion source and target language tags,
+ * sentence tokens, translation tokens and a float32 score.
+ * <p>
+ * Response: byte status (1 = success, 0 = error); a successful response contains int32 translation count and for
+ * every translation its tokens, int32 alignment size (-1 if missing) and the source and target indexes as
+ * int32 arrays of that size; an error response contains the error type and message strings.
+ */
+public class BinaryProtocol {
+
+    public static final String HANDSHAKE = "READY binary";
+
+    private static final byte OP_TEST = 0;
+    private static final byte OP_TRANSLATE = 1;
+    private static final byte OP_ALIGN = 2;
+
+    private static final byte STATUS_ERROR = 0;
+    private static final byte STATUS_SUCCESS = 1;
+
+    public static class Request {
+
+        public final LanguageDirection direction;
+        public final String[][] sentences;
+        public final String[][] forcedTranslations;
+        public final ScoreEntry[] suggestions;
+
+        private Request(LanguageDirection direction, String[][] sentences, String[][] forcedTranslations, ScoreEntry[] suggestions) {
+            this.direction = direction;
+            this.sentences = sentences;
+            this.forcedTranslations = forcedTranslations;
+            this.suggestions = suggestions;
+        }
+
+        public boolean isTest() {
+            return sentences == null;
+        }
+
+    }
+
+    // Requests
+
+    public static byte[] encodeTestRequest() {
+        return new byte[]{OP_TEST};
+    }
+
+    public static byte[] encodeRequest(LanguageDirection direction, Sentence[] sentences, ScoreEntry[] suggestions, String[][] forcedTranslations) {
+        Output out = new Output(estimateSize(sentences, suggestions));
+
+        try {
+            out.writeByte(forcedTranslations == null ? OP_TRANSLATE : OP_ALIGN);
+            out.writeString(direction.source.toLanguageTag());
+            out.writeString(direction.target.toLanguageTag());
+
+            out.writeInt(sentences.length);
+            for (Sentence sentence : sentences)
+                out.writeStrings(TokensOutputStream.tokens(sentence, false, true));
+
+            if (forcedTranslations != null) {
+                for (String[] translation : forcedTranslations)
+                    out.writeStrings(translation);
+            }
+
+            if (suggestions == null) {
+                out.writeInt(0);
+            } else {
+                out.writeInt(suggestions.length);
+                for (ScoreEntry entry : suggestions) {
+                    out.writeString(entry.language.source.toLanguageTag());
+                    out.writeString(entry.language.target.toLanguageTag());
+                    out.writeStrings(entry.sentenceTokens);
+                    out.writeStrings(entry.translationTokens);
+                    out.writeFloat(entry.score);
+                }
+            }
+        } catch (IOException e) {
+            throw new Error("This should never happen", e);
+        }
+
+        return out.toByteArray();
+    }
+
+    public static Request decodeRequest(byte[] payload) throws IOException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            byte op = buffer.get();
+
+            if (op == OP_TEST)
+                return new Request(null, null, null, null);
+            if (op != OP_TRANSLATE && op != OP_ALIGN)
+                throw new IOException("Invalid request opcode: " + op);
+
+            Language source = Language.fromString(readString(buffer));
+            Language target = Language.fromString(readString(buffer));
+
+            String[][] sentences = new String[buffer.getInt()][];
+            for (int i = 0; i < sentences.length; i++)
+                sentences[i] = readStrings(buffer);
+
+            String[][] forcedTranslations = null;
+            if (op == OP_ALIGN) {
+                forcedTranslations = new String[sentences.length][];
+                for (int i = 0; i < forcedTranslations.length; i++)
+                    forcedTranslations[i] = readStrings(buffer);
+            }
+
+            ScoreEntry[] suggestions = new ScoreEntry[buffer.getInt()];
+            for (int i = 0; i < suggestions.length; i++) {
+                Language sl = Language.fromString(readString(buffer));
+                Language tl = Language.fromString(readString(buffer));
+                String[] sentence = readStrings(buffer);
+                String[] translation = readStrings(buffer);
+
+                suggestions[i] = new ScoreEntry(0L, new LanguageDirection(sl, tl), sentence, translation);
+                suggestions[i].score = buffer.getFloat();
+            }
+
+            return new Request(new LanguageDirection(source, target), sentences, forcedTranslations, suggestions);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Invalid request frame", e);
+        }
+    }
+
+    // Responses
+
+    public static byte[] encodeResponse(String[][] translations, Alignment[] alignments) {
+        Output out = new Output(64 * translations.length);
+
+        try {
+            out.writeByte(STATUS_SUCCESS);
+            out.writeInt(translations.length);
+
+            for (int i = 0; i < translations.length; i++) {
+                out.writeStrings(translations[i]);
+
+                Alignment alignment = alignments == null ? null : alignments[i];
+                if (alignment == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(alignment.size());
+                    for (int index : alignment.getSourceIndexes())
+                        out.writeInt(index);
+                    for (int index : alignment.getTargetIndexes())
+                        out.writeInt(index);
+                }
+            }
+        } catch (IOException e) {
+            throw new Error("This should never happen", e);
+        }
+
+        return out.toByteArray();
+    }
+
+    public static Translation[] decodeResponse(byte[] payload, Sentence[] sentences) throws IOException, DecoderException {
+        return decodeResponse(payload, 0, sentences);
+    }
+
+    public static Translation[] decodeResponse(byte[] payload, int offset, Sentence[] sentences) throws IOException, DecoderException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(payload, offset, payload.length - offset);
+            byte status = buffer.get();
+
+            if (status == STATUS_SUCCESS) {
+                Translation[] translations = new Translation[buffer.getInt()];
+
+                for (int i = 0; i < translations.length; i++) {
+                    String[] tokens = readStrings(buffer);
+                    for (int j = 0; j < tokens.length; j++)
+                        tokens[j] = tokens[j].replace('\u00A0', ' ');
+
+                    Word[] words = TokensOutputStream.deserializeWords(tokens);
+                    Alignment alignment = readAlignment(buffer);
+
+                    translations[i] = new Translation(words, sentences[i], alignment);
+                }
+
+                return translations;
+            } else if (status == STATUS_ERROR) {
+                String type = readString(buffer);
+                String message = readString(buffer);
+
+                throw message.isEmpty() ? new DecoderException(type) : new DecoderException(type + " - " + message);
+            } else {
+                throw new IOException("Invalid response status: " + status);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Invalid response frame from NMT decoder", e);
+        }
+    }
+
+    // Utils
+
+    private static int estimateSize(Sentence[] sentences, ScoreEntry[] suggestions) {
+        int words = 0;
+        for (Sentence sentence : sentences)
+            words += sentence.getWords().length;
+
+        if (suggestions != null) {
+            for (ScoreEntry entry : suggestions)
+                words += entry.sentenceTokens.length + entry.translationTokens.length;
+        }
+
+        return 32 + words * 12;
+    }
+
+    private static Alignment readAlignment(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        if (size < 0)
+            return null;
+
+        int[] sourceIndexes = new int[size];
+        int[] targetIndexes = new int[size];
+        buffer.asIntBuffer().get(sourceIndexes);
+        buffer.position(buffer.position() + size * 4);
+        buffer.asIntBuffer().get(targetIndexes);
+        buffer.position(buffer.position() + size * 4);
+
+        return new Alignment(sourceIndexes, targetIndexes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF8Charset.get());
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+
+    private static String[] readStrings(ByteBuffer buffer) {
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++)
+            strings[i] = readString(buffer);
+        return strings;
+    }
+
+    private static class Output extends DataOutputStream {
+
+        Output(int size) {
+            super(new ByteArrayOutputStream(size));
+        }
+
+        void writeString(String string) throws IOException {
+            byte[] bytes = string.getBytes(UTF8Charset.get());
+            writeInt(bytes.length);
+            write(bytes);
+        }
+
+        void writeStrings(String[] strings) throws IOException {
+            writeInt(strings.length);
+            for (String string : strings)
+                writeString(string);
+        }
+
+        byte[] toByteArray() {
+            return ((ByteArrayOutputStream) out).toByteArray();
+        }
+
+    }
+
+}
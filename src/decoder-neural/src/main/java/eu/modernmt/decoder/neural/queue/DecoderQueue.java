@@ -15,10 +15,27 @@ public interface DecoderQueue extends Closeable {
 
     void release(PythonDecoder decoder);
 
+    /**
+     * Returns {@code true} if there is at least one idle decoder that has already loaded
+     * the model for the given language direction, so that no model switch is needed.
+     *
+     * @param language the language direction
+     * @return {@code true} if a warm idle decoder is available for the given direction
+     */
+    boolean isWarm(LanguageDirection language);
+
     int availability();
 
     int size();
 
+    /**
+     * Returns the maximum number of requests that can be in flight on a single decoder at the same time,
+     * so that up to {@code size() * depth()} decoders can be taken from this queue concurrently.
+     *
+     * @return the maximum number of requests in flight per decoder
+     */
+    int depth();
+
     void setListener(DecoderListener listener);
 
 }
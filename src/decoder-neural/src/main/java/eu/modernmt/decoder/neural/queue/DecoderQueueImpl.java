@@ -4,6 +4,7 @@ import eu.modernmt.decoder.DecoderException;
 import eu.modernmt.decoder.DecoderListener;
 import eu.modernmt.decoder.DecoderUnavailableException;
 import eu.modernmt.decoder.neural.ModelConfig;
+import eu.modernmt.decoder.neural.metrics.ProcessMetrics;
 import eu.modernmt.lang.LanguageDirection;
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
@@ -11,9 +12,13 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by davide on 22/05/17.
@@ -21,45 +26,98 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class DecoderQueueImpl implements DecoderQueue {
 
     public static DecoderQueueImpl newGPUInstance(ModelConfig config, PythonDecoder.Builder builder, int[] gpus) throws DecoderException {
+        return newGPUInstance(config, builder, gpus, 1);
+    }
+
+    public static DecoderQueueImpl newGPUInstance(ModelConfig config, PythonDecoder.Builder builder, int[] gpus, int depth) throws DecoderException {
         Map<LanguageDirection, File> checkpoints = config.getAvailableModels();
 
         Handler[] handlers = new Handler[gpus.length];
         for (int i = 0; i < gpus.length; i++)
-            handlers[i] = new Handler(builder, checkpoints, gpus[i]);
+            handlers[i] = new Handler(builder, checkpoints, gpus[i], depth);
 
-        return new DecoderQueueImpl(checkpoints, handlers);
+        return new DecoderQueueImpl(checkpoints, handlers, depth);
     }
 
     public static DecoderQueueImpl newCPUInstance(ModelConfig config, PythonDecoder.Builder builder, int cpus) throws DecoderException {
+        return newCPUInstance(config, builder, cpus, 1);
+    }
+
+    public static DecoderQueueImpl newCPUInstance(ModelConfig config, PythonDecoder.Builder builder, int cpus, int depth) throws DecoderException {
         Map<LanguageDirection, File> checkpoints = config.getAvailableModels();
 
         Handler[] handlers = new Handler[cpus];
         for (int i = 0; i < cpus; i++)
-            handlers[i] = new Handler(builder, checkpoints, -1);
+            handlers[i] = new Handler(builder, checkpoints, -1, depth);
 
-        return new DecoderQueueImpl(checkpoints, handlers);
+        return new DecoderQueueImpl(checkpoints, handlers, depth);
+    }
+
+    /**
+     * Creates a pool of CPU decoder processes whose size can change between the given bounds,
+     * see {@link #grow()} and {@link #shrink(long)}. Only the minimum number of processes is started.
+     */
+    public static DecoderQueueImpl newElasticCPUInstance(ModelConfig config, PythonDecoder.Builder builder, int minCpus, int maxCpus, int depth) throws DecoderException {
+        if (minCpus < 1 || maxCpus < minCpus)
+            throw new IllegalArgumentException("Invalid pool bounds: " + minCpus + "-" + maxCpus);
+
+        Map<LanguageDirection, File> checkpoints = config.getAvailableModels();
+
+        Handler[] handlers = new Handler[maxCpus];
+        for (int i = 0; i < maxCpus; i++)
+            handlers[i] = new Handler(builder, checkpoints, -1, depth);
+
+        return new DecoderQueueImpl(checkpoints, handlers, depth, minCpus);
     }
 
     protected final Logger logger = LogManager.getLogger(getClass());
 
     private final Map<LanguageDirection, File> checkpoints;
+    private final Handler[] handlers;
     private final HandlerBlockingQueue queue;
     private final ExecutorService initExecutor;
-    private final int maxAvailability;
+    private final int minSize;
+    private final int depth;
 
     private final AtomicInteger aliveProcesses = new AtomicInteger(0);
+    private final AtomicLong dispatches = new AtomicLong(0L);
+    private final AtomicLong modelSwitches = new AtomicLong(0L);
     private boolean active = true;
     private DecoderListener listener;
 
+    // processes not in use of an elastic pool, the number of processes in service (alive or restarting)
+    // and whether a process is being added to the pool
+    private final ArrayDeque<Handler> retired = new ArrayDeque<>();
+    private volatile int activeProcesses;
+    private boolean growing = false;
+
     protected DecoderQueueImpl(Map<LanguageDirection, File> checkpoints, Handler[] handlers) throws DecoderException {
+        this(checkpoints, handlers, 1);
+    }
+
+    protected DecoderQueueImpl(Map<LanguageDirection, File> checkpoints, Handler[] handlers, int depth) throws DecoderException {
+        this(checkpoints, handlers, depth, handlers.length);
+    }
+
+    /**
+     * @param size the number of handlers started at boot, the other handlers are kept aside
+     *             until the pool is grown
+     */
+    protected DecoderQueueImpl(Map<LanguageDirection, File> checkpoints, Handler[] handlers, int depth, int size) throws DecoderException {
         this.checkpoints = checkpoints;
+        this.handlers = handlers;
         this.queue = new HandlerBlockingQueue(handlers.length, false);
-        this.maxAvailability = handlers.length;
+        this.minSize = size;
+        this.activeProcesses = size;
+        this.depth = depth;
         this.initExecutor = handlers.length > 1 ? Executors.newCachedThreadPool() : Executors.newSingleThreadExecutor();
 
-        Future<?>[] array = new Future<?>[handlers.length];
+        for (int i = size; i < handlers.length; i++)
+            this.retired.push(handlers[i]);
+
+        Future<?>[] array = new Future<?>[size];
         for (int i = 0; i < array.length; i++)
-            array[i] = this.initExecutor.submit(new Initializer(handlers[i]));
+            array[i] = this.initExecutor.submit(new Initializer(handlers[i], false));
 
         for (Future<?> future : array) {
             try {
@@ -79,7 +137,19 @@ public class DecoderQueueImpl implements DecoderQueue {
 
     @Override
     public int size() {
-        return maxAvailability;
+        return activeProcesses;
+    }
+
+    /**
+     * @return the maximum number of processes of this pool
+     */
+    public int getMaxSize() {
+        return handlers.length;
+    }
+
+    @Override
+    public int depth() {
+        return depth;
     }
 
     @Override
@@ -87,6 +157,94 @@ public class DecoderQueueImpl implements DecoderQueue {
         this.listener = listener;
     }
 
+    @Override
+    public boolean isWarm(LanguageDirection language) {
+        File checkpoint = language == null ? null : checkpoints.get(language);
+        return checkpoint != null && this.queue.contains(checkpoint);
+    }
+
+    /**
+     * Starts a new decoder process if the pool has not reached its maximum size and no other process
+     * is being added. The process is available as soon as it has started: listeners are notified then.
+     *
+     * @return true if a new process is starting
+     */
+    public synchronized boolean grow() {
+        if (!active || growing || retired.isEmpty())
+            return false;
+
+        growing = true;
+        initExecutor.execute(new Initializer(retired.pop(), true));
+        return true;
+    }
+
+    /**
+     * Stops one decoder process that has been idle for at least the given time,
+     * unless the pool has already reached its minimum size.
+     *
+     * @param idleTime the minimum idle time in milliseconds
+     * @return true if a process has been stopped
+     */
+    public boolean shrink(long idleTime) {
+        Handler handler;
+
+        synchronized (this) {
+            if (!active || growing || activeProcesses <= minSize)
+                return false;
+
+            long now = System.currentTimeMillis();
+            handler = queue.remove(h -> h.getIdleTime(now) >= idleTime);
+            if (handler == null)
+                return false;
+
+            activeProcesses--;
+            retired.push(handler);
+        }
+
+        IOUtils.closeQuietly(handler);
+        int availability = aliveProcesses.decrementAndGet();
+
+        DecoderListener listener = this.listener;
+        if (listener != null)
+            listener.onDecoderAvailabilityChanged(availability, activeProcesses);
+
+        logger.info("Native decoder process on CPU has been stopped, idle for more than " + (idleTime / 1000) + "s");
+
+        return true;
+    }
+
+    /**
+     * @return the number of decoders dispatched for a specific language direction
+     */
+    public long getDispatchCount() {
+        return dispatches.get();
+    }
+
+    /**
+     * @return the number of dispatched decoders that had to switch to a different model
+     */
+    public long getModelSwitchCount() {
+        return modelSwitches.get();
+    }
+
+    /**
+     * @return the fraction of dispatches that caused a model switch
+     */
+    public double getModelSwitchRate() {
+        long dispatches = this.dispatches.get();
+        return dispatches == 0 ? 0. : ((double) modelSwitches.get()) / dispatches;
+    }
+
+    /**
+     * @return a snapshot of the activity of every decoder process
+     */
+    public List<ProcessMetrics> getProcessMetrics() {
+        ArrayList<ProcessMetrics> metrics = new ArrayList<>(handlers.length);
+        for (Handler handler : handlers)
+            metrics.add(handler.getMetrics());
+        return metrics;
+    }
+
     @Override
     public final PythonDecoder take(LanguageDirection language) throws DecoderUnavailableException {
         return this.poll(language, 0L, null);
@@ -103,18 +261,24 @@ public class DecoderQueueImpl implements DecoderQueue {
             if (language != null)
                 checkpoint = checkpoints.get(language);
 
-
             if (timeout > 0)
                 decoder = this.queue.poll(checkpoint, timeout, unit);
             else
                 decoder = this.queue.take(checkpoint);
 
+            if (decoder != null && checkpoint != null) {
+                boolean modelSwitch = !checkpoint.equals(decoder.getLastCheckpoint());
+
+                dispatches.incrementAndGet();
+                if (modelSwitch)
+                    modelSwitches.incrementAndGet();
+
+                decoder.onDispatch(modelSwitch);
+            }
+
             return decoder;
         } catch (InterruptedException e) {
             throw new DecoderUnavailableException("No NMT processes available", e);
-        } finally {
-            if (decoder != null)
-                decoder.setInUse();
         }
     }
 
@@ -122,25 +286,32 @@ public class DecoderQueueImpl implements DecoderQueue {
     public final void release(PythonDecoder process) {
         Handler handler = (Handler) process;
 
-        if (!handler.unsetInUse()) {
+        // a dead process must not receive other requests, it will be restarted as soon as all its requests are released
+        boolean alive = handler.isAlive();
+        if (!alive)
+            this.queue.remove(handler);
+
+        int inFlight = handler.release();
+        if (inFlight < 0) {
             logger.warn("Attempt to call release() twice on GPU " + handler.getGPU() + " process");
             return;
         }
 
         if (!this.active) {
-            IOUtils.closeQuietly(handler);
+            if (inFlight == 0)
+                IOUtils.closeQuietly(handler);
         } else {
-            if (handler.isAlive()) {
+            if (alive) {
                 this.queue.offer(handler);
-            } else {
+            } else if (inFlight == 0) {
                 int availability = this.aliveProcesses.decrementAndGet();
 
                 DecoderListener listener = this.listener;
                 if (listener != null)
-                    listener.onDecoderAvailabilityChanged(availability, this.maxAvailability);
+                    listener.onDecoderAvailabilityChanged(availability, this.activeProcesses);
 
                 if (this.active)
-                    this.initExecutor.execute(new Initializer(handler));
+                    this.initExecutor.execute(new Initializer(handler, false));
             }
         }
     }
@@ -165,9 +336,11 @@ public class DecoderQueueImpl implements DecoderQueue {
     private class Initializer implements Runnable {
 
         private final Handler handler;
+        private final boolean added;
 
-        private Initializer(Handler handler) {
+        private Initializer(Handler handler, boolean added) {
             this.handler = handler;
+            this.added = added;
         }
 
         @Override
@@ -185,15 +358,32 @@ public class DecoderQueueImpl implements DecoderQueue {
                 logger.info(msg + " started in " + (elapsed / 1000) + "s");
             } catch (IOException e) {
                 logger.error(msg + " failed to start", e);
+
+                if (added) {
+                    // the pool keeps working with the processes it already has
+                    synchronized (DecoderQueueImpl.this) {
+                        retired.push(handler);
+                        growing = false;
+                    }
+                    return;
+                }
+
                 System.exit(2);
             }
 
+            if (added) {
+                synchronized (DecoderQueueImpl.this) {
+                    activeProcesses++;
+                    growing = false;
+                }
+            }
+
             queue.offer(handler);
             int availability = aliveProcesses.incrementAndGet();
 
             DecoderListener listener = DecoderQueueImpl.this.listener;
             if (listener != null)
-                listener.onDecoderAvailabilityChanged(availability, DecoderQueueImpl.this.maxAvailability);
+                listener.onDecoderAvailabilityChanged(availability, DecoderQueueImpl.this.activeProcesses);
         }
 
     }
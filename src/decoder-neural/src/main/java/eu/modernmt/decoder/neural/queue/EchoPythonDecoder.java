@@ -1,14 +1,28 @@
 package eu.modernmt.decoder.neural.queue;
 
+import eu.modernmt.decoder.DecoderException;
 import eu.modernmt.io.TokensOutputStream;
 import eu.modernmt.lang.LanguageDirection;
 import eu.modernmt.memory.ScoreEntry;
 import eu.modernmt.model.Sentence;
 import eu.modernmt.model.Translation;
 
+import java.io.IOException;
+
 public class EchoPythonDecoder implements PythonDecoder {
 
-    public static final EchoPythonDecoder INSTANCE = new EchoPythonDecoder();
+    public static final EchoPythonDecoder INSTANCE = new EchoPythonDecoder(false);
+    public static final EchoPythonDecoder BINARY_INSTANCE = new EchoPythonDecoder(true);
+
+    private final boolean binary;
+
+    /**
+     * @param binary if true, every request and response is encoded and decoded with {@link BinaryProtocol}
+     *               as it would be on the way to and from a real decoder process
+     */
+    public EchoPythonDecoder(boolean binary) {
+        this.binary = binary;
+    }
 
     @Override
     public int getGPU() {
@@ -27,6 +41,9 @@ public class EchoPythonDecoder implements PythonDecoder {
 
     @Override
     public Translation translate(LanguageDirection direction, Sentence sentence, ScoreEntry[] suggestions, int nBest) {
+        if (binary)
+            return roundTrip(direction, new Sentence[]{sentence}, suggestions, null)[0];
+
         if (suggestions != null && suggestions.length > 0)
             return Translation.fromTokens(sentence, suggestions[0].translationTokens);
         else
@@ -45,6 +62,8 @@ public class EchoPythonDecoder implements PythonDecoder {
     public Translation[] translate(LanguageDirection direction, Sentence[] sentences, ScoreEntry[] suggestions, int nBest) {
         if (sentences.length > 1 && suggestions != null && suggestions.length > 0)
             throw new UnsupportedOperationException("Echo server does not support batching with suggestions");
+        if (binary)
+            return roundTrip(direction, sentences, suggestions, null);
 
         Translation[] result = new Translation[sentences.length];
         for (int i = 0; i < result.length; i++)
@@ -54,17 +73,45 @@ public class EchoPythonDecoder implements PythonDecoder {
 
     @Override
     public Translation align(LanguageDirection direction, Sentence sentence, String[] translation) {
+        if (binary)
+            return roundTrip(direction, new Sentence[]{sentence}, null, new String[][]{translation})[0];
+
         return Translation.fromTokens(sentence, translation);
     }
 
     @Override
     public Translation[] align(LanguageDirection direction, Sentence[] sentences, String[][] translations) {
+        if (binary)
+            return roundTrip(direction, sentences, null, translations);
+
         Translation[] result = new Translation[sentences.length];
         for (int i = 0; i < result.length; i++)
             result[i] = align(direction, sentences[i], translations[i]);
         return result;
     }
 
+    private static Translation[] roundTrip(LanguageDirection direction, Sentence[] sentences, ScoreEntry[] suggestions, String[][] forcedTranslations) {
+        byte[] request = BinaryProtocol.encodeRequest(direction, sentences, suggestions, forcedTranslations);
+
+        try {
+            BinaryProtocol.Request decoded = BinaryProtocol.decodeRequest(request);
+
+            String[][] tokens = new String[decoded.sentences.length][];
+            for (int i = 0; i < tokens.length; i++) {
+                if (decoded.forcedTranslations != null)
+                    tokens[i] = decoded.forcedTranslations[i];
+                else if (decoded.suggestions.length > 0)
+                    tokens[i] = decoded.suggestions[0].translationTokens;
+                else
+                    tokens[i] = decoded.sentences[i];
+            }
+
+            return BinaryProtocol.decodeResponse(BinaryProtocol.encodeResponse(tokens, null), sentences);
+        } catch (IOException | DecoderException e) {
+            throw new IllegalStateException("Echo server failed to encode binary frames", e);
+        }
+    }
+
     @Override
     public void test() {
         // nothing to do
@@ -8,14 +8,24 @@ import java.util.concurrent.TimeUnit;
 
 public class EchoServerDecoderQueue implements DecoderQueue {
 
+    private final EchoPythonDecoder decoder;
+
+    public EchoServerDecoderQueue() {
+        this(false);
+    }
+
+    public EchoServerDecoderQueue(boolean binaryProtocol) {
+        this.decoder = binaryProtocol ? EchoPythonDecoder.BINARY_INSTANCE : EchoPythonDecoder.INSTANCE;
+    }
+
     @Override
     public PythonDecoder take(LanguageDirection language) {
-        return EchoPythonDecoder.INSTANCE;
+        return decoder;
     }
 
     @Override
     public PythonDecoder poll(LanguageDirection language, long timeout, TimeUnit unit) {
-        return EchoPythonDecoder.INSTANCE;
+        return decoder;
     }
 
     @Override
@@ -23,6 +33,11 @@ public class EchoServerDecoderQueue implements DecoderQueue {
         // Nothing to do
     }
 
+    @Override
+    public boolean isWarm(LanguageDirection language) {
+        return true;
+    }
+
     @Override
     public int availability() {
         return 2;
@@ -33,6 +48,11 @@ public class EchoServerDecoderQueue implements DecoderQueue {
         return 2;
     }
 
+    @Override
+    public int depth() {
+        return 1;
+    }
+
     @Override
     public void setListener(DecoderListener listener) {
         // Nothing to do
@@ -2,6 +2,7 @@ package eu.modernmt.decoder.neural.queue;
 
 import eu.modernmt.decoder.DecoderException;
 import eu.modernmt.decoder.DecoderUnavailableException;
+import eu.modernmt.decoder.neural.metrics.ProcessMetrics;
 import eu.modernmt.memory.ScoreEntry;
 import eu.modernmt.lang.LanguageDirection;
 import eu.modernmt.model.Sentence;
@@ -17,32 +18,63 @@ class Handler implements PythonDecoder {
     private final PythonDecoder.Builder builder;
     private final Map<LanguageDirection, File> checkpoints;
     private final int gpu;
+    private final int depth;
 
-    private PythonDecoder delegate = null;
-    private File checkpoint = null;
-    private boolean inUse;
+    private volatile PythonDecoder delegate = null;
+    private volatile File checkpoint = null;
+    private int inFlight;
+
+    private final long creationTime = System.currentTimeMillis();
+    private long busySince = 0L;
+    private long idleSince = creationTime;
+    private long busyTime = 0L;
+    private int starts = 0;
+    private long dispatches = 0L;
+    private long modelSwitches = 0L;
 
     public Handler(Builder builder, Map<LanguageDirection, File> checkpoints, int gpu) {
+        this(builder, checkpoints, gpu, 1);
+    }
+
+    /**
+     * @param depth the maximum number of requests that can be in flight on the decoder process at the same time
+     */
+    public Handler(Builder builder, Map<LanguageDirection, File> checkpoints, int gpu, int depth) {
+        if (depth < 1)
+            throw new IllegalArgumentException("Invalid depth: " + depth);
+
         this.builder = builder;
         this.checkpoints = checkpoints;
         this.gpu = gpu;
-        this.inUse = false;
+        this.depth = depth;
+        this.inFlight = 0;
     }
 
-    public synchronized boolean setInUse() {
-        if (this.inUse)
+    public synchronized boolean acquire() {
+        if (this.inFlight >= depth)
             return false;
 
-        this.inUse = true;
+        if (this.inFlight++ == 0)
+            this.busySince = System.currentTimeMillis();
         return true;
     }
 
-    public synchronized boolean unsetInUse() {
-        if (!this.inUse)
-            return false;
+    /**
+     * @return the number of requests still in flight, or -1 if the Handler was not in use
+     */
+    public synchronized int release() {
+        if (this.inFlight == 0)
+            return -1;
+
+        if (--this.inFlight == 0) {
+            this.idleSince = System.currentTimeMillis();
+            this.busyTime += this.idleSince - this.busySince;
+        }
+        return this.inFlight;
+    }
 
-        this.inUse = false;
-        return true;
+    public synchronized boolean isFull() {
+        return this.inFlight >= depth;
     }
 
     public void restart() throws IOException {
@@ -52,6 +84,35 @@ class Handler implements PythonDecoder {
             delegate = builder.startOnCPU();
         else
             delegate = builder.startOnGPU(gpu);
+
+        synchronized (this) {
+            starts++;
+            idleSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @param now the current time in milliseconds
+     * @return the time in milliseconds since the last request has been released (or the process has been started),
+     * zero if there are requests in flight
+     */
+    public synchronized long getIdleTime(long now) {
+        return inFlight > 0 ? 0L : Math.max(0L, now - idleSince);
+    }
+
+    synchronized void onDispatch(boolean modelSwitch) {
+        dispatches++;
+        if (modelSwitch)
+            modelSwitches++;
+    }
+
+    public synchronized ProcessMetrics getMetrics() {
+        long now = System.currentTimeMillis();
+        long busyTime = this.busyTime + (inFlight > 0 ? now - busySince : 0L);
+        long uptime = now - creationTime;
+
+        return new ProcessMetrics(gpu, isAlive(), inFlight, busyTime, uptime > 0 ? ((double) busyTime) / uptime : 0.,
+                Math.max(0, starts - 1), dispatches, modelSwitches);
     }
 
     public File getLastCheckpoint() {
@@ -69,7 +130,7 @@ class Handler implements PythonDecoder {
     }
 
     @Override
-    public synchronized Translation translate(LanguageDirection direction, Sentence sentence, int nBest) throws DecoderException {
+    public Translation translate(LanguageDirection direction, Sentence sentence, int nBest) throws DecoderException {
         if (delegate == null)
             throw new DecoderUnavailableException("Decoder process is dead");
 
@@ -78,7 +139,7 @@ class Handler implements PythonDecoder {
     }
 
     @Override
-    public synchronized Translation translate(LanguageDirection direction, Sentence sentence, ScoreEntry[] suggestions, int nBest) throws DecoderException {
+    public Translation translate(LanguageDirection direction, Sentence sentence, ScoreEntry[] suggestions, int nBest) throws DecoderException {
         if (delegate == null)
             throw new DecoderUnavailableException("Decoder process is dead");
 
@@ -105,7 +166,7 @@ class Handler implements PythonDecoder {
     }
 
     @Override
-    public synchronized Translation align(LanguageDirection direction, Sentence sentence, String[] translation) throws DecoderException {
+    public Translation align(LanguageDirection direction, Sentence sentence, String[] translation) throws DecoderException {
         if (delegate == null)
             throw new DecoderUnavailableException("Decoder process is dead");
 
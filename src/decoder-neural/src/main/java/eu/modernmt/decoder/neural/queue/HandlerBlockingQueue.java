@@ -1,30 +1,38 @@
 package eu.modernmt.decoder.neural.queue;
 
 import java.io.File;
-import java.util.Objects;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
+/**
+ * A blocking queue of the Handlers that can accept a new request.
+ * A Handler whose process accepts multiple requests in flight stays in queue (moved to the tail)
+ * until all its slots are taken, so that concurrent requests are spread across processes.
+ */
 public class HandlerBlockingQueue {
 
-    private final Handler[] items;
-    private int takeIndex;
-    private int putIndex;
-    private int count;
+    private final int capacity;
+
+    // available handlers in FIFO order mapped to the checkpoint they are indexed with,
+    // and the same handlers indexed by that checkpoint
+    private final LinkedHashMap<Handler, File> items;
+    private final HashMap<File, LinkedHashSet<Handler>> itemsByCheckpoint;
 
     private final ReentrantLock lock;
     private final Condition notEmpty;
-    private final Condition notFull;
 
     public HandlerBlockingQueue(int capacity, boolean fair) {
         if (capacity <= 0)
             throw new IllegalArgumentException();
 
-        items = new Handler[capacity];
+        this.capacity = capacity;
+        this.items = new LinkedHashMap<>(capacity);
+        this.itemsByCheckpoint = new HashMap<>();
         lock = new ReentrantLock(fair);
         notEmpty = lock.newCondition();
-        notFull = lock.newCondition();
     }
 
     /**
@@ -40,9 +48,13 @@ public class HandlerBlockingQueue {
         final ReentrantLock lock = this.lock;
         lock.lock();
         try {
-            if (count == items.length)
+            if (items.containsKey(e)) {
+                // the Handler may have switched checkpoint since it was indexed
+                reindex(e);
+                return false;
+            } else if (items.size() == capacity || e.isFull()) {
                 return false;
-            else {
+            } else {
                 enqueue(e);
                 return true;
             }
@@ -52,8 +64,75 @@ public class HandlerBlockingQueue {
     }
 
     /**
-     * Retrieves and removes the head of this queue, waiting if necessary
-     * until an element becomes available.
+     * Returns {@code true} if this queue contains at least one Handler whose most-recently used checkpoint
+     * is the given one, so that it can be taken without a model switch.
+     *
+     * @param checkpoint the checkpoint to look for
+     * @return {@code true} if an idle Handler with the given checkpoint is available
+     */
+    public boolean contains(File checkpoint) {
+        if (checkpoint == null)
+            return false;
+
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            LinkedHashSet<Handler> handlers = itemsByCheckpoint.get(checkpoint);
+            return handlers != null && !handlers.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the specified element from this queue, if it is present.
+     *
+     * @param e element to be removed from this queue
+     * @return {@code true} if this queue contained the specified element
+     */
+    public boolean remove(Handler e) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (!items.containsKey(e))
+                return false;
+
+            unlink(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the first element of this queue, in FIFO order, that satisfies the given predicate.
+     * The predicate is evaluated while holding the queue lock, so the removed element
+     * cannot be acquired concurrently.
+     *
+     * @param filter the predicate that selects the element to remove
+     * @return the removed element, or {@code null} if no element satisfies the predicate
+     */
+    public Handler remove(Predicate<Handler> filter) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (Handler e : items.keySet()) {
+                if (filter.test(e)) {
+                    unlink(e);
+                    return e;
+                }
+            }
+
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves and acquires the head of this queue, waiting if necessary
+     * until an element becomes available. The element is removed from the queue
+     * only if it cannot accept any other request.
      *
      * @param checkpoint preferred most-recently used checkpoint
      * @return the selected instance or the head of this queue if there is no Handler with preferred checkpoint
@@ -63,11 +142,11 @@ public class HandlerBlockingQueue {
         final ReentrantLock lock = this.lock;
         lock.lockInterruptibly();
         try {
-            while (count == 0)
+            while (items.isEmpty())
                 notEmpty.await();
 
             Handler result = checkpoint == null ? null : select(checkpoint);
-            return result == null ? dequeue() : result;
+            return acquire(result == null ? head() : result);
         } finally {
             lock.unlock();
         }
@@ -83,15 +162,21 @@ public class HandlerBlockingQueue {
         final ReentrantLock lock = this.lock;
         lock.lock();
         try {
-            return (count == 0) ? null : dequeue();
+            if (items.isEmpty())
+                return null;
+
+            Handler e = head();
+            unlink(e);
+            return e;
         } finally {
             lock.unlock();
         }
     }
 
     /**
-     * Retrieves and removes the head of this queue, waiting up to the
+     * Retrieves and acquires the head of this queue, waiting up to the
      * specified wait time if necessary for an element to become available.
+     * The element is removed from the queue only if it cannot accept any other request.
      *
      * @param checkpoint preferred most-recently used checkpoint
      * @param timeout    how long to wait before giving up, in units of
@@ -107,14 +192,14 @@ public class HandlerBlockingQueue {
         final ReentrantLock lock = this.lock;
         lock.lockInterruptibly();
         try {
-            while (count == 0) {
+            while (items.isEmpty()) {
                 if (nanos <= 0L)
                     return null;
                 nanos = notEmpty.awaitNanos(nanos);
             }
 
             Handler result = checkpoint == null ? null : select(checkpoint);
-            return result == null ? dequeue() : result;
+            return acquire(result == null ? head() : result);
         } finally {
             lock.unlock();
         }
@@ -123,67 +208,61 @@ public class HandlerBlockingQueue {
     // Internal helper methods
 
     private void enqueue(Handler e) {
-        final Object[] items = this.items;
-        items[putIndex] = e;
-        if (++putIndex == items.length) putIndex = 0;
-        count++;
+        // a Handler checkpoint may change while the Handler is in queue, so it is indexed with its current value
+        File checkpoint = e.getLastCheckpoint();
+        items.put(e, checkpoint);
+
+        if (checkpoint != null)
+            itemsByCheckpoint.computeIfAbsent(checkpoint, key -> new LinkedHashSet<>()).add(e);
+
         notEmpty.signal();
     }
 
-    private Handler dequeue() {
-        final Handler[] items = this.items;
+    private void reindex(Handler e) {
+        File checkpoint = e.getLastCheckpoint();
+        File indexed = items.get(e);
+        if (Objects.equals(checkpoint, indexed))
+            return;
+
+        if (indexed != null)
+            itemsByCheckpoint.get(indexed).remove(e);
+        if (checkpoint != null)
+            itemsByCheckpoint.computeIfAbsent(checkpoint, key -> new LinkedHashSet<>()).add(e);
+
+        items.put(e, checkpoint);
+    }
+
+    private Handler head() {
+        return items.keySet().iterator().next();
+    }
+
+    private Handler acquire(Handler e) {
+        e.acquire();
+        unlink(e);
+
+        // move the Handler to the tail if it can accept more requests
+        if (!e.isFull())
+            enqueue(e);
 
-        Handler e = items[takeIndex];
-        items[takeIndex] = null;
-        if (++takeIndex == items.length) takeIndex = 0;
-        count--;
-        notFull.signal();
         return e;
     }
 
     private Handler select(File checkpoint) {
-        if (count > 0) {
-            final Handler[] items = this.items;
-            for (int i = takeIndex, end = putIndex,
-                 to = (i < end) ? end : items.length;
-                    ; i = 0, to = end) {
-                for (; i < to; i++)
-                    if (checkpoint.equals(items[i].getLastCheckpoint())) {
-                        Handler result = items[i];
-                        removeAt(i);
-                        return result;
-                    }
-                if (to == end) break;
-            }
-        }
+        LinkedHashSet<Handler> handlers = itemsByCheckpoint.get(checkpoint);
+        if (handlers == null || handlers.isEmpty())
+            return null;
 
-        return null;
+        return handlers.iterator().next();
     }
 
-    private void removeAt(final int removeIndex) {
-        final Object[] items = this.items;
-        if (removeIndex == takeIndex) {
-            // removing front item; just advance
-            items[takeIndex] = null;
-            if (++takeIndex == items.length) takeIndex = 0;
-            count--;
-        } else {
-            // an "interior" remove
-
-            // slide over all others up through putIndex.
-            for (int i = removeIndex, putIndex = this.putIndex; ; ) {
-                int pred = i;
-                if (++i == items.length) i = 0;
-                if (i == putIndex) {
-                    items[pred] = null;
-                    this.putIndex = pred;
-                    break;
-                }
-                items[pred] = items[i];
-            }
-            count--;
-        }
-        notFull.signal();
+    private void unlink(Handler e) {
+        File checkpoint = items.remove(e);
+        if (checkpoint == null)
+            return;
+
+        LinkedHashSet<Handler> handlers = itemsByCheckpoint.get(checkpoint);
+        if (handlers != null)
+            handlers.remove(e);
     }
 
 }
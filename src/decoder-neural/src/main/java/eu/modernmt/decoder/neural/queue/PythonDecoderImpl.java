@@ -15,9 +15,11 @@ import org.apache.commons.lang3.StringUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PythonDecoderImpl extends PythonProcess implements PythonDecoder {
 
@@ -28,6 +30,8 @@ public class PythonDecoderImpl extends PythonProcess implements PythonDecoder {
         private final String main;
         private final File model;
         private final String[] extraArgs;
+        private boolean binaryProtocol = false;
+        private boolean pipelined = false;
 
         public Builder(String pythonExec, File pythonModule, File model) {
             this(pythonExec, pythonModule, null, null, model);
@@ -49,6 +53,31 @@ public class PythonDecoderImpl extends PythonProcess implements PythonDecoder {
             this.extraArgs = extraArgs;
         }
 
+        /**
+         * Asks the decoder process to exchange length-prefixed binary frames instead of JSON lines.
+         * If the process does not support the binary protocol, the JSON protocol is used.
+         *
+         * @param binaryProtocol true to enable the binary protocol
+         * @return this builder
+         */
+        public Builder setBinaryProtocol(boolean binaryProtocol) {
+            this.binaryProtocol = binaryProtocol;
+            return this;
+        }
+
+        /**
+         * Enables request pipelining: every request is tagged with an id and the decoder process can receive
+         * new requests while still computing the previous ones. Responses are dispatched by id to the waiting
+         * threads, so that multiple threads can use the same process concurrently.
+         *
+         * @param pipelined true to enable request pipelining
+         * @return this builder
+         */
+        public Builder setPipelined(boolean pipelined) {
+            this.pipelined = pipelined;
+            return this;
+        }
+
         @Override
         public PythonDecoder startOnCPU() throws IOException {
             return start(-1);
@@ -83,13 +112,28 @@ public class PythonDecoderImpl extends PythonProcess implements PythonDecoder {
                 command.add(Integer.toString(gpu));
             }
 
+            if (binaryProtocol) {
+                command.add("--protocol");
+                command.add("binary");
+            }
+
+            if (pipelined)
+                command.add("--pipeline");
+
             ProcessBuilder builder = new ProcessBuilder(command);
-            PythonDecoderImpl process = new PythonDecoderImpl(builder.start(), gpu);
+            PythonDecoderImpl process = new PythonDecoderImpl(builder.start(), gpu, pipelined);
             boolean success = false;
 
             try {
-                process.connect();
-                process.init();
+                if (binaryProtocol) {
+                    process.init(process.connect(BinaryProtocol.HANDSHAKE));
+
+                    if (!process.isBinary())
+                        process.logger.warn("Neural decoder process does not support binary protocol, falling back to JSON");
+                } else {
+                    process.connect();
+                    process.init(process.recv());
+                }
                 success = true;
 
                 return process;
@@ -102,25 +146,36 @@ public class PythonDecoderImpl extends PythonProcess implements PythonDecoder {
     }
 
     private static final JsonParser parser = new JsonParser();
+    private static final long REQUEST_TIMEOUT = 30000L;
 
     private final int gpu;
-    private boolean alive;
+    private final boolean pipelined;
+    private final AtomicLong requestIds = new AtomicLong(0L);
+    private final ConcurrentHashMap<Long, CompletableFuture<Object>> pendingRequests = new ConcurrentHashMap<>();
+    private volatile boolean dispatching = false;
+    private volatile long lastResponseTime = System.currentTimeMillis();
+    private volatile boolean alive;
 
     protected PythonDecoderImpl(Process process) {
         this(process, -1);
     }
 
     protected PythonDecoderImpl(Process process, int gpu) {
+        this(process, gpu, false);
+    }
+
+    protected PythonDecoderImpl(Process process, int gpu, boolean pipelined) {
         super(process);
         this.gpu = gpu;
+        this.pipelined = pipelined;
     }
 
-    protected void init() throws IOException {
-        String line = super.recv();
-        if (!"READY".equals(line))
+    protected void init(String line) throws IOException {
+        if (!isBinary() && !"READY".equals(line))
             throw new IOException("Failed to start neural decoder, received: " + line);
 
         this.alive = true;
+        this.dispatching = this.pipelined;
     }
 
     @Override
@@ -135,7 +190,7 @@ public class PythonDecoderImpl extends PythonProcess implements PythonDecoder {
 
     @Override
     public void test() throws DecoderException {
-        translate(null, "{}");
+        execute(null, null, null, null);
     }
 
     @Override
@@ -150,40 +205,61 @@ public class PythonDecoderImpl extends PythonProcess implements PythonDecoder {
 
     @Override
     public Translation[] translate(LanguageDirection direction, Sentence[] sentences, int nBest) throws DecoderException {
-        return this.translate(sentences, serialize(direction, sentences, null, null));
+        return this.execute(direction, sentences, null, null);
     }
 
     @Override
     public Translation[] translate(LanguageDirection direction, Sentence[] sentences, ScoreEntry[] suggestions, int nBest) throws DecoderException {
-        return this.translate(sentences, serialize(direction, sentences, suggestions, null));
+        return this.execute(direction, sentences, suggestions, null);
     }
 
     @Override
     public Translation align(LanguageDirection direction, Sentence sentence, String[] translation) throws DecoderException {
-        Sentence[] sentences = new Sentence[]{sentence};
-        String[][] translations = new String[][]{translation};
-        return this.translate(sentences, serialize(direction, new Sentence[]{sentence}, null, translations))[0];
+        return this.execute(direction, new Sentence[]{sentence}, null, new String[][]{translation})[0];
     }
 
     @Override
     public Translation[] align(LanguageDirection direction, Sentence[] sentences, String[][] translations) throws DecoderException {
-        return this.translate(sentences, serialize(direction, sentences, null, translations));
+        return this.execute(direction, sentences, null, translations);
     }
 
-    private synchronized Translation[] translate(Sentence[] sentences, String payload) throws DecoderException {
+    /*
+     * If sentences is null, a test request is sent to the process
+     */
+    private Translation[] execute(LanguageDirection direction, Sentence[] sentences, ScoreEntry[] suggestions, String[][] forcedTranslations) throws DecoderException {
+        if (pipelined)
+            return executePipelined(direction, sentences, suggestions, forcedTranslations);
+        else
+            return executeSequential(direction, sentences, suggestions, forcedTranslations);
+    }
+
+    private synchronized Translation[] executeSequential(LanguageDirection direction, Sentence[] sentences, ScoreEntry[] suggestions, String[][] forcedTranslations) throws DecoderException {
         if (!isAlive())
             throw new DecoderUnavailableException("Neural decoder process not available");
 
         boolean success = false;
 
         try {
-            super.send(payload);
+            Translation[] translations;
+
+            if (isBinary()) {
+                super.send(sentences == null ? BinaryProtocol.encodeTestRequest() :
+                        BinaryProtocol.encodeRequest(direction, sentences, suggestions, forcedTranslations));
 
-            String response = super.recv(30, TimeUnit.SECONDS);
-            if (response == null)
-                throw new DecoderUnavailableException("Neural decoder process not responding (timeout)");
+                byte[] response = super.recvFrame(30, TimeUnit.SECONDS);
+                if (response == null)
+                    throw new DecoderUnavailableException("Neural decoder process not responding (timeout)");
 
-            Translation[] translations = deserialize(response, sentences);
+                translations = BinaryProtocol.decodeResponse(response, sentences);
+            } else {
+                super.send(sentences == null ? "{}" : serialize(0L, direction, sentences, suggestions, forcedTranslations));
+
+                String response = super.recv(30, TimeUnit.SECONDS);
+                if (response == null)
+                    throw new DecoderUnavailableException("Neural decoder process not responding (timeout)");
+
+                translations = deserialize(parse(response), sentences);
+            }
 
             success = true;
             return translations;
@@ -197,13 +273,144 @@ public class PythonDecoderImpl extends PythonProcess implements PythonDecoder {
         }
     }
 
-    private String serialize(LanguageDirection direction, Sentence[] sentences, ScoreEntry[] suggestions, String[][] forcedTranslations) {
+    private Translation[] executePipelined(LanguageDirection direction, Sentence[] sentences, ScoreEntry[] suggestions, String[][] forcedTranslations) throws DecoderException {
+        if (!isAlive())
+            throw new DecoderUnavailableException("Neural decoder process not available");
+
+        long id = requestIds.incrementAndGet();
+        CompletableFuture<Object> response = new CompletableFuture<>();
+        pendingRequests.put(id, response);
+
+        // requests are computed in order: this one may be queued behind all the others in flight
+        long timeout = REQUEST_TIMEOUT * Math.max(1, pendingRequests.size());
+
+        // Only I/O and protocol errors mean the process is broken: application errors and
+        // timeouts of a single request must not abort all the other requests in flight
+        boolean broken = false;
+
+        try {
+            // the process may have died while registering the request
+            if (!isAlive())
+                throw new DecoderUnavailableException("Neural decoder process not available");
+
+            if (isBinary()) {
+                byte[] request = sentences == null ? BinaryProtocol.encodeTestRequest() :
+                        BinaryProtocol.encodeRequest(direction, sentences, suggestions, forcedTranslations);
+
+                synchronized (this) {
+                    super.send(id, request);
+                }
+
+                byte[] frame = (byte[]) response.get(timeout, TimeUnit.MILLISECONDS);
+
+                try {
+                    return BinaryProtocol.decodeResponse(frame, 8, sentences);
+                } catch (IOException e) {
+                    broken = true;
+                    throw new DecoderUnavailableException("Invalid response from decoder process", e);
+                }
+            } else {
+                String request = sentences == null ? ("{\"id\":" + id + "}") :
+                        serialize(id, direction, sentences, suggestions, forcedTranslations);
+
+                synchronized (this) {
+                    super.send(request);
+                }
+
+                JsonObject json = (JsonObject) response.get(timeout, TimeUnit.MILLISECONDS);
+
+                try {
+                    return deserialize(json, sentences);
+                } catch (RuntimeException e) {
+                    broken = true;
+                    throw new DecoderUnavailableException("Invalid response from decoder process: " + json, e);
+                }
+            }
+        } catch (TimeoutException e) {
+            // the process is stuck only if it has not answered any request in the meantime
+            broken = System.currentTimeMillis() - lastResponseTime >= REQUEST_TIMEOUT;
+            throw new DecoderUnavailableException("Neural decoder process not responding (timeout)");
+        } catch (InterruptedException e) {
+            throw new DecoderUnavailableException("Interrupted while waiting for neural decoder process", e);
+        } catch (ExecutionException e) {
+            broken = true;
+            throw new DecoderUnavailableException("Failed to receive response from decoder process", e.getCause());
+        } catch (IOException e) {
+            broken = true;
+            throw new DecoderUnavailableException("Failed to send request to decoder process", e);
+        } finally {
+            pendingRequests.remove(id);
+
+            if (broken) {
+                this.alive = false;
+                this.close();
+            }
+        }
+    }
+
+    @Override
+    protected boolean dispatch(Object message) {
+        if (!dispatching)
+            return false;
+
+        if (message == null) {
+            abortPendingRequests(new IOException("Neural decoder process closed its output stream"));
+        } else if (message instanceof IOException) {
+            abortPendingRequests((IOException) message);
+        } else {
+            try {
+                long id;
+
+                if (message instanceof byte[]) {
+                    byte[] frame = (byte[]) message;
+                    if (frame.length < 8)
+                        throw new IOException("Invalid response frame from NMT decoder");
+
+                    id = ByteBuffer.wrap(frame).getLong();
+                } else {
+                    JsonObject json = parse((String) message);
+                    JsonElement jsonId = json.get("id");
+                    if (jsonId == null)
+                        throw new IOException("Missing request id in response from NMT decoder: " + message);
+
+                    id = jsonId.getAsLong();
+                    message = json;
+                }
+
+                lastResponseTime = System.currentTimeMillis();
+
+                CompletableFuture<Object> response = pendingRequests.get(id);
+                if (response == null)
+                    logger.warn("Received response for unknown request " + id + " from NMT decoder");
+                else
+                    response.complete(message);
+            } catch (IOException e) {
+                abortPendingRequests(e);
+            } catch (RuntimeException e) {
+                abortPendingRequests(new IOException("Invalid response from NMT decoder: " + message, e));
+            }
+        }
+
+        return true;
+    }
+
+    private void abortPendingRequests(IOException cause) {
+        // alive must be unset before iterating over pending requests, see executePipelined()
+        this.alive = false;
+
+        for (CompletableFuture<Object> response : pendingRequests.values())
+            response.completeExceptionally(cause);
+    }
+
+    private String serialize(long id, LanguageDirection direction, Sentence[] sentences, ScoreEntry[] suggestions, String[][] forcedTranslations) {
         String[] serialized = new String[sentences.length];
         for (int i = 0; i < serialized.length; i++)
             serialized[i] = TokensOutputStream.serialize(sentences[i], false, true);
         String text = StringUtils.join(serialized, '\n');
 
         JsonObject json = new JsonObject();
+        if (id > 0L)
+            json.addProperty("id", id);
         json.addProperty("q", text);
         json.addProperty("sl", direction.source.toLanguageTag());
         json.addProperty("tl", direction.target.toLanguageTag());
@@ -235,14 +442,15 @@ public class PythonDecoderImpl extends PythonProcess implements PythonDecoder {
         return json.toString().replace('\n', ' ');
     }
 
-    private Translation[] deserialize(String response, Sentence[] sentences) throws IOException, DecoderException {
-        JsonObject json;
+    private static JsonObject parse(String response) throws IOException {
         try {
-            json = parser.parse(response).getAsJsonObject();
-        } catch (JsonSyntaxException e) {
+            return parser.parse(response).getAsJsonObject();
+        } catch (JsonSyntaxException | IllegalStateException e) {
             throw new IOException("Invalid response from NMT decoder: " + response, e);
         }
+    }
 
+    private Translation[] deserialize(JsonObject json, Sentence[] sentences) throws DecoderException {
         boolean success = json.get("success").getAsBoolean();
 
         if (success) {
@@ -10,10 +10,7 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.Closeable;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.*;
 import java.util.Map;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
@@ -45,6 +42,7 @@ public abstract class PythonProcess implements Closeable {
     private final Process process;
     private OutputStream stdin = null;
     private StdoutThread stdoutThread = null;
+    private StdoutFrameThread stdoutFrameThread = null;
     private StreamPollingThread logThread = null;
 
     protected PythonProcess(Process process) {
@@ -71,12 +69,75 @@ public abstract class PythonProcess implements Closeable {
         connectStdout(process.getInputStream());
     }
 
+    /**
+     * Connects to the process streams reading synchronously the first line printed by the process on stdout.
+     * If this line equals the given handshake, stdout is then read as a sequence of length-prefixed
+     * binary frames (see {@link #recvFrame(long, TimeUnit)}), otherwise it is read line by line as usual.
+     *
+     * @param binaryHandshake the line the process prints to acknowledge the binary protocol
+     * @return the first line printed by the process, or null if stdout has been closed
+     * @throws IOException if an I/O error occurs
+     */
+    protected String connect(String binaryHandshake) throws IOException {
+        connectStdin(process.getOutputStream());
+        connectStderr(process.getErrorStream());
+
+        InputStream stdout = process.getInputStream();
+        String line = readLineUnbuffered(stdout);
+
+        if (binaryHandshake.equals(line)) {
+            this.stdoutFrameThread = new StdoutFrameThread(stdout);
+            this.stdoutFrameThread.start();
+        } else {
+            connectStdout(stdout);
+        }
+
+        return line;
+    }
+
+    protected boolean isBinary() {
+        return stdoutFrameThread != null;
+    }
+
     protected void send(String line) throws IOException {
         this.stdin.write(line.getBytes(UTF8Charset.get()));
         this.stdin.write('\n');
         this.stdin.flush();
     }
 
+    protected void send(byte[] frame) throws IOException {
+        int length = frame.length;
+        this.stdin.write(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        this.stdin.write(frame);
+        this.stdin.flush();
+    }
+
+    protected void send(long id, byte[] frame) throws IOException {
+        int length = frame.length + 8;
+        this.stdin.write(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length,
+                (byte) (id >>> 56), (byte) (id >>> 48), (byte) (id >>> 40), (byte) (id >>> 32),
+                (byte) (id >>> 24), (byte) (id >>> 16), (byte) (id >>> 8), (byte) id});
+        this.stdin.write(frame);
+        this.stdin.flush();
+    }
+
+    /**
+     * Called by the thread reading stdout for every message received from the process, before it is made
+     * available to {@link #recv()} or {@link #recvFrame(long, TimeUnit)}. Subclasses can override this method
+     * in order to dispatch messages directly from the reading thread.
+     *
+     * @param message a String line or a byte[] frame, an IOException if the stream could not be read,
+     *                or null if stdout has been closed
+     * @return true if the message has been consumed and must not be handed off to recv()
+     */
+    protected boolean dispatch(Object message) {
+        return false;
+    }
+
+    protected byte[] recvFrame(long timeout, TimeUnit unit) throws IOException {
+        return this.stdoutFrameThread.readFrame(timeout, unit);
+    }
+
     protected String recv() throws IOException {
         return this.stdoutThread.readLine();
     }
@@ -103,6 +164,8 @@ public abstract class PythonProcess implements Closeable {
             logThread.interrupt();
         if (stdoutThread != null)
             stdoutThread.interrupt();
+        if (stdoutFrameThread != null)
+            stdoutFrameThread.interrupt();
 
         IOUtils.closeQuietly(stdin);
 
@@ -140,6 +203,27 @@ public abstract class PythonProcess implements Closeable {
                 // ignore it
             }
         }
+
+        if (stdoutFrameThread != null) {
+            try {
+                stdoutFrameThread.join();
+            } catch (InterruptedException e) {
+                // ignore it
+            }
+        }
+    }
+
+    private static String readLineUnbuffered(InputStream stream) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+
+        int b;
+        while ((b = stream.read()) != '\n') {
+            if (b < 0)
+                return line.size() == 0 ? null : line.toString("UTF-8");
+            line.write(b);
+        }
+
+        return line.toString("UTF-8");
     }
 
     private class LogThread extends StreamPollingThread {
@@ -188,15 +272,18 @@ public abstract class PythonProcess implements Closeable {
 
         @Override
         protected void onIOException(IOException e) throws InterruptedException {
-            handoff.put(e);
+            if (!dispatch(e))
+                handoff.put(e);
         }
 
         @Override
         protected void onLineRead(String line) throws InterruptedException {
-            if (line == null)
+            if (line == null) {
+                dispatch(null);
                 handoff.offer(POISON_PILL);
-            else
+            } else if (!dispatch(line)) {
                 handoff.put(line);
+            }
         }
 
         public String readLine() throws IOException {
@@ -232,4 +319,75 @@ public abstract class PythonProcess implements Closeable {
 
     }
 
+    private class StdoutFrameThread extends Thread {
+
+        private final Object POISON_PILL = new Object();
+        private final SynchronousQueue<Object> handoff;
+        private final DataInputStream stream;
+        private volatile boolean active = true;
+
+        public StdoutFrameThread(InputStream stdout) {
+            this.stream = new DataInputStream(new BufferedInputStream(stdout));
+            this.handoff = new SynchronousQueue<>();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (active) {
+                    try {
+                        byte[] frame = new byte[stream.readInt()];
+                        stream.readFully(frame);
+
+                        if (!dispatch(frame))
+                            handoff.put(frame);
+                    } catch (EOFException e) {
+                        break;
+                    } catch (IOException e) {
+                        // the stream is not aligned to frames anymore, no further read is possible
+                        if (active && !dispatch(e))
+                            handoff.put(e);
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Ignore it
+            }
+
+            active = false;
+            IOUtils.closeQuietly(stream);
+            dispatch(null);
+            handoff.offer(POISON_PILL);
+        }
+
+        public byte[] readFrame(long timeout, TimeUnit unit) throws IOException {
+            if (!active)
+                return null;
+
+            Object object;
+
+            try {
+                object = handoff.poll(timeout, unit);
+            } catch (InterruptedException e) {
+                return null;
+            }
+
+            if (object == null || object == POISON_PILL)
+                return null;
+
+            if (object instanceof IOException)
+                throw (IOException) object;
+            else
+                return (byte[]) object;
+        }
+
+        @Override
+        public void interrupt() {
+            this.active = false;
+            super.interrupt();
+            this.handoff.poll();
+        }
+
+    }
+
 }
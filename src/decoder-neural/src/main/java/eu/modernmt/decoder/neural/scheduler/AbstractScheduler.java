@@ -6,7 +6,7 @@ import java.util.Queue;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
-public abstract class AbstractScheduler<T extends Scheduler.Job> implements Scheduler {
+public abstract class AbstractScheduler<T extends Scheduler.QueueableJob> implements Scheduler {
 
     private final Queue<T> queue;
 
@@ -25,9 +25,14 @@ public abstract class AbstractScheduler<T extends Scheduler.Job> implements Sche
             if (!active)
                 throw new DecoderUnavailableException("Decoder has been shut down");
 
-            int qSize = queue.size();
+            purge(queue);
+
+            // job must be timestamped before insertion, queue ordering depends on it
+            job.onStartWaitingInQueue(queue.size());
+            admit(queue, job);
+
             if (queue.offer(job)) {
-                job.onStartWaitingInQueue(qSize);
+                onEnqueued(job);
                 notEmpty.signal();
             } else {
                 throw new DecoderUnavailableException("Decoder unavailable due to a temporary overloading");
@@ -41,11 +46,14 @@ public abstract class AbstractScheduler<T extends Scheduler.Job> implements Sche
     public final Job take() throws InterruptedException {
         try {
             lock.lock();
-            while (queue.isEmpty() && active)
+            purge(queue);
+            while (queue.isEmpty() && active) {
                 notEmpty.await();
+                purge(queue);
+            }
 
             if (!queue.isEmpty())
-                return queue.poll();
+                return poll(queue);
 
             // scheduler is not active anymore
             notEmpty.signal();  // pass the signal to next thread in queue
@@ -55,6 +63,97 @@ public abstract class AbstractScheduler<T extends Scheduler.Job> implements Sche
         }
     }
 
+    @Override
+    public final int getQueueSize() {
+        try {
+            lock.lock();
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public final long getMaxQueueWaitingTime() {
+        try {
+            lock.lock();
+
+            long oldest = Long.MAX_VALUE;
+            for (T job : queue)
+                oldest = Math.min(oldest, job.getTimestamp());
+
+            return oldest == Long.MAX_VALUE ? 0L : Math.max(0L, System.currentTimeMillis() - oldest);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves and removes the next job to dispatch. This method is always invoked
+     * while holding the scheduler lock and with a non-empty queue.
+     *
+     * @param queue the scheduler queue
+     * @return the next job to dispatch
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected Job poll(Queue<T> queue) throws InterruptedException {
+        return queue.poll();
+    }
+
+    /**
+     * Removes from the queue the jobs that should not be dispatched anymore.
+     * This method is always invoked while holding the scheduler lock.
+     *
+     * @param queue the scheduler queue
+     */
+    protected void purge(Queue<T> queue) {
+        // default implementation does nothing
+    }
+
+    /**
+     * Decides whether a new job can be added to the queue. This method is always invoked while holding
+     * the scheduler lock, after the job has been timestamped and before it is inserted into the queue.
+     *
+     * @param queue the scheduler queue
+     * @param job   the job to be scheduled
+     * @throws DecoderUnavailableException if the job must be rejected
+     */
+    protected void admit(Queue<T> queue, T job) throws DecoderUnavailableException {
+        // default implementation does nothing
+    }
+
+    /**
+     * Invoked after a new job has been inserted into the queue, while holding the scheduler lock.
+     *
+     * @param job the scheduled job
+     */
+    protected void onEnqueued(T job) {
+        // default implementation does nothing
+    }
+
+    /**
+     * Waits for new jobs to be scheduled, releasing the scheduler lock while waiting.
+     * It can be invoked only from within {@link #poll(Queue)}.
+     *
+     * @param nanos the maximum time to wait in nanoseconds
+     * @return an estimate of the remaining time, a value less than or equal to zero indicates that no time remains
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected final long awaitNanos(long nanos) throws InterruptedException {
+        return notEmpty.awaitNanos(nanos);
+    }
+
+    /**
+     * Wakes up one executor waiting for jobs. It can be invoked only from within {@link #poll(Queue)}.
+     */
+    protected final void signalNotEmpty() {
+        notEmpty.signal();
+    }
+
+    protected final boolean isActive() {
+        return active;
+    }
+
     @Override
     public final void close() {
         try {
@@ -0,0 +1,161 @@
+package eu.modernmt.decoder.neural.scheduler;
+
+import eu.modernmt.lang.LanguageDirection;
+import eu.modernmt.memory.ScoreEntry;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * A scheduler that merges queued jobs with the same language direction into a single decoder call.
+ * <p>
+ * When an executor takes the next job, all the compatible jobs in queue are appended to it (in priority order)
+ * until the batch reaches "maxBatchTokens" source words. If the batch is not full, the executor waits for new
+ * compatible jobs until the head job has been in queue for "maxBatchWait" milliseconds: under heavy load the
+ * head job has usually already waited longer than that, so batching comes with no extra latency.
+ * If no compatible job is in queue the head job is dispatched immediately, so that there is no wait at low load.
+ * <p>
+ * Only jobs without suggestions are merged, because suggestions are used to adapt the model
+ * for the whole decoder call; jobs with suggestions are always dispatched alone.
+ */
+public class BatchingScheduler extends SentenceBatchScheduler {
+
+    private final int maxBatchTokens;
+    private final long maxBatchWait;
+
+    public BatchingScheduler(int queueSize, int maxBatchTokens, long maxBatchWait) {
+        this(queueSize, maxBatchTokens, maxBatchWait, null, 0L);
+    }
+
+    public BatchingScheduler(int queueSize, int maxBatchTokens, long maxBatchWait,
+                             Predicate<LanguageDirection> warmDirections, long maxAffinityDelay) {
+        this(queueSize, maxBatchTokens, maxBatchWait, warmDirections, maxAffinityDelay, null);
+    }
+
+    public BatchingScheduler(int queueSize, int maxBatchTokens, long maxBatchWait,
+                             Predicate<LanguageDirection> warmDirections, long maxAffinityDelay,
+                             DeadlinePolicy deadlinePolicy) {
+        super(queueSize, warmDirections, maxAffinityDelay, deadlinePolicy);
+
+        if (maxBatchTokens < 1)
+            throw new IllegalArgumentException("Invalid max batch tokens: " + maxBatchTokens);
+        if (maxBatchWait < 0)
+            throw new IllegalArgumentException("Invalid max batch wait: " + maxBatchWait);
+
+        this.maxBatchTokens = maxBatchTokens;
+        this.maxBatchWait = maxBatchWait;
+    }
+
+    @Override
+    protected Job poll(Queue<JobImpl> queue) throws InterruptedException {
+        JobImpl head = pollHead(queue);
+        if (head.getSuggestions() != null)
+            return head;
+
+        BatchJob batch = new BatchJob(head);
+        long deadline = head.getTimestamp() + maxBatchWait;
+
+        collect(queue, batch);
+
+        // nothing compatible in queue: waiting for new jobs would only add latency at low load
+        if (batch.jobs.size() == 1) {
+            if (!queue.isEmpty())
+                signalNotEmpty();
+            return head;
+        }
+
+        while (batch.tokens < maxBatchTokens) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || !isActive())
+                break;
+
+            // remaining jobs are not compatible with this batch, wake up an idle executor
+            if (!queue.isEmpty())
+                signalNotEmpty();
+
+            awaitNanos(TimeUnit.MILLISECONDS.toNanos(remaining));
+            collect(queue, batch);
+        }
+
+        if (!queue.isEmpty())
+            signalNotEmpty();
+
+        return batch;
+    }
+
+    private void collect(Queue<JobImpl> queue, BatchJob batch) {
+        ArrayList<JobImpl> candidates = null;
+
+        for (JobImpl job : queue) {
+            if (batch.accepts(job)) {
+                if (candidates == null)
+                    candidates = new ArrayList<>();
+                candidates.add(job);
+            }
+        }
+
+        if (candidates == null)
+            return;
+
+        candidates.sort(getOrder());
+
+        for (JobImpl job : candidates) {
+            int tokens = job.getTokens();
+            if (batch.tokens + tokens > maxBatchTokens)
+                break;
+
+            queue.remove(job);
+            batch.add(job, tokens);
+        }
+    }
+
+    private static class BatchJob implements Scheduler.Job {
+
+        private final LanguageDirection direction;
+        private final boolean alignment;
+        private final List<JobImpl> jobs = new ArrayList<>();
+        private final List<TranslationSplit> splits = new ArrayList<>();
+        private int tokens = 0;
+
+        BatchJob(JobImpl head) {
+            this.direction = head.getLanguageDirection();
+            this.alignment = head.isAlignmentJob();
+            this.add(head, head.getTokens());
+        }
+
+        boolean accepts(JobImpl job) {
+            return job.getSuggestions() == null &&
+                    direction.equals(job.getLanguageDirection()) &&
+                    alignment == job.isAlignmentJob();
+        }
+
+        void add(JobImpl job, int tokens) {
+            this.jobs.add(job);
+            this.splits.addAll(job.getTranslationSplits());
+            this.tokens += tokens;
+        }
+
+        @Override
+        public LanguageDirection getLanguageDirection() {
+            return direction;
+        }
+
+        @Override
+        public boolean isAlignmentJob() {
+            return alignment;
+        }
+
+        @Override
+        public List<TranslationSplit> getTranslationSplits() {
+            return splits;
+        }
+
+        @Override
+        public Collection<ScoreEntry> getSuggestions() {
+            return null;
+        }
+
+    }
+
+}
@@ -0,0 +1,120 @@
+package eu.modernmt.decoder.neural.scheduler;
+
+import eu.modernmt.lang.LanguageDirection;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
+
+/**
+ * Earliest-deadline-first policy for {@link SentenceBatchScheduler}.
+ * <p>
+ * Jobs are ordered by priority class and then by absolute deadline (jobs without a deadline come last);
+ * expired jobs are evicted from the queue and a job is rejected at admission if the estimated time
+ * needed to translate it, together with the jobs that would be dispatched before it, exceeds its deadline.
+ * <p>
+ * Estimates are based on the decode rate (milliseconds per source word) observed for every language direction,
+ * smoothed with an exponential moving average. No job is rejected until a rate has been observed for its direction.
+ * Jobs already being translated are not taken into account, so estimates are optimistic.
+ */
+public class DeadlinePolicy {
+
+    static final Comparator<SentenceBatchScheduler.JobImpl> ORDER = (a, b) -> {
+        if (a.getPriority() != b.getPriority())
+            return Integer.compare(a.getPriority().intValue, b.getPriority().intValue);
+
+        long da = a.getDeadline();
+        long db = b.getDeadline();
+
+        if (da != db) {
+            if (da == 0L) return 1;
+            if (db == 0L) return -1;
+            return Long.compare(da, db);
+        }
+
+        return a.compareTo(b);
+    };
+
+    private static final double SMOOTHING = 0.2;
+
+    private final IntSupplier parallelism;
+    private final ConcurrentHashMap<LanguageDirection, Rate> rates = new ConcurrentHashMap<>();
+
+    /**
+     * @param parallelism the number of jobs that can be translated concurrently
+     */
+    public DeadlinePolicy(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+
+        this.parallelism = () -> parallelism;
+    }
+
+    /**
+     * @param parallelism the supplier of the number of jobs that can be translated concurrently,
+     *                    for decoder pools whose size changes over time
+     */
+    public DeadlinePolicy(IntSupplier parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public void onTranslationCompleted(LanguageDirection direction, List<TranslationSplit> splits, long time) {
+        int tokens = 0;
+        for (TranslationSplit split : splits)
+            tokens += split.sentence.getWords().length;
+
+        if (tokens > 0 && time >= 0)
+            rates.computeIfAbsent(direction, key -> new Rate()).update((double) time / tokens);
+    }
+
+    /**
+     * Returns the observed decode rate for the given direction.
+     *
+     * @param direction the language direction
+     * @return the average time in milliseconds needed to translate a source word, or a negative value if unknown
+     */
+    public double getMillisPerToken(LanguageDirection direction) {
+        Rate rate = rates.get(direction);
+        return rate == null ? -1 : rate.value;
+    }
+
+    /**
+     * Estimates the time needed to translate the given job, including the jobs in queue that will be dispatched
+     * before it.
+     *
+     * @param queue the scheduler queue, not including the job
+     * @param job   the job to be scheduled
+     * @return the estimated time in milliseconds, or a negative value if it cannot be estimated
+     */
+    long estimateCompletionTime(Queue<SentenceBatchScheduler.JobImpl> queue, SentenceBatchScheduler.JobImpl job) {
+        double cost = estimateCost(job);
+        if (cost < 0)
+            return -1L;
+
+        double ahead = 0;
+        for (SentenceBatchScheduler.JobImpl queued : queue) {
+            if (ORDER.compare(queued, job) < 0)
+                ahead += Math.max(0, estimateCost(queued));
+        }
+
+        return (long) (ahead / Math.max(1, parallelism.getAsInt()) + cost);
+    }
+
+    private double estimateCost(SentenceBatchScheduler.JobImpl job) {
+        double rate = getMillisPerToken(job.getLanguageDirection());
+        return rate < 0 ? -1 : rate * job.getTokens();
+    }
+
+    private static final class Rate {
+
+        private volatile double value = -1;
+
+        synchronized void update(double sample) {
+            value = value < 0 ? sample : (SMOOTHING * sample + (1 - SMOOTHING) * value);
+        }
+
+    }
+
+}
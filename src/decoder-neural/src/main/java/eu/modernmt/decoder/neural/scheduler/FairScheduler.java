@@ -0,0 +1,139 @@
+package eu.modernmt.decoder.neural.scheduler;
+
+import eu.modernmt.decoder.DecoderUnavailableException;
+import eu.modernmt.lang.LanguageDirection;
+import eu.modernmt.model.Priority;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * A scheduler that shares the decoders among users with start-time fair queueing.
+ * <p>
+ * Within every priority class, each user has a virtual clock that advances by the number of source words
+ * of its jobs divided by the user weight: a job is tagged with the virtual time at which it would start if
+ * every user were served at the same rate, and jobs are dispatched in order of priority and then of tag.
+ * A user submitting a large document thus only delays its own jobs, while users sending a few interactive
+ * requests get served as soon as a decoder is available. The virtual clocks of a priority class are reset
+ * whenever its queue becomes empty.
+ * <p>
+ * Optionally, the number of jobs each user can have in queue can be limited with "maxUserQueueSize".
+ * Jobs are never merged together.
+ */
+public class FairScheduler extends SentenceBatchScheduler {
+
+    static final Comparator<JobImpl> ORDER = (a, b) -> {
+        if (a.getPriority() != b.getPriority())
+            return Integer.compare(a.getPriority().intValue, b.getPriority().intValue);
+
+        int c = Double.compare(a.getVirtualStart(), b.getVirtualStart());
+        return c == 0 ? a.compareTo(b) : c;
+    };
+
+    private static final class PriorityClass {
+
+        private final HashMap<UUID, Double> finishTimes = new HashMap<>();
+        private double virtualTime = 0;
+        private int depth = 0;
+
+    }
+
+    private final int maxUserQueueSize;
+    private final EnumMap<Priority, PriorityClass> classes = new EnumMap<>(Priority.class);
+    private final HashMap<UUID, Integer> depths = new HashMap<>();
+    private final HashMap<UUID, Double> weights = new HashMap<>();
+
+    public FairScheduler(int queueSize, int maxUserQueueSize) {
+        this(queueSize, maxUserQueueSize, null, 0L);
+    }
+
+    /**
+     * @param queueSize        the maximum number of jobs in queue
+     * @param maxUserQueueSize the maximum number of jobs in queue for a single user, if zero or negative
+     *                         there is no per-user limit
+     * @param warmDirections   tells whether an idle decoder has already loaded the model for a direction,
+     *                         if null affinity is disabled
+     * @param maxAffinityDelay the maximum time in milliseconds a job can be postponed in favour of a warm one
+     */
+    public FairScheduler(int queueSize, int maxUserQueueSize, Predicate<LanguageDirection> warmDirections, long maxAffinityDelay) {
+        super(queueSize, ORDER, warmDirections, maxAffinityDelay, null);
+        this.maxUserQueueSize = maxUserQueueSize;
+    }
+
+    /**
+     * Sets the share of the decoders assigned to a user, relative to the other users (default is 1).
+     *
+     * @param user   the user id, null for anonymous requests
+     * @param weight the user weight
+     */
+    public synchronized void setUserWeight(UUID user, double weight) {
+        if (weight <= 0)
+            throw new IllegalArgumentException("Invalid weight: " + weight);
+
+        if (weight == 1.)
+            weights.remove(user);
+        else
+            weights.put(user, weight);
+    }
+
+    /**
+     * @param user the user id, null for anonymous requests
+     * @return the number of jobs in queue for the given user
+     */
+    public synchronized int getQueueDepth(UUID user) {
+        return depths.getOrDefault(user, 0);
+    }
+
+    /**
+     * @return the number of jobs in queue for every user with at least one job in queue
+     */
+    public synchronized Map<UUID, Integer> getQueueDepths() {
+        return new HashMap<>(depths);
+    }
+
+    @Override
+    protected synchronized void admit(Queue<JobImpl> queue, JobImpl job) throws DecoderUnavailableException {
+        UUID user = job.getUser();
+
+        if (maxUserQueueSize > 0 && depths.getOrDefault(user, 0) >= maxUserQueueSize)
+            throw new DecoderUnavailableException("Decoder unavailable: too many pending translations for user " + user);
+
+        PriorityClass cls = classes.computeIfAbsent(job.getPriority(), key -> new PriorityClass());
+        Double finish = cls.finishTimes.get(user);
+
+        job.setVirtualStart(finish == null ? cls.virtualTime : Math.max(cls.virtualTime, finish));
+    }
+
+    @Override
+    protected synchronized void onEnqueued(JobImpl job) {
+        UUID user = job.getUser();
+
+        PriorityClass cls = classes.get(job.getPriority());
+        cls.finishTimes.put(user, job.getVirtualStart() + Math.max(1, job.getTokens()) / weights.getOrDefault(user, 1.));
+        cls.depth++;
+        depths.merge(user, 1, Integer::sum);
+    }
+
+    @Override
+    protected Job poll(Queue<JobImpl> queue) {
+        JobImpl job = pollHead(queue);
+        onDequeued(job);
+        return job;
+    }
+
+    private synchronized void onDequeued(JobImpl job) {
+        UUID user = job.getUser();
+
+        PriorityClass cls = classes.get(job.getPriority());
+        cls.virtualTime = Math.max(cls.virtualTime, job.getVirtualStart());
+        cls.depth--;
+
+        if (cls.depth == 0) {
+            cls.finishTimes.clear();
+            cls.virtualTime = 0;
+        }
+
+        depths.computeIfPresent(user, (key, depth) -> depth > 1 ? depth - 1 : null);
+    }
+
+}
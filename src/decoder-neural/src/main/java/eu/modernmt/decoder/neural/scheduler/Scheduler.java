@@ -31,7 +31,20 @@ public interface Scheduler extends Closeable {
 
         Collection<ScoreEntry> getSuggestions();
 
+    }
+
+    /**
+     * A {@link Job} that can be inserted into a scheduler queue: it is timestamped when it starts waiting.
+     */
+    interface QueueableJob extends Job {
+
         void onStartWaitingInQueue(int queueSize);
+
+        /**
+         * @return the time in milliseconds the job started waiting in queue
+         */
+        long getTimestamp();
+
     }
 
     /**
@@ -63,4 +76,25 @@ public interface Scheduler extends Closeable {
      */
     Job take() throws InterruptedException;
 
+    /**
+     * @return the number of jobs currently waiting in queue
+     */
+    int getQueueSize();
+
+    /**
+     * @return the time in milliseconds the oldest job in queue has been waiting, 0 if the queue is empty
+     */
+    long getMaxQueueWaitingTime();
+
+    /**
+     * Notifies the scheduler that a job taken from this scheduler has been translated.
+     *
+     * @param direction the language direction of the job
+     * @param splits    the translation splits that have been sent to the decoder
+     * @param time      the time in milliseconds spent by the decoder
+     */
+    default void onTranslationCompleted(LanguageDirection direction, List<TranslationSplit> splits, long time) {
+        // default implementation does nothing
+    }
+
 }
@@ -1,16 +1,61 @@
 package eu.modernmt.decoder.neural.scheduler;
 
 import eu.modernmt.decoder.DecoderUnavailableException;
+import eu.modernmt.decoder.TranslationTimeoutException;
 import eu.modernmt.lang.LanguageDirection;
 import eu.modernmt.memory.ScoreEntry;
 import eu.modernmt.model.Priority;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 public class SentenceBatchScheduler extends AbstractScheduler<SentenceBatchScheduler.JobImpl> {
 
+    private final Predicate<LanguageDirection> warmDirections;
+    private final long maxAffinityDelay;
+    private final DeadlinePolicy deadlinePolicy;
+    private final Comparator<JobImpl> order;
+    private long nextExpiration = Long.MAX_VALUE;
+
     public SentenceBatchScheduler(final int queueSize) {
-        super(new PriorityQueue<JobImpl>(queueSize) {
+        this(queueSize, null, 0L);
+    }
+
+    /**
+     * Creates a scheduler with checkpoint affinity: if the first job in queue has no idle decoder with its model
+     * already loaded, the scheduler dispatches the first job with the same priority that has one.
+     * A job is never postponed once it has been waiting in queue for "maxAffinityDelay" milliseconds.
+     *
+     * @param queueSize        the maximum number of jobs in queue
+     * @param warmDirections   tells whether an idle decoder has already loaded the model for a direction,
+     *                         if null affinity is disabled
+     * @param maxAffinityDelay the maximum time in milliseconds a job can be postponed in favour of a warm one
+     */
+    public SentenceBatchScheduler(final int queueSize, Predicate<LanguageDirection> warmDirections, long maxAffinityDelay) {
+        this(queueSize, warmDirections, maxAffinityDelay, null);
+    }
+
+    /**
+     * Creates a scheduler with checkpoint affinity and, if "deadlinePolicy" is not null, earliest-deadline-first
+     * ordering within the same priority: expired jobs are evicted from the queue and new jobs are rejected
+     * if they are not expected to be translated before their deadline.
+     *
+     * @param queueSize        the maximum number of jobs in queue
+     * @param warmDirections   tells whether an idle decoder has already loaded the model for a direction,
+     *                         if null affinity is disabled
+     * @param maxAffinityDelay the maximum time in milliseconds a job can be postponed in favour of a warm one
+     * @param deadlinePolicy   the deadline policy, if null jobs are dispatched in order of arrival
+     */
+    public SentenceBatchScheduler(final int queueSize, Predicate<LanguageDirection> warmDirections, long maxAffinityDelay,
+                                  DeadlinePolicy deadlinePolicy) {
+        this(queueSize, order(deadlinePolicy), warmDirections, maxAffinityDelay, deadlinePolicy);
+    }
+
+    protected SentenceBatchScheduler(final int queueSize, Comparator<JobImpl> order,
+                                     Predicate<LanguageDirection> warmDirections, long maxAffinityDelay,
+                                     DeadlinePolicy deadlinePolicy) {
+        super(new PriorityQueue<JobImpl>(queueSize, order) {
 
             @Override
             public boolean add(JobImpl job) {
@@ -29,6 +74,96 @@ public class SentenceBatchScheduler extends AbstractScheduler<SentenceBatchSched
             }
 
         });
+
+        this.warmDirections = maxAffinityDelay > 0 ? warmDirections : null;
+        this.maxAffinityDelay = maxAffinityDelay;
+        this.deadlinePolicy = deadlinePolicy;
+        this.order = order;
+    }
+
+    private static Comparator<JobImpl> order(DeadlinePolicy deadlinePolicy) {
+        return deadlinePolicy == null ? Comparator.naturalOrder() : DeadlinePolicy.ORDER;
+    }
+
+    protected final Comparator<JobImpl> getOrder() {
+        return order;
+    }
+
+    @Override
+    public void onTranslationCompleted(LanguageDirection direction, List<TranslationSplit> splits, long time) {
+        if (deadlinePolicy != null)
+            deadlinePolicy.onTranslationCompleted(direction, splits, time);
+    }
+
+    @Override
+    protected void purge(Queue<JobImpl> queue) {
+        long now = System.currentTimeMillis();
+        if (deadlinePolicy == null || now <= nextExpiration)
+            return;
+
+        nextExpiration = Long.MAX_VALUE;
+
+        Iterator<JobImpl> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            JobImpl job = iterator.next();
+
+            if (job.isExpired(now)) {
+                iterator.remove();
+
+                TranslationTimeoutException exception = new TranslationTimeoutException();
+                for (TranslationSplit split : job.getTranslationSplits())
+                    split.setException(exception);
+            } else if (job.getDeadline() > 0) {
+                nextExpiration = Math.min(nextExpiration, job.getDeadline());
+            }
+        }
+    }
+
+    @Override
+    protected void admit(Queue<JobImpl> queue, JobImpl job) throws DecoderUnavailableException {
+        if (deadlinePolicy == null || job.getDeadline() == 0L)
+            return;
+
+        long estimate = deadlinePolicy.estimateCompletionTime(queue, job);
+        if (estimate > 0 && job.getTimestamp() + estimate > job.getDeadline())
+            throw new DecoderUnavailableException("Decoder unavailable: translation is not expected to complete " +
+                    "before its deadline (estimated time " + estimate + "ms)");
+
+        nextExpiration = Math.min(nextExpiration, job.getDeadline());
+    }
+
+    @Override
+    protected Job poll(Queue<JobImpl> queue) throws InterruptedException {
+        return pollHead(queue);
+    }
+
+    protected final JobImpl pollHead(Queue<JobImpl> queue) {
+        JobImpl head = queue.peek();
+
+        if (warmDirections == null || warmDirections.test(head.getLanguageDirection()))
+            return queue.poll();
+        if (System.currentTimeMillis() - head.getTimestamp() >= maxAffinityDelay)
+            return queue.poll();
+
+        HashMap<LanguageDirection, Boolean> warmCache = new HashMap<>();
+        warmCache.put(head.getLanguageDirection(), false);
+
+        JobImpl best = null;
+        for (JobImpl job : queue) {
+            if (job.getPriority() != head.getPriority())
+                continue;
+            if (best != null && order.compare(job, best) >= 0)
+                continue;
+
+            if (warmCache.computeIfAbsent(job.getLanguageDirection(), warmDirections::test))
+                best = job;
+        }
+
+        if (best == null)
+            return queue.poll();
+
+        queue.remove(best);
+        return best;
     }
 
     @Override
@@ -52,13 +187,20 @@ public class SentenceBatchScheduler extends AbstractScheduler<SentenceBatchSched
         return lock;
     }
 
-    public static class JobImpl implements Scheduler.Job, Comparable<JobImpl> {
+    public static class JobImpl implements Scheduler.QueueableJob, Comparable<JobImpl> {
+
+        private static final AtomicLong sequenceGenerator = new AtomicLong(0L);
 
         private final LanguageDirection direction;
         private final List<TranslationSplit> splits;
         private final List<ScoreEntry> suggestions;
         private final Priority priority;
+        private final UUID user;
+        private final long deadline;
+        private final int tokens;
         private long timestamp;
+        private long sequence;
+        private double virtualStart;
 
         JobImpl(LanguageDirection direction, TranslationSplit split) {
             this(direction, Collections.singletonList(split), null);
@@ -77,20 +219,68 @@ public class SentenceBatchScheduler extends AbstractScheduler<SentenceBatchSched
             this.suggestions = suggestions;
 
             Priority priority = null;
+            long deadline = 0L;
+            int tokens = 0;
             for (TranslationSplit split : splits) {
                 if (priority == null || priority.intValue > split.priority.intValue)
                     priority = split.priority;
+                if (split.getExpiration() > 0 && (deadline == 0L || deadline > split.getExpiration()))
+                    deadline = split.getExpiration();
+                tokens += split.sentence.getWords().length;
             }
             this.priority = priority;
+            this.user = splits.get(0).user;
+            this.deadline = deadline;
+            this.tokens = tokens;
         }
 
         @Override
         public void onStartWaitingInQueue(int queueSize) {
             this.timestamp = System.currentTimeMillis();
+            this.sequence = sequenceGenerator.incrementAndGet();
             for (TranslationSplit split : splits)
                 split.onStartWaitingInQueue(queueSize, this.timestamp);
         }
 
+        public Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public UUID getUser() {
+            return user;
+        }
+
+        /**
+         * @return the virtual start time assigned by the {@link FairScheduler}
+         */
+        public double getVirtualStart() {
+            return virtualStart;
+        }
+
+        void setVirtualStart(double virtualStart) {
+            this.virtualStart = virtualStart;
+        }
+
+        /**
+         * @return the earliest expiration of the job splits, or zero if the job never expires
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public boolean isExpired(long now) {
+            return deadline > 0 && deadline < now;
+        }
+
+        public int getTokens() {
+            return tokens;
+        }
+
         @Override
         public LanguageDirection getLanguageDirection() {
             return direction;
@@ -118,9 +308,10 @@ public class SentenceBatchScheduler extends AbstractScheduler<SentenceBatchSched
 
         @Override
         public int compareTo(JobImpl o) {
-            if (priority == o.priority)
-                return Long.compare(timestamp, o.timestamp);
-            else
+            if (priority == o.priority) {
+                int c = Long.compare(timestamp, o.timestamp);
+                return c == 0 ? Long.compare(sequence, o.sequence) : c;
+            } else
                 return Integer.compare(priority.intValue, o.priority.intValue);
         }
     }
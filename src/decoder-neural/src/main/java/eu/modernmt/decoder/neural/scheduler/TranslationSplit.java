@@ -6,9 +6,12 @@ import eu.modernmt.model.Priority;
 import eu.modernmt.model.Sentence;
 import eu.modernmt.model.Translation;
 
+import java.util.UUID;
+
 public class TranslationSplit {
 
     public final Priority priority;
+    public final UUID user;
     public final Sentence sentence;
     public final String[] reference;
 
@@ -22,13 +25,23 @@ public class TranslationSplit {
     private long translationEnd = 0;
 
     private Scheduler.TranslationLock lock;
+    private volatile boolean abandoned = false;
 
     public TranslationSplit(Priority priority, Sentence sentence, long expiration) {
-        this(priority, sentence, null, expiration);
+        this(priority, null, sentence, null, expiration);
     }
 
     public TranslationSplit(Priority priority, Sentence sentence, String[] reference, long expiration) {
+        this(priority, null, sentence, reference, expiration);
+    }
+
+    public TranslationSplit(Priority priority, UUID user, Sentence sentence, long expiration) {
+        this(priority, user, sentence, null, expiration);
+    }
+
+    public TranslationSplit(Priority priority, UUID user, Sentence sentence, String[] reference, long expiration) {
         this.priority = priority;
+        this.user = user;
         this.sentence = sentence;
         this.reference = reference;
         this.expiration = expiration;
@@ -43,6 +56,22 @@ public class TranslationSplit {
             throw new TranslationTimeoutException();
     }
 
+    /**
+     * Tells that the translation of this split is not needed anymore by its owner:
+     * if it has not started yet, the split is not translated.
+     */
+    public void abandon() {
+        this.abandoned = true;
+    }
+
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+
+    public long getExpiration() {
+        return expiration;
+    }
+
     public void onStartWaitingInQueue(int queueSize, long timestamp) {
         this.queueSize = queueSize;
         this.qWaitingBegin = timestamp;
@@ -14,6 +14,10 @@ def main(argv=None):
     parser.add_argument('-l', '--log-level', dest='log_level', metavar='LEVEL', help='select the log level',
                         choices=['critical', 'error', 'warning', 'info', 'debug'], default='info')
     parser.add_argument('-g', '--gpu', dest='gpu', help='specify the GPU to use (default none)', default=None, type=int)
+    parser.add_argument('--protocol', dest='protocol', help='select the wire protocol (default json)',
+                        choices=['json', 'binary'], default='json')
+    parser.add_argument('--pipeline', dest='pipeline', action='store_true', default=False,
+                        help='accept new requests while still decoding the previous ones')
 
     args = parser.parse_args(argv)
 
@@ -41,7 +45,7 @@ def main(argv=None):
         stdout.flush()
         raise
 
-    utils.serve_forever(sys.stdin, stdout, decoder)
+    utils.serve_forever(sys.stdin, stdout, decoder, protocol=args.protocol, pipeline=args.pipeline)
 
 
 if __name__ == '__main__':
@@ -1,6 +1,9 @@
 import json
 import logging
+import queue
+import struct
 import sys
+import threading
 
 from mmt.decoder import Translation, Suggestion
 
@@ -60,8 +63,10 @@ class TranslationRequest(object):
 
     @staticmethod
     def from_json_string(json_string):
-        obj = json.loads(json_string)
+        return TranslationRequest.from_json(json.loads(json_string))
 
+    @staticmethod
+    def from_json(obj):
         if len(obj) == 0:
             return TranslationRequest(None, None, None)  # Test request
 
@@ -92,22 +97,27 @@ class TranslationRequest(object):
 
 class TranslationResponse(object):
     @staticmethod
-    def to_json_string(obj):
+    def to_json_string(obj, request_id=None):
         if isinstance(obj, BaseException):
-            return TranslationResponse.__error_to_json_string(obj)
+            payload = TranslationResponse.__error_to_json(obj)
         else:
-            return TranslationResponse.__translations_to_json_string(obj)
+            payload = TranslationResponse.__translations_to_json(obj)
+
+        if request_id is not None:
+            payload['id'] = request_id
+
+        return json.dumps(payload).replace('\n', ' ')
 
     @staticmethod
-    def __error_to_json_string(cause):
-        return json.dumps({
+    def __error_to_json(cause):
+        return {
             'success': False,
             'type': 'UnknownError' if isinstance(cause, str) else type(cause).__name__,
             'msg': cause if isinstance(cause, str) else str(cause)
-        }).replace('\n', ' ')
+        }
 
     @staticmethod
-    def __translations_to_json_string(translations):
+    def __translations_to_json(translations):
         def __encode_alignment(a):
             return [[e[0] for e in a], [e[1] for e in a]] if a is not None else None
 
@@ -122,41 +132,303 @@ class TranslationResponse(object):
 
             return payload
 
-        return json.dumps({
+        return {
             'success': True,
             'data': [__to_json(translation) for translation in translations],
-        }).replace('\n', ' ')
+        }
+
+
+class BinaryTranslationRequest(object):
+    # Request opcodes, see eu.modernmt.decoder.neural.queue.BinaryProtocol
+    OP_TEST = 0
+    OP_TRANSLATE = 1
+    OP_ALIGN = 2
+
+    @staticmethod
+    def from_bytes(payload, offset=0):
+        reader = _FrameReader(payload, offset)
+        op = reader.read_byte()
+
+        if op == BinaryTranslationRequest.OP_TEST:
+            return TranslationRequest(None, None, None)  # Test request
+        if op != BinaryTranslationRequest.OP_TRANSLATE and op != BinaryTranslationRequest.OP_ALIGN:
+            raise ValueError('Invalid request opcode: %d' % op)
+
+        source_lang = reader.read_string()
+        target_lang = reader.read_string()
+
+        batch = [' '.join(reader.read_strings()) for _ in range(reader.read_int())]
+
+        forced_translation = None
+        if op == BinaryTranslationRequest.OP_ALIGN:
+            forced_translation = [' '.join(reader.read_strings()) for _ in range(len(batch))]
+
+        suggestions = []
+        for _ in range(reader.read_int()):
+            sugg_sl = reader.read_string()
+            sugg_tl = reader.read_string()
+            sugg_seg = ' '.join(reader.read_strings())
+            sugg_tra = ' '.join(reader.read_strings())
+            sugg_scr = reader.read_float()
+
+            suggestions.append(Suggestion(sugg_sl, sugg_tl, sugg_seg, sugg_tra, sugg_scr))
+
+        return TranslationRequest(source_lang, target_lang, batch,
+                                  suggestions=suggestions, forced_translation=forced_translation)
+
+
+class BinaryTranslationResponse(object):
+    STATUS_ERROR = 0
+    STATUS_SUCCESS = 1
+
+    @staticmethod
+    def to_bytes(obj):
+        if isinstance(obj, BaseException):
+            return BinaryTranslationResponse.__error_to_bytes(obj)
+        else:
+            return BinaryTranslationResponse.__translations_to_bytes(obj)
+
+    @staticmethod
+    def __error_to_bytes(cause):
+        error_type = 'UnknownError' if isinstance(cause, str) else type(cause).__name__
+        message = cause if isinstance(cause, str) else str(cause)
+
+        return struct.pack('>b', BinaryTranslationResponse.STATUS_ERROR) + \
+            _encode_string(error_type) + _encode_string(message)
+
+    @staticmethod
+    def __translations_to_bytes(translations):
+        chunks = [struct.pack('>bi', BinaryTranslationResponse.STATUS_SUCCESS, len(translations))]
+
+        for translation in translations:
+            chunks.append(_encode_strings([token for token in translation.text.split(' ') if len(token) > 0]))
+
+            alignment = translation.alignment
+            if alignment is None:
+                chunks.append(struct.pack('>i', -1))
+            else:
+                size = len(alignment)
+                chunks.append(struct.pack('>i', size))
+                chunks.append(struct.pack('>%di' % size, *[e[0] for e in alignment]))
+                chunks.append(struct.pack('>%di' % size, *[e[1] for e in alignment]))
+
+        return b''.join(chunks)
+
+
+class _FrameReader(object):
+    def __init__(self, payload, offset=0):
+        self._payload = payload
+        self._offset = offset
+
+    def _unpack(self, fmt):
+        value, = struct.unpack_from(fmt, self._payload, self._offset)
+        self._offset += struct.calcsize(fmt)
+        return value
+
+    def read_byte(self):
+        return self._unpack('>b')
+
+    def read_int(self):
+        return self._unpack('>i')
+
+    def read_float(self):
+        return self._unpack('>f')
+
+    def read_string(self):
+        length = self.read_int()
+        value = self._payload[self._offset:self._offset + length].decode('utf-8')
+        self._offset += length
+        return value
+
+    def read_strings(self):
+        return [self.read_string() for _ in range(self.read_int())]
 
 
-def serve_forever(stdin, stdout, decoder):
-    stdout.write('READY\n')
-    stdout.flush()
+def _encode_string(string):
+    data = string.encode('utf-8')
+    return struct.pack('>i', len(data)) + data
 
+
+def _encode_strings(strings):
+    return struct.pack('>i', len(strings)) + b''.join(_encode_string(s) for s in strings)
+
+
+def _read_frame(stream):
+    header = stream.read(4)
+    if len(header) < 4:
+        return None
+
+    length, = struct.unpack('>i', header)
+    payload = stream.read(length)
+    if len(payload) < length:
+        return None
+
+    return payload
+
+
+class _JsonChannel(object):
+    def __init__(self, stdin, stdout, pipelined):
+        self._stdin = stdin
+        self._stdout = stdout
+        self._pipelined = pipelined
+
+    def handshake(self):
+        self._stdout.write('READY\n')
+        self._stdout.flush()
+
+    def read(self):
+        line = self._stdin.readline()
+        if not line:
+            return None
+
+        obj = json.loads(line)
+        request_id = obj.pop('id', None) if self._pipelined else None
+
+        return request_id, TranslationRequest.from_json(obj)
+
+    def write(self, request_id, obj):
+        self._stdout.write(TranslationResponse.to_json_string(obj, request_id) + '\n')
+        self._stdout.flush()
+
+
+class _BinaryChannel(object):
+    def __init__(self, stdin, stdout, pipelined):
+        self._stdin = stdin
+        self._stdout = stdout
+        self._pipelined = pipelined
+
+    def handshake(self):
+        # The handshake line is the last text written on stdout, then only length-prefixed frames follow
+        self._stdout.write('READY binary\n')
+        self._stdout.flush()
+
+        self._stdin = self._stdin.buffer
+        self._stdout = self._stdout.buffer
+
+    def read(self):
+        payload = _read_frame(self._stdin)
+        if payload is None:
+            return None
+
+        if self._pipelined:
+            request_id, = struct.unpack_from('>q', payload, 0)
+            return request_id, BinaryTranslationRequest.from_bytes(payload, 8)
+        else:
+            return None, BinaryTranslationRequest.from_bytes(payload)
+
+    def write(self, request_id, obj):
+        payload = BinaryTranslationResponse.to_bytes(obj)
+        if request_id is not None:
+            payload = struct.pack('>q', request_id) + payload
+
+        self._stdout.write(struct.pack('>i', len(payload)))
+        self._stdout.write(payload)
+        self._stdout.flush()
+
+
+def _serve(decoder, request):
+    if request.batch is None:
+        decoder.test()
+        return []
+    else:
+        return decoder.translate(request.source_lang, request.target_lang, request.batch,
+                                 suggestions=request.suggestions,
+                                 forced_translation=request.forced_translation)
+
+
+def serve_forever(stdin, stdout, decoder, protocol='json', pipeline=False):
+    channel_class = _BinaryChannel if protocol == 'binary' else _JsonChannel
+    channel = channel_class(stdin, stdout, pipeline)
+    channel.handshake()
+
+    if pipeline:
+        __serve_forever_pipelined(channel, decoder)
+    else:
+        __serve_forever_sequential(channel, decoder)
+
+
+def __serve_forever_sequential(channel, decoder):
     try:
         while True:
-            line = stdin.readline()
-            if not line:
+            message = channel.read()
+            if message is None:
                 break
 
-            request = TranslationRequest.from_json_string(line)
+            request_id, request = message
+            channel.write(request_id, _serve(decoder, request))
+    except KeyboardInterrupt:
+        pass  # ignore and exit
+    except BaseException as e:
+        channel.write(None, e)
+
+        exit(1)
 
-            if request.batch is None:
-                decoder.test()
-                translations = []
-            else:
-                translations = decoder.translate(request.source_lang, request.target_lang, request.batch,
-                                                 suggestions=request.suggestions,
-                                                 forced_translation=request.forced_translation)
 
-            response = TranslationResponse.to_json_string(translations)
+def __serve_forever_pipelined(channel, decoder):
+    # Requests are read and responses are written by dedicated threads,
+    # so that (de)serialization and I/O overlap with the decoder computation
+    requests = queue.Queue(maxsize=64)
+    responses = queue.Queue(maxsize=64)
+
+    def __read_loop():
+        try:
+            while True:
+                message = channel.read()
+                requests.put(message)
 
-            stdout.write(response + '\n')
-            stdout.flush()
+                if message is None:
+                    break
+        except BaseException as e:
+            requests.put(e)
+
+    def __write_loop():
+        try:
+            while True:
+                message = responses.get()
+                if message is None:
+                    break
+
+                channel.write(*message)
+        except BaseException as e:
+            # the channel is broken: stop serving, then drain the responses until the main loop ends
+            requests.put(e)
+
+            while responses.get() is not None:
+                pass
+
+    reader = threading.Thread(target=__read_loop, daemon=True)
+    writer = threading.Thread(target=__write_loop)
+    reader.start()
+    writer.start()
+
+    exit_code = 0
+
+    try:
+        while True:
+            message = requests.get()
+            if message is None:
+                break
+            if isinstance(message, BaseException):
+                raise message
+
+            # an error of a single request is sent to its caller, the following requests are still served
+            request_id, request = message
+            try:
+                response = _serve(decoder, request)
+            except KeyboardInterrupt:
+                raise
+            except BaseException as e:
+                response = e
+
+            responses.put((request_id, response))
     except KeyboardInterrupt:
         pass  # ignore and exit
     except BaseException as e:
-        response = TranslationResponse.to_json_string(e)
-        stdout.write(response + '\n')
-        stdout.flush()
+        responses.put((None, e))
+        exit_code = 1
 
-        exit(1)
+    responses.put(None)
+    writer.join()
+
+    if exit_code != 0:
+        exit(exit_code)
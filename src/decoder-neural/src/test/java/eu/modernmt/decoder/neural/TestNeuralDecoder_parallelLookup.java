@@ -0,0 +1,225 @@
+package eu.modernmt.decoder.neural;
+
+import eu.modernmt.config.DecoderConfig;
+import eu.modernmt.decoder.DecoderException;
+import eu.modernmt.io.TokensOutputStream;
+import eu.modernmt.lang.LanguageDirection;
+import eu.modernmt.memory.ScoreEntry;
+import eu.modernmt.memory.TranslationMemory;
+import eu.modernmt.model.*;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestNeuralDecoder_parallelLookup {
+
+    private static final ContextVector CONTEXT = new ContextVector.Builder().add(1L, 1.f).build();
+
+    private File model;
+    private TNeuralDecoder decoder;
+
+    @Before
+    public void setup() throws IOException {
+        model = Files.createTempDirectory("TestNeuralDecoder_parallelLookup").toFile();
+        FileUtils.writeStringToFile(new File(model, "model.conf"), "[models]\nen__it = model\n", "UTF-8");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        if (decoder != null)
+            decoder.close();
+        decoder = null;
+
+        FileUtils.deleteDirectory(model);
+    }
+
+    private static String text(Sentence sentence) {
+        return TokensOutputStream.serialize(sentence, false, true);
+    }
+
+    private static ScoreEntry entry(String source, String target, float score) {
+        ScoreEntry entry = new ScoreEntry(1L, EN__IT, source.split(" "), target.split(" "));
+        entry.score = score;
+        return entry;
+    }
+
+    private String translate(String text) throws DecoderException {
+        Translation translation = decoder.translate(Priority.NORMAL, null, EN__IT, sentence(text), CONTEXT, 0L);
+        return TokensOutputStream.serialize(translation, false, true);
+    }
+
+    @Test
+    public void sequentialLookupUsesWholeTextSuggestions() throws Throwable {
+        decoder = new TNeuralDecoder(model, 0);
+        decoder.suggestions.put("hello world .", new ScoreEntry[]{entry("hello world .", "ciao mondo .", .5f)});
+
+        assertEquals("hello world . the test .", translate("hello world . the test ."));
+        assertEquals(Collections.singletonList("hello world . the test ."), decoder.queries);
+    }
+
+    @Test
+    public void parallelLookupUsesSplitSuggestions() throws Throwable {
+        decoder = new TNeuralDecoder(model, 2);
+        decoder.suggestions.put("hello world .", new ScoreEntry[]{entry("hello world .", "ciao mondo .", .5f)});
+
+        assertEquals("ciao mondo . the test .", translate("hello world . the test ."));
+        assertEquals(2, decoder.queries.size());
+        assertEquals(Collections.singletonList("hello world . the test ."), decoder.exactMatchQueries);
+    }
+
+    @Test
+    public void parallelLookupRunsConcurrently() throws Throwable {
+        decoder = new TNeuralDecoder(model, 5);
+        decoder.lookupDelay = 100L;
+
+        assertEquals("a . b . c . d .", translate("a . b . c . d ."));
+        assertTrue(decoder.maxConcurrentLookups.get() > 1);
+    }
+
+    @Test
+    public void wholeTextExactMatchIsAligned() throws Throwable {
+        decoder = new TNeuralDecoder(model, 2);
+        decoder.suggestions.put("hello world . the test .", new ScoreEntry[]{entry("hello world . the test .", "ciao mondo . il test .", 1.f)});
+        decoder.suggestions.put("hello world .", new ScoreEntry[]{entry("hello world .", "salve mondo .", .5f)});
+
+        assertEquals("ciao mondo . il test .", translate("hello world . the test ."));
+    }
+
+    @Test
+    public void slowWholeTextExactMatchIsAligned() throws Throwable {
+        decoder = new TNeuralDecoder(model, 3);
+        decoder.exactMatchDelay = 200L;
+        decoder.suggestions.put("hello world . the test .", new ScoreEntry[]{entry("hello world . the test .", "ciao mondo . il test .", 1.f)});
+
+        assertEquals("ciao mondo . il test .", translate("hello world . the test ."));
+    }
+
+    @Test
+    public void failedSplitLookup() throws Throwable {
+        decoder = new TNeuralDecoder(model, 2);
+        decoder.failingQueries.add("the test .");
+
+        try {
+            translate("hello world . the test .");
+            fail("Expected DecoderException");
+        } catch (DecoderException e) {
+            assertEquals("lookup failed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void splitExactMatchIsAligned() throws Throwable {
+        decoder = new TNeuralDecoder(model, 2);
+        decoder.suggestions.put("the test .", new ScoreEntry[]{entry("the test .", "il test .", 1.f)});
+
+        assertEquals("hello world . il test .", translate("hello world . the test ."));
+    }
+
+    private static class TInitializer extends DefaultDecoderInitializer {
+
+        @Override
+        public TranslationMemory createTranslationMemory(DecoderConfig config, ModelConfig modelConfig, File model) {
+            return null;
+        }
+
+    }
+
+    private static class TNeuralDecoder extends NeuralDecoder {
+
+        private final Map<String, ScoreEntry[]> suggestions = new ConcurrentHashMap<>();
+        private final List<String> queries = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> exactMatchQueries = Collections.synchronizedList(new ArrayList<>());
+        private final Set<String> failingQueries = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger concurrentLookups = new AtomicInteger(0);
+        private final AtomicInteger maxConcurrentLookups = new AtomicInteger(0);
+        private volatile long lookupDelay = 0L;
+        private volatile long exactMatchDelay = 0L;
+
+        TNeuralDecoder(File model, int lookupThreads) throws DecoderException {
+            super(model, config(lookupThreads), new TInitializer());
+        }
+
+        private static DecoderConfig config(int lookupThreads) {
+            DecoderConfig config = new DecoderConfig(null);
+            config.setEchoServer(true);
+            config.setLookupThreads(lookupThreads);
+            return config;
+        }
+
+        @Override
+        public boolean isLanguageSupported(LanguageDirection language) {
+            return true;
+        }
+
+        @Override
+        protected List<Sentence> split(Sentence sentence) {
+            ArrayList<Sentence> result = new ArrayList<>();
+            ArrayList<Word> words = new ArrayList<>();
+
+            for (Word word : sentence.getWords()) {
+                words.add(word);
+                if (".".equals(word.getPlaceholder())) {
+                    result.add(new Sentence(words.toArray(new Word[0])));
+                    words.clear();
+                }
+            }
+
+            if (!words.isEmpty())
+                result.add(new Sentence(words.toArray(new Word[0])));
+
+            return result;
+        }
+
+        @Override
+        protected ScoreEntry lookupExactMatch(UUID user, LanguageDirection direction, Sentence text, ContextVector contextVector) {
+            String query = text(text);
+            exactMatchQueries.add(query);
+
+            try {
+                if (exactMatchDelay > 0)
+                    Thread.sleep(exactMatchDelay);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+
+            ScoreEntry[] entries = suggestions.get(query);
+            return entries != null && entries[0].score == 1.f ? entries[0] : null;
+        }
+
+        @Override
+        protected ScoreEntry[] lookup(UUID user, LanguageDirection direction, Sentence text, ContextVector contextVector) throws DecoderException {
+            String query = text(text);
+            queries.add(query);
+
+            if (failingQueries.contains(query))
+                throw new DecoderException("lookup failed");
+
+            int concurrent = concurrentLookups.incrementAndGet();
+            maxConcurrentLookups.accumulateAndGet(concurrent, Math::max);
+
+            try {
+                if (lookupDelay > 0)
+                    Thread.sleep(lookupDelay);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                concurrentLookups.decrementAndGet();
+            }
+
+            return suggestions.get(query);
+        }
+
+    }
+
+}
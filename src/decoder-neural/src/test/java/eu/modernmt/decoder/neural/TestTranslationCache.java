@@ -0,0 +1,149 @@
+package eu.modernmt.decoder.neural;
+
+import eu.modernmt.data.DataBatch;
+import eu.modernmt.data.Deletion;
+import eu.modernmt.data.TranslationUnit;
+import eu.modernmt.io.TokensOutputStream;
+import eu.modernmt.model.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestTranslationCache {
+
+    private static final UUID USER = UUID.randomUUID();
+    private static final ContextVector CONTEXT_1 = new ContextVector.Builder().add(1L, 1.f).build();
+    private static final ContextVector CONTEXT_2 = new ContextVector.Builder().add(2L, 1.f).build();
+
+    private TranslationCache cache;
+
+    @Before
+    public void setup() {
+        this.cache = new TranslationCache(100);
+    }
+
+    private static Translation translation(Sentence source, String text) {
+        Word[] words = sentence(text).getWords();
+        return new Translation(words, source, new Alignment(new int[]{0, 1}, new int[]{0, 1}));
+    }
+
+    private static DataBatch batch(Collection<TranslationUnit> units, Collection<Deletion> deletions) {
+        return new DataBatch() {
+            @Override
+            public Collection<TranslationUnit> getTranslationUnits() {
+                return units;
+            }
+
+            @Override
+            public Collection<Deletion> getDeletions() {
+                return deletions;
+            }
+
+            @Override
+            public Map<Short, Long> getChannelPositions() {
+                return Collections.emptyMap();
+            }
+        };
+    }
+
+    private TranslationCache.Key put(Sentence source, ContextVector context, String translation) {
+        TranslationCache.Key key = cache.key(EN__IT, USER, source, context);
+        cache.put(key, translation(source, translation), cache.epoch());
+        return key;
+    }
+
+    @Test
+    public void hitOnSameTokens() {
+        put(sentence("hello world"), CONTEXT_1, "ciao mondo");
+
+        Sentence request = sentence("hello world");
+        Translation cached = cache.get(cache.key(EN__IT, USER, request, CONTEXT_1), request);
+
+        assertNotNull(cached);
+        assertEquals("ciao mondo", TokensOutputStream.serialize(cached, false, true));
+        assertSame(request, cached.getSource());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void missOnDifferentKey() {
+        Sentence source = sentence("hello world");
+        put(source, CONTEXT_1, "ciao mondo");
+
+        assertNull(cache.get(cache.key(EN__IT, USER, source, CONTEXT_2), source));
+        assertNull(cache.get(cache.key(EN__IT, USER, source, null), source));
+        assertNull(cache.get(cache.key(EN__IT, null, source, CONTEXT_1), source));
+        assertNull(cache.get(cache.key(EN__FR, USER, source, CONTEXT_1), source));
+        assertNull(cache.get(cache.key(EN__IT, USER, sentence("hello"), CONTEXT_1), source));
+        assertEquals(5, cache.getMissCount());
+    }
+
+    @Test
+    public void returnedTranslationsAreCopies() {
+        Sentence source = sentence("hello world");
+        TranslationCache.Key key = put(source, CONTEXT_1, "ciao mondo");
+
+        Translation first = cache.get(key, source);
+        first.getWords()[0].setPlaceholder("salve");
+        first.getWordAlignment().getSourceIndexes()[0] = 1;
+
+        Translation second = cache.get(key, source);
+        assertEquals("ciao mondo", TokensOutputStream.serialize(second, false, true));
+        assertEquals(0, second.getWordAlignment().getSourceIndexes()[0]);
+    }
+
+    @Test
+    public void invalidateOnMemoryUpdate() {
+        Sentence source = sentence("hello world");
+        TranslationCache.Key key1 = put(source, CONTEXT_1, "ciao mondo");
+        TranslationCache.Key key2 = put(source, CONTEXT_2, "ciao mondo");
+        TranslationCache.Key key3 = put(source, null, "ciao mondo");
+
+        cache.invalidate(batch(tuList(1L, EN__IT, 1), Collections.emptyList()));
+
+        assertNull(cache.get(key1, source));
+        assertNotNull(cache.get(key2, source));
+        assertNotNull(cache.get(key3, source));
+        assertEquals(1, cache.getInvalidationCount());
+    }
+
+    @Test
+    public void invalidateOnMemoryDeletion() {
+        Sentence source = sentence("hello world");
+        TranslationCache.Key key = put(source, CONTEXT_2, "ciao mondo");
+
+        cache.invalidate(batch(Collections.emptyList(), Collections.singleton(new Deletion((short) 0, 0L, 2L))));
+
+        assertNull(cache.get(key, source));
+    }
+
+    @Test
+    public void ignoreStalePut() {
+        Sentence source = sentence("hello world");
+        TranslationCache.Key key = cache.key(EN__IT, USER, source, CONTEXT_1);
+        long epoch = cache.epoch();
+
+        cache.invalidate(batch(tuList(1L, EN__IT, 1), Collections.emptyList()));
+        cache.put(key, translation(source, "ciao mondo"), epoch);
+
+        assertNull(cache.get(key, source));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        cache = new TranslationCache(1);
+
+        Sentence source = sentence("hello world");
+        TranslationCache.Key key1 = put(source, CONTEXT_1, "ciao mondo");
+        TranslationCache.Key key2 = put(source, CONTEXT_2, "ciao mondo");
+
+        assertNull(cache.get(key1, source));
+        assertNotNull(cache.get(key2, source));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+}
@@ -0,0 +1,91 @@
+package eu.modernmt.decoder.neural.memory;
+
+import eu.modernmt.decoder.neural.memory.lucene.query.rescoring.F1BleuCalculator;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Compares the F1-BLEU implementations on rescoring requests of a few hundred suggestions,
+ * reporting the time and the memory allocated per request.
+ * <p>
+ * Usage: [candidates] [requests]
+ */
+public class BenchmarkF1BleuCalculator {
+
+    private interface Request {
+
+        float run(String[] reference, String[][] candidates);
+
+    }
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // prevents the JIT from removing the computation
+    private static float sink = 0;
+
+    public static void main(String[] args) {
+        int candidatesCount = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        Random random = new Random(42);
+        String[] reference = TestF1BleuCalculator.randomSentence(random, 500, 40);
+        String[][] candidates = new String[candidatesCount][];
+        for (int i = 0; i < candidatesCount; i++)
+            candidates[i] = TestF1BleuCalculator.randomSentence(random, 500, 40);
+
+        Request hashMap = (ref, cands) -> {
+            HashMapF1BleuCalculator calculator = new HashMapF1BleuCalculator(ref);
+            float sum = 0;
+            for (String[] candidate : cands)
+                sum += calculator.calc(candidate);
+            return sum;
+        };
+
+        Request ids = (ref, cands) -> {
+            F1BleuCalculator calculator = new F1BleuCalculator(ref);
+            float sum = 0;
+            for (String[] candidate : cands)
+                sum += calculator.calc(candidate);
+            return sum;
+        };
+
+        F1BleuCalculator shared = new F1BleuCalculator();
+        Request reused = (ref, cands) -> {
+            shared.setReference(ref);
+            float sum = 0;
+            for (String[] candidate : cands)
+                sum += shared.calc(candidate);
+            return sum;
+        };
+
+        for (int round = 0; round < 2; round++) {
+            boolean warmup = round == 0;
+            run("hashmap", hashMap, reference, candidates, requests, warmup);
+            run("int-ids", ids, reference, candidates, requests, warmup);
+            run("int-ids-reused", reused, reference, candidates, requests, warmup);
+        }
+
+        if (sink == 42)
+            System.out.println();
+    }
+
+    private static void run(String name, Request request, String[] reference, String[][] candidates, int requests, boolean warmup) {
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long begin = System.nanoTime();
+
+        for (int i = 0; i < requests; i++)
+            sink += request.run(reference, candidates);
+
+        long elapsed = System.nanoTime() - begin;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+        if (!warmup) {
+            System.out.printf("%-18s %10.1f us/request %12d bytes/request%n",
+                    name, elapsed / 1000. / requests, allocated / requests);
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package eu.modernmt.decoder.neural.memory;
+
+import eu.modernmt.decoder.neural.memory.lucene.query.rescoring.LevenshteinRescorer;
+import eu.modernmt.decoder.neural.memory.lucene.query.rescoring.Rescorer;
+import eu.modernmt.memory.ScoreEntry;
+import eu.modernmt.model.ContextVector;
+import eu.modernmt.model.Sentence;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static eu.modernmt.decoder.neural.memory.TestData.EN__IT;
+
+/**
+ * Compares the Levenshtein rescorers on rescoring requests of a few hundred suggestions,
+ * with short (bit-parallel) and long (banded) sentences, reporting the time and the memory
+ * allocated per request.
+ * <p>
+ * Usage: [candidates] [requests] [limit]
+ */
+public class BenchmarkLevenshteinRescorer {
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // prevents the JIT from removing the computation
+    private static float sink = 0;
+
+    public static void main(String[] args) {
+        int candidatesCount = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int limit = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        ContextVector context = ContextVector.fromString("1:1,2:0.5,3:0.2");
+        Rescorer dynamicProgramming = new DynamicProgrammingLevenshteinRescorer();
+        Rescorer bitParallel = new LevenshteinRescorer();
+
+        for (int maxLength : new int[]{40, 150}) {
+            Random random = new Random(42);
+            Sentence input = TestData.sentence(String.join(" ", sentence(random, maxLength)));
+            ScoreEntry[] candidates = new ScoreEntry[candidatesCount];
+            for (int i = 0; i < candidatesCount; i++)
+                candidates[i] = new ScoreEntry(1 + random.nextInt(4), EN__IT, sentence(random, maxLength), new String[]{"t"});
+
+            System.out.println("sentences up to " + maxLength + " tokens:");
+
+            for (int round = 0; round < 2; round++) {
+                boolean warmup = round == 0;
+                run("dynamic-program", dynamicProgramming, input, candidates, context, limit, requests, warmup);
+                run("bit-parallel", bitParallel, input, candidates, context, limit, requests, warmup);
+                run("bit-parallel-all", bitParallel, input, candidates, context, candidatesCount, requests, warmup);
+            }
+        }
+
+        if (sink == 42)
+            System.out.println();
+    }
+
+    private static String[] sentence(Random random, int maxLength) {
+        String[] sentence = TestF1BleuCalculator.randomSentence(random, 500, maxLength);
+        return sentence.length == 0 ? new String[]{"w0"} : sentence;
+    }
+
+    private static void run(String name, Rescorer rescorer, Sentence input, ScoreEntry[] candidates, ContextVector context,
+                            int limit, int requests, boolean warmup) {
+        ScoreEntry[] entries = candidates.clone();
+
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long begin = System.nanoTime();
+
+        for (int i = 0; i < requests; i++) {
+            // rescorers sort in place, the order of candidates is restored at every request
+            System.arraycopy(candidates, 0, entries, 0, entries.length);
+            sink += rescorer.rescore(EN__IT, input, entries, context, limit)[0].score;
+        }
+
+        long elapsed = System.nanoTime() - begin;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+        if (!warmup) {
+            System.out.printf("%-18s %10.1f us/request %12d bytes/request%n",
+                    name, elapsed / 1000. / requests, allocated / requests);
+        }
+    }
+
+}
@@ -5,10 +5,15 @@ import eu.modernmt.data.Deletion;
 import eu.modernmt.data.TranslationUnit;
 import eu.modernmt.decoder.neural.memory.lucene.DocumentBuilder;
 import eu.modernmt.decoder.neural.memory.lucene.LuceneTranslationMemory;
+import eu.modernmt.decoder.neural.memory.lucene.analysis.DefaultAnalyzerFactory;
+import eu.modernmt.decoder.neural.memory.lucene.query.DefaultQueryBuilder;
 import eu.modernmt.decoder.neural.memory.lucene.query.QueryBuilder;
+import eu.modernmt.decoder.neural.memory.lucene.query.rescoring.F1BleuRescorer;
 import eu.modernmt.io.RuntimeIOException;
 import eu.modernmt.memory.ScoreEntry;
 import eu.modernmt.memory.TranslationMemory;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.RAMDirectory;
 
 import java.io.IOException;
@@ -20,7 +25,19 @@ import java.util.*;
 public class TLuceneTranslationMemory extends LuceneTranslationMemory {
 
     public TLuceneTranslationMemory() throws IOException {
-        super(new RAMDirectory(), 10);
+        this(new RAMDirectory());
+    }
+
+    public TLuceneTranslationMemory(Directory directory) throws IOException {
+        super(directory, 10);
+
+        // every batch is committed, so that its channel positions are reported right away
+        setCommitPolicy(DEFAULT_MAX_COMMIT_DELAY, 1);
+    }
+
+    public TLuceneTranslationMemory(Directory directory, DocumentBuilder documentBuilder) throws IOException {
+        super(directory, documentBuilder, new DefaultQueryBuilder(), new F1BleuRescorer(), new DefaultAnalyzerFactory(), 10);
+        setCommitPolicy(DEFAULT_MAX_COMMIT_DELAY, 1);
     }
 
     public DocumentBuilder getDocumentBuilder() {
@@ -34,7 +51,12 @@ public class TLuceneTranslationMemory extends LuceneTranslationMemory {
     @Override
     public int size() {
         try {
-            return getIndexReader().numDocs();
+            IndexSearcher searcher = acquireIndexSearcher();
+            try {
+                return searcher.getIndexReader().numDocs();
+            } finally {
+                releaseIndexSearcher(searcher);
+            }
         } catch (IOException e) {
             throw new RuntimeIOException(e);
         }
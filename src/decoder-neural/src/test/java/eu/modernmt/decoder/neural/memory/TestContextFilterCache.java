@@ -0,0 +1,172 @@
+package eu.modernmt.decoder.neural.memory;
+
+import eu.modernmt.data.TranslationUnit;
+import eu.modernmt.decoder.neural.memory.lucene.query.ContextFilterCache;
+import eu.modernmt.memory.ScoreEntry;
+import eu.modernmt.model.ContextVector;
+import org.apache.lucene.search.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestContextFilterCache {
+
+    private TLuceneTranslationMemory memory;
+
+    @Before
+    public void setup() throws Throwable {
+        memory = new TLuceneTranslationMemory();
+    }
+
+    @After
+    public void teardown() throws Throwable {
+        memory.close();
+    }
+
+    private Filter newFilter(ContextVector context) {
+        return memory.getQueryBuilder().getContextFilter(memory.getDocumentBuilder(), context);
+    }
+
+    private static Set<Long> memories(ScoreEntry[] entries) {
+        HashSet<Long> result = new HashSet<>();
+        for (ScoreEntry entry : entries)
+            result.add(entry.memory);
+        return result;
+    }
+
+    @Test
+    public void filterIsSharedBySameMemories() {
+        ContextFilterCache cache = new ContextFilterCache(10, Long.MAX_VALUE);
+
+        Filter filter = cache.get(ContextVector.fromString("1:1,2:0.5"), this::newFilter);
+        assertSame(filter, cache.get(ContextVector.fromString("2:0.1,1:0.9"), this::newFilter));
+        assertNotSame(filter, cache.get(ContextVector.fromString("1:1,3:0.5"), this::newFilter));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        ContextFilterCache cache = new ContextFilterCache(2, Long.MAX_VALUE);
+
+        Filter filter1 = cache.get(ContextVector.fromString("1:1"), this::newFilter);
+        Filter filter2 = cache.get(ContextVector.fromString("2:1"), this::newFilter);
+        assertSame(filter1, cache.get(ContextVector.fromString("1:1"), this::newFilter));
+
+        cache.get(ContextVector.fromString("3:1"), this::newFilter);
+        assertEquals(2, cache.size());
+
+        assertSame(filter1, cache.get(ContextVector.fromString("1:1"), this::newFilter));
+        assertNotSame(filter2, cache.get(ContextVector.fromString("2:1"), this::newFilter));
+    }
+
+    @Test
+    public void memoryBoundEnforcedWhenSegmentsAreCached() throws Throwable {
+        memory.onDataReceived(tuList(0, 0, 1, EN__IT, 3));
+        memory.commit();
+        memory.onDataReceived(tuList(0, 3, 2, EN__IT, 3));
+        memory.commit();
+
+        ContextFilterCache cache = new ContextFilterCache(10, 1);
+        ContextVector context1 = ContextVector.fromString("1:1");
+        ContextVector context2 = ContextVector.fromString("2:1");
+
+        Filter filter1 = cache.get(context1, this::newFilter);
+        Filter filter2 = cache.get(context2, this::newFilter);
+        assertEquals(2, cache.size());
+        assertEquals(0, cache.ramBytesUsed());
+
+        Query query = new TermQuery(memory.getDocumentBuilder().makeLanguageTerm(EN__IT.source));
+
+        IndexSearcher searcher = memory.acquireIndexSearcher();
+        try {
+            assertEquals(3, searcher.search(query, filter2, 100).totalHits);
+        } finally {
+            memory.releaseIndexSearcher(searcher);
+        }
+
+        // the bitsets of filter2 exceed the bound: the least recently used filter is evicted
+        assertEquals(1, cache.size());
+        assertTrue(cache.ramBytesUsed() > 0);
+        assertSame(filter2, cache.get(context2, this::newFilter));
+        assertNotSame(filter1, cache.get(context1, this::newFilter));
+    }
+
+    @Test
+    public void cachedFilterFollowsIndexChanges() throws Throwable {
+        ContextVector context = ContextVector.fromString("1:1,2:1");
+
+        memory.onDataReceived(tuList(0, 0, 1, EN__IT, 3));
+        ScoreEntry[] result = memory.search(null, EN__IT, sentence("Hello world"), context, 100);
+        assertEquals(3, result.length);
+
+        // new segment
+        memory.commit();
+        memory.onDataReceived(tuList(0, 3, 2, EN__IT, 2));
+        result = memory.search(null, EN__IT, sentence("Hello world"), context, 100);
+        assertEquals(5, result.length);
+
+        // deleted documents
+        memory.onDelete(deletion(5, 1));
+        result = memory.search(null, EN__IT, sentence("Hello world"), context, 100);
+        assertEquals(2, result.length);
+        assertEquals(1, memories(result).size());
+        assertTrue(memories(result).contains(2L));
+
+        // merged segments
+        memory.optimize();
+        result = memory.search(null, EN__IT, sentence("Hello world"), context, 100);
+        assertEquals(2, result.length);
+    }
+
+    @Test
+    public void sparseFilterMatchesSameDocuments() throws Throwable {
+        // memory 1 is large, memory 2 has a few entries in every segment
+        long position = 0;
+        for (int segment = 0; segment < 3; segment++) {
+            List<TranslationUnit> units = new ArrayList<>();
+            for (int i = 0; i < 400; i++) {
+                long memoryId = i % 200 == 0 ? 2 : 1;
+                units.add(tu(0, position++, memoryId, EN__IT, "Hello world " + position, "Ciao mondo " + position, null));
+            }
+
+            memory.onDataReceived(units);
+            memory.commit();
+        }
+
+        ContextFilterCache cache = new ContextFilterCache(10, Long.MAX_VALUE);
+
+        for (String context : new String[]{"2:1", "1:1", "1:1,2:1"}) {
+            ContextVector vector = ContextVector.fromString(context);
+            Query query = new TermQuery(memory.getDocumentBuilder().makeLanguageTerm(EN__IT.source));
+
+            IndexSearcher searcher = memory.acquireIndexSearcher();
+            try {
+                TopDocs expected = searcher.search(query, newFilter(vector), 10000);
+
+                // twice: bitsets are computed and then read from cache
+                for (int i = 0; i < 2; i++) {
+                    TopDocs result = searcher.search(query, cache.get(vector, this::newFilter), 10000);
+
+                    assertEquals(expected.totalHits, result.totalHits);
+                    for (int j = 0; j < expected.scoreDocs.length; j++)
+                        assertEquals(expected.scoreDocs[j].doc, result.scoreDocs[j].doc);
+                }
+            } finally {
+                memory.releaseIndexSearcher(searcher);
+            }
+        }
+
+        ScoreEntry[] result = memory.search(null, EN__IT, sentence("Hello world"), ContextVector.fromString("2:1"), 100);
+        assertEquals(6, result.length);
+        assertEquals(1, memories(result).size());
+    }
+
+}
@@ -0,0 +1,100 @@
+package eu.modernmt.decoder.neural.memory;
+
+import eu.modernmt.decoder.neural.memory.lucene.query.rescoring.F1BleuCalculator;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestF1BleuCalculator {
+
+    static String[] randomSentence(Random random, int vocabularySize, int maxLength) {
+        String[] sentence = new String[random.nextInt(maxLength + 1)];
+        for (int i = 0; i < sentence.length; i++)
+            sentence[i] = "w" + random.nextInt(vocabularySize);
+        return sentence;
+    }
+
+    private static void assertSameScores(String[] reference, String[][] hypotheses) {
+        HashMapF1BleuCalculator expected = new HashMapF1BleuCalculator(reference);
+        F1BleuCalculator calculator = new F1BleuCalculator(reference);
+
+        for (String[] hyp : hypotheses) {
+            assertEquals(expected.calc(hyp), calculator.calc(hyp), 0.f);
+        }
+    }
+
+    @Test
+    public void sameScoresAsHashMapImplementation() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200; i++) {
+            String[] reference = randomSentence(random, 30, 40);
+            String[][] hypotheses = new String[50][];
+            for (int j = 0; j < hypotheses.length; j++)
+                hypotheses[j] = randomSentence(random, 30, 40);
+
+            assertSameScores(reference, hypotheses);
+        }
+    }
+
+    @Test
+    public void sameScoresWithRepeatedNGrams() {
+        String[] reference = "a a a b a a a b c".split(" ");
+
+        assertSameScores(reference, new String[][]{
+                "a a a a a a".split(" "),
+                "x a a y a".split(" "),
+                "a a a b".split(" "),
+                "b a a a b a a a b".split(" "),
+                reference
+        });
+    }
+
+    @Test
+    public void sameScoresWithHashCodeCollisions() {
+        // "Aa" and "BB" have the same String.hashCode()
+        String[] reference = "Aa BB Aa c".split(" ");
+
+        assertSameScores(reference, new String[][]{
+                "BB Aa BB c".split(" "),
+                "BB BB".split(" "),
+                "Aa Aa".split(" ")
+        });
+    }
+
+    @Test
+    public void sameScoresWithUnknownAndNullTokens() {
+        String[] reference = new String[]{"a", null, "b", "c"};
+
+        assertSameScores(reference, new String[][]{
+                new String[]{"a", null, "b", "c"},
+                new String[]{null, null},
+                "a x b c".split(" "),
+                new String[0]
+        });
+    }
+
+    @Test
+    public void reuseCalculator() {
+        Random random = new Random(7);
+        F1BleuCalculator calculator = new F1BleuCalculator();
+
+        // references of decreasing and increasing length reuse the same tables
+        for (int length : new int[]{60, 3, 0, 1, 40, 10}) {
+            String[] reference = new String[length];
+            for (int i = 0; i < length; i++)
+                reference[i] = "w" + random.nextInt(20);
+
+            calculator.setReference(reference);
+            HashMapF1BleuCalculator expected = new HashMapF1BleuCalculator(reference);
+
+            for (int i = 0; i < 50; i++) {
+                String[] hyp = randomSentence(random, 20, 60);
+                assertEquals(expected.calc(hyp), calculator.calc(hyp), 0.f);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package eu.modernmt.decoder.neural.memory;
+
+import eu.modernmt.decoder.neural.memory.lucene.query.rescoring.LevenshteinCalculator;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static eu.modernmt.decoder.neural.memory.TestF1BleuCalculator.randomSentence;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLevenshteinCalculator {
+
+    private static int expectedDistance(String[] reference, String[] hyp) {
+        float normalized = DynamicProgrammingLevenshteinRescorer.getLevenshteinDistance(reference, hyp);
+        if (reference.length == 0 || hyp.length == 0)
+            return (int) normalized;
+        return Math.round(normalized * Math.max(reference.length, hyp.length));
+    }
+
+    private static void assertSameDistances(Random random, int vocabularySize, int maxLength) {
+        LevenshteinCalculator calculator = new LevenshteinCalculator();
+
+        for (int i = 0; i < 50; i++) {
+            String[] reference = randomSentence(random, vocabularySize, maxLength);
+            calculator.setReference(reference);
+
+            for (int j = 0; j < 50; j++) {
+                String[] hyp = randomSentence(random, vocabularySize, maxLength);
+                int expected = expectedDistance(reference, hyp);
+
+                assertEquals(expected, calculator.distance(hyp));
+
+                int maxDistance = random.nextInt(maxLength + 1);
+                int distance = calculator.distance(hyp, maxDistance);
+                if (expected <= maxDistance)
+                    assertEquals(expected, distance);
+                else
+                    assertTrue(distance > maxDistance);
+            }
+        }
+    }
+
+    @Test
+    public void emptySentences() {
+        LevenshteinCalculator calculator = new LevenshteinCalculator(new String[0]);
+        assertEquals(0, calculator.distance(new String[0]));
+        assertEquals(2, calculator.distance(new String[]{"a", "b"}));
+
+        calculator.setReference(new String[]{"a", "b", "c"});
+        assertEquals(3, calculator.distance(new String[0]));
+    }
+
+    @Test
+    public void knownDistances() {
+        LevenshteinCalculator calculator = new LevenshteinCalculator("the cat sat on the mat".split(" "));
+
+        assertEquals(0, calculator.distance("the cat sat on the mat".split(" ")));
+        assertEquals(1, calculator.distance("the cat sat on a mat".split(" ")));
+        assertEquals(1, calculator.distance("the cat sat on mat".split(" ")));
+        assertEquals(2, calculator.distance("a cat sat on the mat today".split(" ")));
+        assertEquals(6, calculator.distance("one two three four five six".split(" ")));
+    }
+
+    @Test
+    public void shortSentences() {
+        assertSameDistances(new Random(1), 8, 20);
+    }
+
+    @Test
+    public void sentencesAroundTheWordSize() {
+        assertSameDistances(new Random(2), 10, 70);
+    }
+
+    @Test
+    public void longSentences() {
+        assertSameDistances(new Random(3), 15, 200);
+    }
+
+    @Test
+    public void longSimilarSentences() {
+        Random random = new Random(4);
+        LevenshteinCalculator calculator = new LevenshteinCalculator();
+
+        for (int i = 0; i < 50; i++) {
+            String[] reference = randomSentence(random, 50, 150);
+            calculator.setReference(reference);
+
+            for (int j = 0; j < 20; j++) {
+                // a few random edits
+                String[] hyp = reference.clone();
+                for (int k = random.nextInt(5); k > 0 && hyp.length > 0; k--)
+                    hyp[random.nextInt(hyp.length)] = "x" + random.nextInt(3);
+
+                int expected = expectedDistance(reference, hyp);
+                assertEquals(expected, calculator.distance(hyp));
+                assertEquals(expected, calculator.distance(hyp, expected));
+                assertTrue(expected == 0 || calculator.distance(hyp, expected - 1) > expected - 1);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package eu.modernmt.decoder.neural.memory;
+
+import eu.modernmt.decoder.neural.memory.lucene.query.rescoring.LevenshteinRescorer;
+import eu.modernmt.decoder.neural.memory.lucene.query.rescoring.Rescorer;
+import eu.modernmt.memory.ScoreEntry;
+import eu.modernmt.model.ContextVector;
+import eu.modernmt.model.Sentence;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static eu.modernmt.decoder.neural.memory.TestData.EN__IT;
+import static eu.modernmt.decoder.neural.memory.TestF1BleuCalculator.randomSentence;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TestLevenshteinRescorer {
+
+    private static ScoreEntry[] entries(Random random, int size, int vocabularySize, int maxLength) {
+        ScoreEntry[] entries = new ScoreEntry[size];
+        for (int i = 0; i < size; i++) {
+            String[] sentence = randomSentence(random, vocabularySize, maxLength);
+            if (sentence.length == 0)
+                sentence = new String[]{"w0"};
+
+            entries[i] = new ScoreEntry(1 + random.nextInt(4), EN__IT, sentence, new String[]{"t" + i});
+        }
+        return entries;
+    }
+
+    private static ScoreEntry[] copy(ScoreEntry[] entries) {
+        ScoreEntry[] copy = new ScoreEntry[entries.length];
+        for (int i = 0; i < entries.length; i++)
+            copy[i] = new ScoreEntry(entries[i].memory, entries[i].language, entries[i].sentenceTokens, entries[i].translationTokens);
+        return copy;
+    }
+
+    private static void assertSameTopEntries(Random random, ContextVector context, int vocabularySize, int maxLength) {
+        Rescorer expectedRescorer = new DynamicProgrammingLevenshteinRescorer();
+        Rescorer rescorer = new LevenshteinRescorer();
+
+        for (int i = 0; i < 100; i++) {
+            String text = String.join(" ", randomSentence(random, vocabularySize, maxLength));
+            Sentence input = TestData.sentence(text.isEmpty() ? "w1" : text);
+
+            ScoreEntry[] entries = entries(random, 60, vocabularySize, maxLength);
+            int limit = 1 + random.nextInt(10);
+
+            ScoreEntry[] expected = expectedRescorer.rescore(EN__IT, input, copy(entries), context, limit);
+            ScoreEntry[] result = rescorer.rescore(EN__IT, input, copy(entries), context, limit);
+
+            assertEquals(expected.length, result.length);
+            for (int j = 0; j < limit; j++) {
+                assertEquals(expected[j], result[j]);
+                assertEquals(expected[j].score, result[j].score, 0.f);
+            }
+        }
+    }
+
+    @Test
+    public void sameTopEntriesWithoutContext() {
+        assertSameTopEntries(new Random(1), null, 10, 30);
+    }
+
+    @Test
+    public void sameTopEntriesWithContext() {
+        assertSameTopEntries(new Random(2), ContextVector.fromString("1:1,2:0.6,3:0.3"), 10, 30);
+    }
+
+    @Test
+    public void sameTopEntriesWithLongSentences() {
+        assertSameTopEntries(new Random(3), ContextVector.fromString("1:0.9,4:0.1"), 12, 120);
+    }
+
+    @Test
+    public void allEntriesScoredWithoutLimit() {
+        Random random = new Random(4);
+        String[] words = randomSentence(random, 10, 30);
+        Sentence input = TestData.sentence(words.length == 0 ? "w1" : String.join(" ", words));
+
+        ScoreEntry[] entries = entries(random, 40, 10, 30);
+        ScoreEntry[] expected = new DynamicProgrammingLevenshteinRescorer().rescore(EN__IT, input, copy(entries), null, 100);
+        ScoreEntry[] result = new LevenshteinRescorer().rescore(EN__IT, input, copy(entries), null, 100);
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], result[i]);
+            assertEquals(expected[i].score, result[i].score, 0.f);
+        }
+    }
+
+    @Test
+    public void sameResultArray() {
+        ScoreEntry[] entries = entries(new Random(5), 5, 10, 10);
+        assertSame(entries, new LevenshteinRescorer().rescore(EN__IT, TestData.sentence("w1 w2"), entries, null, 2));
+    }
+
+}
@@ -0,0 +1,101 @@
+package eu.modernmt.decoder.neural.memory;
+
+import eu.modernmt.data.TranslationUnit;
+import eu.modernmt.memory.ScoreEntry;
+import eu.modernmt.model.ContextVector;
+import eu.modernmt.model.Sentence;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TestLuceneTranslationMemory_batchSearch {
+
+    private static final String[] WORDS = new String[]{
+            "the", "test", "hello", "world", "house", "red", "blue", "car", "is", "a", "on", "table"
+    };
+
+    private TLuceneTranslationMemory memory;
+    private final ContextVector context = ContextVector.fromString("1:1,2:0.5,3:0.2");
+
+    private static String text(int seed, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0)
+                text.append(' ');
+            text.append(WORDS[(seed * 7 + i * (seed % 5 + 1)) % WORDS.length]);
+        }
+        return text.toString();
+    }
+
+    @Before
+    public void setup() throws Throwable {
+        this.memory = new TLuceneTranslationMemory();
+
+        // every batch is committed to its own segment
+        long position = 0;
+        for (int batch = 0; batch < 3; batch++) {
+            ArrayList<TranslationUnit> units = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                int seed = batch * 40 + i;
+                units.add(tu(0, position++, 1 + seed % 4, EN__IT, text(seed, 3 + seed % 8), "traduzione " + seed, null));
+            }
+
+            this.memory.onDataReceived(units);
+            this.memory.commit();
+        }
+    }
+
+    @After
+    public void teardown() throws Throwable {
+        this.memory.close();
+        this.memory = null;
+    }
+
+    private static List<Sentence> sources(int count) {
+        ArrayList<Sentence> sources = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            sources.add(sentence(text(i * 3 + 1, 2 + i % 9)));
+        return sources;
+    }
+
+    @Test
+    public void emptyBatch() throws Throwable {
+        assertEquals(0, memory.search(null, EN__IT, Collections.emptyList(), context, 10).length);
+    }
+
+    @Test
+    public void batchResultsMatchSingleSearches() throws Throwable {
+        List<Sentence> sources = sources(25);
+
+        for (int limit : new int[]{1, 5, 100}) {
+            ScoreEntry[][] results = memory.search(null, EN__IT, sources, context, limit);
+            assertEquals(sources.size(), results.length);
+
+            for (int i = 0; i < sources.size(); i++) {
+                ScoreEntry[] expected = memory.search(null, EN__IT, sources.get(i), context, limit);
+
+                assertArrayEquals(expected, results[i]);
+                for (int j = 0; j < expected.length; j++)
+                    assertEquals(expected[j].score, results[i][j].score, 0.f);
+            }
+        }
+    }
+
+    @Test
+    public void batchWithoutContextMemories() throws Throwable {
+        ScoreEntry[][] results = memory.search(null, EN__IT, sources(3), ContextVector.fromString("99:1"), 10);
+
+        assertEquals(3, results.length);
+        for (ScoreEntry[] entries : results)
+            assertEquals(0, entries.length);
+    }
+
+}
@@ -0,0 +1,148 @@
+package eu.modernmt.decoder.neural.memory;
+
+import eu.modernmt.data.TranslationUnit;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.assertEquals;
+
+public class TestLuceneTranslationMemory_batchWrite {
+
+    private Directory directory;
+    private TLuceneTranslationMemory memory;
+
+    @Before
+    public void setup() throws Throwable {
+        this.directory = new RAMDirectory();
+        this.memory = new TLuceneTranslationMemory(directory);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        this.memory.close();
+        this.memory = null;
+    }
+
+    @Test
+    public void lastOverwriteWinsWithinBatch() throws Throwable {
+        TranslationUnit original = tu(0, 0L, 1L, EN__IT, "sentence A", "frase A", null);
+        TranslationUnit overwrite1 = tu(0, 1L, 1L, EN__IT, "sentence B", "frase B", "sentence A", "frase A", null);
+        TranslationUnit overwrite2 = tu(0, 2L, 1L, EN__IT, "sentence C", "frase C", "sentence B", "frase B", null);
+
+        memory.onDataReceived(Arrays.asList(original, overwrite1, overwrite2));
+
+        assertEquals(2, memory.size());
+        assertEquals(TLuceneTranslationMemory.asEntrySet(Collections.singletonList(overwrite2)), memory.entrySet());
+        assertEquals(channels(0, 2), memory.getLatestChannelPositions());
+    }
+
+    @Test
+    public void addAfterOverwriteWithinBatch() throws Throwable {
+        TranslationUnit original = tu(0, 0L, 1L, EN__IT, "sentence A", "frase A", null);
+        TranslationUnit overwrite = tu(0, 1L, 1L, EN__IT, "sentence B", "frase B", "sentence A", "frase A", null);
+        TranslationUnit addition = tu(0, 2L, 1L, EN__IT, "sentence A", "frase A", null);
+
+        memory.onDataReceived(Collections.singletonList(original));
+        memory.onDataReceived(Arrays.asList(overwrite, addition));
+
+        assertEquals(3, memory.size());
+        assertEquals(TLuceneTranslationMemory.asEntrySet(Arrays.asList(overwrite, addition)), memory.entrySet());
+    }
+
+    @Test
+    public void overwriteAcrossBatches() throws Throwable {
+        TranslationUnit original = tu(0, 0L, 1L, EN__IT, "sentence A", "frase A", null);
+        TranslationUnit other = tu(0, 1L, 2L, EN__IT, "sentence A", "frase A", null);
+        TranslationUnit overwrite = tu(0, 2L, 1L, EN__IT, "sentence B", "frase B", "sentence A", "frase A", null);
+
+        memory.onDataReceived(Arrays.asList(original, other));
+        memory.onDataReceived(Collections.singletonList(overwrite));
+
+        // entries with the same hash in other memories are not overwritten
+        assertEquals(3, memory.size());
+        assertEquals(TLuceneTranslationMemory.asEntrySet(Arrays.asList(other, overwrite)), memory.entrySet());
+    }
+
+    @Test
+    public void replayedOverwritesAreIgnored() throws Throwable {
+        TranslationUnit original = tu(0, 0L, 1L, EN__IT, "sentence A", "frase A", null);
+        TranslationUnit overwrite = tu(0, 1L, 1L, EN__IT, "sentence B", "frase B", "sentence A", "frase A", null);
+
+        memory.onDataReceived(Arrays.asList(original, overwrite));
+        memory.onDataReceived(Arrays.asList(original, overwrite));
+
+        assertEquals(2, memory.size());
+        assertEquals(TLuceneTranslationMemory.asEntrySet(Collections.singletonList(overwrite)), memory.entrySet());
+    }
+
+    @Test
+    public void concurrentBatches() throws Throwable {
+        int threads = 4;
+        int batches = 25;
+        int batchSize = 4;
+
+        // every batch requires a commit
+        memory.setCommitPolicy(3600 * 1000L, 1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<TranslationUnit> units = new ArrayList<>();
+        Map<Short, Long> expectedChannels = new HashMap<>();
+
+        try {
+            ArrayList<Future<Void>> futures = new ArrayList<>();
+
+            for (int t = 0; t < threads; t++) {
+                ArrayList<List<TranslationUnit>> channelBatches = new ArrayList<>();
+                for (int b = 0; b < batches; b++) {
+                    List<TranslationUnit> batch = new ArrayList<>();
+                    for (int i = 0; i < batchSize; i++) {
+                        long position = b * batchSize + i;
+                        batch.add(tu(t, position, 1L + t, EN__IT, "sentence " + position, "frase " + position, null));
+                    }
+
+                    channelBatches.add(batch);
+                    units.addAll(batch);
+                }
+
+                expectedChannels.put((short) t, (long) (batches * batchSize - 1));
+                futures.add(executor.submit(() -> {
+                    for (List<TranslationUnit> batch : channelBatches)
+                        memory.onDataReceived(batch);
+                    return null;
+                }));
+            }
+
+            for (Future<Void> future : futures)
+                future.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(units.size() + 1, memory.size());
+        assertEquals(TLuceneTranslationMemory.asEntrySet(units), memory.entrySet());
+        assertEquals(expectedChannels, memory.getLatestChannelPositions());
+
+        // the last batch is committed with the positions of all the channels
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertEquals(units.size() + 1, reader.numDocs());
+
+            IndexSearcher searcher = new IndexSearcher(reader);
+            TopDocs docs = searcher.search(memory.getQueryBuilder().getChannels(memory.getDocumentBuilder()), 1);
+            assertEquals(expectedChannels, memory.getDocumentBuilder().asChannels(searcher.doc(docs.scoreDocs[0].doc)));
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+package eu.modernmt.decoder.neural.memory;
+
+import eu.modernmt.data.TranslationUnit;
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestLuceneTranslationMemory_commit {
+
+    private Directory directory;
+    private TLuceneTranslationMemory memory;
+
+    @Before
+    public void setup() throws Throwable {
+        this.directory = new RAMDirectory();
+        this.memory = new TLuceneTranslationMemory(directory);
+        this.memory.setCommitPolicy(3600 * 1000L, Integer.MAX_VALUE);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        if (this.memory != null)
+            this.memory.close();
+        this.memory = null;
+    }
+
+    private int committedSize() throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            return reader.numDocs();
+        }
+    }
+
+    private Map<Short, Long> committedChannels() throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            TopDocs docs = searcher.search(memory.getQueryBuilder().getChannels(memory.getDocumentBuilder()), 1);
+            return docs.scoreDocs.length == 0 ? null : memory.getDocumentBuilder().asChannels(searcher.doc(docs.scoreDocs[0].doc));
+        }
+    }
+
+    @Test
+    public void changesVisibleBeforeCommit() throws Throwable {
+        List<TranslationUnit> units = tuList(EN__IT, 4);
+        memory.onDataReceived(units);
+
+        assertEquals(5, memory.size());
+        assertEquals(TLuceneTranslationMemory.asEntrySet(units), memory.entrySet());
+        assertEquals(0, committedSize());
+
+        memory.commit();
+
+        assertEquals(5, committedSize());
+        assertEquals(channels(0, 3), committedChannels());
+    }
+
+    @Test
+    public void commitWhenTooManyUncommittedChanges() throws Throwable {
+        memory.setCommitPolicy(3600 * 1000L, 8);
+
+        memory.onDataReceived(tuList(0, 0L, 1L, EN__IT, 4));
+        assertEquals(0, committedSize());
+
+        memory.onDataReceived(tuList(0, 4L, 1L, EN__IT, 4));
+        assertEquals(9, committedSize());
+        assertEquals(channels(0, 7), committedChannels());
+    }
+
+    @Test
+    public void commitAfterMaxDelay() throws Throwable {
+        memory.setCommitPolicy(100L, Integer.MAX_VALUE);
+        memory.onDataReceived(tuList(EN__IT, 4));
+
+        long timeout = System.currentTimeMillis() + 10000L;
+        while (committedSize() == 0 && System.currentTimeMillis() < timeout)
+            Thread.sleep(50);
+
+        assertEquals(5, committedSize());
+        assertEquals(channels(0, 3), committedChannels());
+    }
+
+    @Test
+    public void channelPositionsReportedAfterCommit() throws Throwable {
+        memory.onDataReceived(tuList(EN__IT, 4));
+        assertTrue(memory.getLatestChannelPositions().isEmpty());
+
+        memory.commit();
+        assertEquals(channels(0, 3), memory.getLatestChannelPositions());
+    }
+
+    @Test
+    public void failedCommitDiscardsUncommittedBatches() throws Throwable {
+        FailingDirectory directory = new FailingDirectory();
+
+        List<TranslationUnit> committed = tuList(0, 0L, 1L, EN__IT, 4);
+        List<TranslationUnit> uncommitted = tuList(0, 4L, 1L, EN__IT, 4);
+        List<TranslationUnit> failed = tuList(0, 8L, 1L, EN__IT, 4);
+
+        TLuceneTranslationMemory memory = new TLuceneTranslationMemory(directory);
+        try {
+            memory.setCommitPolicy(3600 * 1000L, Integer.MAX_VALUE);
+            memory.onDataReceived(committed);
+            memory.commit();
+            memory.onDataReceived(uncommitted);
+
+            directory.failing = true;
+            memory.setCommitPolicy(3600 * 1000L, 1);
+
+            try {
+                memory.onDataReceived(failed);
+                fail("Expected IOException");
+            } catch (IOException e) {
+                // expected
+            }
+
+            directory.failing = false;
+
+            // the memory is back to the last commit and does not accept new batches
+            assertEquals(channels(0, 3), memory.getLatestChannelPositions());
+            assertEquals(TLuceneTranslationMemory.asEntrySet(committed), memory.entrySet());
+
+            try {
+                memory.onDataReceived(tuList(0, 12L, 1L, EN__IT, 4));
+                fail("Expected IOException");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            memory.close();
+        }
+
+        // batches are replayed from the last committed positions
+        memory = new TLuceneTranslationMemory(directory);
+        try {
+            assertEquals(channels(0, 3), memory.getLatestChannelPositions());
+
+            memory.onDataReceived(committed);
+            memory.onDataReceived(uncommitted);
+            memory.onDataReceived(failed);
+
+            List<TranslationUnit> expected = new ArrayList<>(committed);
+            expected.addAll(uncommitted);
+            expected.addAll(failed);
+
+            assertEquals(TLuceneTranslationMemory.asEntrySet(expected), memory.entrySet());
+            assertEquals(channels(0, 11), memory.getLatestChannelPositions());
+        } finally {
+            memory.close();
+        }
+    }
+
+    private static class FailingDirectory extends RAMDirectory {
+
+        private volatile boolean failing = false;
+
+        @Override
+        public void sync(Collection<String> names) throws IOException {
+            if (failing)
+                throw new IOException("Simulated failure");
+            super.sync(names);
+        }
+
+        @Override
+        public void close() {
+            // kept open, so that the memory can be reopened
+        }
+
+    }
+
+    @Test
+    public void closeCommitsPendingChanges() throws Throwable {
+        File folder = Files.createTempDirectory("TestLuceneTranslationMemory_commit").toFile();
+
+        try {
+            List<TranslationUnit> units = tuList(EN__IT, 4);
+
+            TLuceneTranslationMemory memory = new TLuceneTranslationMemory(FSDirectory.open(folder));
+            memory.setCommitPolicy(3600 * 1000L, Integer.MAX_VALUE);
+            memory.onDataReceived(units);
+            memory.close();
+
+            memory = new TLuceneTranslationMemory(FSDirectory.open(folder));
+            try {
+                assertEquals(5, memory.size());
+                assertEquals(TLuceneTranslationMemory.asEntrySet(units), memory.entrySet());
+                assertEquals(channels(0, 3), memory.getLatestChannelPositions());
+            } finally {
+                memory.close();
+            }
+        } finally {
+            FileUtils.deleteDirectory(folder);
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package eu.modernmt.decoder.neural.memory;
+
+import eu.modernmt.data.TranslationUnit;
+import eu.modernmt.memory.TranslationMemory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestLuceneTranslationMemory_dump {
+
+    private TLuceneTranslationMemory memory;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() throws Throwable {
+        memory = new TLuceneTranslationMemory();
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void teardown() throws Throwable {
+        executor.shutdownNow();
+        memory.close();
+    }
+
+    // every batch is committed to its own segment
+    private List<TranslationUnit> populate(int segments, long... memories) throws Throwable {
+        ArrayList<TranslationUnit> units = new ArrayList<>();
+        long position = 0;
+
+        for (int i = 0; i < segments; i++) {
+            ArrayList<TranslationUnit> batch = new ArrayList<>();
+            for (long memory : memories) {
+                batch.add(tu(0, position++, memory, EN__IT, "Hello world " + i, "Ciao mondo " + i, null));
+                batch.add(tu(0, position++, memory, IT__EN, "Ciao test " + i, "Hello test " + i, null));
+            }
+
+            memory.onDataReceived(batch);
+            memory.commit();
+            units.addAll(batch);
+        }
+
+        return units;
+    }
+
+    private static List<TranslationMemory.Entry> asEntryList(Collection<TranslationUnit> units, long memory) {
+        ArrayList<TranslationMemory.Entry> result = new ArrayList<>();
+        for (TranslationUnit unit : units) {
+            if (unit.memory == memory)
+                result.add(new TranslationMemory.Entry(unit.memory, unit.language, unit.rawSentence, unit.rawTranslation));
+        }
+        return result;
+    }
+
+    @Test
+    public void dumpInIndexOrder() throws Throwable {
+        List<TranslationUnit> units = populate(3, 1, 2);
+
+        ArrayList<TranslationMemory.Entry> result = new ArrayList<>();
+        memory.dump(2, result::add);
+
+        assertEquals(asEntryList(units, 2), result);
+    }
+
+    @Test
+    public void dumpSkipsDeletedEntries() throws Throwable {
+        List<TranslationUnit> units = populate(2, 1, 2);
+        memory.onDelete(deletion(units.size(), 1));
+
+        ArrayList<TranslationMemory.Entry> result = new ArrayList<>();
+        memory.dump(1, result::add);
+        assertTrue(result.isEmpty());
+
+        memory.dumpAll(result::add);
+        assertEquals(asEntryList(units, 2), result);
+    }
+
+    @Test
+    public void dumpSegmentsInParallel() throws Throwable {
+        List<TranslationUnit> units = populate(4, 1, 2, 3);
+
+        Map<Integer, List<TranslationMemory.Entry>> segments = Collections.synchronizedMap(new TreeMap<>());
+        memory.dump(2, executor, segment -> {
+            ArrayList<TranslationMemory.Entry> entries = new ArrayList<>();
+            assertNull(segments.put(segment, entries));
+            return entries::add;
+        });
+
+        ArrayList<TranslationMemory.Entry> result = new ArrayList<>();
+        for (List<TranslationMemory.Entry> entries : segments.values()) {
+            assertFalse(entries.isEmpty());
+            result.addAll(entries);
+        }
+
+        assertEquals(asEntryList(units, 2), result);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void dumpSegmentsPropagatesErrors() throws Throwable {
+        populate(2, 1);
+
+        memory.dump(1, executor, segment -> (Consumer<TranslationMemory.Entry>) entry -> {
+            throw new IllegalStateException();
+        });
+    }
+
+}
@@ -0,0 +1,111 @@
+package eu.modernmt.decoder.neural.memory;
+
+import eu.modernmt.data.TranslationUnit;
+import eu.modernmt.memory.ScoreEntry;
+import eu.modernmt.model.ContextVector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestLuceneTranslationMemory_exactMatch {
+
+    private TLuceneTranslationMemory memory;
+    private final ContextVector context = ContextVector.fromString("1:1,2:1");
+
+    @Before
+    public void setup() throws Throwable {
+        this.memory = new TLuceneTranslationMemory();
+
+        ArrayList<TranslationUnit> units = new ArrayList<>();
+        units.add(tu(0, 0, 1, EN__IT, "Hello world", "Ciao mondo", null));
+        units.add(tu(0, 1, 1, EN_US__IT_CH, "The test", "Il test", null));
+        units.add(tu(0, 2, 2, EN__IT, "Hello world", "Salve mondo", null));
+        units.add(tu(0, 3, 3, EN__IT, "Good morning", "Buongiorno", null));
+
+        this.memory.onDataReceived(units);
+    }
+
+    @After
+    public void teardown() throws Throwable {
+        this.memory.close();
+        this.memory = null;
+    }
+
+    private static ScoreEntry entry(long memory, String sentence, String translation) {
+        return new ScoreEntry(memory, EN__IT, sentence.split(" "), translation.split(" "));
+    }
+
+    @Test
+    public void directExactMatch() throws Throwable {
+        ScoreEntry result = memory.searchExactMatch(null, EN__IT, sentence("Hello world"), ContextVector.fromString("1:1"));
+
+        assertEquals(entry(1, "Hello world", "Ciao mondo"), result);
+        assertEquals(1.f, result.score, 0.f);
+    }
+
+    @Test
+    public void reversedExactMatch() throws Throwable {
+        ScoreEntry result = memory.searchExactMatch(null, IT__EN, sentence("Il test"), context);
+
+        assertNotNull(result);
+        assertEquals(IT_CH__EN_US, result.language);
+        assertArrayEquals("The test".split(" "), result.translationTokens);
+    }
+
+    @Test
+    public void exactMatchWithDialect() throws Throwable {
+        ScoreEntry result = memory.searchExactMatch(null, EN_US__IT_CH, sentence("Hello world"), ContextVector.fromString("2:1"));
+        assertEquals(entry(2, "Hello world", "Salve mondo"), result);
+    }
+
+    @Test
+    public void preferMostRelevantMemory() throws Throwable {
+        ScoreEntry result = memory.searchExactMatch(null, EN__IT, sentence("Hello world"), ContextVector.fromString("1:0.4,2:0.8"));
+        assertEquals(entry(2, "Hello world", "Salve mondo"), result);
+
+        result = memory.searchExactMatch(null, EN__IT, sentence("Hello world"), ContextVector.fromString("1:0.8,2:0.4"));
+        assertEquals(entry(1, "Hello world", "Ciao mondo"), result);
+    }
+
+    @Test
+    public void noMatchOutsideContext() throws Throwable {
+        assertNull(memory.searchExactMatch(null, EN__IT, sentence("Good morning"), context));
+    }
+
+    @Test
+    public void noMatchForPartialSentence() throws Throwable {
+        assertNull(memory.searchExactMatch(null, EN__IT, sentence("Hello"), context));
+        assertNull(memory.searchExactMatch(null, EN__IT, sentence("Hello world !"), context));
+        assertNull(memory.searchExactMatch(null, EN__IT, sentence("hello world"), context));
+    }
+
+    @Test
+    public void noMatchForOtherLanguage() throws Throwable {
+        assertNull(memory.searchExactMatch(null, EN__FR, sentence("Hello world"), context));
+    }
+
+    @Test
+    public void noMatchAfterDelete() throws Throwable {
+        memory.onDelete(deletion(4, 1));
+        memory.onDelete(deletion(5, 2));
+
+        assertNull(memory.searchExactMatch(null, EN__IT, sentence("Hello world"), context));
+    }
+
+    @Test
+    public void matchAfterOverwrite() throws Throwable {
+        TranslationUnit overwrite = tu(0, 4L, 1L, EN__IT, "Hello world", "Ciao a tutti",
+                "Hello world", "Ciao mondo", null);
+        memory.onDataReceived(Collections.singletonList(overwrite));
+
+        ScoreEntry result = memory.searchExactMatch(null, EN__IT, sentence("Hello world"), ContextVector.fromString("1:1"));
+        assertEquals(entry(1, "Hello world", "Ciao a tutti"), result);
+    }
+
+}
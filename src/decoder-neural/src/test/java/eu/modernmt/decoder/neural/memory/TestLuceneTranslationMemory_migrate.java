@@ -0,0 +1,181 @@
+package eu.modernmt.decoder.neural.memory;
+
+import eu.modernmt.data.TranslationUnit;
+import eu.modernmt.decoder.neural.memory.lucene.DefaultDocumentBuilder;
+import eu.modernmt.decoder.neural.memory.lucene.HashField;
+import eu.modernmt.decoder.neural.memory.lucene.utils.Migrate;
+import eu.modernmt.io.UTF8Charset;
+import eu.modernmt.lang.LanguageDirection;
+import eu.modernmt.memory.ScoreEntry;
+import eu.modernmt.model.ContextVector;
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.document.*;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestLuceneTranslationMemory_migrate {
+
+    /*
+     * Writes documents as they were before the introduction of the binary tokens fields
+     */
+    private static class LegacyDocumentBuilder extends DefaultDocumentBuilder {
+
+        @Override
+        protected Document create(long memory, LanguageDirection language, String sentence, String translation, String hash,
+                                  LanguageDirection rawLanguage, String rawSentence, String rawTranslation) {
+            Document document = new Document();
+            document.add(new LongField("memory", memory, Field.Store.YES));
+            document.add(new HashField("hash", hash, Field.Store.NO));
+
+            document.add(new StringField(makeLanguageFieldName(language.source), language.source.toLanguageTag(), Field.Store.YES));
+            document.add(new StringField(makeLanguageFieldName(language.target), language.target.toLanguageTag(), Field.Store.YES));
+            document.add(new TextField(makeContentFieldName(language), sentence, Field.Store.YES));
+            document.add(new TextField(makeContentFieldName(language.reversed()), translation, Field.Store.YES));
+
+            document.add(new StoredField("src_lang", rawLanguage.source.toLanguageTag()));
+            document.add(new StoredField("tgt_lang", rawLanguage.target.toLanguageTag()));
+            document.add(new StoredField("sentence", rawSentence.getBytes(UTF8Charset.get())));
+            document.add(new StoredField("translation", rawTranslation.getBytes(UTF8Charset.get())));
+
+            return document;
+        }
+
+    }
+
+    private final ContextVector context = ContextVector.fromString("1:1,2:1");
+
+    private File folder;
+    private File legacyPath;
+    private File migratedPath;
+    private List<TranslationUnit> units;
+
+    @Before
+    public void setup() throws Throwable {
+        folder = Files.createTempDirectory("TestLuceneTranslationMemory_migrate").toFile();
+        legacyPath = new File(folder, "legacy");
+        migratedPath = new File(folder, "migrated");
+
+        units = new ArrayList<>();
+        units.add(tu(0, 0, 1, EN__IT, "Hello world 1", "Ciao mondo 1", null));
+        units.add(tu(0, 1, 1, EN_US__IT_CH, "The test 1", "Il test 1", null));
+        units.add(tu(0, 2, 2, IT__EN, "Ciao mondo 2", "Hello world 2", null));
+        units.add(tu(0, 3, 2, FR__EN, "Bonjour monde 2", "Hello world 2", null));
+
+        TLuceneTranslationMemory legacy = new TLuceneTranslationMemory(FSDirectory.open(legacyPath), new LegacyDocumentBuilder());
+        try {
+            legacy.onDataReceived(units);
+        } finally {
+            legacy.close();
+        }
+    }
+
+    @After
+    public void teardown() throws Throwable {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    private ScoreEntry[] search(File path, LanguageDirection direction, String text) throws IOException {
+        TLuceneTranslationMemory memory = new TLuceneTranslationMemory(FSDirectory.open(path));
+        try {
+            ScoreEntry[] result = memory.search(null, direction, sentence(text), context, 100);
+            Arrays.sort(result, Collections.reverseOrder());
+            return result;
+        } finally {
+            memory.close();
+        }
+    }
+
+    @Test
+    public void readLegacyDocuments() throws Throwable {
+        TLuceneTranslationMemory memory = new TLuceneTranslationMemory(FSDirectory.open(legacyPath));
+        try {
+            assertEquals(5, memory.size());
+            assertEquals(TLuceneTranslationMemory.asEntrySet(units), memory.entrySet());
+        } finally {
+            memory.close();
+        }
+
+        ScoreEntry[] result = search(legacyPath, EN__IT, "Hello world");
+
+        assertEquals(2, result.length);
+        assertEquals(EN__IT, result[0].language);
+    }
+
+    @Test
+    public void overwriteLegacyDocuments() throws Throwable {
+        TranslationUnit overwrite = tu(0, 4L, 1L, EN__IT, "test sentence", "frase di prova",
+                "Hello world 1", "Ciao mondo 1", null);
+
+        TLuceneTranslationMemory memory = new TLuceneTranslationMemory(FSDirectory.open(legacyPath));
+        try {
+            memory.onDataReceived(Collections.singletonList(overwrite));
+
+            List<TranslationUnit> expected = new ArrayList<>(units.subList(1, units.size()));
+            expected.add(overwrite);
+
+            assertEquals(TLuceneTranslationMemory.asEntrySet(expected), memory.entrySet());
+        } finally {
+            memory.close();
+        }
+    }
+
+    @Test
+    public void migrateLegacyDocuments() throws Throwable {
+        assertEquals(5, Migrate.migrate(FSDirectory.open(legacyPath), FSDirectory.open(migratedPath)));
+
+        TLuceneTranslationMemory memory = new TLuceneTranslationMemory(FSDirectory.open(migratedPath));
+        try {
+            assertEquals(5, memory.size());
+            assertEquals(TLuceneTranslationMemory.asEntrySet(units), memory.entrySet());
+            assertEquals(channels(0, 3), memory.getLatestChannelPositions());
+        } finally {
+            memory.close();
+        }
+
+        ScoreEntry[] expected = search(legacyPath, EN__IT, "Hello world");
+        ScoreEntry[] result = search(migratedPath, EN__IT, "Hello world");
+
+        assertArrayEquals(expected, result);
+        for (int i = 0; i < result.length; i++)
+            assertEquals(expected[i].score, result[i].score, 0.f);
+
+        // region subtags of the original languages are preserved
+        result = search(migratedPath, EN__IT, "The test");
+        assertEquals(1, result.length);
+        assertEquals(EN_US__IT_CH, result[0].language);
+    }
+
+    @Test
+    public void overwriteMigratedDocuments() throws Throwable {
+        Migrate.migrate(FSDirectory.open(legacyPath), FSDirectory.open(migratedPath));
+
+        TranslationUnit overwrite = tu(0, 4L, 1L, EN__IT, "test sentence", "frase di prova",
+                "Hello world 1", "Ciao mondo 1", null);
+
+        TLuceneTranslationMemory memory = new TLuceneTranslationMemory(FSDirectory.open(migratedPath));
+        try {
+            memory.onDataReceived(Collections.singletonList(overwrite));
+
+            List<TranslationUnit> expected = new ArrayList<>(units.subList(1, units.size()));
+            expected.add(overwrite);
+
+            assertEquals(TLuceneTranslationMemory.asEntrySet(expected), memory.entrySet());
+        } finally {
+            memory.close();
+        }
+    }
+
+}
@@ -0,0 +1,309 @@
+package eu.modernmt.decoder.neural.memory;
+
+import eu.modernmt.data.DataBatch;
+import eu.modernmt.data.Deletion;
+import eu.modernmt.data.TranslationUnit;
+import eu.modernmt.decoder.neural.memory.lucene.LuceneTranslationMemory;
+import eu.modernmt.decoder.neural.memory.lucene.ShardedTranslationMemory;
+import eu.modernmt.decoder.neural.memory.lucene.utils.Migrate;
+import eu.modernmt.memory.ScoreEntry;
+import eu.modernmt.memory.TranslationMemory;
+import eu.modernmt.model.ContextVector;
+import eu.modernmt.model.Sentence;
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestShardedTranslationMemory {
+
+    private static final int SHARDS = 3;
+
+    private TLuceneTranslationMemory[] shards;
+    private ShardedTranslationMemory memory;
+    private TLuceneTranslationMemory reference;
+
+    @Before
+    public void setup() throws Throwable {
+        shards = new TLuceneTranslationMemory[SHARDS];
+        for (int i = 0; i < SHARDS; i++)
+            shards[i] = new TLuceneTranslationMemory();
+
+        memory = new ShardedTranslationMemory(shards);
+        reference = new TLuceneTranslationMemory();
+    }
+
+    @After
+    public void teardown() throws Throwable {
+        memory.close();
+        reference.close();
+    }
+
+    private static DataBatch batch(Collection<TranslationUnit> units, Collection<Deletion> deletions) {
+        final HashMap<Short, Long> positions = new HashMap<>();
+        for (TranslationUnit unit : units)
+            positions.merge(unit.channel, unit.channelPosition, Math::max);
+        for (Deletion deletion : deletions)
+            positions.merge(deletion.channel, deletion.channelPosition, Math::max);
+
+        return new DataBatch() {
+
+            @Override
+            public Collection<TranslationUnit> getTranslationUnits() {
+                return units;
+            }
+
+            @Override
+            public Collection<Deletion> getDeletions() {
+                return deletions;
+            }
+
+            @Override
+            public Map<Short, Long> getChannelPositions() {
+                return positions;
+            }
+
+        };
+    }
+
+    private void onDataReceived(List<TranslationUnit> units) throws IOException {
+        memory.onDataReceived(batch(units, Collections.emptyList()));
+        reference.onDataReceived(units);
+    }
+
+    private static List<TranslationUnit> units(int channel, long position, long... memories) {
+        ArrayList<TranslationUnit> units = new ArrayList<>();
+        for (long memory : memories) {
+            units.add(tu(channel, position++, memory, EN__IT, "Hello world " + memory, "Ciao mondo " + memory, null));
+            units.add(tu(channel, position++, memory, EN__IT, "The test " + memory, "Il test " + memory, null));
+        }
+        return units;
+    }
+
+    private static Set<TranslationMemory.Entry> entrySet(TranslationMemory memory) throws IOException {
+        HashSet<TranslationMemory.Entry> result = new HashSet<>();
+        memory.dumpAll(result::add);
+        return result;
+    }
+
+    @Test
+    public void entriesArePartitionedByMemory() throws Throwable {
+        List<TranslationUnit> units = units(0, 0, 1, 2, 3, 4, 5, 6);
+        onDataReceived(units);
+
+        assertEquals(TLuceneTranslationMemory.asEntrySet(units), entrySet(memory));
+
+        for (int i = 0; i < SHARDS; i++) {
+            for (TranslationMemory.Entry entry : shards[i].entrySet())
+                assertEquals(i, ShardedTranslationMemory.getShard(entry.memory, SHARDS));
+        }
+
+        // every shard holds its own channels document
+        assertEquals(units.size() + SHARDS, memory.size());
+    }
+
+    @Test
+    public void searchMergesShardsResults() throws Throwable {
+        onDataReceived(units(0, 0, 1, 2, 3, 4, 5, 6));
+
+        ContextVector context = ContextVector.fromString("1:1,2:0.8,3:0.6,4:0.4,5:0.2,6:0.1");
+
+        for (int limit : new int[]{1, 3, 100}) {
+            ScoreEntry[] expected = reference.search(null, EN__IT, sentence("Hello world 3"), context, limit);
+            ScoreEntry[] result = memory.search(null, EN__IT, sentence("Hello world 3"), context, limit);
+
+            assertArrayEquals(expected, result);
+            for (int i = 0; i < result.length; i++)
+                assertEquals(expected[i].score, result[i].score, 0.f);
+        }
+    }
+
+    @Test
+    public void batchSearchMergesShardsResults() throws Throwable {
+        onDataReceived(units(0, 0, 1, 2, 3, 4, 5, 6));
+
+        ContextVector context = ContextVector.fromString("1:1,2:0.8,3:0.6,4:0.4,5:0.2,6:0.1");
+        List<Sentence> sources = Arrays.asList(sentence("Hello world 3"), sentence("The test 5"), sentence("Hello test"));
+
+        ScoreEntry[][] results = memory.search(null, EN__IT, sources, context, 3);
+        assertEquals(sources.size(), results.length);
+
+        for (int i = 0; i < sources.size(); i++) {
+            ScoreEntry[] expected = reference.search(null, EN__IT, sources.get(i), context, 3);
+            assertArrayEquals(expected, results[i]);
+        }
+    }
+
+    @Test
+    public void searchOnlyContextShards() throws Throwable {
+        onDataReceived(units(0, 0, 1, 2, 3));
+
+        ScoreEntry[] result = memory.search(null, EN__IT, sentence("Hello world 2"), ContextVector.fromString("2:1"), 100);
+
+        assertTrue(result.length > 0);
+        for (ScoreEntry entry : result)
+            assertEquals(2L, entry.memory);
+
+        result = memory.search(null, EN__IT, sentence("Hello world 2"), new ContextVector.Builder().build(), 100);
+        assertEquals(0, result.length);
+    }
+
+    @Test
+    public void exactMatchPrefersContextScore() throws Throwable {
+        ArrayList<TranslationUnit> units = new ArrayList<>();
+        units.add(tu(0, 0, 1, EN__IT, "Hello world", "Ciao mondo uno", null));
+        units.add(tu(0, 1, 2, EN__IT, "Hello world", "Ciao mondo due", null));
+        onDataReceived(units);
+
+        ScoreEntry entry = memory.searchExactMatch(null, EN__IT, sentence("Hello world"), ContextVector.fromString("1:0.2,2:0.9"));
+        assertNotNull(entry);
+        assertEquals(2L, entry.memory);
+
+        entry = memory.searchExactMatch(null, EN__IT, sentence("Hello world"), ContextVector.fromString("1:0.9,2:0.2"));
+        assertNotNull(entry);
+        assertEquals(1L, entry.memory);
+
+        assertNull(memory.searchExactMatch(null, EN__IT, sentence("Hello world"), ContextVector.fromString("3:1")));
+    }
+
+    @Test
+    public void deleteAndDumpMemory() throws Throwable {
+        List<TranslationUnit> units = units(0, 0, 1, 2, 3);
+        onDataReceived(units);
+
+        memory.onDataReceived(batch(Collections.emptyList(), Collections.singleton(new Deletion((short) 0, 6, 2))));
+
+        List<TranslationUnit> expected = new ArrayList<>();
+        for (TranslationUnit unit : units) {
+            if (unit.memory != 2L)
+                expected.add(unit);
+        }
+
+        assertEquals(TLuceneTranslationMemory.asEntrySet(expected), entrySet(memory));
+
+        HashSet<TranslationMemory.Entry> dump = new HashSet<>();
+        memory.dump(2, dump::add);
+        assertTrue(dump.isEmpty());
+
+        memory.dump(3, dump::add);
+        assertEquals(TLuceneTranslationMemory.asEntrySet(expected.subList(2, 4)), dump);
+    }
+
+    @Test
+    public void channelPositionsAreTheMinimumAmongShards() throws Throwable {
+        onDataReceived(units(0, 0, 1, 2, 3));
+        assertEquals(channels(0, 5), memory.getLatestChannelPositions());
+
+        // a batch applied to a single shard, as it happens when the others fail
+        shards[ShardedTranslationMemory.getShard(1, SHARDS)].onDataReceived(units(0, 6, 1));
+        assertEquals(channels(0, 5), memory.getLatestChannelPositions());
+
+        // a channel unknown to some shards is not returned
+        shards[0].onDataReceived(units(1, 0, 3));
+        assertEquals(channels(0, 5), memory.getLatestChannelPositions());
+    }
+
+    @Test
+    public void replayedBatchIsAppliedOnce() throws Throwable {
+        List<TranslationUnit> units = units(0, 6, 1, 2, 3);
+
+        // the batch has been applied only to the shard of memory 1 before a failure
+        onDataReceived(units(0, 0, 1, 2, 3));
+        shards[ShardedTranslationMemory.getShard(1, SHARDS)].onDataReceived(units.subList(0, 2));
+
+        memory.onDataReceived(batch(units, Collections.emptyList()));
+        reference.onDataReceived(units);
+
+        assertEquals(reference.entrySet(), entrySet(memory));
+        assertEquals(reference.getLatestChannelPositions(), memory.getLatestChannelPositions());
+    }
+
+    @Test
+    public void migrateToShards() throws Throwable {
+        File folder = Files.createTempDirectory("TestShardedTranslationMemory").toFile();
+
+        try {
+            File source = new File(folder, "source");
+            File sharded = new File(folder, "sharded");
+
+            List<TranslationUnit> units = units(0, 0, 1, 2, 3, 4, 5, 6);
+            TLuceneTranslationMemory original = new TLuceneTranslationMemory(FSDirectory.open(source));
+            try {
+                original.onDataReceived(units);
+            } finally {
+                original.close();
+            }
+
+            Directory[] destinations = new Directory[SHARDS];
+            for (int i = 0; i < SHARDS; i++)
+                destinations[i] = FSDirectory.open(ShardedTranslationMemory.getShardPath(sharded, i));
+
+            assertEquals(units.size() + 1, Migrate.migrate(FSDirectory.open(source), destinations));
+
+            try (TranslationMemory memory = ShardedTranslationMemory.open(sharded, 10)) {
+                assertTrue(memory instanceof ShardedTranslationMemory);
+                assertEquals(SHARDS, ((ShardedTranslationMemory) memory).getShardsCount());
+                assertEquals(TLuceneTranslationMemory.asEntrySet(units), entrySet(memory));
+                assertEquals(channels(0, 11), memory.getLatestChannelPositions());
+            }
+
+            try (TranslationMemory memory = ShardedTranslationMemory.open(source, 10)) {
+                assertTrue(memory instanceof LuceneTranslationMemory);
+            }
+        } finally {
+            FileUtils.deleteDirectory(folder);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void openWithDifferentShardsCount() throws Throwable {
+        File folder = Files.createTempDirectory("TestShardedTranslationMemory").toFile();
+
+        try {
+            new ShardedTranslationMemory(folder, 2, 10).close();
+            new ShardedTranslationMemory(folder, 3, 10).close();
+        } finally {
+            FileUtils.deleteDirectory(folder);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void openShardsAsUnsharded() throws Throwable {
+        File folder = Files.createTempDirectory("TestShardedTranslationMemory").toFile();
+
+        try {
+            new ShardedTranslationMemory(folder, 2, 10).close();
+            ShardedTranslationMemory.open(folder, 1, 10).close();
+        } finally {
+            FileUtils.deleteDirectory(folder);
+        }
+    }
+
+    @Test
+    public void openWithConfiguredShards() throws Throwable {
+        File folder = Files.createTempDirectory("TestShardedTranslationMemory").toFile();
+
+        try {
+            try (TranslationMemory memory = ShardedTranslationMemory.open(new File(folder, "sharded"), SHARDS, 10)) {
+                assertTrue(memory instanceof ShardedTranslationMemory);
+            }
+
+            try (TranslationMemory memory = ShardedTranslationMemory.open(new File(folder, "unsharded"), 1, 10)) {
+                assertTrue(memory instanceof LuceneTranslationMemory);
+            }
+        } finally {
+            FileUtils.deleteDirectory(folder);
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+package eu.modernmt.decoder.neural.memory;
+
+import eu.modernmt.decoder.neural.memory.lucene.StoredTokens;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class TestStoredTokens {
+
+    private static BytesRef encode(String[] tokens) {
+        byte[] bytes = StoredTokens.encode(tokens);
+
+        // decoding must honour the offset of the reference
+        byte[] padded = new byte[bytes.length + 6];
+        System.arraycopy(bytes, 0, padded, 3, bytes.length);
+        return new BytesRef(padded, 3, bytes.length);
+    }
+
+    @Test
+    public void emptyTokens() {
+        assertArrayEquals(new String[0], StoredTokens.decode(encode(new String[0])));
+    }
+
+    @Test
+    public void tokensRoundTrip() {
+        String[] tokens = new String[]{"Hello", "world", "new york", "a b", "città", "東京", "😀", ""};
+        assertArrayEquals(tokens, StoredTokens.decode(encode(tokens)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedVersion() {
+        StoredTokens.decode(new BytesRef(new byte[]{99, 0}));
+    }
+
+}
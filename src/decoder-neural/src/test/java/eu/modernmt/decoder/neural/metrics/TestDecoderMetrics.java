@@ -0,0 +1,129 @@
+package eu.modernmt.decoder.neural.metrics;
+
+import eu.modernmt.decoder.neural.TranslationCache;
+import eu.modernmt.decoder.neural.queue.EchoServerDecoderQueue;
+import eu.modernmt.decoder.neural.scheduler.FairScheduler;
+import eu.modernmt.decoder.neural.scheduler.Scheduler;
+import eu.modernmt.decoder.neural.scheduler.SentenceBatchScheduler;
+import eu.modernmt.decoder.neural.scheduler.TranslationSplit;
+import eu.modernmt.model.Priority;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestDecoderMetrics {
+
+    private static TranslationSplit split(int queueSize, long queueBegin, long translationBegin) {
+        TranslationSplit split = new TranslationSplit(Priority.NORMAL, sentence("hello world"), 0L);
+        split.onStartWaitingInQueue(queueSize, queueBegin);
+        split.onTranslationBegin(translationBegin);
+        return split;
+    }
+
+    @Test
+    public void timeSeries() {
+        TimeSeries series = new TimeSeries(1000L, 3);
+        series.record(500L, 2);
+        series.record(900L, 4);
+        series.record(2500L, 10);
+        series.record(3100L, 1);
+
+        List<TimeSeries.Point> points = series.snapshot(3999L);
+        assertEquals(2, points.size());  // interval [0, 1000) is out of the window
+
+        assertEquals(2000L, points.get(0).timestamp);
+        assertEquals(10, points.get(0).max);
+        assertEquals(3000L, points.get(1).timestamp);
+        assertEquals(1, points.get(1).samples);
+
+        // older than the window
+        series.record(100L, 100);
+        assertEquals(2, series.snapshot(3999L).size());
+    }
+
+    @Test
+    public void timeSeriesAggregation() {
+        TimeSeries series = new TimeSeries(1000L, 3);
+        series.record(500L, 2);
+        series.record(900L, 4);
+
+        TimeSeries.Point point = series.snapshot(999L).get(0);
+        assertEquals(0L, point.timestamp);
+        assertEquals(2, point.samples);
+        assertEquals(3., point.mean, 0.);
+        assertEquals(4, point.max);
+    }
+
+    @Test
+    public void directionsAndBatches() throws Throwable {
+        DecoderMetrics metrics = new DecoderMetrics();
+        long now = System.currentTimeMillis();
+
+        List<TranslationSplit> batch = Arrays.asList(split(3, now - 100L, now - 90L), split(4, now - 50L, now - 40L));
+        metrics.onJobTaken(batch);
+        metrics.onTranslationCompleted(EN__IT, batch, 30L);
+
+        List<TranslationSplit> single = Collections.singletonList(split(0, now - 10L, now));
+        metrics.onJobTaken(single);
+        metrics.onTranslationCompleted(EN__FR, single, 5L);
+        metrics.onTranslationFailed(EN__FR);
+
+        Scheduler scheduler = new SentenceBatchScheduler(10);
+        DecoderMetrics.Snapshot snapshot = metrics.snapshot(scheduler, new EchoServerDecoderQueue(), null);
+        scheduler.close();
+
+        assertEquals(0, snapshot.queueSize);
+        assertEquals(2, snapshot.batchSize.count);
+        assertEquals(2, snapshot.batchSize.max);
+        assertNull(snapshot.processes);
+        assertNull(snapshot.userQueueDepths);
+        assertNull(snapshot.cache);
+
+        long samples = 0;
+        long max = 0;
+        for (TimeSeries.Point point : snapshot.queueDepth) {
+            samples += point.samples;
+            max = Math.max(max, point.max);
+        }
+        assertEquals(3, samples);
+        assertEquals(4, max);
+
+        assertEquals(2, snapshot.directions.size());
+        for (DecoderMetrics.DirectionMetrics direction : snapshot.directions) {
+            if (EN__IT.equals(direction.direction)) {
+                assertEquals(1, direction.jobs);
+                assertEquals(2, direction.sentences);
+                assertEquals(0, direction.failures);
+                assertEquals(2, direction.waitTime.count);
+                assertEquals(10, direction.waitTime.max);
+                assertEquals(30, direction.decodeTime.sum);
+            } else {
+                assertEquals(EN__FR, direction.direction);
+                assertEquals(1, direction.jobs);
+                assertEquals(1, direction.failures);
+            }
+        }
+    }
+
+    @Test
+    public void userQueueDepthsAndCache() throws Throwable {
+        UUID user = new UUID(0L, 1L);
+        FairScheduler scheduler = new FairScheduler(10, 0);
+        scheduler.schedule(EN__IT, new TranslationSplit[]{new TranslationSplit(Priority.NORMAL, user, sentence("hello world"), 0L)}, null);
+
+        DecoderMetrics.Snapshot snapshot = new DecoderMetrics().snapshot(scheduler, new EchoServerDecoderQueue(), new TranslationCache(10));
+        scheduler.close();
+
+        assertEquals(1, snapshot.queueSize);
+        assertEquals(Collections.singletonMap(user.toString(), 1), snapshot.userQueueDepths);
+        assertNotNull(snapshot.cache);
+        assertEquals(0, snapshot.cache.size);
+    }
+
+}
@@ -0,0 +1,64 @@
+package eu.modernmt.decoder.neural.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestHistogram {
+
+    @Test
+    public void empty() {
+        Histogram.Snapshot snapshot = new Histogram(new long[]{1, 10, 100}).snapshot();
+
+        assertEquals(0, snapshot.count);
+        assertEquals(0., snapshot.mean, 0.);
+        assertEquals(0, snapshot.p99);
+    }
+
+    @Test
+    public void buckets() {
+        Histogram histogram = new Histogram(new long[]{1, 10, 100});
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(5);
+        histogram.record(100);
+        histogram.record(1000);
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertArrayEquals(new long[]{2, 1, 1, 1}, snapshot.counts);
+        assertEquals(5, snapshot.count);
+        assertEquals(1106, snapshot.sum);
+        assertEquals(1000, snapshot.max);
+        assertEquals(221.2, snapshot.mean, 1e-9);
+    }
+
+    @Test
+    public void percentiles() {
+        Histogram histogram = new Histogram(Histogram.LATENCY_BOUNDS);
+        for (int i = 0; i < 90; i++)
+            histogram.record(15);
+        for (int i = 0; i < 9; i++)
+            histogram.record(150);
+        histogram.record(120000);
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(20, snapshot.p50);
+        assertEquals(20, snapshot.p90);
+        assertEquals(200, snapshot.p99);
+        assertEquals(120000, snapshot.percentile(1.));
+    }
+
+    @Test
+    public void percentileNeverExceedsMax() {
+        Histogram histogram = new Histogram(Histogram.LATENCY_BOUNDS);
+        histogram.record(130);
+
+        assertEquals(130, histogram.snapshot().p50);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBounds() {
+        new Histogram(new long[]{10, 5});
+    }
+
+}
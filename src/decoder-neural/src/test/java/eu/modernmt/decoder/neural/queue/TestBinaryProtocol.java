@@ -0,0 +1,90 @@
+package eu.modernmt.decoder.neural.queue;
+
+import eu.modernmt.memory.ScoreEntry;
+import eu.modernmt.model.Alignment;
+import eu.modernmt.model.Sentence;
+import eu.modernmt.model.Translation;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestBinaryProtocol {
+
+    @Test
+    public void testRequest() throws Throwable {
+        BinaryProtocol.Request request = BinaryProtocol.decodeRequest(BinaryProtocol.encodeTestRequest());
+        assertTrue(request.isTest());
+    }
+
+    @Test
+    public void translateRequest() throws Throwable {
+        ScoreEntry suggestion = new ScoreEntry(1L, EN__IT, new String[]{"hello", "world"}, new String[]{"ciao", "mondo"});
+        suggestion.score = 0.75f;
+
+        Sentence[] sentences = new Sentence[]{sentence("hello world"), sentence("the test")};
+        byte[] payload = BinaryProtocol.encodeRequest(EN__IT, sentences, new ScoreEntry[]{suggestion}, null);
+
+        BinaryProtocol.Request request = BinaryProtocol.decodeRequest(payload);
+        assertFalse(request.isTest());
+        assertEquals(EN__IT, request.direction);
+        assertNull(request.forcedTranslations);
+        assertArrayEquals(new String[]{"hello", "world"}, request.sentences[0]);
+        assertArrayEquals(new String[]{"the", "test"}, request.sentences[1]);
+
+        assertEquals(1, request.suggestions.length);
+        assertEquals(EN__IT, request.suggestions[0].language);
+        assertArrayEquals(suggestion.sentenceTokens, request.suggestions[0].sentenceTokens);
+        assertArrayEquals(suggestion.translationTokens, request.suggestions[0].translationTokens);
+        assertEquals(0.75f, request.suggestions[0].score, 0.f);
+    }
+
+    @Test
+    public void alignRequest() throws Throwable {
+        Sentence[] sentences = new Sentence[]{sentence("hello world")};
+        String[][] forced = new String[][]{{"ciao", "mondo"}};
+
+        BinaryProtocol.Request request = BinaryProtocol.decodeRequest(BinaryProtocol.encodeRequest(EN__IT, sentences, null, forced));
+        assertArrayEquals(forced, request.forcedTranslations);
+        assertEquals(0, request.suggestions.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedRequest() throws Throwable {
+        byte[] payload = BinaryProtocol.encodeRequest(EN__IT, new Sentence[]{sentence("hello world")}, null, null);
+        byte[] truncated = new byte[payload.length - 3];
+        System.arraycopy(payload, 0, truncated, 0, truncated.length);
+
+        BinaryProtocol.decodeRequest(truncated);
+    }
+
+    @Test
+    public void response() throws Throwable {
+        Sentence[] sentences = new Sentence[]{sentence("hello world"), sentence("the test")};
+        String[][] tokens = new String[][]{{"ciao", "mondo"}, {"il", "test"}};
+        Alignment[] alignments = new Alignment[]{new Alignment(new int[]{0, 1}, new int[]{0, 1}), null};
+
+        Translation[] translations = BinaryProtocol.decodeResponse(BinaryProtocol.encodeResponse(tokens, alignments), sentences);
+
+        assertEquals(2, translations.length);
+        assertEquals("ciao mondo", translations[0].toString());
+        assertSame(sentences[0], translations[0].getSource());
+        assertArrayEquals(new int[]{0, 1}, translations[0].getWordAlignment().getSourceIndexes());
+        assertArrayEquals(new int[]{0, 1}, translations[0].getWordAlignment().getTargetIndexes());
+        assertEquals("il test", translations[1].toString());
+        assertNull(translations[1].getWordAlignment());
+    }
+
+    @Test
+    public void echoDecoderBinaryRoundTrip() throws Throwable {
+        Sentence sentence = sentence("hello world");
+        ScoreEntry suggestion = new ScoreEntry(1L, EN__IT, new String[]{"hello", "world"}, new String[]{"ciao", "mondo"});
+
+        assertEquals("hello world", EchoPythonDecoder.BINARY_INSTANCE.translate(EN__IT, sentence, 0).toString());
+        assertEquals("ciao mondo", EchoPythonDecoder.BINARY_INSTANCE.translate(EN__IT, sentence, new ScoreEntry[]{suggestion}, 0).toString());
+        assertEquals("il mondo", EchoPythonDecoder.BINARY_INSTANCE.align(EN__IT, sentence, new String[]{"il", "mondo"}).toString());
+    }
+
+}
@@ -0,0 +1,209 @@
+package eu.modernmt.decoder.neural.queue;
+
+import eu.modernmt.decoder.DecoderListener;
+import eu.modernmt.lang.LanguageDirection;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestDecoderQueueImpl_elastic {
+
+    private static class TDecoder extends EchoPythonDecoder {
+
+        private volatile boolean alive = true;
+
+        private TDecoder() {
+            super(false);
+        }
+
+        @Override
+        public boolean isAlive() {
+            return alive;
+        }
+
+        @Override
+        public void close() {
+            alive = false;
+        }
+
+    }
+
+    private static class TBuilder implements PythonDecoder.Builder {
+
+        private final List<TDecoder> decoders = new ArrayList<>();
+        private volatile CountDownLatch latch = null;
+
+        @Override
+        public synchronized PythonDecoder startOnCPU() {
+            try {
+                if (latch != null)
+                    latch.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+
+            TDecoder decoder = new TDecoder();
+            decoders.add(decoder);
+            return decoder;
+        }
+
+        @Override
+        public PythonDecoder startOnGPU(int gpu) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    private static class TListener implements DecoderListener {
+
+        private final List<int[]> events = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onTranslationDirectionsChanged(Set<LanguageDirection> directions) {
+        }
+
+        @Override
+        public void onDecoderAvailabilityChanged(int currentAvailability, int maxAvailability) {
+            events.add(new int[]{currentAvailability, maxAvailability});
+        }
+
+        private int[] last() {
+            return events.isEmpty() ? null : events.get(events.size() - 1);
+        }
+
+    }
+
+    private TBuilder builder;
+    private TListener listener;
+    private DecoderQueueImpl queue;
+
+    private void setup(int min, int max) throws Throwable {
+        builder = new TBuilder();
+        listener = new TListener();
+
+        Handler[] handlers = new Handler[max];
+        for (int i = 0; i < max; i++)
+            handlers[i] = new Handler(builder, Collections.emptyMap(), -1, 1);
+
+        queue = new DecoderQueueImpl(Collections.emptyMap(), handlers, 1, min);
+        queue.setListener(listener);
+    }
+
+    private void awaitAvailability(int availability) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 5000L;
+        while (queue.availability() != availability && System.currentTimeMillis() < timeout)
+            Thread.sleep(10);
+        assertEquals(availability, queue.availability());
+    }
+
+    @After
+    public void teardown() {
+        if (queue != null)
+            queue.close();
+    }
+
+    @Test
+    public void startWithMinimumSize() throws Throwable {
+        setup(1, 3);
+
+        assertEquals(1, queue.size());
+        assertEquals(3, queue.getMaxSize());
+        assertEquals(1, queue.availability());
+        assertEquals(1, builder.decoders.size());
+    }
+
+    @Test
+    public void growUpToMaximumSize() throws Throwable {
+        setup(1, 2);
+
+        assertTrue(queue.grow());
+        awaitAvailability(2);
+        assertEquals(2, queue.size());
+        assertArrayEquals(new int[]{2, 2}, listener.last());
+
+        assertFalse(queue.grow());
+        assertEquals(2, builder.decoders.size());
+    }
+
+    @Test
+    public void growOneProcessAtATime() throws Throwable {
+        setup(1, 3);
+        builder.latch = new CountDownLatch(1);
+
+        assertTrue(queue.grow());
+        assertFalse(queue.grow());
+        assertFalse(queue.shrink(0L));
+        assertEquals(1, queue.size());
+
+        builder.latch.countDown();
+        awaitAvailability(2);
+
+        assertTrue(queue.grow());
+        awaitAvailability(3);
+        assertEquals(3, queue.size());
+    }
+
+    @Test
+    public void shrinkIdleProcesses() throws Throwable {
+        setup(1, 2);
+        assertTrue(queue.grow());
+        awaitAvailability(2);
+
+        assertFalse(queue.shrink(TimeUnit.HOURS.toMillis(1)));
+        assertEquals(2, queue.size());
+
+        assertTrue(queue.shrink(0L));
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.availability());
+        assertArrayEquals(new int[]{1, 1}, listener.last());
+
+        // minimum size reached
+        assertFalse(queue.shrink(0L));
+
+        int closed = 0;
+        for (TDecoder decoder : builder.decoders)
+            closed += decoder.isAlive() ? 0 : 1;
+        assertEquals(1, closed);
+    }
+
+    @Test
+    public void neverShrinkBusyProcesses() throws Throwable {
+        setup(1, 2);
+        assertTrue(queue.grow());
+        awaitAvailability(2);
+
+        PythonDecoder d1 = queue.take(null);
+        PythonDecoder d2 = queue.take(null);
+        assertFalse(queue.shrink(0L));
+
+        queue.release(d2);
+        assertTrue(queue.shrink(0L));
+        assertFalse(d2.isAlive());
+        assertTrue(d1.isAlive());
+
+        queue.release(d1);
+        assertSame(d1, queue.take(null));
+    }
+
+    @Test
+    public void growAfterShrink() throws Throwable {
+        setup(1, 2);
+        assertTrue(queue.grow());
+        awaitAvailability(2);
+        assertTrue(queue.shrink(0L));
+
+        assertTrue(queue.grow());
+        awaitAvailability(2);
+        assertEquals(2, queue.size());
+        assertEquals(3, builder.decoders.size());
+    }
+
+}
@@ -0,0 +1,80 @@
+package eu.modernmt.decoder.neural.queue;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestHandlerBlockingQueue_depth {
+
+    private static Handler handler(int depth) {
+        return new Handler(null, Collections.emptyMap(), -1, depth);
+    }
+
+    private static HandlerBlockingQueue queue(Handler... handlers) {
+        HandlerBlockingQueue queue = new HandlerBlockingQueue(handlers.length, false);
+        for (Handler handler : handlers)
+            assertTrue(queue.offer(handler));
+        return queue;
+    }
+
+    @Test
+    public void exclusiveCheckout() throws Throwable {
+        Handler handler = handler(1);
+        HandlerBlockingQueue queue = queue(handler);
+
+        assertSame(handler, queue.take(null));
+        assertNull(queue.poll(null, 10, TimeUnit.MILLISECONDS));
+
+        assertEquals(0, handler.release());
+        assertTrue(queue.offer(handler));
+        assertSame(handler, queue.take(null));
+    }
+
+    @Test
+    public void spreadRequestsAcrossHandlers() throws Throwable {
+        Handler h1 = handler(2);
+        Handler h2 = handler(2);
+        HandlerBlockingQueue queue = queue(h1, h2);
+
+        assertSame(h1, queue.take(null));
+        assertSame(h2, queue.take(null));
+        assertSame(h1, queue.take(null));
+        assertSame(h2, queue.take(null));
+        assertNull(queue.poll(null, 10, TimeUnit.MILLISECONDS));
+
+        assertEquals(1, h2.release());
+        assertTrue(queue.offer(h2));
+        assertSame(h2, queue.take(null));
+    }
+
+    @Test
+    public void offerHandlerAlreadyInQueue() throws Throwable {
+        Handler handler = handler(2);
+        HandlerBlockingQueue queue = queue(handler);
+
+        assertSame(handler, queue.take(null));
+        assertEquals(0, handler.release());
+
+        assertFalse(queue.offer(handler));
+        assertSame(handler, queue.take(null));
+        assertSame(handler, queue.take(null));
+        assertNull(queue.poll(null, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void removeHandlerWithRequestsInFlight() throws Throwable {
+        Handler handler = handler(2);
+        HandlerBlockingQueue queue = queue(handler);
+
+        assertSame(handler, queue.take(null));
+        assertTrue(queue.remove(handler));
+        assertNull(queue.poll(null, 10, TimeUnit.MILLISECONDS));
+
+        assertEquals(0, handler.release());
+        assertEquals(-1, handler.release());
+    }
+
+}
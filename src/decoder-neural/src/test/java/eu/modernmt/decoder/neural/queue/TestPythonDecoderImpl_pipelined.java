@@ -0,0 +1,188 @@
+package eu.modernmt.decoder.neural.queue;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import eu.modernmt.decoder.DecoderException;
+import eu.modernmt.decoder.DecoderUnavailableException;
+import eu.modernmt.model.Translation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static eu.modernmt.decoder.neural.memory.TestData.EN__IT;
+import static eu.modernmt.decoder.neural.memory.TestData.sentence;
+import static org.junit.Assert.*;
+
+public class TestPythonDecoderImpl_pipelined {
+
+    /**
+     * A fake decoder process that reads a given number of requests before
+     * answering them in reverse order, echoing the source sentences.
+     * The sentence "fail" is answered with an error response.
+     */
+    private static class ReversingProcess extends Process {
+
+        private final PipedOutputStream stdin = new PipedOutputStream();
+        private final PipedInputStream stdout = new PipedInputStream();
+        private final PipedOutputStream serverOut = new PipedOutputStream(stdout);
+        private final Thread server;
+
+        ReversingProcess(int requests) throws IOException {
+            PipedInputStream serverIn = new PipedInputStream(stdin);
+
+            this.server = new Thread(() -> {
+                try {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(serverIn, StandardCharsets.UTF_8));
+                    Writer writer = new OutputStreamWriter(serverOut, StandardCharsets.UTF_8);
+                    writer.write("READY\n");
+                    writer.flush();
+
+                    List<JsonObject> received = new ArrayList<>();
+                    for (int i = 0; i < requests; i++)
+                        received.add(new JsonParser().parse(reader.readLine()).getAsJsonObject());
+
+                    for (int i = received.size() - 1; i >= 0; i--) {
+                        JsonObject request = received.get(i);
+                        String text = request.has("q") ? request.get("q").getAsString() : null;
+                        String data = text == null ? "[]" : "[{\"text\":\"" + text + "\"}]";
+                        long id = request.get("id").getAsLong();
+
+                        if ("fail".equals(text))
+                            writer.write("{\"id\":" + id + ",\"success\":false,\"type\":\"ValueError\"}\n");
+                        else
+                            writer.write("{\"id\":" + id + ",\"success\":true,\"data\":" + data + "}\n");
+                        writer.flush();
+                    }
+
+                    // keep the process alive until destroyed
+                    Thread.sleep(Long.MAX_VALUE);
+                } catch (IOException | InterruptedException e) {
+                    // process destroyed
+                }
+            });
+            this.server.start();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return stdin;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return stdout;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public int waitFor() {
+            return 0;
+        }
+
+        @Override
+        public int exitValue() {
+            return 0;
+        }
+
+        @Override
+        public void destroy() {
+            server.interrupt();
+
+            try {
+                serverOut.close();
+            } catch (IOException e) {
+                // ignore it
+            }
+        }
+
+    }
+
+    private ExecutorService executor;
+    private PythonDecoderImpl decoder;
+
+    @Before
+    public void setup() {
+        this.executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void teardown() {
+        this.executor.shutdownNow();
+        if (this.decoder != null)
+            this.decoder.close();
+    }
+
+    private PythonDecoderImpl start(int requests) throws IOException {
+        PythonDecoderImpl decoder = new PythonDecoderImpl(new ReversingProcess(requests), -1, true);
+        decoder.connect();
+        decoder.init(decoder.recv());
+        return decoder;
+    }
+
+    @Test
+    public void outOfOrderResponses() throws Throwable {
+        decoder = start(2);
+
+        Future<Translation> first = executor.submit(() -> decoder.translate(EN__IT, sentence("hello world"), 0));
+        Future<Translation> second = executor.submit(() -> decoder.translate(EN__IT, sentence("the test"), 0));
+
+        assertEquals("hello world", first.get(5, TimeUnit.SECONDS).toString());
+        assertEquals("the test", second.get(5, TimeUnit.SECONDS).toString());
+        assertTrue(decoder.isAlive());
+    }
+
+    @Test
+    public void errorResponseFailsOnlyItsRequest() throws Throwable {
+        decoder = start(2);
+
+        Future<Translation> failing = executor.submit(() -> decoder.translate(EN__IT, sentence("fail"), 0));
+        Future<Translation> other = executor.submit(() -> decoder.translate(EN__IT, sentence("hello world"), 0));
+
+        try {
+            failing.get(5, TimeUnit.SECONDS);
+            fail("Expected DecoderException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DecoderException);
+            assertFalse(e.getCause() instanceof DecoderUnavailableException);
+        }
+
+        assertEquals("hello world", other.get(5, TimeUnit.SECONDS).toString());
+        assertTrue(decoder.isAlive());
+    }
+
+    @Test
+    public void pipelinedTestRequest() throws Throwable {
+        decoder = start(1);
+        decoder.test();
+        assertTrue(decoder.isAlive());
+    }
+
+    @Test
+    public void abortPendingRequestsOnClose() throws Throwable {
+        decoder = start(2);
+
+        Future<Translation> pending = executor.submit(() -> decoder.translate(EN__IT, sentence("hello world"), 0));
+        Thread.sleep(100L);
+        decoder.close();
+
+        try {
+            pending.get(5, TimeUnit.SECONDS);
+            fail("Expected DecoderUnavailableException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DecoderUnavailableException);
+        }
+
+        assertFalse(decoder.isAlive());
+    }
+
+}
@@ -0,0 +1,139 @@
+package eu.modernmt.decoder.neural.queue;
+
+import eu.modernmt.decoder.DecoderException;
+import eu.modernmt.decoder.DecoderUnavailableException;
+import eu.modernmt.model.Translation;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static eu.modernmt.decoder.neural.memory.TestData.EN__IT;
+import static eu.modernmt.decoder.neural.memory.TestData.sentence;
+import static org.junit.Assert.*;
+
+/**
+ * Runs the pipelined server loop of mmt/utils.py with a stub decoder in place of the neural model,
+ * that echoes the source sentences and fails on the sentence "fail".
+ */
+public class TestPythonDecoderImpl_server {
+
+    private static final String SERVER = String.join("\n",
+            "import sys, time, types",
+            "",
+            "# the decoder module requires the neural model dependencies: it is replaced by a stub",
+            "mmt = types.ModuleType('mmt')",
+            "mmt.__path__ = [sys.argv[1]]",
+            "sys.modules['mmt'] = mmt",
+            "",
+            "decoder = types.ModuleType('mmt.decoder')",
+            "",
+            "class Translation(object):",
+            "    def __init__(self, text, alignment=None, score=None):",
+            "        self.text = text",
+            "        self.alignment = alignment",
+            "        self.score = score",
+            "",
+            "class Suggestion(object):",
+            "    def __init__(self, source_lang, target_lang, segment, translation, score):",
+            "        pass",
+            "",
+            "decoder.Translation = Translation",
+            "decoder.Suggestion = Suggestion",
+            "sys.modules['mmt.decoder'] = decoder",
+            "",
+            "from mmt import utils",
+            "",
+            "class EchoDecoder(object):",
+            "    def test(self):",
+            "        pass",
+            "",
+            "    def translate(self, source_lang, target_lang, batch, suggestions=None, forced_translation=None):",
+            "        time.sleep(0.05)",
+            "        if batch == ['fail']:",
+            "            raise ValueError('failing request')",
+            "        return [Translation(line) for line in batch]",
+            "",
+            "utils.serve_forever(sys.stdin, sys.stdout, EchoDecoder(), protocol='json', pipeline=True)",
+            "");
+
+    private File script;
+    private ExecutorService executor;
+    private PythonDecoderImpl decoder;
+
+    @Before
+    public void setup() throws IOException {
+        URL utils = getClass().getClassLoader().getResource("mmt/utils.py");
+        Assume.assumeTrue(utils != null && "file".equals(utils.getProtocol()));
+
+        this.script = File.createTempFile("TestPythonDecoderImpl_server", ".py");
+        FileUtils.writeStringToFile(script, SERVER, StandardCharsets.UTF_8);
+
+        Process process;
+        try {
+            process = new ProcessBuilder("python3", script.getAbsolutePath(),
+                    new File(utils.getPath()).getParentFile().getAbsolutePath()).start();
+        } catch (IOException e) {
+            Assume.assumeNoException("Python 3 is not available", e);
+            return;
+        }
+
+        this.executor = Executors.newCachedThreadPool();
+        this.decoder = new PythonDecoderImpl(process, -1, true);
+        this.decoder.connect();
+        this.decoder.init(this.decoder.recv());
+    }
+
+    @After
+    public void teardown() {
+        if (this.executor != null)
+            this.executor.shutdownNow();
+        if (this.decoder != null)
+            this.decoder.close();
+        if (this.script != null)
+            FileUtils.deleteQuietly(this.script);
+    }
+
+    private Future<Translation> translate(String text) {
+        return executor.submit(() -> decoder.translate(EN__IT, sentence(text), 0));
+    }
+
+    @Test
+    public void failingRequestDoesNotAbortRequestsInFlight() throws Throwable {
+        List<Future<Translation>> before = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            before.add(translate("hello world " + i));
+
+        Future<Translation> failing = translate("fail");
+
+        List<Future<Translation>> after = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            after.add(translate("the test " + i));
+
+        try {
+            failing.get(10, TimeUnit.SECONDS);
+            fail("Expected DecoderException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DecoderException);
+            assertFalse(e.getCause() instanceof DecoderUnavailableException);
+        }
+
+        for (int i = 0; i < before.size(); i++)
+            assertEquals("hello world " + i, before.get(i).get(10, TimeUnit.SECONDS).toString());
+        for (int i = 0; i < after.size(); i++)
+            assertEquals("the test " + i, after.get(i).get(10, TimeUnit.SECONDS).toString());
+
+        assertTrue(decoder.isAlive());
+        assertEquals("hello world", translate("hello world").get(10, TimeUnit.SECONDS).toString());
+    }
+
+}
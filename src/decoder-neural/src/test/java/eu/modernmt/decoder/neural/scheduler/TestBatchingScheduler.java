@@ -0,0 +1,151 @@
+package eu.modernmt.decoder.neural.scheduler;
+
+import eu.modernmt.lang.LanguageDirection;
+import eu.modernmt.memory.ScoreEntry;
+import eu.modernmt.model.Priority;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestBatchingScheduler {
+
+    private BatchingScheduler scheduler;
+
+    @Before
+    public void setup() {
+        this.scheduler = new BatchingScheduler(100, 10, 0L);
+    }
+
+    @After
+    public void teardown() {
+        this.scheduler.close();
+        this.scheduler = null;
+    }
+
+    private static TranslationSplit split(Priority priority, String text) {
+        return new TranslationSplit(priority, sentence(text), 0L);
+    }
+
+    private Scheduler.TranslationLock schedule(LanguageDirection direction, TranslationSplit... splits) throws Throwable {
+        return scheduler.schedule(direction, splits, null);
+    }
+
+    @Test
+    public void mergeJobsWithSameDirection() throws Throwable {
+        TranslationSplit s1 = split(Priority.NORMAL, "hello world");
+        TranslationSplit s2 = split(Priority.NORMAL, "the test");
+        TranslationSplit s3 = split(Priority.NORMAL, "bonjour monde");
+
+        schedule(EN__IT, s1);
+        schedule(EN__FR, s3);
+        schedule(EN__IT, s2);
+
+        Scheduler.Job first = scheduler.take();
+        assertEquals(EN__IT, first.getLanguageDirection());
+        List<TranslationSplit> splits = first.getTranslationSplits();
+        assertEquals(2, splits.size());
+        assertSame(s1, splits.get(0));
+        assertSame(s2, splits.get(1));
+
+        Scheduler.Job second = scheduler.take();
+        assertEquals(EN__FR, second.getLanguageDirection());
+        assertEquals(1, second.getTranslationSplits().size());
+    }
+
+    @Test
+    public void respectTokenBudget() throws Throwable {
+        schedule(EN__IT, split(Priority.NORMAL, "one two three four five six"));
+        schedule(EN__IT, split(Priority.NORMAL, "one two three four five six"));
+
+        assertEquals(1, scheduler.take().getTranslationSplits().size());
+        assertEquals(1, scheduler.take().getTranslationSplits().size());
+    }
+
+    @Test
+    public void mergeInPriorityOrder() throws Throwable {
+        TranslationSplit background = split(Priority.BACKGROUND, "one two three four");
+        TranslationSplit normal = split(Priority.NORMAL, "one two three four");
+        TranslationSplit high = split(Priority.HIGH, "one two three four");
+
+        schedule(EN__IT, background);
+        schedule(EN__IT, normal);
+        schedule(EN__IT, high);
+
+        List<TranslationSplit> first = scheduler.take().getTranslationSplits();
+        assertEquals(2, first.size());
+        assertSame(high, first.get(0));
+        assertSame(normal, first.get(1));
+
+        List<TranslationSplit> second = scheduler.take().getTranslationSplits();
+        assertEquals(1, second.size());
+        assertSame(background, second.get(0));
+    }
+
+    @Test
+    public void neverMergeJobsWithSuggestions() throws Throwable {
+        ScoreEntry suggestion = new ScoreEntry(1L, EN__IT, new String[]{"hello"}, new String[]{"ciao"});
+
+        scheduler.schedule(EN__IT, new TranslationSplit[]{split(Priority.NORMAL, "hello world")}, new ScoreEntry[]{suggestion});
+        schedule(EN__IT, split(Priority.NORMAL, "hello world"));
+
+        Scheduler.Job first = scheduler.take();
+        assertNotNull(first.getSuggestions());
+        assertEquals(1, first.getTranslationSplits().size());
+        assertEquals(1, scheduler.take().getTranslationSplits().size());
+    }
+
+    @Test
+    public void dispatchLoneJobWithoutWaiting() throws Throwable {
+        scheduler.close();
+        scheduler = new BatchingScheduler(100, 10, 10000L);
+
+        schedule(EN__IT, split(Priority.NORMAL, "hello world"));
+        schedule(EN__FR, split(Priority.NORMAL, "bonjour monde"));
+
+        long begin = System.currentTimeMillis();
+        assertEquals(EN__IT, scheduler.take().getLanguageDirection());
+        assertEquals(EN__FR, scheduler.take().getLanguageDirection());
+        assertTrue(System.currentTimeMillis() - begin < 5000L);
+    }
+
+    @Test
+    public void maxQueueWaitingTime() throws Throwable {
+        assertEquals(0L, scheduler.getMaxQueueWaitingTime());
+
+        schedule(EN__IT, split(Priority.NORMAL, "hello world"));
+        Thread.sleep(50L);
+        schedule(EN__FR, split(Priority.HIGH, "bonjour monde"));
+
+        assertTrue(scheduler.getMaxQueueWaitingTime() >= 50L);
+
+        scheduler.take();
+        scheduler.take();
+        assertEquals(0L, scheduler.getMaxQueueWaitingTime());
+    }
+
+    @Test
+    public void scatterResultsToOwnLocks() throws Throwable {
+        TranslationSplit s1 = split(Priority.NORMAL, "hello world");
+        TranslationSplit s2 = split(Priority.NORMAL, "the test");
+
+        Scheduler.TranslationLock l1 = schedule(EN__IT, s1);
+        Scheduler.TranslationLock l2 = schedule(EN__IT, s2);
+
+        Scheduler.Job job = scheduler.take();
+        assertEquals(2, job.getTranslationSplits().size());
+
+        s2.setTranslation(null);
+        assertFalse(l1.await(0, TimeUnit.MILLISECONDS));
+        assertTrue(l2.await(0, TimeUnit.MILLISECONDS));
+
+        s1.setTranslation(null);
+        assertTrue(l1.await(0, TimeUnit.MILLISECONDS));
+    }
+
+}
@@ -0,0 +1,154 @@
+package eu.modernmt.decoder.neural.scheduler;
+
+import eu.modernmt.decoder.DecoderUnavailableException;
+import eu.modernmt.model.Priority;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestFairScheduler {
+
+    private static final UUID BATCH = new UUID(0L, 1L);
+    private static final UUID ALICE = new UUID(0L, 2L);
+    private static final UUID BOB = new UUID(0L, 3L);
+
+    private FairScheduler scheduler;
+
+    @After
+    public void teardown() {
+        this.scheduler.close();
+        this.scheduler = null;
+    }
+
+    private void schedule(Priority priority, UUID user, String text) throws Throwable {
+        TranslationSplit split = new TranslationSplit(priority, user, sentence(text), 0L);
+        scheduler.schedule(EN__IT, new TranslationSplit[]{split}, null);
+    }
+
+    private List<UUID> takeAll() throws Throwable {
+        ArrayList<UUID> users = new ArrayList<>();
+        while (!scheduler.getQueueDepths().isEmpty())
+            users.add(((SentenceBatchScheduler.JobImpl) scheduler.take()).getUser());
+        return users;
+    }
+
+    @Test
+    public void interactiveUserNotStuckBehindBatchUser() throws Throwable {
+        scheduler = new FairScheduler(100, 0);
+
+        for (int i = 0; i < 10; i++)
+            schedule(Priority.NORMAL, BATCH, "hello world");
+        schedule(Priority.NORMAL, ALICE, "hello world");
+
+        assertEquals(BATCH, ((SentenceBatchScheduler.JobImpl) scheduler.take()).getUser());
+        assertEquals(ALICE, ((SentenceBatchScheduler.JobImpl) scheduler.take()).getUser());
+        assertEquals(9, scheduler.getQueueDepth(BATCH));
+    }
+
+    @Test
+    public void usersAreInterleaved() throws Throwable {
+        scheduler = new FairScheduler(100, 0);
+
+        for (int i = 0; i < 3; i++)
+            schedule(Priority.NORMAL, ALICE, "hello world");
+        for (int i = 0; i < 3; i++)
+            schedule(Priority.NORMAL, BOB, "hello world");
+
+        List<UUID> users = takeAll();
+        for (int i = 0; i < users.size(); i += 2)
+            assertNotEquals(users.get(i), users.get(i + 1));
+    }
+
+    @Test
+    public void shareIsProportionalToWords() throws Throwable {
+        scheduler = new FairScheduler(100, 0);
+
+        for (int i = 0; i < 2; i++)
+            schedule(Priority.NORMAL, ALICE, "one two three four five six");
+        for (int i = 0; i < 6; i++)
+            schedule(Priority.NORMAL, BOB, "hello world");
+
+        List<UUID> users = takeAll();
+        assertEquals(ALICE, users.get(0));
+        assertEquals(BOB, users.get(1));
+        assertEquals(BOB, users.get(2));
+        assertEquals(BOB, users.get(3));
+        assertEquals(ALICE, users.get(4));
+    }
+
+    @Test
+    public void weightedShare() throws Throwable {
+        scheduler = new FairScheduler(100, 0);
+        scheduler.setUserWeight(BOB, 2.);
+
+        for (int i = 0; i < 3; i++)
+            schedule(Priority.NORMAL, ALICE, "hello world");
+        for (int i = 0; i < 6; i++)
+            schedule(Priority.NORMAL, BOB, "hello world");
+
+        List<UUID> users = takeAll();
+        assertEquals(ALICE, users.get(0));
+        assertEquals(BOB, users.get(1));
+        assertEquals(BOB, users.get(2));
+        assertEquals(ALICE, users.get(3));
+    }
+
+    @Test
+    public void priorityBeforeFairness() throws Throwable {
+        scheduler = new FairScheduler(100, 0);
+
+        schedule(Priority.NORMAL, ALICE, "hello world");
+        for (int i = 0; i < 3; i++)
+            schedule(Priority.HIGH, BATCH, "hello world");
+
+        List<UUID> users = takeAll();
+        assertEquals(BATCH, users.get(0));
+        assertEquals(BATCH, users.get(1));
+        assertEquals(BATCH, users.get(2));
+        assertEquals(ALICE, users.get(3));
+    }
+
+    @Test
+    public void userQuota() throws Throwable {
+        scheduler = new FairScheduler(100, 2);
+
+        schedule(Priority.NORMAL, BATCH, "hello world");
+        schedule(Priority.NORMAL, BATCH, "hello world");
+
+        try {
+            schedule(Priority.NORMAL, BATCH, "hello world");
+            fail("Quota not enforced");
+        } catch (DecoderUnavailableException e) {
+            // expected
+        }
+
+        schedule(Priority.NORMAL, ALICE, "hello world");
+
+        scheduler.take();
+        schedule(Priority.NORMAL, BATCH, "hello world");
+    }
+
+    @Test
+    public void queueDepths() throws Throwable {
+        scheduler = new FairScheduler(100, 0);
+
+        schedule(Priority.NORMAL, ALICE, "hello world");
+        schedule(Priority.BACKGROUND, ALICE, "hello world");
+        schedule(Priority.NORMAL, null, "hello world");
+
+        assertEquals(2, scheduler.getQueueDepth(ALICE));
+        assertEquals(1, scheduler.getQueueDepth(null));
+        assertEquals(0, scheduler.getQueueDepth(BOB));
+
+        takeAll();
+        assertEquals(0, scheduler.getQueueDepth(ALICE));
+        assertTrue(scheduler.getQueueDepths().isEmpty());
+    }
+
+}
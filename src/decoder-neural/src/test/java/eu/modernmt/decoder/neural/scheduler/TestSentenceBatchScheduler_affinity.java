@@ -0,0 +1,80 @@
+package eu.modernmt.decoder.neural.scheduler;
+
+import eu.modernmt.lang.LanguageDirection;
+import eu.modernmt.model.Priority;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.assertEquals;
+
+public class TestSentenceBatchScheduler_affinity {
+
+    private SentenceBatchScheduler scheduler;
+    private final Set<LanguageDirection> warm = Collections.synchronizedSet(new HashSet<>());
+
+    @After
+    public void teardown() {
+        this.scheduler.close();
+        this.scheduler = null;
+    }
+
+    private void schedule(Priority priority, LanguageDirection direction) throws Throwable {
+        TranslationSplit split = new TranslationSplit(priority, sentence("hello world"), 0L);
+        scheduler.schedule(direction, new TranslationSplit[]{split}, null);
+    }
+
+    @Test
+    public void preferWarmDirection() throws Throwable {
+        scheduler = new SentenceBatchScheduler(100, warm::contains, 60000L);
+        warm.add(EN__FR);
+
+        schedule(Priority.NORMAL, EN__IT);
+        schedule(Priority.NORMAL, EN__FR);
+
+        assertEquals(EN__FR, scheduler.take().getLanguageDirection());
+        assertEquals(EN__IT, scheduler.take().getLanguageDirection());
+    }
+
+    @Test
+    public void neverOvertakeHigherPriority() throws Throwable {
+        scheduler = new SentenceBatchScheduler(100, warm::contains, 60000L);
+        warm.add(EN__FR);
+
+        schedule(Priority.NORMAL, EN__FR);
+        schedule(Priority.HIGH, EN__IT);
+
+        assertEquals(EN__IT, scheduler.take().getLanguageDirection());
+        assertEquals(EN__FR, scheduler.take().getLanguageDirection());
+    }
+
+    @Test
+    public void noStarvationPastMaxDelay() throws Throwable {
+        scheduler = new SentenceBatchScheduler(100, warm::contains, 1L);
+        warm.add(EN__FR);
+
+        schedule(Priority.NORMAL, EN__IT);
+        Thread.sleep(10L);
+        schedule(Priority.NORMAL, EN__FR);
+
+        assertEquals(EN__IT, scheduler.take().getLanguageDirection());
+        assertEquals(EN__FR, scheduler.take().getLanguageDirection());
+    }
+
+    @Test
+    public void disabledAffinity() throws Throwable {
+        scheduler = new SentenceBatchScheduler(100, warm::contains, 0L);
+        warm.add(EN__FR);
+
+        schedule(Priority.NORMAL, EN__IT);
+        schedule(Priority.NORMAL, EN__FR);
+
+        assertEquals(EN__IT, scheduler.take().getLanguageDirection());
+        assertEquals(EN__FR, scheduler.take().getLanguageDirection());
+    }
+
+}
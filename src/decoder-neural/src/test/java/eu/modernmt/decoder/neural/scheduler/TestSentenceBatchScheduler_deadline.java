@@ -0,0 +1,151 @@
+package eu.modernmt.decoder.neural.scheduler;
+
+import eu.modernmt.decoder.DecoderUnavailableException;
+import eu.modernmt.decoder.TranslationTimeoutException;
+import eu.modernmt.lang.LanguageDirection;
+import eu.modernmt.model.Priority;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static eu.modernmt.decoder.neural.memory.TestData.*;
+import static org.junit.Assert.*;
+
+public class TestSentenceBatchScheduler_deadline {
+
+    private SentenceBatchScheduler scheduler;
+    private DeadlinePolicy policy;
+
+    @After
+    public void teardown() {
+        this.scheduler.close();
+        this.scheduler = null;
+    }
+
+    private void setup(int parallelism) {
+        this.policy = new DeadlinePolicy(parallelism);
+        this.scheduler = new SentenceBatchScheduler(100, null, 0L, policy);
+    }
+
+    private static long in(long millis) {
+        return System.currentTimeMillis() + millis;
+    }
+
+    private TranslationSplit schedule(Priority priority, LanguageDirection direction, String text, long expiration) throws Throwable {
+        TranslationSplit split = new TranslationSplit(priority, sentence(text), expiration);
+        scheduler.schedule(direction, new TranslationSplit[]{split}, null);
+        return split;
+    }
+
+    private void observe(LanguageDirection direction, String text, long time) {
+        TranslationSplit split = new TranslationSplit(Priority.NORMAL, sentence(text), 0L);
+        scheduler.onTranslationCompleted(direction, Collections.singletonList(split), time);
+    }
+
+    @Test
+    public void earliestDeadlineFirst() throws Throwable {
+        setup(1);
+
+        TranslationSplit none = schedule(Priority.NORMAL, EN__IT, "no deadline", 0L);
+        TranslationSplit late = schedule(Priority.NORMAL, EN__IT, "late deadline", in(60000L));
+        TranslationSplit early = schedule(Priority.NORMAL, EN__IT, "early deadline", in(30000L));
+
+        assertSame(early, scheduler.take().getTranslationSplits().get(0));
+        assertSame(late, scheduler.take().getTranslationSplits().get(0));
+        assertSame(none, scheduler.take().getTranslationSplits().get(0));
+    }
+
+    @Test
+    public void priorityBeforeDeadline() throws Throwable {
+        setup(1);
+
+        TranslationSplit normal = schedule(Priority.NORMAL, EN__IT, "normal", in(1000L));
+        TranslationSplit high = schedule(Priority.HIGH, EN__IT, "high", in(60000L));
+
+        assertSame(high, scheduler.take().getTranslationSplits().get(0));
+        assertSame(normal, scheduler.take().getTranslationSplits().get(0));
+    }
+
+    @Test
+    public void evictExpiredJobs() throws Throwable {
+        setup(1);
+
+        TranslationSplit expiring = schedule(Priority.HIGH, EN__IT, "expiring", in(20L));
+        TranslationSplit valid = schedule(Priority.NORMAL, EN__IT, "valid", 0L);
+
+        Thread.sleep(50L);
+
+        assertSame(valid, scheduler.take().getTranslationSplits().get(0));
+
+        try {
+            expiring.getTranslation();
+            fail("Expired split has not been evicted");
+        } catch (TranslationTimeoutException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void evictionUnlocksWaitingThread() throws Throwable {
+        setup(1);
+
+        TranslationSplit split = new TranslationSplit(Priority.NORMAL, sentence("hello world"), in(20L));
+        Scheduler.TranslationLock lock = scheduler.schedule(EN__IT, new TranslationSplit[]{split}, null);
+
+        Thread.sleep(50L);
+        schedule(Priority.NORMAL, EN__IT, "other", 0L);
+
+        assertTrue(lock.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void noRejectionWithoutObservedRate() throws Throwable {
+        setup(1);
+
+        for (int i = 0; i < 10; i++)
+            schedule(Priority.NORMAL, EN__IT, "hello world", in(1L + i));
+    }
+
+    @Test(expected = DecoderUnavailableException.class)
+    public void rejectHopelessJob() throws Throwable {
+        setup(1);
+        observe(EN__IT, "hello world", 2000L);  // 1s per word
+
+        schedule(Priority.NORMAL, EN__IT, "hello world", in(500L));
+    }
+
+    @Test
+    public void rejectBehindQueuedWork() throws Throwable {
+        setup(2);
+        observe(EN__IT, "hello world", 200L);  // 100ms per word
+
+        // 2 x 5 words ahead over 2 executors => 500ms + 200ms for the job itself
+        schedule(Priority.HIGH, EN__IT, "one two three four five", 0L);
+        schedule(Priority.HIGH, EN__IT, "one two three four five", 0L);
+
+        try {
+            schedule(Priority.NORMAL, EN__IT, "hello world", in(400L));
+            fail("Job expected to be rejected");
+        } catch (DecoderUnavailableException e) {
+            // expected
+        }
+
+        // the same job is accepted with high priority, it is dispatched first
+        schedule(Priority.HIGH, EN__IT, "hello world", in(400L));
+    }
+
+    @Test
+    public void ratesArePerDirection() throws Throwable {
+        setup(1);
+        observe(EN__IT, "hello world", 2000L);
+        observe(EN__FR, "hello world", 2L);
+
+        assertEquals(1000., policy.getMillisPerToken(EN__IT), 0.);
+        assertEquals(1., policy.getMillisPerToken(EN__FR), 0.);
+
+        schedule(Priority.NORMAL, EN__FR, "hello world", in(500L));
+    }
+
+}